@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.spim.segmentation;
+
+import mpicbg.imglib.algorithm.math.ImageCalculatorInPlace;
+import mpicbg.imglib.algorithm.scalespace.DifferenceOfGaussianReal1;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+/**
+ * A {@link DifferenceOfGaussianReal1} that takes both gaussian convolutions from a
+ * {@link GaussianLevelCache} instead of computing them every time.
+ */
+public class CachedDifferenceOfGaussian extends DifferenceOfGaussianReal1< FloatType >
+{
+	final GaussianLevelCache cache;
+	final double s1, s2;
+
+	public CachedDifferenceOfGaussian(
+			final GaussianLevelCache cache,
+			final double sigma1, final double sigma2, final double minPeakValue, final double normalizationFactor )
+	{
+		super( cache.getImage(), cache.getOutOfBoundsFactory(), sigma1, sigma2, minPeakValue, normalizationFactor );
+
+		this.cache = cache;
+		this.s1 = sigma1;
+		this.s2 = sigma2;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final Image< FloatType > gauss1 = cache.getLevel( s1 );
+		final Image< FloatType > gauss2 = cache.getLevel( s2 );
+
+		if ( gauss1 == null || gauss2 == null )
+			return false;
+
+		// the cached levels must stay untouched, so we subtract into a copy
+		final Image< FloatType > laPlace = gauss2.clone();
+
+		final ImageCalculatorInPlace< FloatType, FloatType > imageCalc = new ImageCalculatorInPlace< FloatType, FloatType >( laPlace, gauss1, getNormalizedSubtraction() );
+		imageCalc.setNumThreads( getNumThreads() );
+
+		if ( !imageCalc.checkInput() || !imageCalc.process() )
+		{
+			laPlace.close();
+			return false;
+		}
+
+		peaks.clear();
+		peaks.addAll( findPeaks( laPlace ) );
+
+		if ( getKeepDoGImage() )
+			dogImage = laPlace;
+		else
+			laPlace.close();
+
+		return true;
+	}
+}
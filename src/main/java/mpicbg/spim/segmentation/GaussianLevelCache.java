@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.spim.segmentation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import mpicbg.imglib.algorithm.gauss.GaussianConvolutionReal;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import mpicbg.spim.io.IOFunctions;
+
+/**
+ * Caches the Gaussian scale-space levels of one (small) image, so that a change of only
+ * one of the two sigmas of a Difference-of-Gaussian only requires one new convolution, and
+ * returning to a previous sigma requires none. The least recently used levels are dropped.
+ */
+public class GaussianLevelCache
+{
+	public static int defaultMaxLevels = 6;
+
+	final Image< FloatType > image;
+	final OutOfBoundsStrategyFactory< FloatType > outOfBoundsFactory;
+	final LinkedHashMap< Double, Image< FloatType > > levels;
+
+	public GaussianLevelCache( final Image< FloatType > image, final OutOfBoundsStrategyFactory< FloatType > outOfBoundsFactory, final int maxLevels )
+	{
+		this.image = image;
+		this.outOfBoundsFactory = outOfBoundsFactory;
+
+		// we need at least the two levels of one DoG at the same time
+		final int max = Math.max( 2, maxLevels );
+
+		this.levels = new LinkedHashMap< Double, Image< FloatType > >( 16, 0.75f, true )
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< Double, Image< FloatType > > eldest )
+			{
+				return size() > max;
+			}
+		};
+	}
+
+	public GaussianLevelCache( final Image< FloatType > image, final OutOfBoundsStrategyFactory< FloatType > outOfBoundsFactory )
+	{
+		this( image, outOfBoundsFactory, defaultMaxLevels );
+	}
+
+	public Image< FloatType > getImage() { return image; }
+	public OutOfBoundsStrategyFactory< FloatType > getOutOfBoundsFactory() { return outOfBoundsFactory; }
+
+	/**
+	 * @param sigma - the sigma of the gaussian convolution (relative to the image)
+	 * @return the convolved image, must not be modified, or null if it could not be computed
+	 */
+	public synchronized Image< FloatType > getLevel( final double sigma )
+	{
+		Image< FloatType > level = levels.get( sigma );
+
+		if ( level == null )
+		{
+			final GaussianConvolutionReal< FloatType > gauss = new GaussianConvolutionReal< FloatType >( image, outOfBoundsFactory, sigma );
+
+			if ( !gauss.checkInput() || !gauss.process() )
+			{
+				IOFunctions.println( "Cannot compute gaussian convolution: " + gauss.getErrorMessage() );
+				return null;
+			}
+
+			level = gauss.getResult();
+			levels.put( sigma, level );
+		}
+
+		return level;
+	}
+
+	public synchronized boolean contains( final double sigma ) { return levels.containsKey( sigma ); }
+	public synchronized void clear() { levels.clear(); }
+}
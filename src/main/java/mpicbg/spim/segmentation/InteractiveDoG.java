@@ -73,7 +73,6 @@ import mpicbg.imglib.cursor.LocalizableCursor;
 import mpicbg.imglib.image.Image;
 import mpicbg.imglib.image.ImageFactory;
 import mpicbg.imglib.image.display.imagej.ImageJFunctions;
-import mpicbg.imglib.multithreading.SimpleMultiThreading;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategyMirrorFactory;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategyValueFactory;
 import mpicbg.imglib.type.numeric.real.FloatType;
@@ -125,11 +124,16 @@ public class InteractiveDoG implements PlugIn
 	Image<FloatType> img;
 	FloatImagePlus< net.imglib2.type.numeric.real.FloatType > source;
 	ArrayList<DifferenceOfGaussianPeak<FloatType>> peaks;
+
+	// the state of the preview, only accessed by the thread of the preview engine
+	final PreviewEngine previewEngine = new PreviewEngine( "InteractiveDoG preview" );
+	GaussianLevelCache scaleSpace;
+	float[] peakSigmaDiff;
+	int currentSlice = -1;
 	
 	Color originalColor = new Color( 0.8f, 0.8f, 0.8f );
 	Color inactiveColor = new Color( 0.95f, 0.95f, 0.95f );
 	public Rectangle standardRectangle;
-	boolean isComputing = false;
 	boolean isStarted = false;
 	boolean enableSigma2 = false;
 	boolean sigma2IsAdjustable = true;
@@ -228,12 +232,25 @@ public class InteractiveDoG implements PlugIn
 	}
 	
 	/**
-	 * Updates the Preview with the current parameters (sigma, threshold, roi, slicenumber)
+	 * Requests an update of the preview with the current parameters (sigma, threshold, roi, slicenumber),
+	 * it is computed in the background and supersedes all earlier requests
 	 * 
 	 * @param change - what did change
 	 */
 	protected void updatePreview( final ValueChange change )
-	{		
+	{
+		previewEngine.request( generation -> computePreview( change, generation ) );
+	}
+
+	/**
+	 * Computes the preview with the current parameters (sigma, threshold, roi, slicenumber) on the
+	 * region of interest, only the gaussian levels that are not cached yet are convolved
+	 * 
+	 * @param change - what did change
+	 * @param generation - the generation of this request, if it becomes stale we stop
+	 */
+	protected void computePreview( final ValueChange change, final long generation )
+	{
 		// check if Roi changed
 		boolean roiChanged = false;
 		Roi roi = imp.getRoi();
@@ -246,74 +263,76 @@ public class InteractiveDoG implements PlugIn
 		}
 			
 		final Rectangle rect = roi.getBounds();
-				
-		if ( roiChanged || img == null || change == ValueChange.SLICE || 
+		final int slice = ( imp.getCurrentSlice() - 1 ) / imp.getNChannels();
+
+		if ( roiChanged || img == null || slice != currentSlice ||
 			 rect.getMinX() != rectangle.getMinX() || rect.getMaxX() != rectangle.getMaxX() ||
 			 rect.getMinY() != rectangle.getMinY() || rect.getMaxY() != rectangle.getMaxY() )
 		{
 			rectangle = rect;
+			currentSlice = slice;
 			img = extractImage( source, rectangle, extraSize );
+			scaleSpace = new GaussianLevelCache( img, new OutOfBoundsStrategyValueFactory<FloatType>() );
+			peaks = null;
 			roiChanged = true;
 		}
-		
-		// if we got some mouse click but the ROI did not change we can return
-		if ( !roiChanged && change == ValueChange.ROI )
+
+		//
+		// Compute the Sigmas for the gaussian folding
+		//
+		final float k, K_MIN1_INV;
+		final float[] sigma, sigmaDiff;
+
+		if ( enableSigma2 )
 		{
-			isComputing = false;
-			return;
+			sigma = new float[ 2 ];
+			sigma[ 0 ] = this.sigma;
+			sigma[ 1 ] = this.sigma2;
+			k = sigma[ 1 ] / sigma[ 0 ];
+			K_MIN1_INV = DetectionSegmentation.computeKWeight( k );
+			sigmaDiff = DetectionSegmentation.computeSigmaDiff( sigma, imageSigma );
 		}
-		
-		// compute the Difference Of Gaussian if necessary
-		if ( peaks == null || roiChanged || change == ValueChange.SIGMA || change == ValueChange.SLICE || change == ValueChange.ALL )
+		else
 		{
-	        //
-	        // Compute the Sigmas for the gaussian folding
-	        //
-			
-			final float k, K_MIN1_INV;
-			final float[] sigma, sigmaDiff;
-			
-			if ( enableSigma2 )
-			{				
-				sigma = new float[ 2 ];
-				sigma[ 0 ] = this.sigma;
-				sigma[ 1 ] = this.sigma2;
-				k = sigma[ 1 ] / sigma[ 0 ];
-				K_MIN1_INV = DetectionSegmentation.computeKWeight( k );
-				sigmaDiff = DetectionSegmentation.computeSigmaDiff( sigma, imageSigma );
-			}
-			else
-			{
-		        k = (float)DetectionSegmentation.computeK( sensitivity );
-		        K_MIN1_INV = DetectionSegmentation.computeKWeight( k );
-		        sigma = DetectionSegmentation.computeSigma( k, this.sigma );
-		        sigmaDiff = DetectionSegmentation.computeSigmaDiff( sigma, imageSigma );
-			}
-			
-	        // the upper boundary
-	        this.sigma2 = sigma[ 1 ];
-	        
-			final DifferenceOfGaussianReal1<FloatType> dog = new DifferenceOfGaussianReal1<FloatType>( img, new OutOfBoundsStrategyValueFactory<FloatType>(), sigmaDiff[ 0 ], sigmaDiff[ 1 ], thresholdMin/4, K_MIN1_INV );
+			k = (float)DetectionSegmentation.computeK( sensitivity );
+			K_MIN1_INV = DetectionSegmentation.computeKWeight( k );
+			sigma = DetectionSegmentation.computeSigma( k, this.sigma );
+			sigmaDiff = DetectionSegmentation.computeSigmaDiff( sigma, imageSigma );
+		}
+
+		final boolean sigmaChanged = peaks == null || sigmaDiff[ 0 ] != peakSigmaDiff[ 0 ] || sigmaDiff[ 1 ] != peakSigmaDiff[ 1 ];
+
+		// if we got some mouse click but neither the ROI nor the sigmas changed we can return
+		if ( !roiChanged && !sigmaChanged && change == ValueChange.ROI )
+			return;
+
+		// compute the Difference Of Gaussian if necessary, the gaussian levels come from the cache
+		if ( sigmaChanged )
+		{
+			// the upper boundary
+			this.sigma2 = sigma[ 1 ];
+
+			final CachedDifferenceOfGaussian dog = new CachedDifferenceOfGaussian( scaleSpace, sigmaDiff[ 0 ], sigmaDiff[ 1 ], thresholdMin/4, K_MIN1_INV );
 			dog.setKeepDoGImage( true );
-			dog.process();
-			
+
+			// the levels convolved so far stay in the cache even if we give up here
+			if ( !dog.process() || previewEngine.isStale( generation ) )
+				return;
+
 			final SubpixelLocalization<FloatType> subpixel = new SubpixelLocalization<FloatType>( dog.getDoGImage(), dog.getPeaks() );
 			subpixel.process();
-			
+
+			if ( previewEngine.isStale( generation ) )
+				return;
+
 			peaks = dog.getPeaks();
+			peakSigmaDiff = sigmaDiff;
 		}
-		
+
 		// extract peaks to show
-		Overlay o = imp.getOverlay();
-		
-		if ( o == null )
-		{
-			o = new Overlay();
-			imp.setOverlay( o );
-		}
-		
-		o.clear();
-		
+		final Overlay o = new Overlay();
+		final float sigma1 = this.sigma, sigma2 = this.sigma2, threshold = this.threshold;
+
 		for ( final DifferenceOfGaussianPeak<FloatType> peak : peaks )
 		{
 			if ( ( peak.isMax() && lookForMaxima ) || ( peak.isMin() && lookForMinima ) )
@@ -325,7 +344,7 @@ public class InteractiveDoG implements PlugIn
 					 x >= extraSize/2 && y >= extraSize/2 &&
 					 x < rect.width+extraSize/2 && y < rect.height+extraSize/2 )
 				{
-					final OvalRoi or = new OvalRoi( Util.round( x - sigma ) + rect.x - extraSize/2, Util.round( y - sigma ) + rect.y - extraSize/2, Util.round( sigma+sigma2 ), Util.round( sigma+sigma2 ) );
+					final OvalRoi or = new OvalRoi( Util.round( x - sigma1 ) + rect.x - extraSize/2, Util.round( y - sigma1 ) + rect.y - extraSize/2, Util.round( sigma1+sigma2 ), Util.round( sigma1+sigma2 ) );
 					
 					if ( peak.isMax() )
 						or.setStrokeColor( Color.green );
@@ -336,10 +355,13 @@ public class InteractiveDoG implements PlugIn
 				}
 			}
 		}
-		
-		imp.updateAndDraw();
-		
-		isComputing = false;
+
+		// refresh the display on the event thread, unless the user moved on already
+		previewEngine.publish( generation, () ->
+		{
+			imp.setOverlay( o );
+			imp.updateAndDraw();
+		} );
 	}
 	
 	public static float computeSigma2( final float sigma1, final int sensitivity )
@@ -655,9 +677,6 @@ public class InteractiveDoG implements PlugIn
 			
 			if ( lookForMinima != oldState )
 			{
-				while ( isComputing )
-					SimpleMultiThreading.threadWait( 10 );
-				
 				updatePreview( ValueChange.MINMAX );
 			}
 		}
@@ -677,9 +696,6 @@ public class InteractiveDoG implements PlugIn
 			
 			if ( lookForMaxima != oldState )
 			{
-				while ( isComputing )
-					SimpleMultiThreading.threadWait( 10 );
-				
 				updatePreview( ValueChange.MINMAX );
 			}
 		}
@@ -713,9 +729,6 @@ public class InteractiveDoG implements PlugIn
 			if ( roi == null || roi.getType() != Roi.RECTANGLE )
 				return;
 			
-			while ( isComputing )
-				SimpleMultiThreading.threadWait( 10 );
-			
 			updatePreview( ValueChange.ROI );				
 		}
 		
@@ -821,6 +834,8 @@ public class InteractiveDoG implements PlugIn
 	
 	protected final void close( final Frame parent, final SliceObserver sliceObserver, final ImagePlus imp, final RoiListener roiListener )
 	{
+		previewEngine.shutdown();
+
 		if ( parent != null )
 			parent.dispose();
 		
@@ -832,7 +847,9 @@ public class InteractiveDoG implements PlugIn
 			if ( roiListener != null )
 				imp.getCanvas().removeMouseListener( roiListener );
 			
-			imp.getOverlay().clear();
+			// the first preview might not have been published yet
+			if ( imp.getOverlay() != null )
+				imp.getOverlay().clear();
 			imp.updateAndDraw();
 		}
 		
@@ -874,10 +891,6 @@ public class InteractiveDoG implements PlugIn
 				
 				if ( !event.getValueIsAdjusting() )
 				{
-					while ( isComputing )
-					{
-						SimpleMultiThreading.threadWait( 10 );
-					}
 					updatePreview( ValueChange.SIGMA );
 				}
 				
@@ -933,10 +946,6 @@ public class InteractiveDoG implements PlugIn
 
 			//if ( !event.getValueIsAdjusting() )
 			{
-				while ( isComputing )
-				{
-					SimpleMultiThreading.threadWait( 10 );
-				}
 				updatePreview( ValueChange.SIGMA );
 			}
 		}		
@@ -971,18 +980,8 @@ public class InteractiveDoG implements PlugIn
 			threshold = min + ( (log1001 - (float)Math.log10(1001-event.getValue()))/log1001 ) * (max-min);
 			label.setText( "Threshold = " + threshold );
 
-			if ( !isComputing )
-			{
-				updatePreview( ValueChange.THRESHOLD );
-			}
-			else if ( !event.getValueIsAdjusting() )
-			{
-				while ( isComputing )
-				{
-					SimpleMultiThreading.threadWait( 10 );
-				}
-				updatePreview( ValueChange.THRESHOLD );
-			}
+			// only filters the existing peaks, stale requests are dropped by the preview engine
+			updatePreview( ValueChange.THRESHOLD );
 		}		
 	}
 
@@ -993,10 +992,6 @@ public class InteractiveDoG implements PlugIn
 		{
 			if ( isStarted )
 			{
-				while ( isComputing )
-				{
-					SimpleMultiThreading.threadWait( 10 );
-				}
 				updatePreview( ValueChange.SLICE );
 			}
 		}		
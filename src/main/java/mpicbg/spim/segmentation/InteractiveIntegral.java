@@ -39,6 +39,8 @@ import java.awt.event.AdjustmentEvent;
 import java.awt.event.AdjustmentListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.util.ArrayList;
@@ -61,6 +63,7 @@ import ij.ImagePlus;
 import ij.WindowManager;
 import ij.gui.OvalRoi;
 import ij.gui.Overlay;
+import ij.gui.Roi;
 import ij.plugin.PlugIn;
 import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
@@ -115,17 +118,22 @@ public class InteractiveIntegral implements PlugIn
 	Image<LongType> integralImage;
 	
 	ArrayList<SimplePeak> peaks;
+
+	// the state of the preview, only accessed by the thread of the preview engine
+	final PreviewEngine previewEngine = new PreviewEngine( "InteractiveIntegral preview" );
+	RoiListener roiListener;
+	int peakRadius1, peakRadius2;
+	int currentSlice = -1;
 	
 	Color originalColor = new Color( 0.8f, 0.8f, 0.8f );
 	Color inactiveColor = new Color( 0.95f, 0.95f, 0.95f );
-	boolean isComputing = false;
 	boolean isStarted = false;
 	boolean enableRadius2 = false;
 	
 	boolean lookForMinima = false;
 	boolean lookForMaxima = true;
 	
-	public static enum ValueChange { RADIUS, THRESHOLD, SLICE, MINMAX, ALL }
+	public static enum ValueChange { RADIUS, THRESHOLD, SLICE, ROI, MINMAX, ALL }
 	
 	boolean isFinished = false;
 	boolean wasCanceled = false;
@@ -190,7 +198,6 @@ public class InteractiveIntegral implements PlugIn
 		
 		// copy the ImagePlus into an ArrayImage<FloatType> for faster access
 		source = convertToFloat( imp, channel, 0 );
-		sliceImage = source.getImageFactory().createImage( new int[]{ source.getDimension( 0 ), source.getDimension( 1 ) } );
 		
 		// compute min/max
 		if ( Double.isNaN( min ) || Double.isNaN( max ) || Double.isInfinite( min ) || Double.isInfinite( max ) || min == max )
@@ -216,6 +223,10 @@ public class InteractiveIntegral implements PlugIn
 		// compute first version
 		updatePreview( ValueChange.ALL );		
 		isStarted = true;
+
+		// check whenever roi is modified to update accordingly
+		roiListener = new RoiListener();
+		imp.getCanvas().addMouseListener( roiListener );
 	}
 	
 	public Image<LongType> computeIntegralImage( final Image<FloatType> img )
@@ -306,68 +317,209 @@ public class InteractiveIntegral implements PlugIn
  	}
 
 	/**
-	 * Updates the Preview with the current parameters (radius, threshold, roi, slicenumber)
+	 * Computes the Difference-of-Mean of one slice only for a region of interest, the slice image
+	 * covers the area [offsetX, offsetX + width) x [offsetY, offsetY + height) of the integral image.
+	 * Pixels too close to the image border to be computed are set to zero.
+	 */
+	final public static void computeDifferencOfMeanSlice( final Image< LongType> integralImg, final Image< FloatType > sliceImg, final int offsetX, final int offsetY, final int z, final int sx1, final int sy1, final int sz1, final int sx2, final int sy2, final int sz2, final float min, final float max )
+	{
+		final float sumPixels1 = sx1 * sy1 * sz1;
+		final float sumPixels2 = sx2 * sy2 * sz2;
+
+		final int sx1Half = sx1 / 2;
+		final int sy1Half = sy1 / 2;
+		final int sz1Half = sz1 / 2;
+
+		final int sx2Half = sx2 / 2;
+		final int sy2Half = sy2 / 2;
+		final int sz2Half = sz2 / 2;
+
+		final int sxHalfMax = Math.max( sx1Half, sx2Half );
+		final int syHalfMax = Math.max( sy1Half, sy2Half );
+		final int szHalfMax = Math.max( sz1Half, sz2Half );
+
+		// the integral image is one pixel larger in every dimension
+		final int w = (integralImg.getDimension( 0 ) - 1) - ( Math.max( sx1, sx2 ) / 2 ) * 2;
+		final int h = (integralImg.getDimension( 1 ) - 1) - ( Math.max( sy1, sy2 ) / 2 ) * 2;
+		final int d = (integralImg.getDimension( 2 ) - 1) - ( Math.max( sz1, sz2 ) / 2 ) * 2;
+
+		final Vector< ImagePortion > portions = FusionTools.divideIntoPortions( sliceImg.getNumPixels() );
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( final ImagePortion portion : portions )
+		{
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					final LocalizableCursor< FloatType > cursor = sliceImg.createLocalizableCursor();
+					final LocalizableByDimCursor< LongType > randomAccess = integralImg.createLocalizableByDimCursor();
+
+					cursor.fwd( portion.getStartPosition() );
+
+					for ( long j = 0; j < portion.getLoopSize(); ++j )
+					{
+						final FloatType result = cursor.next();
+
+						final int x = cursor.getPosition( 0 ) + offsetX;
+						final int y = cursor.getPosition( 1 ) + offsetY;
+
+						final int xt = x - sxHalfMax;
+						final int yt = y - syHalfMax;
+						final int zt = z - szHalfMax;
+
+						if ( xt >= 0 && yt >= 0 && zt >= 0 && xt < w && yt < h && zt < d )
+						{
+							final float s1 = DOM.computeSum( x - sx1Half, y - sy1Half, z - sz1Half, sx1, sy1, sz1, randomAccess ) / sumPixels1;
+							final float s2 = DOM.computeSum( x - sx2Half, y - sy2Half, z - sz2Half, sx2, sy2, sz2, randomAccess ) / sumPixels2;
+
+							result.set( ( s2 - s1 ) / ( max - min ) );
+						}
+						else
+						{
+							result.setZero();
+						}
+					}
+
+					return null;
+				}
+			} );
+		}
+
+		final ExecutorService taskExecutor = DeconViews.createExecutorService();
+
+		try
+		{
+			for ( final Future< Void > future : taskExecutor.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+		}
+
+		taskExecutor.shutdown();
+	}
+
+	/**
+	 * @return the area for which the preview is computed, the rectangular ROI plus one pixel for the
+	 * peak detection (or the entire image if there is none)
+	 */
+	protected Rectangle getPreviewArea()
+	{
+		final Roi roi = imp.getRoi();
+		final Rectangle image = new Rectangle( 0, 0, source.getDimension( 0 ), source.getDimension( 1 ) );
+
+		if ( roi == null || roi.getType() != Roi.RECTANGLE )
+			return image;
+
+		final Rectangle area = roi.getBounds();
+		area.grow( 1, 1 );
+
+		final Rectangle intersection = area.intersection( image );
+
+		// the peak detection needs at least 3x3 pixels
+		if ( intersection.width < 3 || intersection.height < 3 )
+			return image;
+		else
+			return intersection;
+	}
+
+	/**
+	 * Requests an update of the preview with the current parameters (radius, threshold, roi, slicenumber),
+	 * it is computed in the background and supersedes all earlier requests
 	 * 
 	 * @param change - what did change
 	 */
 	protected void updatePreview( final ValueChange change )
-	{		
-		
+	{
+		previewEngine.request( generation -> computePreview( change, generation ) );
+	}
+
+	/**
+	 * Computes the preview with the current parameters (radius, threshold, roi, slicenumber) on the
+	 * region of interest, the integral image of the entire stack is only computed once
+	 * 
+	 * @param change - what did change
+	 * @param generation - the generation of this request, if it becomes stale we stop
+	 */
+	protected void computePreview( final ValueChange change, final long generation )
+	{
+		final int slice = (imp.getCurrentSlice()-1)/imp.getNChannels();
+		final Rectangle area = getPreviewArea();
+
+		boolean areaChanged = false;
+
+		if ( sliceImage == null || slice != currentSlice || !area.equals( rectangle ) )
+		{
+			rectangle = area;
+			currentSlice = slice;
+			sliceImage = source.getImageFactory().createImage( new int[]{ area.width, area.height } );
+			peaks = null;
+			areaChanged = true;
+		}
+
+		final int r1 = radius1;
+		final int r2 = radius2;
+		final boolean radiusChanged = peaks == null || r1 != peakRadius1 || r2 != peakRadius2;
+
+		// if we got some mouse click but neither the ROI nor the radii changed we can return
+		if ( !areaChanged && !radiusChanged && change == ValueChange.ROI )
+			return;
+
 		// compute the Difference Of Mean if necessary
-		if ( peaks == null || change == ValueChange.RADIUS || change == ValueChange.SLICE || change == ValueChange.ALL )
+		if ( radiusChanged )
 		{
-			int slice = (imp.getCurrentSlice()-1)/imp.getNChannels();
-	        
-			final int s1 = radius1*2 + 1;
-			final int s2 = radius2*2 + 1;
-			
-			computeDifferencOfMeanSlice( integralImage, sliceImage, slice, s1, s1, s1, s2, s2, s2, (float)min, (float)max );
+			final int s1 = r1*2 + 1;
+			final int s2 = r2*2 + 1;
+
+			computeDifferencOfMeanSlice( integralImage, sliceImage, area.x, area.y, slice, s1, s1, s1, s2, s2, s2, (float)min, (float)max );
+
+			if ( previewEngine.isStale( generation ) )
+				return;
+
+			final ArrayList< SimplePeak > newPeaks = findPeaks( sliceImage, thresholdMin );
+
+			if ( previewEngine.isStale( generation ) )
+				return;
 
-	        //ImageJFunctions.show( sliceImage );
-	        
-			peaks = findPeaks( sliceImage, thresholdMin );
-			//System.out.println("t=" + threshold + " -> " + peaks.size() );
+			peaks = newPeaks;
+			peakRadius1 = r1;
+			peakRadius2 = r2;
 		}
-		
+
 		// extract peaks to show
-		Overlay o = imp.getOverlay();
-		
-		if ( o == null )
-		{
-			o = new Overlay();
-			imp.setOverlay( o );
-		}
-		
-		o.clear();
-		
-		if ( peaks != null )
-		{
-			int avgSize = (radius1 + radius2 + 1)/2;
-			
-			for ( final SimplePeak peak : peaks )
-			{	
-				if ( ( peak.isMax && lookForMaxima ) || ( peak.isMin && lookForMinima ) )
+		final Overlay o = new Overlay();
+		final int avgSize = (r1 + r2 + 1)/2;
+
+		for ( final SimplePeak peak : peaks )
+		{	
+			if ( ( peak.isMax && lookForMaxima ) || ( peak.isMin && lookForMinima ) )
+			{
+				final float x = peak.location[ 0 ] + area.x; 
+				final float y = peak.location[ 1 ] + area.y;
+
+				if ( Math.abs( peak.intensity ) > threshold )
 				{
-					final float x = peak.location[ 0 ]; 
-					final float y = peak.location[ 1 ];
-					
-					if ( Math.abs( peak.intensity ) > threshold )
-					{
-						final OvalRoi or = new OvalRoi( Util.round( x - avgSize ), Util.round( y - avgSize ), radius1+radius2+1, radius1+radius2+1 );
-						
-						if ( peak.isMax )
-							or.setStrokeColor( Color.green );
-						else if ( peak.isMin )
-							or.setStrokeColor( Color.red );
-						
-						o.add( or );
-					}
+					final OvalRoi or = new OvalRoi( Util.round( x - avgSize ), Util.round( y - avgSize ), r1+r2+1, r1+r2+1 );
+
+					if ( peak.isMax )
+						or.setStrokeColor( Color.green );
+					else if ( peak.isMin )
+						or.setStrokeColor( Color.red );
+
+					o.add( or );
 				}
 			}
 		}
-		imp.updateAndDraw();
-		
-		isComputing = false;
+
+		// refresh the display on the event thread, unless the user moved on already
+		previewEngine.publish( generation, () ->
+		{
+			imp.setOverlay( o );
+			imp.updateAndDraw();
+		} );
 	}
 	
 	public static int computeRadius2( final int radius1 )
@@ -770,9 +922,6 @@ MainLoop:           for ( int l = 0; l < portion.getLoopSize(); ++l )
 			
 			if ( lookForMinima != oldState )
 			{
-				while ( isComputing )
-					SimpleMultiThreading.threadWait( 10 );
-				
 				updatePreview( ValueChange.MINMAX );
 			}
 		}
@@ -792,14 +941,36 @@ MainLoop:           for ( int l = 0; l < portion.getLoopSize(); ++l )
 			
 			if ( lookForMaxima != oldState )
 			{
-				while ( isComputing )
-					SimpleMultiThreading.threadWait( 10 );
-				
 				updatePreview( ValueChange.MINMAX );
 			}
 		}
 	}
 
+	/**
+	 * Tests whether the ROI was changed and will recompute the preview 
+	 */
+	protected class RoiListener implements MouseListener
+	{
+		@Override
+		public void mouseClicked(MouseEvent e) {}
+
+		@Override
+		public void mouseEntered(MouseEvent e) {}
+
+		@Override
+		public void mouseExited(MouseEvent e) {}
+
+		@Override
+		public void mousePressed(MouseEvent e) {}
+
+		@Override
+		public void mouseReleased( final MouseEvent e )
+		{
+			// here the ROI might have been modified (or removed), computePreview() tests for that
+			updatePreview( ValueChange.ROI );
+		}
+	}
+
 	protected class FinishButtonListener implements ActionListener
 	{
 		final Frame parent;
@@ -838,6 +1009,8 @@ MainLoop:           for ( int l = 0; l < portion.getLoopSize(); ++l )
 	
 	protected final void close( final Frame parent, final SliceObserver sliceObserver, final ImagePlus imp )
 	{
+		previewEngine.shutdown();
+
 		if ( parent != null )
 			parent.dispose();
 		
@@ -846,7 +1019,13 @@ MainLoop:           for ( int l = 0; l < portion.getLoopSize(); ++l )
 		
 		if ( imp != null )
 		{
-			imp.getOverlay().clear();
+			if ( roiListener != null )
+				imp.getCanvas().removeMouseListener( roiListener );
+
+			// the first preview might not have been published yet
+			if ( imp.getOverlay() != null )
+				imp.getOverlay().clear();
+
 			imp.updateAndDraw();
 		}
 		
@@ -888,10 +1067,6 @@ MainLoop:           for ( int l = 0; l < portion.getLoopSize(); ++l )
 				
 				if ( !event.getValueIsAdjusting() )
 				{
-					while ( isComputing )
-					{
-						SimpleMultiThreading.threadWait( 10 );
-					}
 					updatePreview( ValueChange.RADIUS );
 				}
 				
@@ -947,10 +1122,6 @@ MainLoop:           for ( int l = 0; l < portion.getLoopSize(); ++l )
 			
 			if ( !event.getValueIsAdjusting() )
 			{
-				while ( isComputing )
-				{
-					SimpleMultiThreading.threadWait( 10 );
-				}
 				updatePreview( ValueChange.RADIUS );
 			}
 		}		
@@ -985,18 +1156,8 @@ MainLoop:           for ( int l = 0; l < portion.getLoopSize(); ++l )
 			threshold = min + ( (log1001 - (float)Math.log10(1001-event.getValue()))/log1001 ) * (max-min);
 			label.setText( "Threshold = " + threshold );
 
-			if ( !isComputing )
-			{
-				updatePreview( ValueChange.THRESHOLD );
-			}
-			else if ( !event.getValueIsAdjusting() )
-			{
-				while ( isComputing )
-				{
-					SimpleMultiThreading.threadWait( 10 );
-				}
-				updatePreview( ValueChange.THRESHOLD );
-			}
+			// only filters the existing peaks, stale requests are dropped by the preview engine
+			updatePreview( ValueChange.THRESHOLD );
 		}		
 	}
 
@@ -1007,10 +1168,6 @@ MainLoop:           for ( int l = 0; l < portion.getLoopSize(); ++l )
 		{
 			if ( isStarted )
 			{
-				while ( isComputing )
-				{
-					SimpleMultiThreading.threadWait( 10 );
-				}
 				updatePreview( ValueChange.SLICE );
 			}
 		}		
@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.spim.segmentation;
+
+import java.awt.EventQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mpicbg.spim.io.IOFunctions;
+
+/**
+ * Computes the preview of an interactive detection tool on a single background thread,
+ * so that slider and ROI changes never block the AWT event thread. Every request supersedes
+ * all earlier ones: queued requests are dropped and a running computation can poll
+ * {@link #isStale(long)} to give up early. Results are handed back to the event thread
+ * with {@link #publish(long, Runnable)}, which silently drops them if they are outdated.
+ */
+public class PreviewEngine
+{
+	public static interface PreviewTask
+	{
+		public void compute( final long generation );
+	}
+
+	final ExecutorService service;
+	final AtomicLong generation = new AtomicLong( 0 );
+	Future< ? > pending = null;
+
+	public PreviewEngine( final String name )
+	{
+		this.service = Executors.newSingleThreadExecutor( runnable ->
+		{
+			final Thread thread = new Thread( runnable, name );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	/**
+	 * Schedules a new computation, all earlier ones become stale
+	 * 
+	 * @param task - the computation, is passed its generation to test for staleness
+	 */
+	public synchronized void request( final PreviewTask task )
+	{
+		if ( service.isShutdown() )
+			return;
+
+		final long myGeneration = generation.incrementAndGet();
+
+		// the previous one has not started yet, no need to run it at all
+		if ( pending != null )
+			pending.cancel( false );
+
+		pending = service.submit( () ->
+		{
+			if ( isStale( myGeneration ) )
+				return;
+
+			try
+			{
+				task.compute( myGeneration );
+			}
+			catch ( final Exception e )
+			{
+				IOFunctions.println( "Failed to compute preview: " + e );
+				e.printStackTrace();
+			}
+		} );
+	}
+
+	/**
+	 * @param generation - the generation of a computation
+	 * @return true if a newer computation was requested since
+	 */
+	public boolean isStale( final long generation )
+	{
+		return generation != this.generation.get();
+	}
+
+	/**
+	 * Runs an update of the display on the AWT event thread, unless the computation
+	 * that produced it became stale in the meantime
+	 * 
+	 * @param generation - the generation of the computation that produced the update
+	 * @param update - the update of the display
+	 */
+	public void publish( final long generation, final Runnable update )
+	{
+		if ( isStale( generation ) )
+			return;
+
+		EventQueue.invokeLater( () ->
+		{
+			if ( !isStale( generation ) )
+				update.run();
+		} );
+	}
+
+	/**
+	 * Makes all pending computations stale and stops the background thread
+	 */
+	public synchronized void shutdown()
+	{
+		generation.incrementAndGet();
+		service.shutdown();
+	}
+}
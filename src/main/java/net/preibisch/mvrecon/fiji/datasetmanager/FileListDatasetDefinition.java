@@ -224,6 +224,9 @@ public class FileListDatasetDefinition implements MultiViewDatasetDefinition
 				} );
 			}
 
+			gdp.addCheckbox( "Cache_file_metadata (in " + FileMetadataScanner.suggestedCacheDir().getAbsolutePath() + ")", FileMetadataScanner.defaultCacheDir != null );
+			gdp.addCheckbox( "Clear_cached_file_metadata", false );
+
 			GUIHelper.addScrollBars( gdp );
 			gdp.showDialog();
 
@@ -231,6 +234,12 @@ public class FileListDatasetDefinition implements MultiViewDatasetDefinition
 				return new ArrayList<>();
 
 			String fileInput = gdp.getNextString();
+			final long minSize = (long) gdp.getNextNumber() * KB_FACTOR;
+
+			FileMetadataScanner.defaultCacheDir = gdp.getNextBoolean() ? FileMetadataScanner.suggestedCacheDir() : null;
+
+			if ( gdp.getNextBoolean() )
+				IOFunctions.println( "Deleted " + FileMetadataScanner.clearCache( FileMetadataScanner.suggestedCacheDir() ) + " cached file metadata entries." );
 
 			if (fileInput.endsWith( File.separator ))
 				fileInput = fileInput.substring( 0, fileInput.length() - File.separator.length() );
@@ -238,7 +247,7 @@ public class FileListDatasetDefinition implements MultiViewDatasetDefinition
 			if(new File(fileInput).isDirectory())
 				fileInput = String.join( File.separator, fileInput, "*" );
 
-			List<File> files = getFilesFromPattern( fileInput, (long) gdp.getNextNumber() * KB_FACTOR );
+			List<File> files = getFilesFromPattern( fileInput, minSize );
 
 			files.forEach(f -> System.out.println( "Including file " + f + " in dataset." ));
 
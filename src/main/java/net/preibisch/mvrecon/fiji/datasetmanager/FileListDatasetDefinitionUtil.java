@@ -24,6 +24,7 @@ package net.preibisch.mvrecon.fiji.datasetmanager;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -50,8 +51,6 @@ import loci.formats.FormatException;
 import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
 import loci.formats.Modulo;
-import loci.formats.in.ND2Reader;
-import loci.formats.in.ZeissCZIReader;
 import loci.formats.meta.MetadataRetrieve;
 import loci.formats.ome.OMEXMLMetadataImpl;
 import mpicbg.spim.data.generic.base.Entity;
@@ -72,9 +71,8 @@ import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
-import net.preibisch.mvrecon.fiji.datasetmanager.metadatarefinement.CZITileOrAngleRefiner;
-import net.preibisch.mvrecon.fiji.datasetmanager.metadatarefinement.NikonND2TileOrAngleRefiner;
-import net.preibisch.mvrecon.fiji.datasetmanager.metadatarefinement.TileOrAngleRefiner;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.datasetmanager.FileMetadataScanner.FileMetadata;
 import net.preibisch.mvrecon.fiji.datasetmanager.patterndetector.FilenamePatternDetector;
 
 import ome.units.quantity.Length;
@@ -83,12 +81,6 @@ import ome.units.quantity.Length;
 public class FileListDatasetDefinitionUtil
 {
 	
-	private static final Map<Class<? extends IFormatReader>, TileOrAngleRefiner> tileOrAngleRefiners = new HashMap<>();	
-	static {
-		tileOrAngleRefiners.put(ZeissCZIReader.class , new CZITileOrAngleRefiner() );
-		tileOrAngleRefiners.put( ND2Reader.class, new NikonND2TileOrAngleRefiner() );
-	}
-	
 	
 	public static class ChannelInfo
 	{
@@ -246,8 +238,10 @@ public class FileListDatasetDefinitionUtil
 		}
 	}
 	
-	public static class TileOrAngleInfo
+	public static class TileOrAngleInfo implements Serializable
 	{
+		private static final long serialVersionUID = -4216353436519428410L;
+
 		public Double locationX;
 		public Double locationY;
 		public Double locationZ;
@@ -264,8 +258,10 @@ public class FileListDatasetDefinitionUtil
 	}
 	
 	
-	public static class ChannelOrIlluminationInfo
+	public static class ChannelOrIlluminationInfo implements Serializable
 	{
+		private static final long serialVersionUID = 5561262862401353217L;
+
 		public Integer index;
 		public Integer modStep;
 		public String name;
@@ -1034,6 +1030,26 @@ public class FileListDatasetDefinitionUtil
 		catch ( FormatException | IOException e ){ e.printStackTrace(); }
 	}
 
+	public static void detectDimensionsInFile(final FileMetadata metadata, Map<Pair<File, Pair< Integer, Integer >>, Pair<Dimensions, VoxelDimensions>> dimensionMaps)
+	{
+		// only use the 'master' file of a group in grouped data
+		final File currentFile = new File( metadata.currentFile );
+
+		for (int i = 0 ; i < metadata.dimensions.length; i++)
+		{
+			final double[] size = metadata.voxelSizes[ i ];
+
+			FinalVoxelDimensions finalVoxelDimensions = new FinalVoxelDimensions( metadata.units[ i ], size[ 0 ], size[ 1 ], size[ 2 ] );
+			FinalDimensions finalDimensions = new FinalDimensions( metadata.dimensions[ i ] );
+
+			for (int j = 0; j < metadata.sizeC[ i ]; j++)
+			{
+				Pair<File, Pair< Integer, Integer >> key = new ValuePair< File, Pair<Integer,Integer> >( currentFile, new ValuePair< Integer, Integer >( i, j ) );
+				dimensionMaps.put( key, new ValuePair< Dimensions, VoxelDimensions >( finalDimensions, finalVoxelDimensions ) );
+			}
+		}
+	}
+
 	public static void detectViewsInFiles(List<File> files,
 										 FileListViewDetectionState state)
 	{
@@ -1041,29 +1057,25 @@ public class FileListDatasetDefinitionUtil
 		List<String> usedFiles = new ArrayList<>();
 		
 		Collections.sort( files );
-		
+
+		// open the files in parallel (or take them from the cache), the results are combined in the same order as before
+		final HashMap< File, FileMetadata > metadata = FileMetadataScanner.scanFiles( files, Threads.numThreads() );
+
 		for (File file : files)
 			if (!usedFiles.contains( file.getAbsolutePath() ))
 			{
-				ImageReader reader = new ImageReader();
-				reader.setMetadataStore( new OMEXMLMetadataImpl() );
-				detectViewsInFile( 	file,
+				FileMetadata fileMetadata = metadata.get( file );
+
+				// not part of any group that was scanned
+				if ( fileMetadata == null )
+					fileMetadata = FileMetadataScanner.scanFileCached( file, FileMetadataScanner.createReader() );
+
+				detectViewsInFile( 	fileMetadata,
 									multiplicityMapInner,
 									state,
-									usedFiles,
-									reader);
+									usedFiles );
 
-				detectDimensionsInFile (file, state.getDimensionMap(), reader);
-				
-				try
-				{
-					reader.close();
-				}
-				catch ( IOException e )
-				{
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+				detectDimensionsInFile( fileMetadata, state.getDimensionMap() );
 			}
 		
 		
@@ -1093,56 +1105,44 @@ public class FileListDatasetDefinitionUtil
 										 List<String> usedFiles,
 										 ImageReader reader)
 	{
-		
 		if (reader == null)
-		{
-			reader = new ImageReader();
-			reader.setMetadataStore( new OMEXMLMetadataImpl());
-		}
-
-		IJ.log("" + new Date(System.currentTimeMillis()) + ": Investigating file " + file.getAbsolutePath() );
+			reader = FileMetadataScanner.createReader();
 
-		try
-		{
-			if ( reader.getCurrentFile() == null || !Arrays.asList( reader.getUsedFiles() ).contains( file.getAbsolutePath() ))
-				reader.setId( file.getAbsolutePath() );
-		}
-		catch ( FormatException | IOException e )
-		{
-			e.printStackTrace();
-		}
+		detectViewsInFile( FileMetadataScanner.scanFile( file, reader ), multiplicityMap, state, usedFiles );
+	}
 
+	public static void detectViewsInFile(final FileMetadata metadata,
+										 Map<File, Map<Class<? extends Entity>, CheckResult>> multiplicityMap,
+										 FileListViewDetectionState state,
+										 List<String> usedFiles)
+	{
 		// use the master file of group from now on (in case we opened another file before)
-		final File currentFile = new File( reader.getCurrentFile() );
+		final File currentFile = new File( metadata.currentFile );
 
-		if (reader.getRGBChannelCount() > 1)
+		if (metadata.rgb)
 		{
 			IOFunctions.println("RGB images are not supported at the moment. Please re-save as Composite (Open in Fiji > Image > Color > Make Composite > Save ). Quitting.");
 			throw new IllegalArgumentException("RGB images are not supported at the moment. Please re-save as Composite. Quitting.");
 		}
 
-		usedFiles.addAll( Arrays.asList( reader.getUsedFiles() ));
+		usedFiles.addAll( Arrays.asList( metadata.usedFiles ));
 
 		// the format we use employs grouped files
-		if (reader.getUsedFiles().length > 1)
+		if (metadata.usedFiles.length > 1)
 			state.setGroupedFormat( true );
 
 		// populate grouped format file usage map
-		for (int i = 0; i < reader.getSeriesCount(); i ++)
+		for (int i = 0; i < metadata.seriesUsedFiles.length; i ++)
 		{
-			reader.setSeries( i );
-			for (String usedFileI : reader.getSeriesUsedFiles())
+			for (String usedFileI : metadata.seriesUsedFiles[ i ])
 				state.getGroupUsageMap().put( usedFileI , new ValuePair< File, Integer >( currentFile, i ));
 		}
 
 		// for each entity class, create a map from identifying object to series
 		Map<Class<? extends Entity>, Map< ? extends Object, List< Pair< Integer, Integer > > >> infoMap = new HashMap<>();
 
-		// predict tiles and angles, refine info with format specific refiner
-		List< TileOrAngleInfo > predictTilesAndAngles = predictTilesAndAngles( reader);
-		TileOrAngleRefiner refiner = tileOrAngleRefiners.get( ((ImageReader)reader).getReader().getClass() );
-		if (refiner != null)
-			refiner.refineTileOrAngleInfo( reader, predictTilesAndAngles );
+		// tiles and angles, already refined with format specific refiner
+		List< TileOrAngleInfo > predictTilesAndAngles = metadata.tileOrAngleInfos;
 
 		// map to tileMap and angleMap
 		Pair< Map< TileInfo, List< Pair< Integer, Integer > > >, Map< AngleInfo, List< Pair< Integer, Integer > > > > mapTilesAngles = mapTilesAndAnglesToSeries( predictTilesAndAngles );
@@ -1150,7 +1150,9 @@ public class FileListDatasetDefinitionUtil
 		infoMap.put( Angle.class, mapTilesAngles.getB());
 
 		// predict and map timepoints, channels, illuminations
-		List< Pair< Integer, List< ChannelOrIlluminationInfo > > > predictTPChannelsIllum = predictTimepointsChannelsAndIllums( reader );
+		List< Pair< Integer, List< ChannelOrIlluminationInfo > > > predictTPChannelsIllum = new ArrayList<>();
+		for (int i = 0; i < metadata.numTimepoints.size(); i++)
+			predictTPChannelsIllum.add( new ValuePair<>( metadata.numTimepoints.get( i ), metadata.channelOrIlluminationInfos.get( i ) ) );
 		Pair< Map< Integer, List< Pair< Integer, Integer > > >, Pair< Map< ChannelInfo, List< Pair< Integer, Integer > > >, Map< Integer, List< Pair< Integer, Integer > > > > > mapTimepointsChannelsIlluminations = mapTimepointsChannelsAndIlluminations(predictTPChannelsIllum);
 		infoMap.put(TimePoint.class, mapTimepointsChannelsIlluminations.getA());
 		infoMap.put(Channel.class, mapTimepointsChannelsIlluminations.getB().getA());
@@ -1273,8 +1275,6 @@ public class FileListDatasetDefinitionUtil
 		if(!state.getAmbiguousIllumChannel() && channelIllumAmbiguous)
 			state.setAmbiguousIllumChannel(true);
 
-		//reader.close();
-
 	}
 	
 	public static void main(String[] args)
@@ -0,0 +1,497 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.datasetmanager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import ij.IJ;
+import loci.formats.FormatException;
+import loci.formats.ImageReader;
+import loci.formats.in.ND2Reader;
+import loci.formats.in.ZeissCZIReader;
+import loci.formats.meta.MetadataRetrieve;
+import loci.formats.ome.OMEXMLMetadataImpl;
+import mpicbg.spim.io.IOFunctions;
+import net.imglib2.util.Pair;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.datasetmanager.FileListDatasetDefinitionUtil.ChannelOrIlluminationInfo;
+import net.preibisch.mvrecon.fiji.datasetmanager.FileListDatasetDefinitionUtil.TileOrAngleInfo;
+import net.preibisch.mvrecon.fiji.datasetmanager.metadatarefinement.CZITileOrAngleRefiner;
+import net.preibisch.mvrecon.fiji.datasetmanager.metadatarefinement.NikonND2TileOrAngleRefiner;
+import net.preibisch.mvrecon.fiji.datasetmanager.metadatarefinement.TileOrAngleRefiner;
+import ome.units.quantity.Length;
+
+/**
+ * Reads everything the dataset definition needs to know about a file with Bio-Formats. Files are scanned in parallel
+ * (one reader per worker thread, format-specific {@link TileOrAngleRefiner}s run per file) and the results are kept in a
+ * persistent cache keyed by path, size and modification time, so only new or changed files are opened again. The cache is
+ * off unless {@link #defaultCacheDir} is set. For grouped formats, a cached entry is only used if none of the other files
+ * of the group changed either.
+ */
+public class FileMetadataScanner
+{
+	// where the metadata of scanned files is stored, null disables the cache (see suggestedCacheDir())
+	public static File defaultCacheDir = null;
+
+	static final HashMap< Class< ? >, TileOrAngleRefiner > tileOrAngleRefiners = new HashMap<>();
+	static {
+		tileOrAngleRefiners.put( ZeissCZIReader.class, new CZITileOrAngleRefiner() );
+		tileOrAngleRefiners.put( ND2Reader.class, new NikonND2TileOrAngleRefiner() );
+	}
+
+	/**
+	 * Everything the dataset definition needs from one file, independent of the reader.
+	 */
+	public static class FileMetadata implements Serializable
+	{
+		private static final long serialVersionUID = 3283174930553526431L;
+
+		// path, size and modification time of the scanned file
+		public String key;
+
+		// size and modification time of all usedFiles when they were scanned
+		public String usedFilesFingerprint;
+
+		// the master file of a group and all files that belong to it
+		public String currentFile;
+		public String[] usedFiles;
+		public boolean rgb;
+
+		// per series
+		public String[][] seriesUsedFiles;
+		public ArrayList< TileOrAngleInfo > tileOrAngleInfos;
+		public ArrayList< Integer > numTimepoints;
+		public ArrayList< ArrayList< ChannelOrIlluminationInfo > > channelOrIlluminationInfos;
+		public int[] sizeC;
+		public long[][] dimensions;
+		public double[][] voxelSizes;
+		public String[] units;
+	}
+
+	/**
+	 * @return the suggested location of the metadata cache, {@link #defaultCacheDir} has to be set to it to enable caching
+	 */
+	public static File suggestedCacheDir()
+	{
+		return new File( System.getProperty( "user.home" ), ".multiview-reconstruction" + File.separator + "metadata-cache" );
+	}
+
+	/**
+	 * Deletes all cached metadata entries (and left-over temporary files) in a cache directory.
+	 *
+	 * @param cacheDir - the cache directory
+	 * @return how many files were deleted
+	 */
+	public static int clearCache( final File cacheDir )
+	{
+		if ( cacheDir == null || !cacheDir.isDirectory() )
+			return 0;
+
+		final File[] entries = cacheDir.listFiles( ( dir, name ) -> name.endsWith( ".metadata" ) || name.endsWith( ".tmp" ) );
+
+		int deleted = 0;
+
+		if ( entries != null )
+			for ( final File entry : entries )
+				if ( entry.delete() )
+					++deleted;
+
+		return deleted;
+	}
+
+	/**
+	 * Scans all files in parallel. Each group of files is only scanned once: the first task that opens a file of a group
+	 * claims the whole group, all other files of the group are skipped before their metadata is parsed.
+	 *
+	 * @param files - the files
+	 * @param numThreads - how many files are opened at the same time
+	 * @return the metadata for each file (all files of a group map to the metadata of the group)
+	 */
+	public static HashMap< File, FileMetadata > scanFiles( final List< File > files, final int numThreads )
+	{
+		final Set< String > usedFiles = ConcurrentHashMap.newKeySet();
+		final ThreadLocal< ImageReader > readers = ThreadLocal.withInitial( () -> createReader() );
+
+		final ArrayList< Callable< FileMetadata > > tasks = new ArrayList<>();
+
+		for ( final File file : files )
+		{
+			tasks.add( () ->
+			{
+				// another file of the same group was claimed already
+				if ( usedFiles.contains( file.getAbsolutePath() ) )
+					return null;
+
+				return scanFileCached( file, readers.get(), group -> claimGroup( group, usedFiles ) );
+			});
+		}
+
+		final HashMap< String, FileMetadata > groups = new HashMap<>();
+		final ExecutorService service = Threads.createFixedExecutorService( numThreads );
+
+		try
+		{
+			for ( final Future< FileMetadata > future : service.invokeAll( tasks ) )
+			{
+				final FileMetadata metadata = future.get();
+
+				if ( metadata != null )
+					for ( final String usedFile : metadata.usedFiles )
+						groups.put( usedFile, metadata );
+			}
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+			throw new RuntimeException( "Failed to scan the metadata of the files: " + e );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		final HashMap< File, FileMetadata > result = new HashMap<>();
+
+		for ( final File file : files )
+		{
+			final FileMetadata metadata = groups.get( file.getAbsolutePath() );
+
+			if ( metadata != null )
+				result.put( file, metadata );
+		}
+
+		return result;
+	}
+
+	/**
+	 * @param group - all files of a group
+	 * @param usedFiles - the files of all groups claimed so far
+	 * @return true if no file of the group was claimed before, then all of them are claimed now
+	 */
+	protected static boolean claimGroup( final String[] group, final Set< String > usedFiles )
+	{
+		synchronized ( usedFiles )
+		{
+			for ( final String file : group )
+				if ( usedFiles.contains( file ) )
+					return false;
+
+			usedFiles.addAll( Arrays.asList( group ) );
+
+			return true;
+		}
+	}
+
+	public static ImageReader createReader()
+	{
+		final ImageReader reader = new ImageReader();
+		reader.setMetadataStore( new OMEXMLMetadataImpl() );
+		return reader;
+	}
+
+	/**
+	 * @param file - the file
+	 * @param reader - the reader to use if the file is not cached
+	 * @return the metadata from the cache if the file did not change, otherwise newly scanned (and cached)
+	 */
+	public static FileMetadata scanFileCached( final File file, final ImageReader reader )
+	{
+		return scanFileCached( file, reader, group -> true );
+	}
+
+	/**
+	 * @param file - the file
+	 * @param reader - the reader to use if the file is not cached
+	 * @param claim - called with all files of the group once they are known, if it returns false the file is not scanned
+	 * @return the metadata from the cache if the file did not change, otherwise newly scanned (and cached), null if the group was not claimed
+	 */
+	public static FileMetadata scanFileCached( final File file, final ImageReader reader, final Predicate< String[] > claim )
+	{
+		final String key = cacheKey( file );
+		final File cacheFile = cacheFile( key );
+
+		if ( cacheFile != null && cacheFile.exists() )
+		{
+			try ( final ObjectInputStream in = new ObjectInputStream( new FileInputStream( cacheFile ) ) )
+			{
+				final FileMetadata metadata = (FileMetadata)in.readObject();
+
+				// hash collisions, or another file of the group changed
+				if ( key.equals( metadata.key ) && metadata.usedFilesFingerprint != null &&
+						metadata.usedFilesFingerprint.equals( usedFilesFingerprint( metadata.usedFiles ) ) )
+				{
+					if ( !claim.test( metadata.usedFiles ) )
+						return null;
+
+					IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Using cached metadata for file " + file.getAbsolutePath() );
+					return metadata;
+				}
+			}
+			catch ( IOException | ClassNotFoundException | ClassCastException e )
+			{
+				IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Could not read cached metadata for " + file.getAbsolutePath() + ": " + e );
+			}
+		}
+
+		final FileMetadata metadata = scanFile( file, reader, claim );
+
+		if ( metadata == null )
+			return null;
+
+		metadata.key = key;
+		metadata.usedFilesFingerprint = usedFilesFingerprint( metadata.usedFiles );
+
+		if ( cacheFile != null )
+		{
+			try
+			{
+				cacheFile.getParentFile().mkdirs();
+
+				// write to a temporary file first so concurrent sessions never read half-written entries
+				final File tmp = new File( cacheFile.getAbsolutePath() + "." + Thread.currentThread().getId() + ".tmp" );
+
+				try ( final ObjectOutputStream out = new ObjectOutputStream( new FileOutputStream( tmp ) ) )
+				{
+					out.writeObject( metadata );
+				}
+
+				if ( !tmp.renameTo( cacheFile ) )
+					tmp.delete();
+			}
+			catch ( IOException e )
+			{
+				IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Could not cache metadata for " + file.getAbsolutePath() + ": " + e );
+			}
+		}
+
+		return metadata;
+	}
+
+	protected static String cacheKey( final File file )
+	{
+		String path;
+
+		try
+		{
+			path = file.getCanonicalPath();
+		}
+		catch ( IOException e )
+		{
+			path = file.getAbsolutePath();
+		}
+
+		return path + "|" + file.length() + "|" + file.lastModified();
+	}
+
+	protected static String usedFilesFingerprint( final String[] usedFiles )
+	{
+		if ( usedFiles == null )
+			return "";
+
+		final StringBuilder fingerprint = new StringBuilder();
+
+		for ( final String usedFile : usedFiles )
+		{
+			final File f = new File( usedFile );
+			fingerprint.append( usedFile ).append( "|" ).append( f.length() ).append( "|" ).append( f.lastModified() ).append( ";" );
+		}
+
+		return fingerprint.toString();
+	}
+
+	protected static File cacheFile( final String key )
+	{
+		if ( defaultCacheDir == null )
+			return null;
+
+		return new File( defaultCacheDir, String.format( "%08x", key.hashCode() ) + "_" + key.length() + ".metadata" );
+	}
+
+	/**
+	 * @param file - the file
+	 * @param reader - the reader, it is closed afterwards
+	 * @return the metadata of the file (or of the group it belongs to)
+	 */
+	public static FileMetadata scanFile( final File file, final ImageReader reader )
+	{
+		return scanFile( file, reader, group -> true );
+	}
+
+	/**
+	 * @param file - the file
+	 * @param reader - the reader, it is closed afterwards
+	 * @param claim - called with all files of the group after opening the file, if it returns false the metadata is not parsed
+	 * @return the metadata of the file (or of the group it belongs to), null if the group was not claimed
+	 */
+	public static FileMetadata scanFile( final File file, final ImageReader reader, final Predicate< String[] > claim )
+	{
+		IJ.log("" + new Date(System.currentTimeMillis()) + ": Investigating file " + file.getAbsolutePath() );
+
+		final FileMetadata metadata = new FileMetadata();
+
+		try
+		{
+			if ( reader.getCurrentFile() == null || !Arrays.asList( reader.getUsedFiles() ).contains( file.getAbsolutePath() ))
+				reader.setId( file.getAbsolutePath() );
+		}
+		catch ( FormatException | IOException e )
+		{
+			e.printStackTrace();
+		}
+
+		// use the master file of group from now on (in case we opened another file before)
+		metadata.currentFile = reader.getCurrentFile();
+		metadata.usedFiles = reader.getUsedFiles();
+
+		// another file of the same group is scanned by someone else
+		if ( !claim.test( metadata.usedFiles ) )
+		{
+			closeReader( reader );
+			return null;
+		}
+
+		metadata.rgb = reader.getRGBChannelCount() > 1;
+
+		if ( metadata.rgb )
+		{
+			closeReader( reader );
+			return metadata;
+		}
+
+		final int nSeries = reader.getSeriesCount();
+
+		metadata.seriesUsedFiles = new String[ nSeries ][];
+
+		for ( int i = 0; i < nSeries; i ++ )
+		{
+			reader.setSeries( i );
+			metadata.seriesUsedFiles[ i ] = reader.getSeriesUsedFiles();
+		}
+
+		// predict tiles and angles, refine info with format specific refiner
+		metadata.tileOrAngleInfos = new ArrayList<>( FileListDatasetDefinitionUtil.predictTilesAndAngles( reader ) );
+		final TileOrAngleRefiner refiner = tileOrAngleRefiners.get( reader.getReader().getClass() );
+		if ( refiner != null )
+			refiner.refineTileOrAngleInfo( reader, metadata.tileOrAngleInfos );
+
+		// predict timepoints, channels, illuminations
+		metadata.numTimepoints = new ArrayList<>();
+		metadata.channelOrIlluminationInfos = new ArrayList<>();
+
+		for ( final Pair< Integer, List< ChannelOrIlluminationInfo > > p : FileListDatasetDefinitionUtil.predictTimepointsChannelsAndIllums( reader ) )
+		{
+			metadata.numTimepoints.add( p.getA() );
+			metadata.channelOrIlluminationInfos.add( new ArrayList<>( p.getB() ) );
+		}
+
+		// dimensions and voxel sizes
+		metadata.sizeC = new int[ nSeries ];
+		metadata.dimensions = new long[ nSeries ][];
+		metadata.voxelSizes = new double[ nSeries ][];
+		metadata.units = new String[ nSeries ];
+
+		for ( int i = 0; i < nSeries; i++ )
+		{
+			reader.setSeries( i );
+			final MetadataRetrieve meta = (MetadataRetrieve)reader.getMetadataStore();
+
+			// FIX for XYT stacks that should be XYZ (default if order is not certain)
+			// assume time points are actually z planes
+			final boolean swapZT = !reader.isOrderCertain() && reader.getSizeZ() <= 1 && reader.getSizeT() > 1;
+
+			if ( swapZT )
+			{
+				IOFunctions.println( new Date(System.currentTimeMillis()) + ": WARNING: Uncertain XZY/XZT order in File " + file.getAbsolutePath() + 
+						", Image " + i);
+				IOFunctions.println( new Date(System.currentTimeMillis()) + ": Assuming XYZ. For XYT, please resave the data as "
+						+ "separate 2D images for each time point or set the metadata for the third dimesion." );
+			}
+
+			final Length pszX = physicalSize( meta, i, 0 );
+			final Length pszY = physicalSize( meta, i, 1 );
+			final Length pszZ = physicalSize( meta, i, 2 );
+
+			metadata.voxelSizes[ i ] = new double[]{
+					pszX != null ? pszX.value().doubleValue() : 1,
+					pszY != null ? pszY.value().doubleValue() : 1,
+					pszZ != null ? pszZ.value().doubleValue() : 1 };
+
+			// get pixel units from size
+			metadata.units[ i ] = pszX != null ? pszX.unit().getSymbol() : "pixels";
+
+			metadata.dimensions[ i ] = new long[]{ reader.getSizeX(), reader.getSizeY(), swapZT ? reader.getSizeT() : reader.getSizeZ() };
+			metadata.sizeC[ i ] = reader.getSizeC();
+		}
+
+		closeReader( reader );
+
+		return metadata;
+	}
+
+	protected static Length physicalSize( final MetadataRetrieve meta, final int series, final int d )
+	{
+		try
+		{
+			if ( d == 0 )
+				return meta.getPixelsPhysicalSizeX( series );
+			else if ( d == 1 )
+				return meta.getPixelsPhysicalSizeY( series );
+			else
+				return meta.getPixelsPhysicalSizeZ( series );
+		}
+		catch ( IndexOutOfBoundsException e )
+		{
+			return null;
+		}
+	}
+
+	protected static void closeReader( final ImageReader reader )
+	{
+		try
+		{
+			reader.close();
+		}
+		catch ( IOException e )
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -50,6 +50,7 @@ import net.preibisch.mvrecon.fiji.plugin.Apply_Transformation;
 import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBoxes;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.LegacyMicroManagerImgLoader;
 import net.preibisch.mvrecon.fiji.spimdata.imgloaders.MicroManagerImgLoader;
 import net.preibisch.mvrecon.fiji.spimdata.imgloaders.MultipageTiffReader;
 import net.preibisch.mvrecon.fiji.spimdata.intensityadjust.IntensityAdjustments;
@@ -235,6 +236,10 @@ public class MicroManager implements MultiViewDatasetDefinition
 				"Pixel type: " + meta.getPixelType(),
 				new Font( Font.SANS_SERIF, Font.ITALIC, 11 ) );
 
+		gd.addMessage( "Loading", new Font( Font.SANS_SERIF, Font.BOLD, 13 ) );
+		gd.addMessage( "" );
+		gd.addCheckbox( "Memory-map_image_files (faster loading, keeps the files open)", LegacyMicroManagerImgLoader.defaultMemoryMapped );
+
 		GUIHelper.addScrollBars( gd );
 
 		gd.showDialog();
@@ -255,6 +260,7 @@ public class MicroManager implements MultiViewDatasetDefinition
 		final boolean modifyCal = defaultModifyCal = gd.getNextBoolean();
 		final boolean modifyAxis = defaultRotAxis = gd.getNextBoolean();
 		meta.setApplyAxis( defaultApplyRotAxis = gd.getNextBoolean() );
+		LegacyMicroManagerImgLoader.defaultMemoryMapped = gd.getNextBoolean();
 
 		if ( modifyAxis || modifyCal )
 		{
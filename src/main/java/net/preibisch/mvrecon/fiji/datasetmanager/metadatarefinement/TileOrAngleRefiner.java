@@ -29,6 +29,10 @@ import net.preibisch.mvrecon.fiji.datasetmanager.FileListDatasetDefinitionUtil.T
 
 import loci.formats.IFormatReader;
 
+/**
+ * Refines the tile and angle info predicted for one file. Files are scanned in parallel (every worker using its own reader),
+ * so implementations must not keep any state.
+ */
 public interface TileOrAngleRefiner
 {
 	public void refineTileOrAngleInfo( IFormatReader r, List<FileListDatasetDefinitionUtil.TileOrAngleInfo> infos);
@@ -62,6 +62,9 @@ public class Intensity_Adjustment implements PlugIn
 	public static double defaultTranslationRegularization = 0.1;
 	public static double defaultIdentityRegularization = 0.1;
 
+	public static String[] matchingChoices = new String[]{ "Sampled pairs of intensities", "Joint intensity histograms (fast, constant memory)" };
+	public static int defaultMatching = 0;
+
 	int boundingBox;
 	double downsampling;
 	List< BoundingBox > allBoxes;
@@ -123,7 +126,8 @@ public class Intensity_Adjustment implements PlugIn
 			gd.addChoice( "Bounding_Box", choicesForMacro, choicesForMacro[ FusionGUI.defaultBB ] );
 
 		gd.addSlider( "Downsampling", 1.0, 64.0, defaultDownsampling );
-		gd.addNumericField( "Max_inliers", defaultMaxInliers, 0 );
+		gd.addChoice( "Intensity_matching", matchingChoices, matchingChoices[ defaultMatching ] );
+		gd.addNumericField( "Max_inliers (sampled pairs only)", defaultMaxInliers, 0 );
 
 		gd.addMessage( "" );
 
@@ -169,6 +173,7 @@ public class Intensity_Adjustment implements PlugIn
 
 		boundingBox = FusionGUI.defaultBB = gd.getNextChoiceIndex();
 		downsampling = defaultDownsampling = gd.getNextNumber();
+		final boolean useHistograms = ( defaultMatching = gd.getNextChoiceIndex() ) == 1;
 		final int maxInliers = defaultMaxInliers = (int)Math.round( gd.getNextNumber() );
 
 		final boolean affine = defaultAffine = gd.getNextBoolean();
@@ -187,7 +192,7 @@ public class Intensity_Adjustment implements PlugIn
 							new InterpolatedAffineModel1D<>( new AffineModel1D(), new TranslationModel1D(), regTrans ),
 							new IdentityModel(), regIdentity );
 
-			intensityMapping = IntensityAdjustmentTools.computeIntensityAdjustment( data, viewIds, model, allBoxes.get( boundingBox ), downsampling, maxInliers, data.getIntensityAdjustments().getIntensityAdjustments() );
+			intensityMapping = IntensityAdjustmentTools.computeIntensityAdjustment( data, viewIds, model, allBoxes.get( boundingBox ), downsampling, maxInliers, useHistograms, data.getIntensityAdjustments().getIntensityAdjustments() );
 		}
 		else
 		{
@@ -196,7 +201,7 @@ public class Intensity_Adjustment implements PlugIn
 							new TranslationModel1D(),
 							new IdentityModel(), regIdentity );
 
-			intensityMapping = IntensityAdjustmentTools.computeIntensityAdjustment( data, viewIds, model, allBoxes.get( boundingBox ), downsampling, maxInliers, data.getIntensityAdjustments().getIntensityAdjustments() );
+			intensityMapping = IntensityAdjustmentTools.computeIntensityAdjustment( data, viewIds, model, allBoxes.get( boundingBox ), downsampling, maxInliers, useHistograms, data.getIntensityAdjustments().getIntensityAdjustments() );
 		}
 
 		data.getIntensityAdjustments().getIntensityAdjustments().putAll( intensityMapping );
@@ -44,6 +44,7 @@ import net.preibisch.mvrecon.fiji.spimdata.explorer.ExplorerWindow;
 import net.preibisch.mvrecon.fiji.spimdata.imgloaders.AbstractImgLoader;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
+import net.preibisch.mvrecon.process.interestpointdetection.methods.downsampling.DownsampleCache;
 
 import mpicbg.spim.data.sequence.TimePoint;
 import mpicbg.spim.data.sequence.ViewId;
@@ -149,6 +150,8 @@ public class Interest_Point_Detection implements PlugIn
 		gd.addCheckbox( "Define_anisotropy for segmentation", defaultDefineAnisotropy );
 		gd.addCheckbox( "Set_minimal_and_maximal_intensity", defaultSetMinMax );
 		gd.addCheckbox( "Limit_amount_of_detections" , defaultLimitDetections );
+		gd.addNumericField( "Keep_downsampled_images_in_memory (0 = off, suggested " + DownsampleCache.suggestedSizeMB() + ")",
+				DownsampleCache.defaultCache.getMaxBytes() / ( 1024 * 1024 ), 0, 6, "MB" );
 
 		gd.addMessage( "" );
 
@@ -190,6 +193,9 @@ public class Interest_Point_Detection implements PlugIn
 		final boolean setMinMax = defaultSetMinMax = gd.getNextBoolean();
 		final boolean limitDetections = defaultLimitDetections = gd.getNextBoolean();
 
+		// shared with max projection and intensity adjustment for the rest of the session
+		DownsampleCache.defaultCache.setMaxBytes( Math.max( 0, Math.round( gd.getNextNumber() ) ) * 1024 * 1024 );
+
 		boolean groupTiles = false;
 		if ( tiles.size() > 1 )
 			groupTiles = defaultGroupTiles = gd.getNextBoolean();
@@ -23,6 +23,7 @@
 package net.preibisch.mvrecon.fiji.plugin;
 
 import java.awt.Font;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -32,6 +33,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
@@ -51,6 +53,7 @@ import net.imglib2.Dimensions;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.pairwise.CenterOfMassGUI;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.pairwise.FRGLDMGUI;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.pairwise.GeometricHashingGUI;
@@ -79,14 +82,18 @@ import net.preibisch.mvrecon.process.interestpointregistration.global.GlobalOpt;
 import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.PointMatchCreator;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.strong.InterestPointMatchCreator;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.MatcherPairwise;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.MatcherPairwiseTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.PairwiseResult;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.PairwiseResultCache;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.PairwiseSetup;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.Subset;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.GroupedInterestPoint;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.InterestPointGroupingMinDistance;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.GroupedOverlapDetection;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.OverlapDetection;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.icp.IterativeClosestPointPairwise;
 
 /**
 *
@@ -123,6 +130,10 @@ public class Interest_Point_Registration implements PlugIn
 	public static int defaultFixViews = 0;
 	public static int defaultMapBack = 0;
 	public static boolean defaultShowStatistics = true;
+	public static boolean defaultRestrictToOverlap = false;
+	public static boolean defaultIncremental = false;
+	public static boolean defaultCachePairwiseResults = false;
+	public static boolean defaultUseSparseSolver = false;
 
 	// fix and map back dialog
 	public static boolean defaultSameFixedViews = true;
@@ -135,6 +146,18 @@ public class Interest_Point_Registration implements PlugIn
 	// Just in case we want to log statistics
 	List< Pair< Pair< ViewId, ViewId >, ? extends PairwiseResult< ? > > > statistics;
 
+	// if not null, pairwise results are stored here and re-used if nothing changed
+	File pairwiseResultCacheDir = null;
+
+	public void setPairwiseResultCacheDirectory( final File dir ) { this.pairwiseResultCacheDir = dir; }
+	public File getPairwiseResultCacheDirectory() { return pairwiseResultCacheDir; }
+
+	// if true, translation and affine models are solved directly instead of iteratively
+	boolean useSparseSolver = false;
+
+	public void setUseSparseSolver( final boolean useSparseSolver ) { this.useSparseSolver = useSparseSolver; }
+	public boolean useSparseSolver() { return useSparseSolver; }
+
 	@Override
 	public void run( final String arg )
 	{
@@ -231,9 +254,32 @@ public class Interest_Point_Registration implements PlugIn
 		if ( gp == null )
 			return false;
 
+		// views that were registered using their interest points before keep their registration in incremental mode
+		final Set< ViewId > registeredViews;
+
+		if ( arp.incremental )
+		{
+			registeredViews = TransformationTools.registeredViews( viewIds, data.getViewRegistrations().getViewRegistrations(), brp.labelMap );
+			IOFunctions.println( "Incremental registration: " + registeredViews.size() + " of " + viewIds.size() + " views are already registered and will be kept." );
+		}
+		else
+		{
+			registeredViews = null;
+		}
+
+		if ( arp.cachePairwiseResults )
+			setPairwiseResultCacheDirectory( new File( data.getBasePath(), "interestpoints" + File.separator + "pairwise" ) );
+		else
+			setPairwiseResultCacheDirectory( null );
+
+		setUseSparseSolver( arp.useSparseSolver );
+
 		// run the registration
 		if ( !processRegistration(
 				setup,
+				arp.restrictToOverlap ? brp.getOverlapDetection( data ) : null,
+				arp.overlapPadding,
+				registeredViews,
 				brp.pwr,
 				gp.grouping,
 				gp.mergeDistance,
@@ -273,6 +319,86 @@ public class Interest_Point_Registration implements PlugIn
 			final Map< ViewId, ViewInterestPointLists > interestpointLists,
 			final Map< ViewId, String > labelMap,
 			final boolean collectStatistics )
+	{
+		return processRegistration(
+				setup, null, 0, null, pairwiseMatching, groupingType, interestPointMergeDistance, viewsToFix, mapBackModel,
+				mapBackViews, registrations, interestpointLists, labelMap, collectStatistics );
+	}
+
+	public boolean processRegistration(
+			final PairwiseSetup< ViewId > setup,
+			final OverlapDetection< ViewId > overlapDetection,
+			final double overlapPadding,
+			final PairwiseGUI pairwiseMatching,
+			final InterestpointGroupingType groupingType,
+			final double interestPointMergeDistance,
+			final Set< ViewId > viewsToFix,
+			final Model< ? > mapBackModel,
+			final Map< Subset< ViewId >, Pair< ViewId, Dimensions > > mapBackViews,
+			final Map< ViewId, ViewRegistration > registrations,
+			final Map< ViewId, ViewInterestPointLists > interestpointLists,
+			final Map< ViewId, String > labelMap,
+			final boolean collectStatistics )
+	{
+		return processRegistration(
+				setup, overlapDetection, overlapPadding, null, pairwiseMatching, groupingType, interestPointMergeDistance, viewsToFix, mapBackModel,
+				mapBackViews, registrations, interestpointLists, labelMap, collectStatistics );
+	}
+
+	/**
+	 * @param overlapDetection - if not null, only interest points inside the (padded) overlap of each pair are matched
+	 * @param overlapPadding - by how much the overlap is extended
+	 * @param registeredViews - if not null, these views keep their registration and correspondences (incremental registration):
+	 * they are fixed, pairs in between them are not matched, and subsets that only consist of them are skipped;
+	 * if not null, the stored transformations are named using {@link TransformationTools#interestPointRegistrationName(String, String)}
+	 */
+	public boolean processRegistration(
+			final PairwiseSetup< ViewId > setup,
+			final OverlapDetection< ViewId > overlapDetection,
+			final double overlapPadding,
+			final Set< ViewId > registeredViews,
+			final PairwiseGUI pairwiseMatching,
+			final InterestpointGroupingType groupingType,
+			final double interestPointMergeDistance,
+			final Set< ViewId > viewsToFix,
+			final Model< ? > mapBackModel,
+			final Map< Subset< ViewId >, Pair< ViewId, Dimensions > > mapBackViews,
+			final Map< ViewId, ViewRegistration > registrations,
+			final Map< ViewId, ViewInterestPointLists > interestpointLists,
+			final Map< ViewId, String > labelMap,
+			final boolean collectStatistics )
+	{
+		// shared by all pairs for the correspondence search of large point clouds (ICP), the pairs themselves run on another service
+		final ExecutorService searchService = Threads.createFixedExecutorService();
+
+		try
+		{
+			return processRegistration(
+					setup, overlapDetection, overlapPadding, registeredViews, pairwiseMatching, groupingType, interestPointMergeDistance, viewsToFix,
+					mapBackModel, mapBackViews, registrations, interestpointLists, labelMap, collectStatistics, searchService );
+		}
+		finally
+		{
+			searchService.shutdown();
+		}
+	}
+
+	protected boolean processRegistration(
+			final PairwiseSetup< ViewId > setup,
+			final OverlapDetection< ViewId > overlapDetection,
+			final double overlapPadding,
+			final Set< ViewId > registeredViews,
+			final PairwiseGUI pairwiseMatching,
+			final InterestpointGroupingType groupingType,
+			final double interestPointMergeDistance,
+			final Set< ViewId > viewsToFix,
+			final Model< ? > mapBackModel,
+			final Map< Subset< ViewId >, Pair< ViewId, Dimensions > > mapBackViews,
+			final Map< ViewId, ViewRegistration > registrations,
+			final Map< ViewId, ViewInterestPointLists > interestpointLists,
+			final Map< ViewId, String > labelMap,
+			final boolean collectStatistics,
+			final ExecutorService searchService )
 	{
 		final List< ViewId > viewIds = setup.getViews();
 		final ArrayList< Subset< ViewId > > subsets = setup.getSubsets();
@@ -289,12 +415,46 @@ public class Interest_Point_Registration implements PlugIn
 		if ( collectStatistics )
 			this.statistics = new ArrayList<>();
 
+		// cached pairwise results (only for ungrouped interest points, the merging of grouped points depends on the constellation)
+		final PairwiseResultCache cache;
+
+		if ( pairwiseResultCacheDir != null && pairwiseMatching.getParameterFingerprint() != null && groupingType == InterestpointGroupingType.DO_NOT_GROUP )
+			cache = new PairwiseResultCache(
+					pairwiseResultCacheDir,
+					pairwiseMatching.getParameterFingerprint() + ( overlapDetection == null ? "" : ", overlap padding " + overlapPadding ),
+					viewIds,
+					registrations,
+					interestpointLists,
+					labelMap );
+		else
+			cache = null;
+
 		for ( final Subset< ViewId > subset : subsets )
 		{
+			// views of this subset that keep their registration (incremental)
+			final HashSet< ViewId > keptViews = new HashSet<>();
+
+			if ( registeredViews != null )
+				for ( final ViewId viewId : subset.getViews() )
+					if ( registeredViews.contains( viewId ) )
+						keptViews.add( viewId );
+
+			if ( keptViews.size() == subset.getViews().size() )
+			{
+				IOFunctions.println( "All " + keptViews.size() + " views of subset are already registered, skipping it." );
+				continue;
+			}
+
 			// fix view(s)
 			final List< ViewId > fixedViews = setup.getDefaultFixedViews();
 			IOFunctions.println( "By default #fixed views for strategy " + setup.getClass().getSimpleName() + " = " + fixedViews.size() );
 			fixedViews.addAll( viewsToFix );
+
+			if ( keptViews.size() > 0 )
+			{
+				fixedViews.addAll( keptViews );
+				IOFunctions.println( "Fixing " + keptViews.size() + " already registered views, only pairs involving new views are matched." );
+			}
 			IOFunctions.println( "Removed " + subset.fixViews( fixedViews ).size() + " views due to fixing all views (in total " + fixedViews.size() + ")" );
 
 			HashMap< ViewId, Tile< ? extends AbstractModel< ? > > > models;
@@ -307,12 +467,37 @@ public class Interest_Point_Registration implements PlugIn
 				for ( final Pair< ViewId, ViewId > pair : pairs )
 					System.out.println( Group.pvid( pair.getA() ) + " <=> " + Group.pvid( pair.getB() ) );
 
-				// compute all pairwise matchings
-				final List< Pair< Pair< ViewId, ViewId >, PairwiseResult< InterestPoint > > > result =
-						MatcherPairwiseTools.computePairs( pairs, interestpoints, pairwiseMatching.pairwiseMatchingInstance() );
+				// use the cached results where possible
+				final List< Pair< Pair< ViewId, ViewId >, PairwiseResult< InterestPoint > > > result = new ArrayList<>();
+				final List< Pair< ViewId, ViewId > > pairsToMatch = new ArrayList<>();
+
+				for ( final Pair< ViewId, ViewId > pair : pairs )
+				{
+					final PairwiseResult< InterestPoint > cached = cache == null ? null : cache.load( pair, interestpoints );
+
+					if ( cached == null )
+						pairsToMatch.add( pair );
+					else
+						result.add( new ValuePair<>( pair, cached ) );
+				}
+
+				if ( cache != null )
+					IOFunctions.println( "Loaded " + result.size() + " of " + pairs.size() + " pairwise results from cache '" + pairwiseResultCacheDir + "'." );
+
+				// compute all remaining pairwise matchings
+				final List< Pair< Pair< ViewId, ViewId >, PairwiseResult< InterestPoint > > > computed =
+						MatcherPairwiseTools.computePairs(
+								pairsToMatch, interestpoints, withSearchService( pairwiseMatching.pairwiseMatchingInstance(), searchService ),
+								overlapDetection, overlapPadding, null );
+
+				if ( cache != null )
+					for ( final Pair< Pair< ViewId, ViewId >, PairwiseResult< InterestPoint > > p : computed )
+						cache.store( p.getA(), p.getB() );
+
+				result.addAll( computed );
 
-				// clear correspondences
-				MatcherPairwiseTools.clearCorrespondences( subset.getViews(), interestpointLists, labelMap );
+				// clear correspondences (of the new views only if incremental)
+				MatcherPairwiseTools.clearCorrespondences( subset.getViews(), interestpointLists, labelMap, keptViews );
 
 				// add the corresponding detections and output result
 				for ( final Pair< Pair< ViewId, ViewId >, PairwiseResult< InterestPoint > > p : result )
@@ -331,6 +516,7 @@ public class Interest_Point_Registration implements PlugIn
 
 				// run global optimization
 				final ConvergenceStrategy cs = new ConvergenceStrategy( pairwiseMatching.globalOptError() );
+				cs.setUseSparseSolver( useSparseSolver );
 				final PointMatchCreator pmc = new InterestPointMatchCreator( result );
 
 				models = (HashMap< ViewId, Tile< ? extends AbstractModel< ? > > >)(Object)GlobalOpt.compute( pairwiseMatching.getMatchingModel().getModel(), pmc, cs, fixedViews, subset.getGroups() );
@@ -373,10 +559,16 @@ public class Interest_Point_Registration implements PlugIn
 				}
 
 				final List< Pair< Pair< Group< ViewId >, Group< ViewId > >, PairwiseResult< GroupedInterestPoint< ViewId > > > > resultGroup =
-						MatcherPairwiseTools.computePairs( groupedPairs, groupedInterestpoints, pairwiseMatching.pairwiseGroupedMatchingInstance() );
+						MatcherPairwiseTools.computePairs(
+								groupedPairs,
+								groupedInterestpoints,
+								withSearchService( pairwiseMatching.pairwiseGroupedMatchingInstance(), searchService ),
+								overlapDetection == null ? null : new GroupedOverlapDetection< ViewId >( overlapDetection ),
+								overlapPadding,
+								null );
 
 				// clear correspondences and get a map linking ViewIds to the correspondence lists
-				final Map< ViewId, List< CorrespondingInterestPoints > > cMap = MatcherPairwiseTools.clearCorrespondences( subset.getViews(), interestpointLists, labelMap );
+				final Map< ViewId, List< CorrespondingInterestPoints > > cMap = MatcherPairwiseTools.clearCorrespondences( subset.getViews(), interestpointLists, labelMap, keptViews );
 
 				// add the corresponding detections and transform HashMap< Pair< Group < V >, Group< V > >, PairwiseResult > to HashMap< Pair< V, V >, PairwiseResult >
 				final List< Pair< Pair< ViewId, ViewId >, PairwiseResult< GroupedInterestPoint< ViewId > > > > resultTransformed =
@@ -391,6 +583,7 @@ public class Interest_Point_Registration implements PlugIn
 
 				// run global optimization
 				final ConvergenceStrategy cs = new ConvergenceStrategy( pairwiseMatching.globalOptError() );
+				cs.setUseSparseSolver( useSparseSolver );
 				final PointMatchCreator pmc = new InterestPointMatchCreator( resultTransformed );
 
 				models = (HashMap< ViewId, Tile< ? extends AbstractModel< ? > > >)(Object)GlobalOpt.compute( pairwiseMatching.getMatchingModel().getModel(), pmc, cs, fixedViews, groups );
@@ -410,7 +603,8 @@ public class Interest_Point_Registration implements PlugIn
 			}
 			else
 			{
-				if ( mapBackModel != null )
+				// the already registered (fixed) views define where everything is
+				if ( mapBackModel != null && keptViews.size() == 0 )
 				{
 					final ViewId mapBackView = mapBackViews.get( subset ).getA();
 					mapBack = TransformationTools.computeMapBackModel(
@@ -426,10 +620,18 @@ public class Interest_Point_Registration implements PlugIn
 			// pre-concatenate models to spimdata2 viewregistrations (from SpimData(2))
 			for ( final ViewId viewId : subset.getViews() )
 			{
+				if ( keptViews.contains( viewId ) )
+					continue;
+
 				final Tile< ? extends AbstractModel< ? > > tile = models.get( viewId );
 				final ViewRegistration vr = registrations.get( viewId );
 
-				TransformationTools.storeTransformation( vr, viewId, tile, mapBack, pairwiseMatching.getMatchingModel().getDescription() );
+				// only incremental registration tags the transformation with the label, so it can find these views again
+				TransformationTools.storeTransformation(
+						vr, viewId, tile, mapBack,
+						registeredViews != null ?
+								TransformationTools.interestPointRegistrationName( pairwiseMatching.getMatchingModel().getDescription(), labelMap.get( viewId ) ) :
+								pairwiseMatching.getMatchingModel().getDescription() );
 			}
 		}
 
@@ -438,6 +640,14 @@ public class Interest_Point_Registration implements PlugIn
 		return true;
 	}
 
+	protected static < I extends InterestPoint > MatcherPairwise< I > withSearchService( final MatcherPairwise< I > matcher, final ExecutorService service )
+	{
+		if ( IterativeClosestPointPairwise.class.isInstance( matcher ) )
+			( (IterativeClosestPointPairwise< I >)matcher ).setExecutorService( service, Threads.numThreads() );
+
+		return matcher;
+	}
+
 	public ArrayList< ViewId > filterRemainingViewIds( final List< ViewId > viewIds, final Map< ViewId, String > labelMap, final Map< ViewId, ViewInterestPointLists > interestpointLists )
 	{
 		final ArrayList< ViewId > keep = new ArrayList<>();
@@ -514,12 +724,27 @@ public class Interest_Point_Registration implements PlugIn
 			gd.addChoice( "Map_back_views", FixMapBackParameters.mapBackChoice, FixMapBackParameters.mapBackChoice[ defaultMapBack ] );
 		}
 
+		// incremental registration of newly acquired timepoints
+		if ( brp.registrationType == RegistrationType.TIMEPOINTS_INDIVIDUALLY || brp.registrationType == RegistrationType.TO_REFERENCE_TIMEPOINT )
+			gd.addCheckbox( "Only_register_new_views (keep views already registered with these interest points)", defaultIncremental );
+
 		gd.addMessage( "" );
 		gd.addMessage( "Algorithm parameters [" + brp.pwr.getDescription() + "]", new Font( Font.SANS_SERIF, Font.BOLD, 12 ) );
 		gd.addMessage( "" );
 
 		brp.pwr.addQuery( gd );
 
+		// restricting the points only makes sense if the current transformations define the overlap
+		if ( brp.overlapType == OverlapType.OVERLAPPING_ONLY )
+		{
+			gd.addMessage( "" );
+			gd.addCheckbox( "Only_match_interest_points_in_overlapping_areas", defaultRestrictToOverlap );
+			gd.addNumericField( "Padding_of_overlapping_areas (px)", MatcherPairwiseTools.defaultOverlapPadding, 1 );
+		}
+
+		gd.addCheckbox( "Solve_global_optimization_directly (translation & affine only)", defaultUseSparseSolver );
+		gd.addCheckbox( "Cache_pairwise_matching_results (re-used if points, transformations & parameters are unchanged)", defaultCachePairwiseResults );
+
 		if ( timepointToProcess.size() > 1 )
 			gd.addCheckbox( "Show_timeseries_statistics", defaultShowStatistics );
 
@@ -573,9 +798,28 @@ public class Interest_Point_Registration implements PlugIn
 			arp.fixViewsIndex = arp.mapBackIndex = -1;
 		}
 
+		if ( brp.registrationType == RegistrationType.TIMEPOINTS_INDIVIDUALLY || brp.registrationType == RegistrationType.TO_REFERENCE_TIMEPOINT )
+			arp.incremental = defaultIncremental = gd.getNextBoolean();
+		else
+			arp.incremental = false;
+
 		if ( !brp.pwr.parseDialog( gd ) )
 			return null;
 
+		if ( brp.overlapType == OverlapType.OVERLAPPING_ONLY )
+		{
+			arp.restrictToOverlap = defaultRestrictToOverlap = gd.getNextBoolean();
+			arp.overlapPadding = MatcherPairwiseTools.defaultOverlapPadding = gd.getNextNumber();
+		}
+		else
+		{
+			arp.restrictToOverlap = false;
+			arp.overlapPadding = MatcherPairwiseTools.defaultOverlapPadding;
+		}
+
+		arp.useSparseSolver = defaultUseSparseSolver = gd.getNextBoolean();
+		arp.cachePairwiseResults = defaultCachePairwiseResults = gd.getNextBoolean();
+
 		if ( timepointToProcess.size() > 1 )
 			defaultShowStatistics = arp.showStatistics = gd.getNextBoolean();
 		else
@@ -31,6 +31,7 @@ import java.util.List;
 
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
 import ij.process.FloatProcessor;
 import mpicbg.spim.data.SpimData;
@@ -44,16 +45,24 @@ import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.preibisch.mvrecon.fiji.plugin.queryXML.LoadParseQueryXML;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.process.interestpointdetection.methods.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.psf.PSFCombination;
 
 public class Max_Project implements PlugIn
 {
+	protected static final int[] ds = { 1, 2, 4, 8 };
+	public static String[] downsampleChoice = { ds[ 0 ] + "x", ds[ 1 ] + "x", ds[ 2 ] + "x", ds[ 3 ] + "x" };
+
+	public static int defaultDownsampleXYIndex = 0;
+	public static int defaultDownsampleZIndex = 0;
+
 	@Override
 	public void run( final String arg )
 	{
@@ -63,16 +72,41 @@ public class Max_Project implements PlugIn
 		if ( !result.queryXML( "image fusion", true, true, true, true, true ) )
 			return;
 
+		final GenericDialog gd = new GenericDialog( "Max Projection" );
+
+		gd.addChoice( "Downsample_XY", downsampleChoice, downsampleChoice[ defaultDownsampleXYIndex ] );
+		gd.addChoice( "Downsample_Z", downsampleChoice, downsampleChoice[ defaultDownsampleZIndex ] );
+
+		gd.showDialog();
+
+		if ( gd.wasCanceled() )
+			return;
+
+		final int downsampleXY = ds[ defaultDownsampleXYIndex = gd.getNextChoiceIndex() ];
+		final int downsampleZ = ds[ defaultDownsampleZIndex = gd.getNextChoiceIndex() ];
+
 		maxProject(
 			result.getData(),
 			SpimData2.getAllViewIdsSorted( result.getData(), result.getViewSetupsToProcess(), result.getTimePointsToProcess() ),
-			new UnsignedShortType() );
+			new UnsignedShortType(),
+			downsampleXY,
+			downsampleZ );
 	}
 
 	public static < T extends RealType< T > & NativeType< T > > boolean maxProject(
 			final SpimData data,
 			final List< ? extends ViewId > viewIds,
 			final T type )
+	{
+		return maxProject( data, viewIds, type, 1, 1 );
+	}
+
+	public static < T extends RealType< T > & NativeType< T > > boolean maxProject(
+			final SpimData data,
+			final List< ? extends ViewId > viewIds,
+			final T type,
+			final int downsampleXY,
+			final int downsampleZ )
 	{
 		final ArrayList< ViewDescription > list = new ArrayList< ViewDescription >();
 
@@ -84,13 +118,33 @@ public class Max_Project implements PlugIn
 				list.add( vd );
 		}
 
-		return maxProject( list, data.getSequenceDescription().getImgLoader(), type );
+		return maxProject( list, data.getSequenceDescription().getImgLoader(), type, downsampleXY, downsampleZ );
 	}
 
 	public static < T extends RealType< T > & NativeType< T > > boolean maxProject(
 			final List< ? extends ViewDescription > vds,
 			final ImgLoader imgLoader,
 			final T type )
+	{
+		return maxProject( vds, imgLoader, type, 1, 1 );
+	}
+
+	/**
+	 * @param vds - the views to project
+	 * @param imgLoader - the imgloader
+	 * @param type - the type used for projecting full-resolution images
+	 * @param downsampleXY - downsampling in XY (1,2,4,8), if larger than 1 the downsampled images are projected as FloatType
+	 * and shared with interest point detection through the DownsampleCache
+	 * @param downsampleZ - downsampling in Z (1,2,4,8)
+	 * @param <T> - pixel type
+	 * @return true if successful
+	 */
+	public static < T extends RealType< T > & NativeType< T > > boolean maxProject(
+			final List< ? extends ViewDescription > vds,
+			final ImgLoader imgLoader,
+			final T type,
+			final int downsampleXY,
+			final int downsampleZ )
 	{
 		Collections.sort( vds );
 
@@ -107,10 +161,21 @@ public class Max_Project implements PlugIn
 					{
 						IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Loading image for timepoint " + t.getId() + " viewsetup " + vd.getViewSetupId() );
 
-						final RandomAccessibleInterval< T > img = getImage( type, imgLoader, vd, false );
+						final FloatProcessor fp;
+
+						if ( downsampleXY > 1 || downsampleZ > 1 )
+						{
+							final RandomAccessibleInterval< FloatType > img =
+									DownsampleTools.openAndDownsample( imgLoader, vd, new AffineTransform3D(), downsampleXY, downsampleZ, true );
+
+							fp = toProcessor( PSFCombination.computeMaxProjection( img, new ArrayImgFactory< FloatType >(), 2, true ) );
+						}
+						else
+						{
+							final RandomAccessibleInterval< T > img = getImage( type, imgLoader, vd, false );
 
-						final FloatProcessor fp =
-								toProcessor( PSFCombination.computeMaxProjection( img, new ArrayImgFactory< T >(), 2, true ) );
+							fp = toProcessor( PSFCombination.computeMaxProjection( img, new ArrayImgFactory< T >(), 2, true ) );
+						}
 
 						if ( stack == null )
 							stack = new ImageStack( fp.getWidth(), fp.getHeight() );
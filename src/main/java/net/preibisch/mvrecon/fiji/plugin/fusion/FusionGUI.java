@@ -54,6 +54,7 @@ import net.preibisch.mvrecon.process.boundingbox.BoundingBoxTools;
 import net.preibisch.mvrecon.process.export.AppendSpimData2HDF5;
 import net.preibisch.mvrecon.process.export.DisplayImage;
 import net.preibisch.mvrecon.process.export.ExportSpimData2HDF5;
+import net.preibisch.mvrecon.process.export.ExportSpimData2N5;
 import net.preibisch.mvrecon.process.export.ExportSpimData2TIFF;
 import net.preibisch.mvrecon.process.export.ImgExport;
 import net.preibisch.mvrecon.process.export.Save3dTIFF;
@@ -120,6 +121,7 @@ public class FusionGUI implements FusionExportInterface
 		staticImgExportAlgorithms.add( new ExportSpimData2TIFF() );
 		staticImgExportAlgorithms.add( new ExportSpimData2HDF5() );
 		staticImgExportAlgorithms.add( new AppendSpimData2HDF5() );
+		staticImgExportAlgorithms.add( new ExportSpimData2N5() );
 
 		imgExportDescriptions = new String[ staticImgExportAlgorithms.size() ];
 
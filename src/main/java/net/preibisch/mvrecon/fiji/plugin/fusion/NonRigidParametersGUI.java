@@ -9,6 +9,7 @@ import mpicbg.spim.data.sequence.ViewId;
 import mpicbg.spim.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.NonRigidParameters;
+import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.NonRigidTools;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
 
 public class NonRigidParametersGUI extends NonRigidParameters
@@ -24,6 +25,7 @@ public class NonRigidParametersGUI extends NonRigidParameters
 	public static double defaultAlpha = 1.0;
 	public static boolean defaultShowDistanceMap = false;
 	public static boolean defaultNonRigidAcrossTime = false;
+	public static double defaultInterestPointPadding = 200;
 
 	final SpimData2 spimData;
 	final List< ? extends ViewId > viewIds;
@@ -80,6 +82,9 @@ public class NonRigidParametersGUI extends NonRigidParameters
 		final int labelIndex = defaultLabel = gd.getNextChoiceIndex();
 		this.advanced = defaultAdvanced = gd.getNextBoolean();
 
+		// all interest points are used unless specified in the advanced parameters
+		NonRigidTools.defaultInterestPointPadding = -1;
+
 		if ( labelIndex == labels.length - 1 )
 		{
 			isActive = false;
@@ -141,6 +146,8 @@ public class NonRigidParametersGUI extends NonRigidParameters
 		gd1.addSlider( "Control_point_distance", 1, 100, defaultControlPointDistance );
 		gd1.addCheckbox( "Nonrigid_transform_across_time_domain", defaultNonRigidAcrossTime );
 		gd1.addCheckbox( "Only_display_distance_map (instead of image data)", defaultShowDistanceMap );
+		gd1.addCheckbox( "Use_displacement_field (faster, interpolates displacements instead of models)", NonRigidTools.defaultUseDisplacementField );
+		gd1.addNumericField( "Only_use_interest_points_around_fused_volume (padding in global coordinates, -1 = all)", defaultInterestPointPadding, 0 );
 		gd1.addCheckbox( "Use_additional_interest_points", defaultAdditionalIPs );
 
 		gd1.showDialog();
@@ -154,6 +161,8 @@ public class NonRigidParametersGUI extends NonRigidParameters
 		this.controlPointDistance = defaultControlPointDistance = Math.round( gd1.getNextNumber() );
 		this.nonRigidAcrossTime = defaultNonRigidAcrossTime = gd1.getNextBoolean();
 		this.showDistanceMap = defaultShowDistanceMap = gd1.getNextBoolean();
+		NonRigidTools.defaultUseDisplacementField = gd1.getNextBoolean();
+		NonRigidTools.defaultInterestPointPadding = defaultInterestPointPadding = gd1.getNextNumber();
 
 		if ( defaultAdditionalInterestPoints = gd1.getNextBoolean() )
 		{
@@ -22,6 +22,7 @@
  */
 package net.preibisch.mvrecon.fiji.plugin.interestpointdetection;
 
+import java.io.File;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -58,6 +59,7 @@ import net.preibisch.mvrecon.process.boundingbox.BoundingBoxTools;
 import net.preibisch.mvrecon.process.export.DisplayImage;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
+import net.preibisch.mvrecon.process.interestpointdetection.DetectionCache;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
 import net.preibisch.mvrecon.process.interestpointdetection.methods.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointregistration.TransformationTools;
@@ -96,10 +98,13 @@ public abstract class DifferenceOfGUI extends InterestPointDetectionGUI
 	public static int defaultMaxDetections = 3000;
 	public static int defaultMaxDetectionsTypeIndex = 0;
 
+	public static boolean defaultUseDetectionCache = false;
+
 	protected boolean limitDetections = false;
 	protected double imageSigmaX, imageSigmaY, imageSigmaZ;
 	protected double minIntensity, maxIntensity;
 	protected int maxDetections, maxDetectionsTypeIndex;
+	protected boolean useDetectionCache;
 
 	// downsampleXYIndex == 0 : a bit less then z-resolution
 	// downsampleXYIndex == -1 : a bit more then z-resolution
@@ -217,6 +222,8 @@ public abstract class DifferenceOfGUI extends InterestPointDetectionGUI
 			gd.addChoice( "Type_of_detections_to_use", InterestPointTools.limitDetectionChoice, InterestPointTools.limitDetectionChoice[ defaultMaxDetectionsTypeIndex ] );
 		}
 
+		gd.addCheckbox( "Cache_detections (re-use results of runs with identical parameters)", defaultUseDetectionCache );
+
 		addAddtionalParameters( gd );
 
 		gd.showDialog();
@@ -298,12 +305,25 @@ public abstract class DifferenceOfGUI extends InterestPointDetectionGUI
 			maxDetectionsTypeIndex = defaultMaxDetectionsTypeIndex = gd.getNextChoiceIndex();
 		}
 
+		useDetectionCache = defaultUseDetectionCache = gd.getNextBoolean();
+
 		if ( !queryAdditionalParameters( gd ) )
 			return false;
 		else
 			return true;
 	}
 
+	/**
+	 * @return the persistent detection cache next to the XML, or null if caching is disabled
+	 */
+	protected DetectionCache getDetectionCache()
+	{
+		if ( !useDetectionCache )
+			return null;
+
+		return new DetectionCache( new File( spimData.getBasePath(), DetectionCache.defaultCacheDirName ) );
+	}
+
 	/*
 	 * Figure out which view to use for the interactive preview
 	 * 
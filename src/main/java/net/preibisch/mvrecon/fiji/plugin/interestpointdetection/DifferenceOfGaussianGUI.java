@@ -120,6 +120,8 @@ public class DifferenceOfGaussianGUI extends DifferenceOfGUI implements GenericD
 		dog.maxDetections = this.maxDetections;
 		dog.maxDetectionsTypeIndex = this.maxDetectionsTypeIndex;
 
+		dog.cache = getDetectionCache();
+
 		final HashMap< ViewId, List< InterestPoint > > interestPoints = new HashMap< ViewId, List< InterestPoint > >();
 
 		for ( final ViewDescription vd : SpimData2.getAllViewIdsForTimePointSorted( spimData, viewIdsToProcess, t ) )
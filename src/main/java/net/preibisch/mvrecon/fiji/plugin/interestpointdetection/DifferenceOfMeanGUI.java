@@ -96,6 +96,8 @@ public class DifferenceOfMeanGUI extends DifferenceOfGUI
 		dom.maxDetections = this.maxDetections;
 		dom.maxDetectionsTypeIndex = this.maxDetectionsTypeIndex;
 
+		dom.cache = getDetectionCache();
+
 		final HashMap< ViewId, List< InterestPoint > > interestPoints = new HashMap< ViewId, List< InterestPoint > >();
 
 		for ( final ViewDescription vd : SpimData2.getAllViewIdsForTimePointSorted( spimData, viewIdsToProcess, t ) )
@@ -86,4 +86,7 @@ public class CenterOfMassGUI extends PairwiseGUI
 
 	@Override
 	public double globalOptError() { return 5.0; }
+
+	@Override
+	public String getParameterFingerprint() { return getDescription() + ", " + centerType; }
 }
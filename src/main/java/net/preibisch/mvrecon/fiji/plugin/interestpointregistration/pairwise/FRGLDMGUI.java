@@ -90,6 +90,7 @@ public class FRGLDMGUI extends PairwiseGUI
 		gd.addSlider( "Allowed_error_for_RANSAC (px)", 0.5, 100.0, RANSACParameters.max_epsilon );
 		gd.addSlider( "Inlier_factor (minimal amount of inliers)", 1, 20, min_inlier_factor );
 		gd.addChoice( "RANSAC_iterations", RANSACParameters.ransacChoices, RANSACParameters.ransacChoices[ defaultRANSACIterationChoice ] );
+		gd.addChoice( "RANSAC_method", RANSACParameters.methodChoices, RANSACParameters.methodChoices[ RANSACParameters.method.ordinal() ] );
 	}
 
 	@Override
@@ -115,6 +116,7 @@ public class FRGLDMGUI extends PairwiseGUI
 		final float maxEpsilon = RANSACParameters.max_epsilon = (float)gd.getNextNumber();
 		final float inlierFactor = min_inlier_factor = (float)gd.getNextNumber();
 		final int ransacIterations = RANSACParameters.ransacChoicesIterations[ defaultRANSACIterationChoice = gd.getNextChoiceIndex() ];
+		RANSACParameters.method = RANSACParameters.Method.values()[ gd.getNextChoiceIndex() ];
 
 		final float minInlierRatio;
 		if ( ratioOfDistance >= 2 )
@@ -134,6 +136,7 @@ public class FRGLDMGUI extends PairwiseGUI
 		IOFunctions.println( "maxEpsilon: " + maxEpsilon );
 		IOFunctions.println( "inlierFactor: " + inlierFactor );
 		IOFunctions.println( "ransacIterations: " + ransacIterations );
+		IOFunctions.println( "ransacMethod: " + RANSACParameters.method );
 		IOFunctions.println( "minInlierRatio: " + minInlierRatio );
 
 		return true;
@@ -147,4 +150,7 @@ public class FRGLDMGUI extends PairwiseGUI
 
 	@Override
 	public double globalOptError() { return ransacParams.getMaxEpsilon(); }
+
+	@Override
+	public String getParameterFingerprint() { return getDescription() + ", " + model.getDescription() + ", " + parameters.getRatioOfDistance() + "," + parameters.getNumNeighbors() + "," + parameters.getRedundancy() + ", " + ransacParams.getFingerprint(); }
 }
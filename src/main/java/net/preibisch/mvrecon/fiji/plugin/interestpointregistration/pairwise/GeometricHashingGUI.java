@@ -82,6 +82,7 @@ public class GeometricHashingGUI extends PairwiseGUI
 
 		gd.addSlider( "Allowed_error_for_RANSAC (px)", 0.5, 100.0, RANSACParameters.max_epsilon );
 		gd.addChoice( "Number_of_RANSAC_iterations", RANSACParameters.ransacChoices, RANSACParameters.ransacChoices[ defaultRANSACIterationChoice ] );
+		gd.addChoice( "RANSAC_method", RANSACParameters.methodChoices, RANSACParameters.methodChoices[ RANSACParameters.method.ordinal() ] );
 	}
 
 	@Override
@@ -106,6 +107,7 @@ public class GeometricHashingGUI extends PairwiseGUI
 		final float ratioOfDistance = GeometricHashingParameters.ratioOfDistance = (float)gd.getNextNumber();
 		final float maxEpsilon = RANSACParameters.max_epsilon = (float)gd.getNextNumber();
 		final int ransacIterations = RANSACParameters.ransacChoicesIterations[ defaultRANSACIterationChoice = gd.getNextChoiceIndex() ];
+		RANSACParameters.method = RANSACParameters.Method.values()[ gd.getNextChoiceIndex() ];
 
 		final float minInlierRatio;
 		if ( ratioOfDistance >= 2 )
@@ -124,6 +126,7 @@ public class GeometricHashingGUI extends PairwiseGUI
 		IOFunctions.println( "ratioOfDistance: " + ratioOfDistance );
 		IOFunctions.println( "maxEpsilon: " + maxEpsilon );
 		IOFunctions.println( "ransacIterations: " + ransacIterations );
+		IOFunctions.println( "ransacMethod: " + RANSACParameters.method );
 		IOFunctions.println( "minInlierRatio: " + minInlierRatio );
 
 		return true;
@@ -137,4 +140,7 @@ public class GeometricHashingGUI extends PairwiseGUI
 
 	@Override
 	public double globalOptError() { return ransacParams.getMaxEpsilon(); }
+
+	@Override
+	public String getParameterFingerprint() { return getDescription() + ", " + model.getDescription() + ", " + ghParams.getDifferenceThreshold() + "," + ghParams.getRatioOfDistance() + "," + ghParams.getRedundancy() + ", " + ransacParams.getFingerprint(); }
 }
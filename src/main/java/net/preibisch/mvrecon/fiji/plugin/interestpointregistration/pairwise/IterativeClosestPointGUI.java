@@ -72,6 +72,7 @@ public class IterativeClosestPointGUI extends PairwiseGUI
 
 		gd.addSlider( "Maximal_distance for correspondence (px)", 0.25, 40.0, IterativeClosestPointParameters.maxDistance );
 		gd.addNumericField( "Maximal_number of iterations", IterativeClosestPointParameters.maxIterations, 0 );
+		gd.addNumericField( "Stop_if_model_changes_less_than (px)", IterativeClosestPointParameters.maxModelChange, 4 );
 	}
 
 	@Override
@@ -94,8 +95,9 @@ public class IterativeClosestPointGUI extends PairwiseGUI
 
 		final double maxDistance = IterativeClosestPointParameters.maxDistance = gd.getNextNumber();
 		final int maxIterations = IterativeClosestPointParameters.maxIterations = (int)Math.round( gd.getNextNumber() );
+		final double maxModelChange = IterativeClosestPointParameters.maxModelChange = gd.getNextNumber();
 
-		this.parameters = new IterativeClosestPointParameters( model.getModel(), maxDistance, maxIterations );
+		this.parameters = new IterativeClosestPointParameters( model.getModel(), maxDistance, maxIterations, maxModelChange );
 
 		return true;
 	}
@@ -114,4 +116,7 @@ public class IterativeClosestPointGUI extends PairwiseGUI
 
 	@Override
 	public double globalOptError() { return parameters.getMaxDistance(); }
+
+	@Override
+	public String getParameterFingerprint() { return getDescription() + ", " + model.getDescription() + ", " + parameters.getMaxDistance() + "," + parameters.getMaxNumIterations() + "," + parameters.getMaxModelChange(); }
 }
@@ -88,6 +88,11 @@ public abstract class PairwiseGUI
 	 */
 	public abstract double globalOptError();
 
+	/**
+	 * @return - all parameters that influence the result of the pairwise matching, used to identify cached results (null if they should not be cached)
+	 */
+	public String getParameterFingerprint() { return null; }
+
 	/**
 	 * @param model - predefines a transformation model to use (if applicable)
 	 */
@@ -89,6 +89,7 @@ public class RGLDMGUI extends PairwiseGUI
 
 		gd.addSlider( "Allowed_error_for_RANSAC (px)", 0.5, 100.0, RANSACParameters.max_epsilon );
 		gd.addChoice( "RANSAC_iterations", RANSACParameters.ransacChoices, RANSACParameters.ransacChoices[ defaultRANSACIterationChoice ] );
+		gd.addChoice( "RANSAC_method", RANSACParameters.methodChoices, RANSACParameters.methodChoices[ RANSACParameters.method.ordinal() ] );
 	}
 
 	@Override
@@ -114,6 +115,7 @@ public class RGLDMGUI extends PairwiseGUI
 		final float ratioOfDistance = RGLDMParameters.ratioOfDistance = (float)gd.getNextNumber();
 		final float maxEpsilon = RANSACParameters.max_epsilon = (float)gd.getNextNumber();
 		final int ransacIterations = RANSACParameters.ransacChoicesIterations[ defaultRANSACIterationChoice = gd.getNextChoiceIndex() ];
+		RANSACParameters.method = RANSACParameters.Method.values()[ gd.getNextChoiceIndex() ];
 
 		final float minInlierRatio;
 		if ( ratioOfDistance >= 2 )
@@ -133,6 +135,7 @@ public class RGLDMGUI extends PairwiseGUI
 		IOFunctions.println( "ratioOfDistance: " + ratioOfDistance );
 		IOFunctions.println( "maxEpsilon: " + maxEpsilon );
 		IOFunctions.println( "ransacIterations: " + ransacIterations );
+		IOFunctions.println( "ransacMethod: " + RANSACParameters.method );
 		IOFunctions.println( "minInlierRatio: " + minInlierRatio );
 
 		return true;
@@ -146,4 +149,7 @@ public class RGLDMGUI extends PairwiseGUI
 
 	@Override
 	public double globalOptError() { return ransacParams.getMaxEpsilon(); }
+
+	@Override
+	public String getParameterFingerprint() { return getDescription() + ", " + model.getDescription() + ", " + parameters.getDifferenceThreshold() + "," + parameters.getRatioOfDistance() + "," + parameters.getNumNeighbors() + "," + parameters.getRedundancy() + ", " + ransacParams.getFingerprint(); }
 }
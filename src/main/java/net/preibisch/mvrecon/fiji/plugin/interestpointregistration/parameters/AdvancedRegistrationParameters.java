@@ -48,7 +48,8 @@ import mpicbg.spim.io.IOFunctions;
 public class AdvancedRegistrationParameters
 {
 	public int range, referenceTimePoint, fixViewsIndex, mapBackIndex;
-	public boolean groupTimePoints, showStatistics;
+	public boolean groupTimePoints, showStatistics, restrictToOverlap, incremental, cachePairwiseResults, useSparseSolver;
+	public double overlapPadding;
 
 	public PairwiseSetup< ViewId > pairwiseSetupInstance(
 			final RegistrationType registrationType,
@@ -27,7 +27,7 @@ import java.util.HashMap;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.pairwise.PairwiseGUI;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.AllAgainstAllOverlap;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.OverlapDetection;
-import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SimpleBoundingBoxOverlap;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.PrecomputedBoundingBoxOverlap;
 
 import mpicbg.spim.data.SpimData;
 import mpicbg.spim.data.sequence.ViewId;
@@ -58,6 +58,6 @@ public class BasicRegistrationParameters
 		if ( overlapType == OverlapType.ALL_AGAINST_ALL )
 			return new AllAgainstAllOverlap<>( 3 );
 		else
-			return new SimpleBoundingBoxOverlap<>( spimData );
+			return new PrecomputedBoundingBoxOverlap<>( spimData );
 	}
 }
@@ -226,14 +226,9 @@ public class Generic_Resave_HDF5 implements PlugIn
 		AbstractSequenceDescription< ?, ?, ? > seq = spimData.getSequenceDescription();
 		if ( partitions != null )
 		{
-			for ( int i = 0; i < partitions.size(); ++i )
-			{
-				final Partition partition = partitions.get( i );
-				final ProgressWriter p = new SubTaskProgressWriter( progressWriter, 0, 0.95 * i / partitions.size() );
-				progressWriter.out().printf( "proccessing partition %d / %d\n", ( i + 1 ), partitions.size() );
-				if ( !params.onlyRunSingleJob || params.jobId == i + 1 )
-					WriteSequenceToHdf5.writeHdf5PartitionFile( seq, perSetupExportMipmapInfo, params.deflate, partition, new DefaultLoopbackHeuristic(), null, Threads.numThreads(), p );
-			}
+			// the partitions are independent files, write several of them at the same time
+			new ParallelPartitionWriter( seq, perSetupExportMipmapInfo, params, partitions ).write( progressWriter );
+
 			if ( !params.onlyRunSingleJob || params.jobId == 0 )
 				WriteSequenceToHdf5.writeHdf5PartitionLinkFile( seq, perSetupExportMipmapInfo, partitions, params.hdf5File );
 		}
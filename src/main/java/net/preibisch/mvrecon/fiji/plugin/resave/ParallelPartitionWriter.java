@@ -0,0 +1,218 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.plugin.resave;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.export.ProgressWriter;
+import bdv.export.WriteSequenceToHdf5;
+import bdv.export.WriteSequenceToHdf5.DefaultLoopbackHeuristic;
+import bdv.img.hdf5.Partition;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import net.imglib2.Dimensions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.plugin.resave.Generic_Resave_HDF5.Parameters;
+
+/**
+ * Writes the partition files of a split HDF5 export concurrently. Every partition is an independent file, so while one
+ * partition is compressing and writing a view, the next view of another partition is already loaded from the imgloader.
+ * The number of partitions that are processed at the same time is bounded by {@link #defaultParallelPartitions} and by
+ * the memory that is available for the largest view of each partition.
+ */
+public class ParallelPartitionWriter
+{
+	// at most that many partitions are written at the same time (I/O concurrency)
+	public static int defaultParallelPartitions = 4;
+
+	// how many bytes of memory one pixel of a view being written needs (16 bit plus the downsampled levels kept for loopback)
+	public static double defaultBytesPerPixel = 2.5;
+
+	final AbstractSequenceDescription< ?, ?, ? > seq;
+	final Map< Integer, ExportMipmapInfo > perSetupExportMipmapInfo;
+	final Parameters params;
+	final List< Partition > partitions;
+
+	public ParallelPartitionWriter(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupExportMipmapInfo,
+			final Parameters params,
+			final List< Partition > partitions )
+	{
+		this.seq = seq;
+		this.perSetupExportMipmapInfo = perSetupExportMipmapInfo;
+		this.params = params;
+		this.partitions = partitions;
+	}
+
+	/**
+	 * @param progressWriter - receives the overall progress, scaled to [0 ... 0.95]
+	 */
+	public void write( final ProgressWriter progressWriter )
+	{
+		// the partitions that are written by this job
+		final ArrayList< Integer > todo = new ArrayList<>();
+
+		for ( int i = 0; i < partitions.size(); ++i )
+			if ( !params.onlyRunSingleJob || params.jobId == i + 1 )
+				todo.add( i );
+
+		if ( todo.size() == 0 )
+			return;
+
+		final int numParallel = numParallelPartitions( todo );
+		final int threadsPerPartition = Math.max( 1, Threads.numThreads() / numParallel );
+
+		progressWriter.out().println( "Writing " + todo.size() + " partitions, " + numParallel + " at a time using " + threadsPerPartition + " thread(s) each." );
+
+		final double[] progress = new double[ todo.size() ];
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int j = 0; j < todo.size(); ++j )
+		{
+			final int i = todo.get( j );
+			final int progressIndex = j;
+
+			tasks.add( () ->
+			{
+				final Partition partition = partitions.get( i );
+				final ProgressWriter p = new PartitionProgressWriter( progressWriter, progress, progressIndex );
+
+				progressWriter.out().printf( "proccessing partition %d / %d\n", ( i + 1 ), partitions.size() );
+
+				WriteSequenceToHdf5.writeHdf5PartitionFile(
+						seq, perSetupExportMipmapInfo, params.deflate, partition, new DefaultLoopbackHeuristic(), null, threadsPerPartition, p );
+
+				p.setProgress( 1.0 );
+
+				return null;
+			});
+		}
+
+		final ExecutorService service = Threads.createFixedExecutorService( numParallel );
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			progressWriter.err().println( "Failed to write partitions: " + e );
+			e.printStackTrace( progressWriter.err() );
+			throw new RuntimeException( e );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * @param todo - the indices of the partitions that will be written
+	 * @return how many partitions can be written at the same time without running out of memory
+	 */
+	protected int numParallelPartitions( final List< Integer > todo )
+	{
+		long maxPixels = 0;
+
+		for ( final int i : todo )
+			for ( final int setupId : partitions.get( i ).getSetupIdSequenceToPartition().keySet() )
+			{
+				final BasicViewSetup setup = seq.getViewSetups().get( setupId );
+
+				if ( setup != null && setup.hasSize() )
+					maxPixels = Math.max( maxPixels, numPixels( setup.getSize() ) );
+			}
+
+		int numParallel = Math.max( 1, Math.min( Math.min( defaultParallelPartitions, todo.size() ), Threads.numThreads() ) );
+
+		if ( maxPixels > 0 )
+		{
+			final Runtime runtime = Runtime.getRuntime();
+			final long available = runtime.maxMemory() - ( runtime.totalMemory() - runtime.freeMemory() );
+			final long perPartition = Math.round( maxPixels * defaultBytesPerPixel );
+
+			numParallel = (int)Math.max( 1, Math.min( numParallel, available / Math.max( 1, perPartition ) ) );
+		}
+
+		return numParallel;
+	}
+
+	protected static long numPixels( final Dimensions dim )
+	{
+		long n = 1;
+
+		for ( int d = 0; d < dim.numDimensions(); ++d )
+			n *= dim.dimension( d );
+
+		return n;
+	}
+
+	/**
+	 * Forwards the progress of one partition as part of the overall progress of all partitions
+	 */
+	protected static class PartitionProgressWriter implements ProgressWriter
+	{
+		final ProgressWriter progressWriter;
+		final double[] progress;
+		final int index;
+
+		public PartitionProgressWriter( final ProgressWriter progressWriter, final double[] progress, final int index )
+		{
+			this.progressWriter = progressWriter;
+			this.progress = progress;
+			this.index = index;
+		}
+
+		@Override
+		public PrintStream out() { return progressWriter.out(); }
+
+		@Override
+		public PrintStream err() { return progressWriter.err(); }
+
+		@Override
+		public void setProgress( final double completionRatio )
+		{
+			double sum = 0;
+
+			synchronized ( progress )
+			{
+				progress[ index ] = completionRatio;
+
+				for ( final double p : progress )
+					sum += p;
+			}
+
+			progressWriter.setProgress( 0.95 * sum / progress.length );
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.plugin.resave;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.janelia.saalfeldlab.n5.Compression;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.export.ProgressWriter;
+import bdv.export.ProposeMipmaps;
+import fiji.util.gui.GenericDialogPlus;
+import ij.IJ;
+import ij.plugin.PlugIn;
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
+import net.preibisch.mvrecon.fiji.ImgLib2Temp.ValuePair;
+import net.preibisch.mvrecon.fiji.plugin.queryXML.LoadParseQueryXML;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.n5.N5ImgLoader;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.n5.WriteSequenceToN5;
+
+public class Resave_N5 implements PlugIn
+{
+	public static String defaultPath = null;
+	public static boolean defaultManualMipmap = false;
+	public static String defaultSubsampling = "{1,1,1}, {2,2,1}, {4,4,2}";
+	public static String defaultBlockSizes = "{64,64,64}, {64,64,64}, {64,64,64}";
+
+	// block size of every resolution level if the mipmap setup is not defined manually
+	public static int defaultBlockSize = 64;
+
+	public static void main( final String[] args )
+	{
+		new Resave_N5().run( null );
+	}
+
+	public static class Parameters
+	{
+		public File xmlFile;
+		public File n5File;
+		public Compression compression;
+		public boolean setMipmapManual;
+		public int[][] resolutions;
+		public int[][] blockSizes;
+
+		public File getXMLFile() { return xmlFile; }
+		public File getN5File() { return n5File; }
+		public Compression getCompression() { return compression; }
+	}
+
+	@Override
+	public void run( final String arg0 )
+	{
+		final LoadParseQueryXML xml = new LoadParseQueryXML();
+
+		if ( !xml.queryXML( "Resaving as N5", "Resave", true, true, true, true, true ) )
+			return;
+
+		// load all dimensions if they are not known (required for estimating the mipmap layout)
+		if ( Resave_HDF5.loadDimensions( xml.getData(), xml.getViewSetupsToProcess() ) )
+		{
+			// save the XML again with the dimensions loaded
+			SpimData2.saveXML( xml.getData(), xml.getXMLFileName(), xml.getClusterExtension() );
+		}
+
+		final Parameters params = getParameters( "Resave dataset as N5", LoadParseQueryXML.defaultXMLfilename );
+
+		if ( params == null )
+			return;
+
+		final ProgressWriter progressWriter = new ProgressWriterIJ();
+		progressWriter.out().println( "starting export..." );
+
+		final SpimData2 data = xml.getData();
+		final List< ViewId > viewIds = SpimData2.getAllViewIdsSorted( data, xml.getViewSetupsToProcess(), xml.getTimePointsToProcess() );
+		final Map< Integer, ExportMipmapInfo > perSetupExportMipmapInfo = getPerSetupExportMipmapInfo( xml.getViewSetupsToProcess(), params );
+
+		// write n5
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Writing N5 container '" + params.n5File + "'" );
+
+		if ( !WriteSequenceToN5.writeSequence( data.getSequenceDescription(), viewIds, perSetupExportMipmapInfo, params.n5File, params.compression, Threads.numThreads(), progressWriter ) )
+			return;
+
+		// write xml sequence description
+		try
+		{
+			final Pair< SpimData2, List< String > > result = createXMLObject( data, viewIds, params );
+
+			xml.getIO().save( result.getA(), params.xmlFile.getAbsolutePath() );
+			progressWriter.setProgress( 0.95 );
+
+			// copy the interest points if they exist
+			Resave_TIFF.copyInterestPoints( data.getBasePath(), params.xmlFile.getParentFile(), result.getB() );
+
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Saved xml '" + params.xmlFile + "'." );
+		}
+		catch ( SpimDataException e )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Could not save xml '" + params.xmlFile + "': " + e );
+			throw new RuntimeException( e );
+		}
+
+		progressWriter.setProgress( 1.0 );
+		progressWriter.out().println( "done" );
+	}
+
+	public static Pair< SpimData2, List< String > > createXMLObject( final SpimData2 spimData, final List< ViewId > viewIds, final Parameters params )
+	{
+		final List< String > filesToCopy = new ArrayList< String >();
+		final SpimData2 newSpimData = Resave_TIFF.assemblePartialSpimData2( spimData, viewIds, params.xmlFile.getParentFile(), filesToCopy );
+
+		newSpimData.getSequenceDescription().setImgLoader( new N5ImgLoader( params.n5File, newSpimData.getSequenceDescription() ) );
+		newSpimData.setBasePath( params.xmlFile.getParentFile() );
+
+		return new ValuePair< SpimData2, List< String > >( newSpimData, filesToCopy );
+	}
+
+	public static Map< Integer, ExportMipmapInfo > getPerSetupExportMipmapInfo( final List< ? extends BasicViewSetup > setups, final Parameters params )
+	{
+		final HashMap< Integer, ExportMipmapInfo > perSetupExportMipmapInfo = new HashMap< Integer, ExportMipmapInfo >();
+
+		for ( final BasicViewSetup setup : setups )
+		{
+			if ( params.setMipmapManual )
+			{
+				perSetupExportMipmapInfo.put( setup.getId(), new ExportMipmapInfo( params.resolutions, params.blockSizes ) );
+			}
+			else
+			{
+				// the proposed subdivisions are tuned for hdf5 chunks, N5 stores every block as a file
+				final int[][] resolutions = ProposeMipmaps.proposeMipmaps( setup ).getExportResolutions();
+				final int[][] blockSizes = new int[ resolutions.length ][ resolutions[ 0 ].length ];
+
+				for ( final int[] blockSize : blockSizes )
+					Arrays.fill( blockSize, defaultBlockSize );
+
+				perSetupExportMipmapInfo.put( setup.getId(), new ExportMipmapInfo( resolutions, blockSizes ) );
+			}
+		}
+
+		return perSetupExportMipmapInfo;
+	}
+
+	public static Parameters getParameters( final String dialogTitle, final String xmlPath )
+	{
+		while ( true )
+		{
+			final GenericDialogPlus gd = new GenericDialogPlus( dialogTitle );
+
+			if ( defaultPath == null )
+				defaultPath = xmlPath;
+
+			PluginHelper.addSaveAsFileField( gd, "Select new XML", defaultPath, 80 );
+			gd.addChoice( "Compression", WriteSequenceToN5.compressionChoices, WriteSequenceToN5.compressionChoices[ WriteSequenceToN5.defaultCompression ] );
+
+			gd.addMessage( "" );
+			gd.addCheckbox( "manual_mipmap_setup", defaultManualMipmap );
+			gd.addStringField( "Subsampling_factors", defaultSubsampling, 25 );
+			gd.addStringField( "N5_block_sizes", defaultBlockSizes, 25 );
+
+			gd.showDialog();
+
+			if ( gd.wasCanceled() )
+				return null;
+
+			final Parameters params = new Parameters();
+
+			String xmlFile = defaultPath = gd.getNextString();
+
+			if ( !xmlFile.endsWith( ".xml" ) )
+				xmlFile += ".xml";
+
+			params.xmlFile = new File( xmlFile );
+			params.n5File = new File( xmlFile.substring( 0, xmlFile.length() - ".xml".length() ) + ".n5" );
+			params.compression = WriteSequenceToN5.getCompression( WriteSequenceToN5.defaultCompression = gd.getNextChoiceIndex() );
+
+			params.setMipmapManual = defaultManualMipmap = gd.getNextBoolean();
+			defaultSubsampling = gd.getNextString();
+			defaultBlockSizes = gd.getNextString();
+
+			final File parent = params.xmlFile.getParentFile();
+
+			if ( parent == null || !parent.exists() || !parent.isDirectory() )
+			{
+				IJ.showMessage( "Invalid export filename " + xmlFile );
+				continue;
+			}
+
+			if ( params.setMipmapManual )
+			{
+				params.resolutions = PluginHelper.parseResolutionsString( defaultSubsampling );
+				params.blockSizes = PluginHelper.parseResolutionsString( defaultBlockSizes );
+
+				if ( params.resolutions.length == 0 )
+				{
+					IJ.showMessage( "Cannot parse subsampling factors " + defaultSubsampling );
+					continue;
+				}
+				if ( params.blockSizes.length == 0 )
+				{
+					IJ.showMessage( "Cannot parse N5 block sizes " + defaultBlockSizes );
+					continue;
+				}
+				else if ( params.resolutions.length != params.blockSizes.length )
+				{
+					IJ.showMessage( "subsampling factors and N5 block sizes must have the same number of elements" );
+					continue;
+				}
+			}
+
+			LoadParseQueryXML.defaultXMLfilename = params.xmlFile.getAbsolutePath();
+
+			return params;
+		}
+	}
+}
@@ -105,6 +105,7 @@ import net.preibisch.mvrecon.fiji.spimdata.explorer.popup.VisualizeDetectionsPop
 import net.preibisch.mvrecon.fiji.spimdata.explorer.popup.VisualizeNonRigid;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.util.ColorStream;
 import net.preibisch.mvrecon.fiji.spimdata.imgloaders.filemap2.FileMapImgLoaderLOCI2;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.n5.N5ImgLoader;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
@@ -159,7 +160,8 @@ public class ViewSetupExplorerPanel< AS extends AbstractSpimData< ? >, X extends
 		if ( requestStartBDV && 
 				(ViewerImgLoader.class.isInstance( data.getSequenceDescription().getImgLoader() ) 
 				|| data.getSequenceDescription().getImgLoader().getClass().getSimpleName().equals( "FractalImgLoader" )
-				|| FileMapImgLoaderLOCI2.class.isInstance( data.getSequenceDescription().getImgLoader() ) ) )
+				|| FileMapImgLoaderLOCI2.class.isInstance( data.getSequenceDescription().getImgLoader() )
+				|| N5ImgLoader.class.isInstance( data.getSequenceDescription().getImgLoader() ) ) )
 		{
 			final BDVPopup bdvpopup = bdvPopup();
 			
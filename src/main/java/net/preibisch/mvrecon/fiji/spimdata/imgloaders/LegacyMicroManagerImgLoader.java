@@ -23,6 +23,9 @@
 package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -39,19 +42,28 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.array.ArrayCursor;
 import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.planar.PlanarImg;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Fraction;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
 import net.preibisch.mvrecon.fiji.datasetmanager.MicroManager;
 
 public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 {
+	// read the planes directly from memory-mapped files, 16 bit images are wrapped without copying (the files stay
+	// mapped until close() is called)
+	public static boolean defaultMemoryMapped = false;
+
 	final File mmFile;
 	final AbstractSequenceDescription< ? extends BasicViewSetup, ? extends BasicViewDescription< ? >, ? > sequenceDescription;
 
+	// opened and mapped once, the index map is shared by all views
+	private MultipageTiffReader mappedReader = null;
+
 	public LegacyMicroManagerImgLoader(
 			final File mmFile,
 			final AbstractSequenceDescription< ? extends BasicViewSetup, ? extends BasicViewDescription< ? >, ? > sequenceDescription )
@@ -64,6 +76,93 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 
 	public File getFile() { return mmFile; }
 
+	protected synchronized MultipageTiffReader getMappedReader() throws IOException
+	{
+		if ( mappedReader == null )
+		{
+			final MultipageTiffReader r = new MultipageTiffReader( mmFile );
+			r.mapFiles();
+			mappedReader = r;
+		}
+
+		return mappedReader;
+	}
+
+	/**
+	 * Releases the memory-mapped reader (if any), images that were already wrapped stay valid. The next memory-mapped
+	 * access maps the files again.
+	 */
+	public synchronized void close()
+	{
+		if ( mappedReader != null )
+		{
+			try
+			{
+				mappedReader.close();
+			}
+			catch ( IOException e )
+			{
+				IOFunctions.println( "Failed to close '" + mmFile + "': " + e );
+				e.printStackTrace();
+			}
+
+			mappedReader = null;
+		}
+	}
+
+	/**
+	 * Wraps the memory-mapped 16 bit planes of a view into an image without copying, dropped frames are empty planes.
+	 *
+	 * @param vd - the view description
+	 * @param r - the reader, must be mapped (see {@link MultipageTiffReader#mapFiles()})
+	 * @return the image
+	 */
+	public static PlanarImg< UnsignedShortType, ShortBufferAccess > wrapImage( final BasicViewDescription< ? > vd, final MultipageTiffReader r )
+	{
+		final int t = vd.getTimePoint().getId();
+		final int a = vd.getViewSetup().getAttribute( Angle.class ).getId();
+		final int c = vd.getViewSetup().getAttribute( Channel.class ).getId();
+		final int i = vd.getViewSetup().getAttribute( Illumination.class ).getId();
+
+		final ArrayList< ShortBufferAccess > planes = new ArrayList< ShortBufferAccess >();
+		ArrayList< Integer > slices = null;
+
+		for ( int z = 0; z < r.depth(); ++z )
+		{
+			final ShortBuffer plane = r.readPlaneMappedShorts( MultipageTiffReader.generateLabel( r.interleavedId( c, a ), z, t, i ) );
+
+			if ( plane == null )
+			{
+				if ( slices == null )
+					slices = new ArrayList<Integer>();
+				slices.add( z );
+
+				// leave the slice empty
+				planes.add( new ShortBufferAccess( ShortBuffer.allocate( r.width() * r.height() ) ) );
+			}
+			else
+			{
+				planes.add( new ShortBufferAccess( plane ) );
+			}
+		}
+
+		if ( slices != null )
+			logDroppedFrames( vd, slices );
+
+		final PlanarImg< UnsignedShortType, ShortBufferAccess > img = new PlanarImg< UnsignedShortType, ShortBufferAccess >( planes, new long[]{ r.width(), r.height(), r.depth() }, new Fraction() );
+		img.setLinkedType( new UnsignedShortType( img ) );
+
+		return img;
+	}
+
+	protected static void logDroppedFrames( final BasicViewDescription< ? > vd, final ArrayList< Integer > slices )
+	{
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): WARNING!!! " + slices.size() + " DROPPED FRAME(s) in timepoint="  + vd.getTimePointId() + " viewsetup=" + vd.getViewSetupId() + " following slices:" );
+
+		for ( final int z : slices )
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): slice=" + z );
+	}
+
 	final public static < T extends RealType< T > & NativeType< T > > void populateImage( final ArrayImg< T, ? > img, final BasicViewDescription< ? > vd, final MultipageTiffReader r )
 	{
 		final ArrayCursor< T > cursor = img.cursor();
@@ -79,7 +178,26 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 		for ( int z = 0; z < r.depth(); ++z )
 		{
 			final String label = MultipageTiffReader.generateLabel( r.interleavedId( c, a ), z, t, i );
-			final Pair< Object, HashMap< String, Object > > result = r.readImage( label );
+
+			// read straight from the mapped file, no intermediate arrays and no per-plane metadata parsing
+			if ( r.isMapped() )
+			{
+				final ByteBuffer plane = r.readPlaneMapped( label );
+
+				if ( plane != null )
+				{
+					if ( r.byteDepth() == 1 )
+						for ( int j = 0; j < plane.capacity(); ++j )
+							cursor.next().setReal( UnsignedByteType.getUnsignedByte( plane.get( j ) ) );
+					else
+						for ( int j = 0; j < plane.capacity() / 2; ++j )
+							cursor.next().setReal( UnsignedShortType.getUnsignedShort( plane.getShort( j * 2 ) ) );
+
+					continue;
+				}
+			}
+
+			final Pair< Object, HashMap< String, Object > > result = r.isMapped() ? null : r.readImage( label );
 
 			if ( result == null )
 			{
@@ -106,12 +224,7 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 		}
 
 		if ( countDroppedFrames > 0 )
-		{
-			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): WARNING!!! " + countDroppedFrames + " DROPPED FRAME(s) in timepoint="  + t + " viewsetup=" + vd.getViewSetupId() + " following slices:" );
-
-			for ( final int z : slices )
-				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): slice=" + z );
-		}
+			logDroppedFrames( vd, slices );
 	}
 
 	@Override
@@ -119,7 +232,7 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 	{
 		try
 		{
-			final MultipageTiffReader r = new MultipageTiffReader( mmFile );
+			final MultipageTiffReader r = defaultMemoryMapped ? getMappedReader() : new MultipageTiffReader( mmFile );
 
 			final ArrayImg< FloatType, ? > img = ArrayImgs.floats( r.width(), r.height(), r.depth() );
 			final BasicViewDescription< ? > vd = sequenceDescription.getViewDescriptions().get( view );
@@ -131,7 +244,8 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 
 			updateMetaDataCache( view, r.width(), r.height(), r.depth(), r.calX(), r.calY(), r.calZ() );
 
-			r.close();
+			if ( !r.isMapped() )
+				r.close();
 
 			return img;
 		}
@@ -148,10 +262,26 @@ public class LegacyMicroManagerImgLoader extends AbstractImgLoader
 	{
 		try
 		{
+			final BasicViewDescription< ? > vd = sequenceDescription.getViewDescriptions().get( view );
+
+			if ( defaultMemoryMapped )
+			{
+				final MultipageTiffReader r = getMappedReader();
+
+				updateMetaDataCache( view, r.width(), r.height(), r.depth(), r.calX(), r.calY(), r.calZ() );
+
+				if ( r.byteDepth() == 2 )
+					return wrapImage( vd, r );
+
+				final ArrayImg< UnsignedShortType, ? > img = ArrayImgs.unsignedShorts( r.width(), r.height(), r.depth() );
+				populateImage( img, vd, r );
+
+				return img;
+			}
+
 			final MultipageTiffReader r = new MultipageTiffReader( mmFile );
 
 			final ArrayImg< UnsignedShortType, ? > img = ArrayImgs.unsignedShorts( r.width(), r.height(), r.depth() );
-			final BasicViewDescription< ? > vd = sequenceDescription.getViewDescriptions().get( view );
 
 			populateImage( img, vd, r );
 
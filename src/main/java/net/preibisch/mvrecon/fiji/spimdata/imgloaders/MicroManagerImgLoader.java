@@ -41,6 +41,11 @@ public class MicroManagerImgLoader extends LegacyImgLoaderWrapper< UnsignedShort
 
 	public File getFile() { return legacyImgLoader.getFile(); }
 
+	/**
+	 * Releases the memory-mapped files, if the loader was used with {@link LegacyMicroManagerImgLoader#defaultMemoryMapped}
+	 */
+	public void close() { legacyImgLoader.close(); }
+
 	@Override
 	public String toString() {
 		return legacyImgLoader.toString();
@@ -54,7 +54,10 @@ import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -119,6 +122,18 @@ public class MultipageTiffReader
 
 	private HashMap< String, Pair< Long, FileChannel > > indexMap_;
 
+	/*
+	 * The files are mapped in segments of this size that overlap by one plane (and its IFD),
+	 * so every plane is contained in a single segment
+	 */
+	public static long mappedSegmentSize = 1l << 30;
+
+	/*
+	 * Set by mapFiles(), the memory-mapped segments of each file and the IFDs that were read already
+	 */
+	private HashMap< FileChannel, MappedByteBuffer[] > mappedSegments_;
+	private final HashMap< String, IFDData > ifdCache_ = new HashMap< String, IFDData >();
+
 	/*
 	 * This constructor is used for opening datasets that have already been
 	 * saved
@@ -285,6 +300,114 @@ public class MultipageTiffReader
 		}
 	}
 
+	/**
+	 * Maps all files into memory (copy-on-write, the files are never modified), afterwards planes can be read
+	 * without copying using {@link #readPlaneMapped(String)}.
+	 *
+	 * @throws IOException - if the files cannot be mapped
+	 */
+	public synchronized void mapFiles() throws IOException
+	{
+		if ( mappedSegments_ != null )
+			return;
+
+		if ( byteDepth_ == 0 )
+			getRGBAndByteDepth( summaryMetadata_ );
+
+		// one plane plus the largest possible IFD
+		final long overlap = (long)width() * height() * Math.max( 1, byteDepth_ ) + 2 + 65535 * 12 + 4;
+
+		if ( mappedSegmentSize + overlap > Integer.MAX_VALUE )
+			throw new IOException( "Planes are too large to be memory-mapped." );
+
+		final HashMap< FileChannel, MappedByteBuffer[] > mappedSegments = new HashMap< FileChannel, MappedByteBuffer[] >();
+
+		for ( final FileChannel fileChannel : this.fileChannels )
+		{
+			final long size = fileChannel.size();
+			final MappedByteBuffer[] segments = new MappedByteBuffer[ (int)Math.max( 1, ( size + mappedSegmentSize - 1 ) / mappedSegmentSize ) ];
+
+			for ( int k = 0; k < segments.length; ++k )
+			{
+				final long start = k * mappedSegmentSize;
+				segments[ k ] = fileChannel.map( MapMode.PRIVATE, start, Math.min( size - start, mappedSegmentSize + overlap ) );
+			}
+
+			mappedSegments.put( fileChannel, segments );
+		}
+
+		this.mappedSegments_ = mappedSegments;
+	}
+
+	public boolean isMapped() { return mappedSegments_ != null; }
+	public int byteDepth() { return byteDepth_; }
+
+	/**
+	 * @param label - the label of the plane, see {@link #generateLabel(int, int, int, int)}
+	 * @return a view of the pixels of this plane in the memory-mapped file (no copy), null if the plane does not exist
+	 */
+	public ByteBuffer readPlaneMapped( final String label )
+	{
+		if ( !isMapped() )
+			throw new IllegalStateException( "Files are not memory-mapped, call mapFiles() first." );
+
+		final Pair< Long, FileChannel > entry = indexMap_.get( label );
+
+		if ( entry == null )
+		{
+			IOFunctions.println( "Exception: label '" + label + "' not in present in hashmap, cannot read data." );
+			return null;
+		}
+
+		if ( rgb_ )
+		{
+			IOFunctions.println( "RGB types not supported." );
+			return null;
+		}
+
+		try
+		{
+			IFDData data;
+
+			synchronized ( ifdCache_ )
+			{
+				data = ifdCache_.get( label );
+
+				if ( data == null )
+				{
+					data = readIFD( entry.getA(), entry.getB() );
+					ifdCache_.put( label, data );
+				}
+			}
+
+			final int k = (int)( data.pixelOffset / mappedSegmentSize );
+			final int start = (int)( data.pixelOffset - k * mappedSegmentSize );
+
+			// duplicates share the content, but have their own position and limit
+			final ByteBuffer plane = mappedSegments_.get( entry.getB() )[ k ].duplicate();
+			plane.position( start );
+			plane.limit( start + (int)data.bytesPerImage );
+
+			return plane.slice().order( byteOrder_ );
+		}
+		catch ( IOException ex )
+		{
+			IOFunctions.println(ex);
+			return null;
+		}
+	}
+
+	/**
+	 * @param label - the label of the plane, see {@link #generateLabel(int, int, int, int)}
+	 * @return a view of the 16 bit pixels of this plane in the memory-mapped file (no copy), null if the plane does not exist
+	 */
+	public ShortBuffer readPlaneMappedShorts( final String label )
+	{
+		final ByteBuffer plane = readPlaneMapped( label );
+
+		return plane == null ? null : plane.asShortBuffer();
+	}
+
 	public Set<String> getIndexKeys() {
 		if (indexMap_ == null)
 			return null;
@@ -599,6 +722,8 @@ public class MultipageTiffReader
 		if ( raFile != null )
 			raFile.close();
 		this.raFiles.clear();
+
+		this.mappedSegments_ = null;
 	}
 
 	public void setApplyAxis( final boolean apply ) { this.applyAxis = apply; }
@@ -0,0 +1,84 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
+
+import java.nio.ShortBuffer;
+
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+
+/**
+ * A {@link ShortAccess} backed by a {@link ShortBuffer}, e.g. a plane of a memory-mapped file, so it can be used
+ * by imglib2 images without copying. Only code that asks for the storage array (e.g. wrapping as ImagePlus) gets a copy.
+ */
+public class ShortBufferAccess implements ShortAccess, ArrayDataAccess< ShortBufferAccess >
+{
+	final ShortBuffer buffer;
+
+	public ShortBufferAccess( final ShortBuffer buffer )
+	{
+		this.buffer = buffer;
+	}
+
+	@Override
+	public short getValue( final int index )
+	{
+		return buffer.get( index );
+	}
+
+	@Override
+	public void setValue( final int index, final short value )
+	{
+		buffer.put( index, value );
+	}
+
+	@Override
+	public ShortBufferAccess createArray( final int numEntities )
+	{
+		return new ShortBufferAccess( ShortBuffer.allocate( numEntities ) );
+	}
+
+	/**
+	 * @return the short[] if the buffer is backed by an array, otherwise (e.g. memory-mapped) a copy of the buffer as short[],
+	 * so changes to it are not written back
+	 */
+	@Override
+	public short[] getCurrentStorageArray()
+	{
+		if ( buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.array().length == buffer.limit() )
+			return buffer.array();
+
+		final short[] copy = new short[ buffer.limit() ];
+		final ShortBuffer b = buffer.duplicate();
+		b.rewind();
+		b.get( copy );
+
+		return copy;
+	}
+
+	@Override
+	public int getArrayLength()
+	{
+		return buffer.limit();
+	}
+}
@@ -25,6 +25,7 @@ package net.preibisch.mvrecon.fiji.spimdata.imgloaders;
 import java.io.File;
 
 import mpicbg.spim.data.legacy.LegacyImgLoaderWrapper;
+import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
@@ -44,6 +45,7 @@ public abstract class StackImgLoader< I extends LegacyStackImgLoader > extends L
 	public int getLayoutAngles() { return legacyImgLoader.layoutAngles; }
 	public int getLayoutTiles() { return legacyImgLoader.layoutTiles; }
 	public ImgFactory< ? extends NativeType< ? > > getImgFactory() { return legacyImgLoader.getImgFactory(); }
+	public File getFileForView( final ViewId view ) { return legacyImgLoader.getFile( view ); }
 
 	@Override
 	public String toString() {
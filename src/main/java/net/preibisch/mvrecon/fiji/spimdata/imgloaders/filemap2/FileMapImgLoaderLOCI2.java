@@ -68,6 +68,9 @@ public class FileMapImgLoaderLOCI2 implements ImgLoader, FileMapGettable
 	private final File tempDir;
 	public boolean zGrouped;
 
+	// readers and raw planes are shared by all images of this ImgLoader
+	private final LOCIPlaneCache planeCache;
+
 	public FileMapImgLoaderLOCI2(Map<? extends ViewId, Pair<File, Pair<Integer, Integer>>> fileMap,
 			final ImgFactory< ? extends NativeType< ? > > imgFactory, // FIXME: remove this, only here to test quick replacement
 			final AbstractSequenceDescription<?, ?, ?> sequenceDescription)
@@ -87,6 +90,7 @@ public class FileMapImgLoaderLOCI2 implements ImgLoader, FileMapGettable
 
 		this.sd = sequenceDescription;
 		this.zGrouped = zGrouped;
+		this.planeCache = new LOCIPlaneCache( new LOCIReaderPool( this::createReader ) );
 		allTimepointsInSingleFiles = true;
 
 		// populate map file -> {time points}
@@ -111,6 +115,24 @@ public class FileMapImgLoaderLOCI2 implements ImgLoader, FileMapGettable
 
 		System.out.println( allTimepointsInSingleFiles );
 	}
+
+	/**
+	 * @return a new reader, use Memoizer to cache ReaderState for each File on disk
+	 * see: https://www-legacy.openmicroscopy.org/site/support/bio-formats5.1/developers/matlab-dev.html#reader-performance
+	 */
+	protected IFormatReader createReader()
+	{
+		if (zGrouped)
+		{
+			final FileStitcher fs = new FileStitcher(true);
+			fs.setCanChangePattern( false );
+			return new Memoizer( fs , Memoizer.DEFAULT_MINIMUM_ELAPSED, tempDir);
+		}
+		else
+		{
+			return new Memoizer( new ImageReader(), Memoizer.DEFAULT_MINIMUM_ELAPSED, tempDir );
+		}
+	}
 	
 
 	@Override
@@ -128,7 +150,15 @@ public class FileMapImgLoaderLOCI2 implements ImgLoader, FileMapGettable
 	{
 		 return fileMap;
 	}
-	
+
+	/**
+	 * Drops the cached planes and closes the pooled readers, call when the ImgLoader is discarded.
+	 */
+	public void close()
+	{
+		planeCache.close();
+	}
+
 	public class FileMapSetupImgLoaderLOCI2 <T extends RealType<T> & NativeType< T >> implements SetupImgLoader< T >
 	{
 		private int setupId;
@@ -148,26 +178,12 @@ public class FileMapImgLoaderLOCI2 implements ImgLoader, FileMapGettable
 
 			final Dimensions size = vd.getViewSetup().getSize();
 
-			// use a new ImageReader since we might be loading multi-threaded and BioFormats is not thread-save
-			// use Memoizer to cache ReaderState for each File on disk
-			// see: https://www-legacy.openmicroscopy.org/site/support/bio-formats5.1/developers/matlab-dev.html#reader-performance
-			IFormatReader reader = null;
-			if (zGrouped)
-			{
-				final FileStitcher fs = new FileStitcher(true);
-				fs.setCanChangePattern( false );
-				reader = new Memoizer( fs , Memoizer.DEFAULT_MINIMUM_ELAPSED, tempDir);
-			}
-			else
-			{
-				reader = new Memoizer( new ImageReader(), Memoizer.DEFAULT_MINIMUM_ELAPSED, tempDir );
-			}
-
+			// BioFormats is not thread-safe, the readers are taken from a pool so we can load multi-threaded
 			RandomAccessibleInterval< T > img = null;
 			try
 			{
 				img = (RandomAccessibleInterval< T >) (Object)new VirtualRAIFactoryLOCI().createVirtualCached(
-						reader, imageSource.getA(), imageSource.getB().getA(),
+						planeCache, imageSource.getA(), imageSource.getB().getA(),
 						imageSource.getB().getB(), allTimepointsInSingleFiles ? 0 : timepointId, new UnsignedShortType(), size );
 			}
 			catch ( IncompatibleTypeException e )
@@ -237,25 +253,11 @@ public class FileMapImgLoaderLOCI2 implements ImgLoader, FileMapGettable
 
 			// TODO: some logging here? (reading angle .. , tp .., ... from file ...)
 
-			// use a new ImageReader since we might be loading multi-threaded and BioFormats is not thread-save
-			// use Memoizer to cache ReaderState for each File on disk
-			// see: https://www-legacy.openmicroscopy.org/site/support/bio-formats5.1/developers/matlab-dev.html#reader-performance
-			IFormatReader reader = null;
-			if (zGrouped)
-			{
-				final FileStitcher fs = new FileStitcher(true);
-				fs.setCanChangePattern( false );
-				reader = new Memoizer( fs , Memoizer.DEFAULT_MINIMUM_ELAPSED, tempDir);
-			}
-			else
-			{
-				reader = new Memoizer( new ImageReader(), Memoizer.DEFAULT_MINIMUM_ELAPSED, tempDir );
-			}
-
+			// BioFormats is not thread-safe, the readers are taken from a pool so we can load multi-threaded
 			RandomAccessibleInterval< FloatType > img = null;
 			try
 			{
-				img = new VirtualRAIFactoryLOCI().createVirtualCached( reader, imageSource.getA(),
+				img = new VirtualRAIFactoryLOCI().createVirtualCached( planeCache, imageSource.getA(),
 						imageSource.getB().getA(), imageSource.getB().getB(),
 						allTimepointsInSingleFiles ? 0 : timepointId, new FloatType(), size );
 			}
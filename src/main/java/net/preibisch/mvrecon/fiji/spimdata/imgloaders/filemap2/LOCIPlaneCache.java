@@ -0,0 +1,254 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders.filemap2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+
+/**
+ * A least-recently-used cache of raw Bio-Formats planes that is shared by all RandomAccesses of an ImgLoader. Planes are
+ * read using readers from a {@link LOCIReaderPool}, so different planes can be loaded by different threads at the same time,
+ * and a plane that is requested while it is being loaded is not loaded twice. Planes can also be prefetched on a
+ * background thread.
+ */
+public class LOCIPlaneCache
+{
+	// how much memory the raw planes may occupy
+	public static long defaultCacheSizeMB = 256;
+
+	// how many planes are read ahead when z is accessed sequentially
+	public static int defaultReadahead = 2;
+
+	// a single daemon thread reads ahead for all caches, so it never competes with more than one plane at a time
+	final static ExecutorService readaheadService = Executors.newSingleThreadExecutor( r ->
+	{
+		final Thread t = new Thread( r, "LOCI readahead" );
+		t.setDaemon( true );
+		return t;
+	});
+
+	final LOCIReaderPool readerPool;
+	final long maxBytes;
+	final int readahead;
+
+	// access-ordered, the eldest entry is the least recently used
+	final LinkedHashMap< PlaneKey, FutureTask< byte[] > > planes = new LinkedHashMap<>( 16, 0.75f, true );
+	long currentBytes = 0;
+
+	public LOCIPlaneCache( final LOCIReaderPool readerPool, final long maxBytes, final int readahead )
+	{
+		this.readerPool = readerPool;
+		this.maxBytes = maxBytes;
+		this.readahead = readahead;
+	}
+
+	public LOCIPlaneCache( final LOCIReaderPool readerPool )
+	{
+		this( readerPool, defaultCacheSizeMB * 1024 * 1024, defaultReadahead );
+	}
+
+	public int getReadahead() { return readahead; }
+
+	/**
+	 * @param file - the file
+	 * @param series - the series in the file
+	 * @param z - the z plane
+	 * @param c - the channel
+	 * @param t - the timepoint
+	 * @return the raw bytes of the plane, must not be modified
+	 */
+	public byte[] getPlane( final File file, final int series, final int z, final int c, final int t )
+	{
+		final PlaneKey key = new PlaneKey( file, series, z, c, t );
+		final FutureTask< byte[] > task = request( key );
+
+		// we are the first to request it, so we load it
+		if ( !task.isDone() )
+			task.run();
+
+		try
+		{
+			return task.get();
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			// do not keep the failed plane, the next request tries again
+			failed( key, task );
+
+			e.printStackTrace();
+			throw new RuntimeException( "Could not read plane z=" + z + ", c=" + c + ", t=" + t + " of series " + series + " from " + file + ": " + e );
+		}
+	}
+
+	/**
+	 * Loads a plane on the background thread unless it is cached or being loaded already.
+	 *
+	 * @param file - the file
+	 * @param series - the series in the file
+	 * @param z - the z plane
+	 * @param c - the channel
+	 * @param t - the timepoint
+	 */
+	public void prefetch( final File file, final int series, final int z, final int c, final int t )
+	{
+		final PlaneKey key = new PlaneKey( file, series, z, c, t );
+		final FutureTask< byte[] > task;
+
+		synchronized ( this )
+		{
+			if ( planes.containsKey( key ) )
+				return;
+
+			task = request( key );
+		}
+
+		// FutureTask.run() does nothing if the plane is loaded by a consumer in the meantime
+		readaheadService.execute( task );
+	}
+
+	protected synchronized FutureTask< byte[] > request( final PlaneKey key )
+	{
+		FutureTask< byte[] > task = planes.get( key );
+
+		if ( task == null )
+		{
+			task = new FutureTask<>( () -> load( key ) );
+			planes.put( key, task );
+		}
+
+		return task;
+	}
+
+	protected synchronized void failed( final PlaneKey key, final FutureTask< byte[] > task )
+	{
+		if ( planes.get( key ) == task )
+			planes.remove( key );
+	}
+
+	protected byte[] load( final PlaneKey key ) throws FormatException, IOException
+	{
+		final IFormatReader reader = readerPool.acquire( key.file, key.series );
+
+		final byte[] buffer;
+
+		try
+		{
+			buffer = new byte[ reader.getBitsPerPixel() / 8 * reader.getRGBChannelCount() * reader.getSizeX() * reader.getSizeY() ];
+			reader.openBytes( reader.getIndex( key.z, key.c, key.t ), buffer );
+		}
+		finally
+		{
+			readerPool.release( key.file, reader );
+		}
+
+		planeLoaded( buffer.length );
+
+		return buffer;
+	}
+
+	protected synchronized void planeLoaded( final long bytes )
+	{
+		currentBytes += bytes;
+
+		final Iterator< Entry< PlaneKey, FutureTask< byte[] > > > it = planes.entrySet().iterator();
+
+		// planes that are still being loaded stay, they are not counted yet
+		while ( currentBytes > maxBytes && it.hasNext() )
+		{
+			final FutureTask< byte[] > task = it.next().getValue();
+
+			if ( task.isDone() )
+			{
+				try
+				{
+					currentBytes -= task.get().length;
+				}
+				catch ( InterruptedException | ExecutionException e ) {}
+
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops all cached planes and closes the pooled readers, the cache must not be used afterwards.
+	 */
+	public synchronized void close()
+	{
+		planes.clear();
+		currentBytes = 0;
+
+		readerPool.close();
+	}
+
+	public static class PlaneKey
+	{
+		final File file;
+		final int series, z, c, t;
+
+		public PlaneKey( final File file, final int series, final int z, final int c, final int t )
+		{
+			this.file = file;
+			this.series = series;
+			this.z = z;
+			this.c = c;
+			this.t = t;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + file.hashCode();
+			result = prime * result + series;
+			result = prime * result + z;
+			result = prime * result + c;
+			result = prime * result + t;
+			return result;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( this == obj )
+				return true;
+			if ( obj == null || getClass() != obj.getClass() )
+				return false;
+
+			final PlaneKey other = (PlaneKey) obj;
+
+			return series == other.series && z == other.z && c == other.c && t == other.t && file.equals( other.file );
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders.filemap2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+import loci.formats.IFormatReader;
+import mpicbg.spim.io.IOFunctions;
+
+/**
+ * A pool of Bio-Formats readers. Readers are not thread-safe, so every thread borrows its own reader for a file (which
+ * keeps the file and series that were set) and returns it afterwards. New readers are only created if all readers of a
+ * file are in use, i.e. there are at most as many readers per file as threads read from it at the same time.
+ */
+public class LOCIReaderPool
+{
+	final Supplier< IFormatReader > readerFactory;
+	final ConcurrentHashMap< String, ConcurrentLinkedQueue< IFormatReader > > idleReaders = new ConcurrentHashMap<>();
+
+	/**
+	 * @param readerFactory - creates a new (unset) reader
+	 */
+	public LOCIReaderPool( final Supplier< IFormatReader > readerFactory )
+	{
+		this.readerFactory = readerFactory;
+	}
+
+	/**
+	 * @param file - the file to read from
+	 * @param series - the series to read from
+	 * @return a reader that is set to this file and series, has to be given back using {@link #release(File, IFormatReader)}
+	 */
+	public IFormatReader acquire( final File file, final int series )
+	{
+		IFormatReader reader = idleReaders.computeIfAbsent( file.getAbsolutePath(), f -> new ConcurrentLinkedQueue<>() ).poll();
+
+		if ( reader == null )
+			reader = readerFactory.get();
+
+		VirtualRAIFactoryLOCI.setReaderFileAndSeriesIfNecessary( reader, file, series );
+
+		return reader;
+	}
+
+	/**
+	 * @param file - the file the reader was acquired for
+	 * @param reader - the reader, must not be used anymore by the caller
+	 */
+	public void release( final File file, final IFormatReader reader )
+	{
+		idleReaders.computeIfAbsent( file.getAbsolutePath(), f -> new ConcurrentLinkedQueue<>() ).offer( reader );
+	}
+
+	/**
+	 * Closes all idle readers, readers that are currently acquired are not closed.
+	 */
+	public void close()
+	{
+		for ( final ConcurrentLinkedQueue< IFormatReader > readers : idleReaders.values() )
+		{
+			IFormatReader reader;
+
+			while ( ( reader = readers.poll() ) != null )
+			{
+				try
+				{
+					reader.close();
+				}
+				catch ( IOException e )
+				{
+					IOFunctions.println( "Could not close reader: " + e );
+				}
+			}
+		}
+
+		idleReaders.clear();
+	}
+}
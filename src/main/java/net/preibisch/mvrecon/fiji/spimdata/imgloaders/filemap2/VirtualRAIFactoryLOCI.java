@@ -151,6 +151,84 @@ public class VirtualRAIFactoryLOCI
 			throw new IncompatibleTypeException( this, "cannot create virtual image for this pixel type: " + pixelType );
 	}
 	
+	/**
+	 * Same as {@link #createVirtualCached(IFormatReader, File, int, int, int, RealType, Dimensions)}, but the planes are
+	 * read through a {@link LOCIPlaneCache} (and its pool of readers), so several threads can load planes at the same time.
+	 *
+	 * @param planeCache - the plane cache shared by all images of the ImgLoader
+	 * @param file - the file
+	 * @param series - the series in the file
+	 * @param channel - the channel
+	 * @param timepoint - the timepoint
+	 * @param type - the type of the image, null means the type of the file
+	 * @param dim - the dimensions of the image, null means the dimensions of the file
+	 * @param <T> - the pixel type
+	 * @return the (cached) virtual image
+	 * @throws IncompatibleTypeException - if the pixel type is not supported
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends RealType< T > & NativeType< T >> RandomAccessibleInterval< T > createVirtualCached(
+			final LOCIPlaneCache planeCache,
+			final File file,
+			final int series,
+			final int channel,
+			final int timepoint,
+			T type,
+			Dimensions dim) throws IncompatibleTypeException
+	{
+		// only used for metadata
+		final IFormatReader reader = planeCache.readerPool.acquire( file, series );
+
+		try
+		{
+			final boolean isLittleEndian = reader.isLittleEndian();
+			final long[] dims = new long[]{reader.getSizeX(), reader.getSizeY(), reader.getSizeZ()};
+
+			if (dim != null)
+				dim.dimensions( dims );
+
+			final int pixelType = reader.getPixelType();
+
+			final T t;
+			final TriConsumer< T, byte[], Integer > byteConverter;
+
+			if (pixelType == FormatTools.UINT8)
+			{
+				t = type == null ? (T) new UnsignedByteType() : type;
+				byteConverter = (v, buf, i) -> {v.setReal( (int) buf[i] & 0xff);};
+			}
+			else if (pixelType == FormatTools.UINT16)
+			{
+				t = type == null ? (T) new UnsignedShortType() : type;
+				byteConverter = (v, buf, i) -> {v.setReal( LegacyStackImgLoaderLOCI.getShortValueInt( buf, i*2, isLittleEndian ) );};
+			}
+			else if (pixelType == FormatTools.INT16)
+			{
+				t = type == null ? (T) new ShortType() : type;
+				byteConverter = (v, buf, i) -> {v.setReal( LegacyStackImgLoaderLOCI.getShortValue( buf, i*2, isLittleEndian ) );};
+			}
+			else if (pixelType == FormatTools.UINT32)
+			{
+				t = type == null ? (T) new UnsignedIntType() : type;
+				byteConverter = (v, buf, i) -> {v.setReal( LegacyStackImgLoaderLOCI.getIntValue( buf, i*4, isLittleEndian ) );};
+			}
+			else if (pixelType == FormatTools.FLOAT)
+			{
+				t = type == null ? (T) new FloatType() : type;
+				byteConverter = (v, buf, i) -> {v.setReal( LegacyStackImgLoaderLOCI.getFloatValue( buf, i*4, isLittleEndian ) );};
+			}
+			else
+				throw new IncompatibleTypeException( this, "cannot create virtual image for this pixel type: " + pixelType );
+
+			final RandomAccessibleInterval< T > virtualImg = new VirtualRandomAccessibleIntervalLOCI< T >( reader, planeCache, file, dims, series, channel, timepoint, t, byteConverter );
+			return FusionTools.cacheRandomAccessibleInterval( virtualImg, Integer.MAX_VALUE, t, new int[] {(int)virtualImg.dimension( 0 ), (int)virtualImg.dimension( 1 ), 1} );
+		}
+		finally
+		{
+			planeCache.readerPool.release( file, reader );
+		}
+	}
+
 	/**
 	 * ensure that the reader we have is set to the correct file and series
 	 * @param reader the reader
@@ -48,17 +48,42 @@ class VirtualRandomAccessibleIntervalLOCI<T extends RealType< T > & NativeType<
 	private final T type;
 	private final TriConsumer< T, byte[], Integer > byteConverter;
 
+	// if set, planes are read through the shared cache instead of the reader
+	private final LOCIPlaneCache planeCache;
+	private final boolean swapZT;
+	private final boolean rgb;
+	private final int sizeC;
+
+	// the last plane read through the cache by any RandomAccess (the cell cache creates a new RandomAccess for every plane)
+	private volatile int lastZ = -1;
+
 	VirtualRandomAccessibleIntervalLOCI(IFormatReader reader, File file, long[] dims, int series, int channel,
 			int timepoint, T type, final TriConsumer< T, byte[], Integer > byteConverter)
+	{
+		this( reader, null, file, dims, series, channel, timepoint, type, byteConverter );
+	}
+
+	/**
+	 * @param reader - reader that is set to the file and series, when using a plane cache it is only used to read metadata in the constructor
+	 * @param planeCache - shared plane cache or null
+	 */
+	VirtualRandomAccessibleIntervalLOCI(IFormatReader reader, LOCIPlaneCache planeCache, File file, long[] dims, int series, int channel,
+			int timepoint, T type, final TriConsumer< T, byte[], Integer > byteConverter)
 	{
 		super( dims );
-		this.reader = reader;
+		this.reader = planeCache == null ? reader : null;
+		this.planeCache = planeCache;
 		this.file = file;
 		this.series = series;
 		this.channel = channel;
 		this.timepoint = timepoint;
 		this.type = type;
 		this.byteConverter = byteConverter;
+
+		// FIX for XYZ <-> XYT mixup in rare cases
+		this.swapZT = !reader.isOrderCertain() && reader.getSizeZ() <= 1 && reader.getSizeT() > 1;
+		this.rgb = reader.getRGBChannelCount() == reader.getSizeC();
+		this.sizeC = reader.getSizeC();
 	}
 
 	@Override
@@ -118,9 +143,48 @@ class VirtualRandomAccessibleIntervalLOCI<T extends RealType< T > & NativeType<
 			}
 		}
 
+		private void readFromCache()
+		{
+			final int z = (int) position[2];
+
+			buffer = planeCache.getPlane( file, series, actualZ( z ), rgb ? 0 : channel, actualTP( z ) );
+
+			// reading z sequentially, load the next planes in the background
+			if ( z == lastZ + 1 )
+			{
+				final long lastPlane = Math.min( z + planeCache.getReadahead(), VirtualRandomAccessibleIntervalLOCI.this.max( 2 ) );
+
+				for ( int nextZ = z + 1; nextZ <= lastPlane; ++nextZ )
+					planeCache.prefetch( file, series, actualZ( nextZ ), rgb ? 0 : channel, actualTP( nextZ ) );
+			}
+
+			lastZ = z;
+		}
+
+		private int actualZ( final int z ) { return swapZT ? timepoint : z; }
+		private int actualTP( final int z ) { return swapZT ? z : timepoint; }
+
 		@Override
 		public T get()
 		{
+			// planes from the cache are never modified, no need to synchronize
+			if ( planeCache != null )
+			{
+				if ( position[2] != currentZ )
+				{
+					currentZ = (int) position[2];
+					readFromCache();
+				}
+
+				int rgbOffset = 0;
+				if ( rgb )
+					rgbOffset = channel * buffer.length / sizeC;
+
+				final int i = (int) (rgbOffset + position[0] + position[1] * VirtualRandomAccessibleIntervalLOCI.this.dimension( 0 ) );
+				byteConverter.accept( type, buffer, i );
+				return this.type;
+			}
+
 			// prevent multithreaded overwriting of buffer
 			synchronized ( reader )
 			{
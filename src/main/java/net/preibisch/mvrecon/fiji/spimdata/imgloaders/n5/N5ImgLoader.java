@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders.n5;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
+
+/**
+ * Loads views from an N5 container (filesystem) as written by {@link WriteSequenceToN5}. Every view is stored as a
+ * multiresolution pyramid, one dataset per level ("setup{id}/timepoint{id}/s{level}"), the downsampling factors and the
+ * data type are attributes of the setup group.
+ */
+public class N5ImgLoader implements MultiResolutionImgLoader
+{
+	final File n5File;
+	final AbstractSequenceDescription< ?, ?, ? > sequenceDescription;
+
+	// loaded on first access
+	private N5Reader n5;
+
+	// Remembers instances of N5SetupImgLoader
+	private final HashMap< Integer, N5SetupImgLoader< ? > > setupImgLoaders = new HashMap<>();
+
+	public N5ImgLoader( final File n5File, final AbstractSequenceDescription< ?, ?, ? > sequenceDescription )
+	{
+		this.n5File = n5File;
+		this.sequenceDescription = sequenceDescription;
+	}
+
+	public File getN5File() { return n5File; }
+	public AbstractSequenceDescription< ?, ?, ? > getSequenceDescription() { return sequenceDescription; }
+
+	public synchronized N5Reader getN5()
+	{
+		if ( n5 == null )
+		{
+			try
+			{
+				n5 = new N5FSReader( n5File.getAbsolutePath() );
+			}
+			catch ( final IOException e )
+			{
+				throw new RuntimeException( "Could not open N5 container '" + n5File.getAbsolutePath() + "': " + e );
+			}
+		}
+
+		return n5;
+	}
+
+	@Override
+	public synchronized N5SetupImgLoader< ? > getSetupImgLoader( final int setupId )
+	{
+		N5SetupImgLoader< ? > sil = setupImgLoaders.get( setupId );
+
+		if ( sil == null )
+		{
+			sil = N5SetupImgLoader.create( getN5(), sequenceDescription, setupId );
+			setupImgLoaders.put( setupId, sil );
+		}
+
+		return sil;
+	}
+}
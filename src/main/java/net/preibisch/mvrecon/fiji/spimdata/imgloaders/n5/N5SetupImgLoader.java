@@ -0,0 +1,186 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders.n5;
+
+import java.io.IOException;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import bdv.util.MipmapTransforms;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicViewDescription;
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import mpicbg.spim.data.sequence.MultiResolutionSetupImgLoader;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.converter.RealFloatConverter;
+import net.imglib2.img.Img;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.AbstractImgLoader;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+
+public class N5SetupImgLoader< T extends RealType< T > & NativeType< T > > implements MultiResolutionSetupImgLoader< T >
+{
+	final N5Reader n5;
+	final AbstractSequenceDescription< ?, ?, ? > sequenceDescription;
+	final int setupId;
+	final T type;
+
+	final double[][] mipmapResolutions;
+	final AffineTransform3D[] mipmapTransforms;
+
+	public N5SetupImgLoader(
+			final N5Reader n5,
+			final AbstractSequenceDescription< ?, ?, ? > sequenceDescription,
+			final int setupId,
+			final T type,
+			final double[][] mipmapResolutions )
+	{
+		this.n5 = n5;
+		this.sequenceDescription = sequenceDescription;
+		this.setupId = setupId;
+		this.type = type;
+		this.mipmapResolutions = mipmapResolutions;
+		this.mipmapTransforms = new AffineTransform3D[ mipmapResolutions.length ];
+
+		for ( int level = 0; level < mipmapResolutions.length; ++level )
+			mipmapTransforms[ level ] = MipmapTransforms.getMipmapTransformDefault( mipmapResolutions[ level ] );
+	}
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	public static N5SetupImgLoader< ? > create( final N5Reader n5, final AbstractSequenceDescription< ?, ?, ? > sequenceDescription, final int setupId )
+	{
+		final String setupGroup = WriteSequenceToN5.getPathName( setupId );
+
+		try
+		{
+			final double[][] mipmapResolutions = n5.getAttribute( setupGroup, WriteSequenceToN5.DOWNSAMPLING_FACTORS_KEY, double[][].class );
+			final DataType dataType = n5.getAttribute( setupGroup, WriteSequenceToN5.DATA_TYPE_KEY, DataType.class );
+
+			if ( mipmapResolutions == null || dataType == null )
+				throw new RuntimeException( "Setup " + setupId + " is missing in the N5 container." );
+
+			return new N5SetupImgLoader( n5, sequenceDescription, setupId, (RealType)N5Utils.type( dataType ), mipmapResolutions );
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( "Could not read attributes of setup " + setupId + " from the N5 container: " + e );
+		}
+	}
+
+	@Override
+	public RandomAccessibleInterval< T > getImage( final int timepointId, final int level, final ImgLoaderHint... hints )
+	{
+		try
+		{
+			return N5Utils.open( n5, WriteSequenceToN5.getPathName( setupId, timepointId, level ) );
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( "Could not open setup " + setupId + ", timepoint " + timepointId + ", level " + level + " from the N5 container: " + e );
+		}
+	}
+
+	@Override
+	public RandomAccessibleInterval< T > getImage( final int timepointId, final ImgLoaderHint... hints )
+	{
+		return getImage( timepointId, 0, hints );
+	}
+
+	@Override
+	public RandomAccessibleInterval< FloatType > getFloatImage( final int timepointId, final int level, final boolean normalize, final ImgLoaderHint... hints )
+	{
+		final RandomAccessibleInterval< FloatType > img = Converters.convert( getImage( timepointId, level, hints ), new RealFloatConverter< T >(), new FloatType() );
+
+		if ( normalize )
+		{
+			final Img< FloatType > img2 = new CellImgFactory<>( new FloatType() ).create( img );
+			FusionTools.copyImg( img, img2, null );
+			AbstractImgLoader.normalize( img2 );
+			return img2;
+		}
+		else
+		{
+			return img;
+		}
+	}
+
+	@Override
+	public RandomAccessibleInterval< FloatType > getFloatImage( final int timepointId, final boolean normalize, final ImgLoaderHint... hints )
+	{
+		return getFloatImage( timepointId, 0, normalize, hints );
+	}
+
+	@Override
+	public Dimensions getImageSize( final int timepointId, final int level )
+	{
+		try
+		{
+			return new FinalDimensions( n5.getDatasetAttributes( WriteSequenceToN5.getPathName( setupId, timepointId, level ) ).getDimensions() );
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( "Could not read dimensions of setup " + setupId + ", timepoint " + timepointId + " from the N5 container: " + e );
+		}
+	}
+
+	@Override
+	public Dimensions getImageSize( final int timepointId )
+	{
+		return getImageSize( timepointId, 0 );
+	}
+
+	@Override
+	public VoxelDimensions getVoxelSize( final int timepointId )
+	{
+		// the voxel size is stored in the ViewSetup of the XML
+		if ( sequenceDescription == null )
+			return null;
+
+		final BasicViewDescription< ? > vd = sequenceDescription.getViewDescriptions().get( new ViewId( timepointId, setupId ) );
+
+		return vd == null ? null : vd.getViewSetup().getVoxelSize();
+	}
+
+	@Override
+	public T getImageType() { return type; }
+
+	@Override
+	public double[][] getMipmapResolutions() { return mipmapResolutions; }
+
+	@Override
+	public AffineTransform3D[] getMipmapTransforms() { return mipmapTransforms; }
+
+	@Override
+	public int numMipmapLevels() { return mipmapResolutions.length; }
+}
@@ -0,0 +1,386 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders.n5;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.Lz4Compression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.XzCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.export.ProgressWriter;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicViewDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.io.IOFunctions;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.iterator.LocalizingZeroMinIntervalIterator;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.Threads;
+
+/**
+ * Writes views as multiresolution pyramids into an N5 container (filesystem). Every block of every resolution level is
+ * compressed and written by an independent task; the first level is read from the input image, every further level is
+ * computed from the previous level that was just written (read back from the container).
+ */
+public class WriteSequenceToN5
+{
+	public static final String DOWNSAMPLING_FACTORS_KEY = "downsamplingFactors";
+	public static final String DATA_TYPE_KEY = "dataType";
+
+	public static final String[] compressionChoices = { "Raw (no compression)", "Gzip", "Lz4", "Xz" };
+	public static int defaultCompression = 1;
+
+	// how many views are processed at the same time, the next view is already read while the blocks of the previous one are written
+	public static int defaultViewsInParallel = 2;
+
+	public static String getPathName( final int setupId )
+	{
+		return String.format( "setup%d", setupId );
+	}
+
+	public static String getPathName( final int setupId, final int timepointId )
+	{
+		return String.format( "setup%d/timepoint%d", setupId, timepointId );
+	}
+
+	public static String getPathName( final int setupId, final int timepointId, final int level )
+	{
+		return String.format( "setup%d/timepoint%d/s%d", setupId, timepointId, level );
+	}
+
+	public static Compression getCompression( final int choice )
+	{
+		switch ( choice )
+		{
+			case 0: return new RawCompression();
+			case 1: return new GzipCompression();
+			case 2: return new Lz4Compression();
+			case 3: return new XzCompression();
+			default: throw new IllegalArgumentException( "Unknown compression: " + choice );
+		}
+	}
+
+	/**
+	 * Writes all present views of the sequence.
+	 *
+	 * @param seq - the sequence description including the imgloader to read from
+	 * @param viewIds - which views to write
+	 * @param perSetupExportMipmapInfo - the resolution levels and block sizes for each setup
+	 * @param n5File - the N5 container (a directory)
+	 * @param compression - the compression for all blocks
+	 * @param numThreads - how many blocks are compressed and written at the same time
+	 * @param progressWriter - progress output
+	 * @return true if all views were written
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	public static boolean writeSequence(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final List< ? extends ViewId > viewIds,
+			final Map< Integer, ExportMipmapInfo > perSetupExportMipmapInfo,
+			final File n5File,
+			final Compression compression,
+			final int numThreads,
+			final ProgressWriter progressWriter )
+	{
+		final N5Writer n5;
+
+		try
+		{
+			n5 = new N5FSWriter( n5File.getAbsolutePath() );
+
+			// the setup attributes are written once before any view
+			final HashSet< Integer > setupIds = new HashSet<>();
+
+			for ( final ViewId viewId : viewIds )
+				if ( setupIds.add( viewId.getViewSetupId() ) )
+				{
+					final RealType type = (RealType)seq.getImgLoader().getSetupImgLoader( viewId.getViewSetupId() ).getImageType();
+					writeSetupAttributes( n5, viewId.getViewSetupId(), perSetupExportMipmapInfo.get( viewId.getViewSetupId() ), N5Utils.dataType( (NativeType)type ) );
+				}
+		}
+		catch ( final IOException e )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Could not create N5 container '" + n5File.getAbsolutePath() + "': " + e );
+			e.printStackTrace();
+			return false;
+		}
+
+		final ExecutorService blockService = Threads.createFixedExecutorService( numThreads );
+		final ExecutorService viewService = Threads.createFixedExecutorService( Math.max( 1, defaultViewsInParallel ) );
+
+		final AtomicInteger done = new AtomicInteger();
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( final ViewId viewId : viewIds )
+		{
+			final BasicViewDescription< ? > vd = seq.getViewDescriptions().get( viewId );
+
+			if ( vd == null || !vd.isPresent() )
+				continue;
+
+			tasks.add( () ->
+			{
+				final RandomAccessibleInterval img = seq.getImgLoader().getSetupImgLoader( viewId.getViewSetupId() ).getImage( viewId.getTimePointId() );
+
+				writeView( img, n5, viewId.getViewSetupId(), viewId.getTimePointId(), perSetupExportMipmapInfo.get( viewId.getViewSetupId() ), compression, blockService );
+
+				progressWriter.out().println( "(" + new Date( System.currentTimeMillis() ) + "): Written setup " + viewId.getViewSetupId() + ", timepoint " + viewId.getTimePointId() );
+				progressWriter.setProgress( 0.95 * done.incrementAndGet() / viewIds.size() );
+
+				return null;
+			});
+		}
+
+		try
+		{
+			for ( final Future< Void > future : viewService.invokeAll( tasks ) )
+				future.get();
+
+			return true;
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Failed to write N5 container '" + n5File.getAbsolutePath() + "': " + e );
+			e.printStackTrace();
+			return false;
+		}
+		finally
+		{
+			viewService.shutdown();
+			blockService.shutdown();
+		}
+	}
+
+	public static void writeSetupAttributes( final N5Writer n5, final int setupId, final ExportMipmapInfo mipmapInfo, final DataType dataType ) throws IOException
+	{
+		final String pathName = getPathName( setupId );
+
+		n5.createGroup( pathName );
+		n5.setAttribute( pathName, DOWNSAMPLING_FACTORS_KEY, mipmapInfo.getExportResolutions() );
+		n5.setAttribute( pathName, DATA_TYPE_KEY, dataType );
+	}
+
+	/**
+	 * Writes one view as multiresolution pyramid, the setup attributes must have been written before
+	 * ({@link #writeSetupAttributes(N5Writer, int, ExportMipmapInfo, DataType)}). Each resolution level is written
+	 * by submitting all its blocks to the ExecutorService, every level is computed from the previous one by averaging.
+	 *
+	 * @param img - the full resolution image
+	 * @param n5 - the N5 container
+	 * @param setupId - the setup id
+	 * @param timepointId - the timepoint id
+	 * @param mipmapInfo - the resolution levels (each level must be an integer multiple of the previous one) and block sizes
+	 * @param compression - the compression for all blocks
+	 * @param service - the ExecutorService used for writing the blocks
+	 * @param <T> - pixel type
+	 * @throws IOException - if a dataset cannot be created
+	 */
+	public static < T extends RealType< T > & NativeType< T > > void writeView(
+			final RandomAccessibleInterval< T > img,
+			final N5Writer n5,
+			final int setupId,
+			final int timepointId,
+			final ExportMipmapInfo mipmapInfo,
+			final Compression compression,
+			final ExecutorService service ) throws IOException
+	{
+		final int n = img.numDimensions();
+		final int[][] resolutions = mipmapInfo.getExportResolutions();
+		final int[][] blockSizes = mipmapInfo.getSubdivisions();
+
+		final T type = Util.getTypeFromInterval( img ).createVariable();
+		final DataType dataType = N5Utils.dataType( type );
+
+		final long[] dim = new long[ n ];
+		img.dimensions( dim );
+
+		for ( int level = 0; level < resolutions.length; ++level )
+		{
+			final RandomAccessibleInterval< T > input;
+			final int[] factor = new int[ n ];
+
+			if ( level == 0 )
+			{
+				input = Views.zeroMin( img );
+			}
+			else
+			{
+				input = N5Utils.open( n5, getPathName( setupId, timepointId, level - 1 ) );
+
+				for ( int d = 0; d < n; ++d )
+				{
+					factor[ d ] = Math.max( 1, resolutions[ level ][ d ] / resolutions[ level - 1 ][ d ] );
+					dim[ d ] = Math.max( 1, dim[ d ] / factor[ d ] );
+				}
+			}
+
+			final String dataset = getPathName( setupId, timepointId, level );
+			final DatasetAttributes attributes = new DatasetAttributes( dim.clone(), blockSizes[ level ], dataType, compression );
+			n5.createDataset( dataset, attributes );
+
+			final long[] numBlocks = new long[ n ];
+			long numTasks = 1;
+
+			for ( int d = 0; d < n; ++d )
+			{
+				numBlocks[ d ] = ( dim[ d ] + blockSizes[ level ][ d ] - 1 ) / blockSizes[ level ][ d ];
+				numTasks *= numBlocks[ d ];
+			}
+
+			final boolean downsample = level > 0;
+			final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+			for ( long i = 0; i < numTasks; ++i )
+			{
+				final long index = i;
+
+				tasks.add( () ->
+				{
+					final long[] gridPosition = new long[ n ];
+					final long[] min = new long[ n ];
+					final long[] max = new long[ n ];
+
+					IntervalIndexer.indexToPosition( index, numBlocks, gridPosition );
+
+					for ( int d = 0; d < n; ++d )
+					{
+						min[ d ] = gridPosition[ d ] * attributes.getBlockSize()[ d ];
+						max[ d ] = Math.min( min[ d ] + attributes.getBlockSize()[ d ], attributes.getDimensions()[ d ] ) - 1;
+					}
+
+					final Interval block = new FinalInterval( min, max );
+
+					if ( downsample )
+						N5Utils.saveBlock( downsampleBlock( input, block, factor, type ), n5, dataset, attributes, gridPosition );
+					else
+						N5Utils.saveBlock( Views.interval( input, block ), n5, dataset, attributes, gridPosition );
+
+					return null;
+				});
+			}
+
+			try
+			{
+				// the next level is computed from this one, so it has to be complete
+				for ( final Future< Void > future : service.invokeAll( tasks ) )
+					future.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				throw new IOException( "Could not write level " + level + " of setup " + setupId + ", timepoint " + timepointId + ": " + e, e );
+			}
+		}
+	}
+
+	/**
+	 * @param input - the previous resolution level
+	 * @param block - the block of the downsampled image to compute
+	 * @param factor - the downsampling factor relative to the input
+	 * @param type - the pixel type
+	 * @param <T> - pixel type
+	 * @return the block (zero-min), each pixel is the average of factor[0] x ... x factor[n-1] input pixels
+	 */
+	protected static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > downsampleBlock(
+			final RandomAccessibleInterval< T > input,
+			final Interval block,
+			final int[] factor,
+			final T type )
+	{
+		final int n = block.numDimensions();
+
+		final long[] blockDim = new long[ n ];
+		block.dimensions( blockDim );
+
+		final long[] factorDim = new long[ n ];
+		long numPixels = 1;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			factorDim[ d ] = factor[ d ];
+			numPixels *= factor[ d ];
+		}
+
+		final Img< T > output = new ArrayImgFactory<>( type ).create( blockDim );
+		final RandomAccess< T > in = Views.extendBorder( input ).randomAccess();
+		final LocalizingZeroMinIntervalIterator box = new LocalizingZeroMinIntervalIterator( factorDim );
+		final Cursor< T > cursor = output.localizingCursor();
+
+		final long[] position = new long[ n ];
+
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.localize( position );
+
+			for ( int d = 0; d < n; ++d )
+				position[ d ] = ( position[ d ] + block.min( d ) ) * factor[ d ];
+
+			double sum = 0;
+			box.reset();
+
+			while ( box.hasNext() )
+			{
+				box.fwd();
+
+				for ( int d = 0; d < n; ++d )
+					in.setPosition( position[ d ] + box.getLongPosition( d ), d );
+
+				sum += in.get().getRealDouble();
+			}
+
+			cursor.get().setReal( sum / numPixels );
+		}
+
+		return output;
+	}
+}
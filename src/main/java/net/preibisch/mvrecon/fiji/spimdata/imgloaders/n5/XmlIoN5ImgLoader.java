@@ -0,0 +1,62 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.imgloaders.n5;
+
+import static mpicbg.spim.data.XmlHelpers.loadPath;
+import static mpicbg.spim.data.XmlKeys.IMGLOADER_FORMAT_ATTRIBUTE_NAME;
+
+import java.io.File;
+
+import org.jdom2.Element;
+
+import mpicbg.spim.data.XmlHelpers;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.ImgLoaderIo;
+import mpicbg.spim.data.generic.sequence.XmlIoBasicImgLoader;
+
+@ImgLoaderIo( format = "spimreconstruction.n5", type = N5ImgLoader.class )
+public class XmlIoN5ImgLoader implements XmlIoBasicImgLoader< N5ImgLoader >
+{
+	public static final String N5_TAG = "n5";
+
+	@Override
+	public Element toXml( final N5ImgLoader imgLoader, final File basePath )
+	{
+		final Element elem = new Element( "ImageLoader" );
+		elem.setAttribute( IMGLOADER_FORMAT_ATTRIBUTE_NAME, this.getClass().getAnnotation( ImgLoaderIo.class ).format() );
+
+		elem.addContent( XmlHelpers.pathElement( N5_TAG, imgLoader.getN5File(), basePath ) );
+
+		return elem;
+	}
+
+	@Override
+	public N5ImgLoader fromXml(
+			final Element elem, File basePath,
+			final AbstractSequenceDescription< ?, ?, ? > sequenceDescription )
+	{
+		final File path = loadPath( elem, N5_TAG, basePath );
+
+		return new N5ImgLoader( path, sequenceDescription );
+	}
+}
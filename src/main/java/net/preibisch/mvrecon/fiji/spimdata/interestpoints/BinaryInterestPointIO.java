@@ -0,0 +1,269 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * Reads and writes interest points and correspondences in a little-endian binary format.
+ * 
+ * Interest points (.ip.bin) are stored column by column after a 32 byte header
+ * (magic, version, count, numDimensions, flags, 3x reserved): all ids (int, padded to 8 bytes),
+ * then all x, all y, all z (double) and, if flag 1 is set, all intensities (double).
+ * 
+ * Correspondences (.corr.bin) start with a 16 byte header (magic, version, number of labels, count),
+ * followed by the label table (int length + UTF-8 bytes each, padded to 4 bytes) and one record
+ * of 5 ints per correspondence: detectionId, timepointId, viewSetupId, label index, correspondingDetectionId.
+ * 
+ * Files are read completely into a heap buffer with a single read.
+ */
+public class BinaryInterestPointIO
+{
+	public static final int IP_MAGIC = 0x31504942; // "BIP1"
+	public static final int CORR_MAGIC = 0x31434342; // "BCC1"
+	public static final int VERSION = 1;
+
+	public static final int IP_HEADER_SIZE = 32;
+	public static final int CORR_HEADER_SIZE = 16;
+	public static final int CORR_RECORD_SIZE = 20;
+
+	public static final int FLAG_INTENSITY = 1;
+
+	public static void writeInterestPoints( final File file, final List< ? extends InterestPoint > list ) throws IOException
+	{
+		final int n = list.size();
+		final int n3 = n == 0 ? 3 : list.get( 0 ).getL().length;
+
+		if ( n3 != 3 )
+			throw new IOException( "Only 3d interest points are supported, got " + n3 + "d." );
+
+		boolean hasIntensity = n > 0;
+
+		for ( final InterestPoint p : list )
+			if ( !InterestPointValue.class.isInstance( p ) )
+			{
+				hasIntensity = false;
+				break;
+			}
+
+		final int numColumns = hasIntensity ? 4 : 3;
+		final ByteBuffer buffer = ByteBuffer.allocate( IP_HEADER_SIZE + paddedIdSize( n ) + numColumns * n * 8 ).order( ByteOrder.LITTLE_ENDIAN );
+
+		buffer.putInt( IP_MAGIC );
+		buffer.putInt( VERSION );
+		buffer.putInt( n );
+		buffer.putInt( 3 );
+		buffer.putInt( hasIntensity ? FLAG_INTENSITY : 0 );
+		buffer.putInt( 0 );
+		buffer.putInt( 0 );
+		buffer.putInt( 0 );
+
+		for ( final InterestPoint p : list )
+			buffer.putInt( p.getId() );
+
+		buffer.position( IP_HEADER_SIZE + paddedIdSize( n ) );
+
+		for ( int d = 0; d < 3; ++d )
+			for ( final InterestPoint p : list )
+				buffer.putDouble( p.getL()[ d ] );
+
+		if ( hasIntensity )
+			for ( final InterestPoint p : list )
+				buffer.putDouble( ( (InterestPointValue)p ).getIntensity() );
+
+		buffer.flip();
+		write( file, buffer );
+	}
+
+	public static ArrayList< InterestPoint > readInterestPoints( final File file ) throws IOException
+	{
+		final ByteBuffer buffer = read( file );
+
+		if ( buffer.remaining() < IP_HEADER_SIZE || buffer.getInt() != IP_MAGIC )
+			throw new IOException( "'" + file + "' is not a binary interest point file." );
+
+		final int version = buffer.getInt();
+
+		if ( version != VERSION )
+			throw new IOException( "'" + file + "' has unsupported version " + version + "." );
+
+		final int n = buffer.getInt();
+		final int n3 = buffer.getInt();
+		final boolean hasIntensity = ( buffer.getInt() & FLAG_INTENSITY ) != 0;
+
+		if ( n3 != 3 )
+			throw new IOException( "'" + file + "' contains " + n3 + "d points, only 3d is supported." );
+
+		final int[] ids = new int[ n ];
+		final double[][] columns = new double[ hasIntensity ? 4 : 3 ][ n ];
+
+		buffer.position( IP_HEADER_SIZE );
+		buffer.asIntBuffer().get( ids );
+
+		int pos = IP_HEADER_SIZE + paddedIdSize( n );
+
+		for ( final double[] column : columns )
+		{
+			buffer.position( pos );
+			buffer.asDoubleBuffer().get( column );
+			pos += n * 8;
+		}
+
+		final ArrayList< InterestPoint > list = new ArrayList<>( n );
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final double[] l = new double[]{ columns[ 0 ][ i ], columns[ 1 ][ i ], columns[ 2 ][ i ] };
+
+			if ( hasIntensity )
+				list.add( new InterestPointValue( ids[ i ], l, columns[ 3 ][ i ] ) );
+			else
+				list.add( new InterestPoint( ids[ i ], l ) );
+		}
+
+		return list;
+	}
+
+	public static void writeCorrespondences( final File file, final List< CorrespondingInterestPoints > list ) throws IOException
+	{
+		// the labels are typically the same for all correspondences, store each only once
+		final HashMap< String, Integer > labelIndex = new HashMap<>();
+		final ArrayList< byte[] > labels = new ArrayList<>();
+		int labelTableSize = 0;
+
+		for ( final CorrespondingInterestPoints c : list )
+			if ( !labelIndex.containsKey( c.getCorrespodingLabel() ) )
+			{
+				final byte[] bytes = c.getCorrespodingLabel().getBytes( StandardCharsets.UTF_8 );
+				labelIndex.put( c.getCorrespodingLabel(), labels.size() );
+				labels.add( bytes );
+				labelTableSize += 4 + padded4( bytes.length );
+			}
+
+		final ByteBuffer buffer = ByteBuffer.allocate( CORR_HEADER_SIZE + labelTableSize + list.size() * CORR_RECORD_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+
+		buffer.putInt( CORR_MAGIC );
+		buffer.putInt( VERSION );
+		buffer.putInt( labels.size() );
+		buffer.putInt( list.size() );
+
+		for ( final byte[] bytes : labels )
+		{
+			buffer.putInt( bytes.length );
+			buffer.put( bytes );
+			buffer.position( buffer.position() + padded4( bytes.length ) - bytes.length );
+		}
+
+		for ( final CorrespondingInterestPoints c : list )
+		{
+			buffer.putInt( c.getDetectionId() );
+			buffer.putInt( c.getCorrespondingViewId().getTimePointId() );
+			buffer.putInt( c.getCorrespondingViewId().getViewSetupId() );
+			buffer.putInt( labelIndex.get( c.getCorrespodingLabel() ) );
+			buffer.putInt( c.getCorrespondingDetectionId() );
+		}
+
+		buffer.flip();
+		write( file, buffer );
+	}
+
+	public static ArrayList< CorrespondingInterestPoints > readCorrespondences( final File file ) throws IOException
+	{
+		return readCorrespondenceStore( file ).toList();
+	}
+
+	/**
+	 * Reads the correspondences into primitive arrays without creating an object per correspondence.
+	 * 
+	 * @param file - the .corr.bin file
+	 * @return the indexed correspondences
+	 * @throws IOException - if the file cannot be read or has the wrong format
+	 */
+	public static CorrespondenceStore readCorrespondenceStore( final File file ) throws IOException
+	{
+		final ByteBuffer buffer = read( file );
+
+		if ( buffer.remaining() < CORR_HEADER_SIZE || buffer.getInt() != CORR_MAGIC )
+			throw new IOException( "'" + file + "' is not a binary correspondence file." );
+
+		final int version = buffer.getInt();
+
+		if ( version != VERSION )
+			throw new IOException( "'" + file + "' has unsupported version " + version + "." );
+
+		final String[] labels = new String[ buffer.getInt() ];
+		final int n = buffer.getInt();
+
+		for ( int i = 0; i < labels.length; ++i )
+		{
+			final byte[] bytes = new byte[ buffer.getInt() ];
+			buffer.get( bytes );
+			buffer.position( buffer.position() + padded4( bytes.length ) - bytes.length );
+			labels[ i ] = new String( bytes, StandardCharsets.UTF_8 );
+		}
+
+		final int[] records = new int[ n * CorrespondenceStore.RECORD_SIZE ];
+		buffer.asIntBuffer().get( records );
+
+		return new CorrespondenceStore( records, labels );
+	}
+
+	protected static int paddedIdSize( final int n ) { return ( ( n * 4 + 7 ) / 8 ) * 8; }
+	protected static int padded4( final int length ) { return ( ( length + 3 ) / 4 ) * 4; }
+
+	protected static void write( final File file, final ByteBuffer buffer ) throws IOException
+	{
+		try ( final FileOutputStream out = new FileOutputStream( file ); final FileChannel channel = out.getChannel() )
+		{
+			while ( buffer.hasRemaining() )
+				channel.write( buffer );
+		}
+	}
+
+	protected static ByteBuffer read( final File file ) throws IOException
+	{
+		try ( final FileInputStream in = new FileInputStream( file ); final FileChannel channel = in.getChannel() )
+		{
+			// the content is copied into objects right away, so the file is read in one go (not mapped, which would
+			// also prevent overwriting it on some platforms)
+			final ByteBuffer buffer = ByteBuffer.allocate( (int)channel.size() );
+
+			while ( buffer.hasRemaining() && channel.read( buffer ) >= 0 ) {}
+
+			buffer.flip();
+
+			return buffer.order( ByteOrder.LITTLE_ENDIAN );
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import mpicbg.spim.data.sequence.ViewId;
+
+/**
+ * Read-only, indexed view of all correspondences of one {@link InterestPointList} that is backed by primitive arrays.
+ * 
+ * The correspondences are stored as one record of 5 ints each (detectionId, timepointId, viewSetupId, label index,
+ * correspondingDetectionId) in the order they were stored, which is exactly the layout of the .corr.bin files.
+ * An index groups the records by corresponding {@link ViewId} and label, so that only the correspondences to one
+ * specific other view can be queried without creating a {@link CorrespondingInterestPoints} object per correspondence.
+ */
+public class CorrespondenceStore
+{
+	public static final int RECORD_SIZE = 5;
+
+	final int[] records;
+	final String[] labels;
+	final int size;
+
+	// corresponding view >> corresponding label >> positions of the records
+	final LinkedHashMap< ViewId, HashMap< String, int[] > > index;
+
+	/**
+	 * @param records - 5 ints per correspondence (detectionId, timepointId, viewSetupId, label index, correspondingDetectionId), not copied
+	 * @param labels - the label table the label indices refer to
+	 */
+	public CorrespondenceStore( final int[] records, final String[] labels )
+	{
+		this.records = records;
+		this.labels = labels;
+		this.size = records.length / RECORD_SIZE;
+		this.index = new LinkedHashMap<>();
+
+		// count, the records of one pair of views are typically stored one after the other, so we only look up the group when it changes
+		final HashMap< ViewId, HashMap< String, int[] > > counts = new HashMap<>();
+		int lastTp = -1, lastSetup = -1, lastLabel = -1;
+		int[] count = null;
+
+		for ( int i = 0; i < size; ++i )
+		{
+			final int o = i * RECORD_SIZE;
+
+			if ( count == null || records[ o + 1 ] != lastTp || records[ o + 2 ] != lastSetup || records[ o + 3 ] != lastLabel )
+			{
+				lastTp = records[ o + 1 ];
+				lastSetup = records[ o + 2 ];
+				lastLabel = records[ o + 3 ];
+
+				count = counts.computeIfAbsent( new ViewId( lastTp, lastSetup ), v -> new HashMap<>() ).computeIfAbsent( labels[ lastLabel ], l -> new int[ 1 ] );
+			}
+
+			++count[ 0 ];
+		}
+
+		// fill
+		final HashMap< ViewId, HashMap< String, int[] > > fill = new HashMap<>();
+		int[] positions = null, filled = null;
+		lastTp = lastSetup = lastLabel = -1;
+
+		for ( int i = 0; i < size; ++i )
+		{
+			final int o = i * RECORD_SIZE;
+
+			if ( positions == null || records[ o + 1 ] != lastTp || records[ o + 2 ] != lastSetup || records[ o + 3 ] != lastLabel )
+			{
+				lastTp = records[ o + 1 ];
+				lastSetup = records[ o + 2 ];
+				lastLabel = records[ o + 3 ];
+
+				final ViewId viewId = new ViewId( lastTp, lastSetup );
+				final String label = labels[ lastLabel ];
+				final HashMap< String, int[] > labelMap = index.computeIfAbsent( viewId, v -> new HashMap<>() );
+
+				positions = labelMap.get( label );
+
+				if ( positions == null )
+				{
+					positions = new int[ counts.get( viewId ).get( label )[ 0 ] ];
+					labelMap.put( label, positions );
+				}
+
+				filled = fill.computeIfAbsent( viewId, v -> new HashMap<>() ).computeIfAbsent( label, l -> new int[ 1 ] );
+			}
+
+			positions[ filled[ 0 ]++ ] = i;
+		}
+	}
+
+	/**
+	 * @param list - correspondences as objects
+	 * @return the store holding the same correspondences
+	 */
+	public static CorrespondenceStore fromList( final List< ? extends CorrespondingInterestPoints > list )
+	{
+		final HashMap< String, Integer > labelIndex = new HashMap<>();
+		final ArrayList< String > labels = new ArrayList<>();
+		final int[] records = new int[ list.size() * RECORD_SIZE ];
+
+		int o = 0;
+
+		for ( final CorrespondingInterestPoints c : list )
+		{
+			Integer label = labelIndex.get( c.getCorrespodingLabel() );
+
+			if ( label == null )
+			{
+				label = labels.size();
+				labelIndex.put( c.getCorrespodingLabel(), label );
+				labels.add( c.getCorrespodingLabel() );
+			}
+
+			records[ o++ ] = c.getDetectionId();
+			records[ o++ ] = c.getCorrespondingViewId().getTimePointId();
+			records[ o++ ] = c.getCorrespondingViewId().getViewSetupId();
+			records[ o++ ] = label;
+			records[ o++ ] = c.getCorrespondingDetectionId();
+		}
+
+		return new CorrespondenceStore( records, labels.toArray( new String[ labels.size() ] ) );
+	}
+
+	/**
+	 * @return the number of correspondences
+	 */
+	public int size() { return size; }
+
+	/**
+	 * @return all views there are correspondences to
+	 */
+	public Set< ViewId > getCorrespondingViews() { return Collections.unmodifiableSet( index.keySet() ); }
+
+	/**
+	 * @param viewId - the corresponding view
+	 * @return all labels of the corresponding view there are correspondences to (empty if there are none)
+	 */
+	public Set< String > getCorrespondingLabels( final ViewId viewId )
+	{
+		final HashMap< String, int[] > labelMap = index.get( viewId );
+
+		return labelMap == null ? Collections.emptySet() : Collections.unmodifiableSet( labelMap.keySet() );
+	}
+
+	/**
+	 * @param viewId - the corresponding view
+	 * @param label - the corresponding label
+	 * @return the number of correspondences to this view and label
+	 */
+	public int size( final ViewId viewId, final String label )
+	{
+		final int[] positions = positions( viewId, label );
+
+		return positions == null ? 0 : positions.length;
+	}
+
+	/**
+	 * @param viewId - the corresponding view
+	 * @param label - the corresponding label
+	 * @return the detection ids of the interest points in this list that correspond to the view and label (in stored order)
+	 */
+	public int[] getDetectionIds( final ViewId viewId, final String label )
+	{
+		return column( viewId, label, 0 );
+	}
+
+	/**
+	 * @param viewId - the corresponding view
+	 * @param label - the corresponding label
+	 * @return the detection ids of the corresponding interest points, in the same order as {@link #getDetectionIds(ViewId, String)}
+	 */
+	public int[] getCorrespondingDetectionIds( final ViewId viewId, final String label )
+	{
+		return column( viewId, label, 4 );
+	}
+
+	/**
+	 * @param i - index of the correspondence (stored order)
+	 * @return the detection id of the interest point in this list
+	 */
+	public int getDetectionId( final int i ) { return records[ i * RECORD_SIZE ]; }
+
+	/**
+	 * @param i - index of the correspondence (stored order)
+	 * @return the detection id of the corresponding interest point
+	 */
+	public int getCorrespondingDetectionId( final int i ) { return records[ i * RECORD_SIZE + 4 ]; }
+
+	/**
+	 * @return all correspondences as objects (in stored order)
+	 */
+	public ArrayList< CorrespondingInterestPoints > toList()
+	{
+		// all correspondences to the same view share one ViewId instance
+		final HashMap< ViewId, ViewId > viewIds = new HashMap<>();
+
+		for ( final ViewId viewId : index.keySet() )
+			viewIds.put( viewId, viewId );
+
+		final ArrayList< CorrespondingInterestPoints > list = new ArrayList<>( size );
+		ViewId viewId = null;
+
+		for ( int i = 0; i < size; ++i )
+		{
+			final int o = i * RECORD_SIZE;
+
+			if ( viewId == null || viewId.getTimePointId() != records[ o + 1 ] || viewId.getViewSetupId() != records[ o + 2 ] )
+				viewId = viewIds.get( new ViewId( records[ o + 1 ], records[ o + 2 ] ) );
+
+			list.add( new CorrespondingInterestPoints( records[ o ], viewId, labels[ records[ o + 3 ] ], records[ o + 4 ] ) );
+		}
+
+		return list;
+	}
+
+	protected int[] positions( final ViewId viewId, final String label )
+	{
+		final HashMap< String, int[] > labelMap = index.get( viewId );
+
+		return labelMap == null ? null : labelMap.get( label );
+	}
+
+	protected int[] column( final ViewId viewId, final String label, final int column )
+	{
+		final int[] positions = positions( viewId, label );
+
+		if ( positions == null )
+			return new int[ 0 ];
+
+		final int[] values = new int[ positions.length ];
+
+		for ( int i = 0; i < positions.length; ++i )
+			values[ i ] = records[ positions[ i ] * RECORD_SIZE + column ];
+
+		return values;
+	}
+}
@@ -24,9 +24,12 @@ package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 
 import mpicbg.spim.data.sequence.ViewId;
@@ -34,16 +37,45 @@ import mpicbg.spim.io.IOFunctions;
 import mpicbg.spim.io.TextFileAccess;
 
 /**
- * A list of interest points for a certain label, can save and load from textfile as specified in the XML
+ * A list of interest points for a certain label, can save and load from text or binary file as specified in the XML
  * 
  * @author Stephan Preibisch (stephan.preibisch@gmx.de)
  *
  */
 public class InterestPointList
 {
+	public static enum StorageFormat
+	{
+		TEXT( ".ip.txt", ".corr.txt" ), BINARY( ".ip.bin", ".corr.bin" );
+
+		final String interestPointsExt, correspondencesExt;
+
+		private StorageFormat( final String interestPointsExt, final String correspondencesExt )
+		{
+			this.interestPointsExt = interestPointsExt;
+			this.correspondencesExt = correspondencesExt;
+		}
+
+		public String getInterestPointsExt() { return interestPointsExt; }
+		public String getCorrespondencesExt() { return correspondencesExt; }
+	}
+
+	// the format of newly created lists
+	public static StorageFormat defaultStorageFormat = StorageFormat.BINARY;
+
+	// lists stored as text are re-written as binary once they were loaded (older versions cannot read them anymore)
+	public static boolean defaultMigrateTextToBinary = false;
+
+	// after writing a list, delete the file of the other format (e.g. the text files of a migrated list)
+	public static boolean defaultRemoveSupersededFiles = false;
+
 	File baseDir, file;
+	StorageFormat format;
 	List< InterestPoint > interestPoints;
 	List< CorrespondingInterestPoints > correspondingInterestPoints;
+
+	// correspondences loaded from disc without creating the list (only if the list was not loaded)
+	CorrespondenceStore correspondenceStore;
 	String parameters;
 
 	boolean modifiedInterestPoints, modifiedCorrespondingInterestPoints;
@@ -56,9 +88,23 @@ public class InterestPointList
 	 * for interestpoints and correspondences
 	 */
 	public InterestPointList( final File baseDir, final File file )
+	{
+		this( baseDir, file, defaultStorageFormat );
+	}
+
+	/**
+	 * Instantiates a new {@link InterestPointList}
+	 * 
+	 * @param baseDir - the path where the xml is
+	 * @param file - relative path to the file to load/save the list from, an extension is added automatically
+	 * depending on the format (.ip.txt &amp;&amp; .corr.txt or .ip.bin &amp;&amp; .corr.bin) for interestpoints and correspondences
+	 * @param format - the format of the files
+	 */
+	public InterestPointList( final File baseDir, final File file, final StorageFormat format )
 	{
 		this.baseDir = baseDir;
 		this.file = file;
+		this.format = format;
 		this.interestPoints = null;
 		this.correspondingInterestPoints = null;
 		this.parameters = "";
@@ -85,6 +131,35 @@ public class InterestPointList
 		return list;
 	}
 
+	/**
+	 * Indexed correspondences that can be queried by corresponding view and label. If the list of correspondences is not in
+	 * memory, they are read from disc into primitive arrays and the list is not created.
+	 * 
+	 * @return - the correspondences (not copied, must not be modified), empty if there are none
+	 */
+	public synchronized CorrespondenceStore getCorrespondenceStore()
+	{
+		// the list might be modified after it was set, so always create it from the current one
+		if ( this.correspondingInterestPoints != null )
+			return CorrespondenceStore.fromList( this.correspondingInterestPoints );
+
+		if ( this.correspondenceStore == null )
+		{
+			try
+			{
+				this.correspondenceStore = readCorrespondenceStore( storedFormat( false ) );
+			}
+			catch ( final IOException e )
+			{
+				// it is normal that this file does not exist until a registration was computed
+				IOFunctions.println( "InterestPointList.getCorrespondenceStore(): " + e );
+				this.correspondenceStore = CorrespondenceStore.fromList( new ArrayList<>() );
+			}
+		}
+
+		return this.correspondenceStore;
+	}
+
 	/**
 	 * @return - the list of corresponding interest points (copied), tries to load from disc if null
 	 */
@@ -113,23 +188,117 @@ public class InterestPointList
 	public void setCorrespondingInterestPoints( final List< CorrespondingInterestPoints > list )
 	{
 		this.correspondingInterestPoints = list;
+		this.correspondenceStore = null;
 		this.modifiedCorrespondingInterestPoints = true;
 	}
 	public void setFile( final File file )
 	{
 		this.file = file;
+		this.correspondenceStore = null;
 		this.modifiedCorrespondingInterestPoints = true;
 		this.modifiedInterestPoints = true;
 	}
 	public void setBaseDir( final File baseDir )
 	{
 		this.baseDir = baseDir;
+		this.correspondenceStore = null;
+		this.modifiedCorrespondingInterestPoints = true;
+		this.modifiedInterestPoints = true;
+	}
+
+	public StorageFormat getStorageFormat() { return format; }
+	public void setStorageFormat( final StorageFormat format )
+	{
+		if ( this.format == format )
+			return;
+
+		// make sure everything is in memory before it is written in the new format
+		if ( this.interestPoints == null )
+			loadInterestPoints();
+
+		if ( this.correspondingInterestPoints == null )
+			loadCorrespondences();
+
+		this.format = format;
 		this.modifiedCorrespondingInterestPoints = true;
 		this.modifiedInterestPoints = true;
 	}
 
-	public String getInterestPointsExt() { return ".ip.txt"; }
-	public String getCorrespondencesExt() { return ".corr.txt"; }
+	public String getInterestPointsExt() { return format.getInterestPointsExt(); }
+	public String getCorrespondencesExt() { return format.getCorrespondencesExt(); }
+
+	/**
+	 * @param interestPoints - interest points or correspondences
+	 * @return the format that the file was actually written in, which can differ from the
+	 * one in the XML if it was not re-saved after migration (null if there is no file)
+	 */
+	protected StorageFormat storedFormat( final boolean interestPoints )
+	{
+		final StorageFormat other = format == StorageFormat.TEXT ? StorageFormat.BINARY : StorageFormat.TEXT;
+
+		for ( final StorageFormat f : new StorageFormat[]{ format, other } )
+			if ( new File( getBaseDir(), getFile().toString() + ( interestPoints ? f.getInterestPointsExt() : f.getCorrespondencesExt() ) ).exists() )
+				return f;
+
+		return null;
+	}
+
+	/**
+	 * Switches a list stored as text to binary. Only what is loaded is marked for writing, the other part is still read
+	 * from the text file (see {@link #storedFormat(boolean)}) and migrated once it is loaded.
+	 */
+	protected void migrateIfNecessary( final StorageFormat storedFormat )
+	{
+		if ( storedFormat == StorageFormat.TEXT && defaultMigrateTextToBinary && format == StorageFormat.TEXT )
+		{
+			IOFunctions.println( "Migrating interest points '" + getFile() + "' to binary format, will be written on next save." );
+
+			this.format = StorageFormat.BINARY;
+		}
+
+		if ( this.interestPoints != null && storedFormat( true ) != format )
+			this.modifiedInterestPoints = true;
+
+		if ( this.correspondingInterestPoints != null && storedFormat( false ) != format )
+			this.modifiedCorrespondingInterestPoints = true;
+	}
+
+	/**
+	 * Removes the file of the other format once a list was written if {@link #defaultRemoveSupersededFiles} is set. Otherwise
+	 * the file stays, but is not read (or fingerprinted) since the file of the format of this list is preferred.
+	 *
+	 * @param interestPoints - interest points or correspondences
+	 */
+	protected void removeSuperseded( final boolean interestPoints )
+	{
+		if ( !defaultRemoveSupersededFiles )
+			return;
+
+		final StorageFormat other = format == StorageFormat.TEXT ? StorageFormat.BINARY : StorageFormat.TEXT;
+		final File f = new File( getBaseDir(), getFile().toString() + ( interestPoints ? other.getInterestPointsExt() : other.getCorrespondencesExt() ) );
+
+		if ( f.exists() )
+		{
+			if ( f.delete() )
+				IOFunctions.println( "Removed superseded file: " + f );
+			else
+				IOFunctions.println( "Could not remove superseded file: " + f );
+		}
+	}
+
+	/**
+	 * @return the file the interest points are currently stored in (in the format of this list if it exists, otherwise
+	 * in the format it was written in), null if there is none
+	 */
+	public File getStoredInterestPointsFile()
+	{
+		if ( getBaseDir() == null || getFile() == null )
+			return null;
+
+		final StorageFormat stored = storedFormat( true );
+
+		return stored == null ? null : new File( getBaseDir(), getFile().toString() + stored.getInterestPointsExt() );
+	}
 
 	public boolean saveInterestPoints( final boolean forceWrite )
 	{
@@ -152,6 +321,19 @@ public class InterestPointList
 			}
 
 			final File f = new File( getBaseDir(), getFile().toString() + getInterestPointsExt() );
+
+			if ( format == StorageFormat.BINARY )
+			{
+				BinaryInterestPointIO.writeInterestPoints( f, list );
+
+				modifiedInterestPoints = false;
+				removeSuperseded( true );
+
+				IOFunctions.println( "Saved: " + f );
+
+				return true;
+			}
+
 			final PrintWriter out = TextFileAccess.openFileWriteEx( f );
 
 			// header
@@ -164,6 +346,7 @@ public class InterestPointList
 			out.close();
 
 			modifiedInterestPoints = false;
+			removeSuperseded( true );
 
 			IOFunctions.println( "Saved: " + f );
 
@@ -199,6 +382,18 @@ public class InterestPointList
 
 			final File f = new File( getBaseDir(), getFile().toString() + getCorrespondencesExt() );
 
+			if ( format == StorageFormat.BINARY )
+			{
+				BinaryInterestPointIO.writeCorrespondences( f, list );
+
+				modifiedCorrespondingInterestPoints = false;
+				removeSuperseded( false );
+
+				IOFunctions.println( "Saved: " + f );
+
+				return true;
+			}
+
 			final PrintWriter out = TextFileAccess.openFileWriteEx( f );
 
 			// header
@@ -216,6 +411,7 @@ public class InterestPointList
 			out.close();
 
 			modifiedCorrespondingInterestPoints = false;
+			removeSuperseded( false );
 
 			IOFunctions.println( "Saved: " + f );
 
@@ -233,32 +429,18 @@ public class InterestPointList
 	{
 		try
 		{
-			final ArrayList< CorrespondingInterestPoints > correspondingInterestPoints = new ArrayList<>();
+			final StorageFormat stored = storedFormat( false );
 
-			final BufferedReader in = TextFileAccess.openFileReadEx( new File( getBaseDir(), getFile().toString() + getCorrespondencesExt() ) );
+			// re-use what was already read from disc
+			final CorrespondenceStore store = this.correspondenceStore != null ? this.correspondenceStore : readCorrespondenceStore( stored );
 
-			// the header
-			do {} while ( !in.readLine().startsWith( "id" ) );
-			
-			while ( in.ready() )
-			{
-				final String p[] = in.readLine().split( "\t" );
-				
-				final CorrespondingInterestPoints cip = new CorrespondingInterestPoints(
-						Integer.parseInt( p[ 0 ].trim() ),
-						new ViewId(
-							Integer.parseInt( p[ 1 ].trim() ), // timepointId 
-							Integer.parseInt( p[ 2 ].trim() ) ), // viewSetupId
-						p[ 3 ], // correspondingLabel,
-						Integer.parseInt( p[ 4 ].trim() ) ); //correspondingDetectionId
-				
-				correspondingInterestPoints.add( cip );
-			}
+			this.correspondingInterestPoints = store.toList();
+			this.correspondenceStore = null;
 
-			in.close();
+			// write it in the format the xml expects on next save
+			modifiedCorrespondingInterestPoints = ( stored != null && stored != format );
 
-			this.correspondingInterestPoints = correspondingInterestPoints;
-			modifiedCorrespondingInterestPoints = false;
+			migrateIfNecessary( stored );
 
 			return true;
 		}
@@ -272,13 +454,138 @@ public class InterestPointList
 		}
 	}
 
+	protected CorrespondenceStore readCorrespondenceStore( final StorageFormat stored ) throws IOException
+	{
+		if ( stored == null )
+			throw new FileNotFoundException( "No correspondences stored for '" + new File( getBaseDir(), getFile().toString() ) + "'" );
+
+		final File f = new File( getBaseDir(), getFile().toString() + stored.getCorrespondencesExt() );
+
+		if ( stored == StorageFormat.BINARY )
+			return BinaryInterestPointIO.readCorrespondenceStore( f );
+		else
+			return readTextCorrespondenceStore( f );
+	}
+
+	/**
+	 * Parses a .corr.txt file directly into primitive arrays (no String.split, no object per correspondence)
+	 * 
+	 * @param file - the text file
+	 * @return the indexed correspondences
+	 * @throws IOException - if the file cannot be read
+	 */
+	public static CorrespondenceStore readTextCorrespondenceStore( final File file ) throws IOException
+	{
+		final HashMap< String, Integer > labelIndex = new HashMap<>();
+		final ArrayList< String > labels = new ArrayList<>();
+
+		int[] records = new int[ 1024 * CorrespondenceStore.RECORD_SIZE ];
+		int o = 0;
+
+		String lastLabel = null;
+		int lastLabelIndex = -1;
+
+		try ( final BufferedReader in = TextFileAccess.openFileReadEx( file ) )
+		{
+			// the header
+			do {} while ( !in.readLine().startsWith( "id" ) );
+
+			String line;
+
+			while ( ( line = in.readLine() ) != null )
+			{
+				// id, corresponding_timepoint_id, corresponding_viewsetup_id, corresponding_label, corresponding_id
+				final int t1 = line.indexOf( '\t' );
+				final int t2 = line.indexOf( '\t', t1 + 1 );
+				final int t3 = line.indexOf( '\t', t2 + 1 );
+				final int t4 = line.indexOf( '\t', t3 + 1 );
+
+				if ( t1 < 0 || t2 < 0 || t3 < 0 || t4 < 0 )
+					continue;
+
+				if ( o == records.length )
+					records = Arrays.copyOf( records, records.length * 2 );
+
+				// the label is almost always the same as in the line before
+				final int labelLength = t4 - t3 - 1;
+
+				if ( lastLabel == null || lastLabel.length() != labelLength || !line.regionMatches( t3 + 1, lastLabel, 0, labelLength ) )
+				{
+					lastLabel = line.substring( t3 + 1, t4 );
+
+					Integer index = labelIndex.get( lastLabel );
+
+					if ( index == null )
+					{
+						index = labels.size();
+						labelIndex.put( lastLabel, index );
+						labels.add( lastLabel );
+					}
+
+					lastLabelIndex = index;
+				}
+
+				records[ o++ ] = parseInt( line, 0, t1 );
+				records[ o++ ] = parseInt( line, t1 + 1, t2 );
+				records[ o++ ] = parseInt( line, t2 + 1, t3 );
+				records[ o++ ] = lastLabelIndex;
+				records[ o++ ] = parseInt( line, t4 + 1, line.length() );
+			}
+		}
+
+		return new CorrespondenceStore( Arrays.copyOf( records, o ), labels.toArray( new String[ labels.size() ] ) );
+	}
+
+	/**
+	 * Parses an int from a part of a String, surrounding whitespace is ignored
+	 */
+	protected static int parseInt( final String s, int start, int end )
+	{
+		while ( start < end && Character.isWhitespace( s.charAt( start ) ) )
+			++start;
+
+		while ( end > start && Character.isWhitespace( s.charAt( end - 1 ) ) )
+			--end;
+
+		if ( start == end )
+			throw new NumberFormatException( "Empty number in '" + s + "'" );
+
+		final boolean negative = s.charAt( start ) == '-';
+		long value = 0;
+
+		for ( int i = negative ? start + 1 : start; i < end; ++i )
+		{
+			final int digit = s.charAt( i ) - '0';
+
+			if ( digit < 0 || digit > 9 )
+				throw new NumberFormatException( "'" + s.substring( start, end ) + "' is not a number." );
+
+			value = value * 10 + digit;
+		}
+
+		return (int)( negative ? -value : value );
+	}
+
 	protected boolean loadInterestPoints()
 	{
 		try
 		{
+			final StorageFormat stored = storedFormat( true );
+
+			if ( stored == StorageFormat.BINARY )
+			{
+				this.interestPoints = BinaryInterestPointIO.readInterestPoints(
+						new File( getBaseDir(), getFile().toString() + stored.getInterestPointsExt() ) );
+
+				// write it in the format the xml expects on next save
+				modifiedInterestPoints = ( stored != format );
+
+				return true;
+			}
+
 			final ArrayList< InterestPoint > interestPoints = new ArrayList<>();
 
-			final BufferedReader in = TextFileAccess.openFileReadEx( new File( getBaseDir(), getFile().toString() + getInterestPointsExt() ) );
+			final BufferedReader in = TextFileAccess.openFileReadEx( new File( getBaseDir(), getFile().toString() + StorageFormat.TEXT.getInterestPointsExt() ) );
 
 			// the header
 			do {} while ( !in.readLine().startsWith( "id" ) );
@@ -300,7 +607,9 @@ public class InterestPointList
 			in.close();
 
 			this.interestPoints = interestPoints;
-			modifiedInterestPoints = false;
+			modifiedInterestPoints = ( stored != null && stored != format );
+
+			migrateIfNecessary( stored );
 
 			return true;
 		} 
@@ -23,6 +23,7 @@
 package net.preibisch.mvrecon.fiji.spimdata.interestpoints;
 
 import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTSFILE_TAG;
+import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_FORMAT_ATTRIBUTE_NAME;
 import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_LABEL_ATTRIBUTE_NAME;
 import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_PARAMETERS_ATTRIBUTE_NAME;
 import static net.preibisch.mvrecon.fiji.spimdata.interestpoints.XmlKeysInterestPoints.VIEWINTERESTPOINTS_SETUP_ATTRIBUTE_NAME;
@@ -38,6 +39,8 @@ import mpicbg.spim.data.SpimDataException;
 import mpicbg.spim.data.generic.base.XmlIoSingleton;
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList.StorageFormat;
 
 import org.jdom2.Element;
 
@@ -87,12 +90,13 @@ public class XmlIoViewInterestPoints extends XmlIoSingleton< ViewInterestPoints
 			final String parameters = viewInterestPointsElement.getAttributeValue( VIEWINTERESTPOINTS_PARAMETERS_ATTRIBUTE_NAME );
 
 			final String interestPointFileName = viewInterestPointsElement.getTextTrim();
+			final StorageFormat format = storageFormatFromXml( viewInterestPointsElement.getAttributeValue( VIEWINTERESTPOINTS_FORMAT_ATTRIBUTE_NAME ) );
 
 			final ViewId viewId = new ViewId( timepointId, setupId );
 			final ViewInterestPointLists collection = viewsInterestPoints.getViewInterestPointLists( viewId );
 
 			// we do not load the interestpoints nor the correspondinginterestpoints, we just do that once it is requested
-			final InterestPointList list = new InterestPointList( basePath, new File( interestPointFileName ) );
+			final InterestPointList list = new InterestPointList( basePath, new File( interestPointFileName ), format );
 			list.setParameters( parameters );
 			collection.addInterestPointList( label, list );
 		}
@@ -107,9 +111,30 @@ public class XmlIoViewInterestPoints extends XmlIoSingleton< ViewInterestPoints
 		elem.setAttribute( VIEWINTERESTPOINTS_SETUP_ATTRIBUTE_NAME, Integer.toString( viewId ) );
 		elem.setAttribute( VIEWINTERESTPOINTS_LABEL_ATTRIBUTE_NAME, label );
 		elem.setAttribute( VIEWINTERESTPOINTS_PARAMETERS_ATTRIBUTE_NAME, interestPointList.getParameters() );
+		elem.setAttribute( VIEWINTERESTPOINTS_FORMAT_ATTRIBUTE_NAME, interestPointList.getStorageFormat().name().toLowerCase() );
 		// a hack so that windows does not put its backslashes in
 		elem.setText( interestPointList.getFile().toString().replace( "\\", "/" ) );
 
 		return elem;
 	}
+
+	/**
+	 * @param format - the format attribute, XMLs written before binary storage existed do not have one
+	 * @return the storage format of the interest point files
+	 */
+	protected static StorageFormat storageFormatFromXml( final String format )
+	{
+		if ( format == null )
+			return StorageFormat.TEXT;
+
+		try
+		{
+			return StorageFormat.valueOf( format.trim().toUpperCase() );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			IOFunctions.println( "Unknown interest point storage format '" + format + "', assuming text." );
+			return StorageFormat.TEXT;
+		}
+	}
 }
@@ -30,4 +30,5 @@ public class XmlKeysInterestPoints
 	public static final String VIEWINTERESTPOINTS_SETUP_ATTRIBUTE_NAME = "setup";
 	public static final String VIEWINTERESTPOINTS_LABEL_ATTRIBUTE_NAME = "label";
 	public static final String VIEWINTERESTPOINTS_PARAMETERS_ATTRIBUTE_NAME = "params";
+	public static final String VIEWINTERESTPOINTS_FORMAT_ATTRIBUTE_NAME = "format";
 }
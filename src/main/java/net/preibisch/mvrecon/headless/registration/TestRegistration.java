@@ -57,7 +57,7 @@ import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constell
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.GroupedInterestPoint;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.InterestPointGrouping;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.InterestPointGroupingAll;
-import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SimpleBoundingBoxOverlap;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.PrecomputedBoundingBoxOverlap;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.geometrichashing.GeometricHashingPairwise;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.geometrichashing.GeometricHashingParameters;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.ransac.RANSACParameters;
@@ -114,7 +114,7 @@ public class TestRegistration
 		final PairwiseSetup< ViewId > setup = new AllToAll<>( viewIds, groups );
 
 		System.out.println( "Defined pairs, removed " + setup.definePairs().size() + " redundant view pairs." );
-		System.out.println( "Removed " + setup.removeNonOverlappingPairs( new SimpleBoundingBoxOverlap<>( spimData ) ).size() + " pairs because they do not overlap." );
+		setup.removeNonOverlappingPairs( new PrecomputedBoundingBoxOverlap<>( spimData ) );
 		setup.reorderPairs();
 		setup.detectSubsets();
 		setup.sortSubsets();
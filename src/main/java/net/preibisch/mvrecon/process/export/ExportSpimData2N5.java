@@ -0,0 +1,257 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import bdv.export.ExportMipmapInfo;
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.registration.ViewTransform;
+import mpicbg.spim.data.registration.ViewTransformAffine;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.TimePoints;
+import mpicbg.spim.data.sequence.ViewDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.data.sequence.ViewSetup;
+import mpicbg.spim.io.IOFunctions;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.plugin.fusion.FusionExportInterface;
+import net.preibisch.mvrecon.fiji.plugin.queryXML.LoadParseQueryXML;
+import net.preibisch.mvrecon.fiji.plugin.resave.Resave_N5;
+import net.preibisch.mvrecon.fiji.plugin.resave.Resave_N5.Parameters;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBoxes;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.n5.N5ImgLoader;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.n5.WriteSequenceToN5;
+import net.preibisch.mvrecon.fiji.spimdata.intensityadjust.IntensityAdjustments;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.PointSpreadFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.StitchingResults;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+public class ExportSpimData2N5 implements ImgExport
+{
+	private FusionExportInterface fusion;
+
+	private List< TimePoint > newTimepoints;
+
+	private List< ViewSetup > newViewSetups;
+
+	private Parameters params;
+
+	private SpimData2 spimData;
+
+	private Map< Integer, ExportMipmapInfo > perSetupExportMipmapInfo;
+
+	private N5Writer n5;
+
+	// the setups whose attributes (data type, downsampling factors) were written already
+	private final HashSet< Integer > writtenSetups = new HashSet<>();
+
+	@Override
+	public boolean finish()
+	{
+		final String path = params.getXMLFile().getAbsolutePath();
+
+		try
+		{
+			new XmlIoSpimData2( "" ).save( spimData, path );
+
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Saved xml '" + path + "'." );
+
+			// this spimdata object was not modified, we just wrote a new one
+			return false;
+		}
+		catch ( SpimDataException e )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Could not save xml '" + path + "'." );
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	@Override
+	public boolean queryParameters( final FusionExportInterface fusion )
+	{
+		this.fusion = fusion;
+
+		// define new timepoints and viewsetups
+		final Pair< List< TimePoint >, List< ViewSetup > > newStructure = ExportSpimData2TIFF.defineNewViewSetups( fusion, fusion.getDownsampling(), fusion.getAnisotropyFactor() );
+		this.newTimepoints = newStructure.getA();
+		this.newViewSetups = newStructure.getB();
+
+		String fn = LoadParseQueryXML.defaultXMLfilename;
+		if ( fn.endsWith( ".xml" ) )
+			fn = fn.substring( 0, fn.length() - ".xml".length() );
+		for ( int i = 0;; ++i )
+		{
+			Resave_N5.defaultPath = String.format( "%s-f%d.xml", fn, i );
+			if ( !new File( Resave_N5.defaultPath ).exists() )
+				break;
+		}
+
+		params = Resave_N5.getParameters( getDescription(), Resave_N5.defaultPath );
+
+		if ( params == null )
+			return false;
+
+		perSetupExportMipmapInfo = Resave_N5.getPerSetupExportMipmapInfo( newViewSetups, params );
+
+		try
+		{
+			n5 = new N5FSWriter( params.getN5File().getAbsolutePath() );
+		}
+		catch ( IOException e )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Could not create N5 container '" + params.getN5File() + "': " + e );
+			e.printStackTrace();
+			return false;
+		}
+
+		this.spimData = initSpimData( newTimepoints, newViewSetups, params );
+
+		return true;
+	}
+
+	protected static SpimData2 initSpimData(
+			final List< TimePoint > newTimepoints,
+			final List< ViewSetup > newViewSetups,
+			final Parameters params )
+	{
+		// SequenceDescription containing the subset of viewsetups and timepoints. Does not have an ImgLoader yet.
+		final SequenceDescription seq = new SequenceDescription( new TimePoints( newTimepoints ), newViewSetups, null, null );
+
+		// Create identity ViewRegistration for all views.
+		final Map< ViewId, ViewRegistration > regMap = new HashMap< ViewId, ViewRegistration >();
+		for ( final ViewDescription vDesc : seq.getViewDescriptions().values() )
+			regMap.put( vDesc, new ViewRegistration( vDesc.getTimePointId(), vDesc.getViewSetupId() ) );
+		final ViewRegistrations viewRegistrations = new ViewRegistrations( regMap );
+
+		// Create empty ViewInterestPoints.
+		final ViewInterestPoints viewsInterestPoints = new ViewInterestPoints( new HashMap< ViewId, ViewInterestPointLists >() );
+
+		// base path is directory containing the XML file.
+		final File basePath = params.getXMLFile().getParentFile();
+
+		seq.setImgLoader( new N5ImgLoader( params.getN5File(), seq ) );
+
+		return new SpimData2( basePath, seq, viewRegistrations, viewsInterestPoints, new BoundingBoxes(), new PointSpreadFunctions(), new StitchingResults(), new IntensityAdjustments() );
+	}
+
+	@Override
+	public < T extends RealType< T > & NativeType< T > > boolean exportImage(
+			final RandomAccessibleInterval< T > img,
+			final Interval bb,
+			final double downsampling,
+			final double anisoF,
+			final String title,
+			final Group< ? extends ViewId > fusionGroup )
+	{
+		return exportImage( img, bb, downsampling, anisoF, title, fusionGroup, Double.NaN, Double.NaN );
+	}
+
+	@Override
+	public < T extends RealType< T > & NativeType< T > > boolean exportImage(
+			final RandomAccessibleInterval< T > img,
+			final Interval bb,
+			final double downsampling,
+			final double anisoF,
+			final String title,
+			final Group< ? extends ViewId > fusionGroup,
+			final double min,
+			final double max )
+	{
+		// N5 stores the pixel type as it is, no conversion to 16 bit necessary
+		final ViewId newViewId = ExportSpimData2TIFF.identifyNewViewId( newTimepoints, newViewSetups, fusionGroup, fusion );
+		final ExportMipmapInfo mipmapInfo = perSetupExportMipmapInfo.get( newViewId.getViewSetupId() );
+
+		final ExecutorService service = Threads.createFixedExecutorService();
+
+		try
+		{
+			synchronized ( writtenSetups )
+			{
+				if ( writtenSetups.add( newViewId.getViewSetupId() ) )
+					WriteSequenceToN5.writeSetupAttributes( n5, newViewId.getViewSetupId(), mipmapInfo, N5Utils.dataType( Util.getTypeFromInterval( img ) ) );
+			}
+
+			WriteSequenceToN5.writeView( img, n5, newViewId.getViewSetupId(), newViewId.getTimePointId(), mipmapInfo, params.getCompression(), service );
+		}
+		catch ( IOException e )
+		{
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Could not write '" + title + "' to N5 container '" + params.getN5File() + "': " + e );
+			e.printStackTrace();
+			return false;
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		// update the registrations
+		final ViewRegistration vr = spimData.getViewRegistrations().getViewRegistration( newViewId );
+
+		final double scale = Double.isNaN( downsampling ) ? 1.0 : downsampling;
+		final double ai = Double.isNaN( anisoF ) ? 1.0 : anisoF;
+
+		final AffineTransform3D m = new AffineTransform3D();
+		m.set( scale, 0.0f, 0.0f, bb.min( 0 ),
+			   0.0f, scale, 0.0f, bb.min( 1 ),
+			   0.0f, 0.0f, scale * ai, bb.min( 2 ) * ai );
+		final ViewTransform vt = new ViewTransformAffine( "fusion bounding box", m );
+
+		vr.getTransformList().clear();
+		vr.getTransformList().add( vt );
+
+		return true;
+	}
+
+	@Override
+	public ImgExport newInstance() { return new ExportSpimData2N5(); }
+
+	@Override
+	public String getDescription() { return "Save as new XML Project (N5)"; }
+}
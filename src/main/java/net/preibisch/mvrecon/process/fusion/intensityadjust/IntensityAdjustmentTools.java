@@ -1,12 +1,19 @@
 package net.preibisch.mvrecon.process.fusion.intensityadjust;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
 
 import mpicbg.models.Affine1D;
 import mpicbg.models.AffineModel1D;
@@ -22,17 +29,20 @@ import mpicbg.spim.data.generic.sequence.BasicImgLoader;
 import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.sequence.ViewId;
 import mpicbg.spim.io.IOFunctions;
-import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.FinalRealInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
 import net.imglib2.converter.read.ConvertedRandomAccessibleInterval;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
-import net.imglib2.view.Views;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.spimdata.intensityadjust.IntensityAdjustments;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformView;
@@ -42,6 +52,15 @@ import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constell
 
 public class IntensityAdjustmentTools
 {
+	// size of the blocks the bounding box is split into for sampling corresponding intensities
+	public static int defaultBlockSize = 64;
+
+	// number of bins per image of the joint intensity histograms
+	public static int defaultHistogramBins = 64;
+
+	// every n'th voxel per dimension is used to estimate the intensity range of an image for the histograms
+	public static int defaultRangeStep = 4;
+
 	public static boolean containsAdjustments( final IntensityAdjustments adjustments, final Collection< ? extends ViewId > viewIds )
 	{
 		for ( final ViewId viewId : viewIds )
@@ -51,6 +70,30 @@ public class IntensityAdjustmentTools
 		return false;
 	}
 
+	public static < M extends Model< M > & Affine1D< M > > HashMap< ViewId, AffineModel1D > computeIntensityAdjustment(
+			final AbstractSpimData< ? > spimData,
+			final List< ? extends ViewId > viewIds,
+			final M intensityModel,
+			final Interval bb,
+			final double downsampling,
+			final int maxMatches,
+			final Map< ? extends ViewId, AffineModel1D > existingAdjustments )
+	{
+		return computeIntensityAdjustment( spimData, viewIds, intensityModel, bb, downsampling, maxMatches, false, existingAdjustments );
+	}
+
+	/**
+	 * @param spimData - the data
+	 * @param viewIds - the views to adjust
+	 * @param intensityModel - the model to use
+	 * @param bb - the bounding box in which the overlaps are computed
+	 * @param downsampling - the downsampling of the bounding box (NaN for none)
+	 * @param maxMatches - maximal number of sampled intensity pairs per pair of views (ignored for histograms)
+	 * @param useHistograms - fit to weighted bins of joint intensity histograms instead of sampled intensity pairs
+	 * @param existingAdjustments - previous intensity adjustments that are applied first and updated (can be null)
+	 * @param <M> - which model type
+	 * @return the new intensity adjustments
+	 */
 	public static < M extends Model< M > & Affine1D< M > > HashMap< ViewId, AffineModel1D > computeIntensityAdjustment(
 			final AbstractSpimData< ? > spimData,
 			final List< ? extends ViewId > viewIds,
@@ -58,6 +101,7 @@ public class IntensityAdjustmentTools
 			Interval bb,
 			double downsampling,
 			final int maxMatches,
+			final boolean useHistograms,
 			final Map< ? extends ViewId, AffineModel1D > existingAdjustments )
 	{
 		if ( !Double.isNaN( downsampling ) )
@@ -67,6 +111,7 @@ public class IntensityAdjustmentTools
 		bb.dimensions( dim );
 
 		final ArrayList< RandomAccessibleInterval< FloatType > > images = new ArrayList<>();
+		final ArrayList< Interval > viewBounds = new ArrayList<>();
 
 		for ( final ViewId viewId : viewIds )
 		{
@@ -83,8 +128,8 @@ public class IntensityAdjustmentTools
 
 			// this modifies the model so it maps from a smaller image to the global coordinate space,
 			// which applies for the image itself as well as the weights since they also use the smaller
-			// input image as reference
-			RandomAccessibleInterval inputImg = DownsampleTools.openDownsampled( imgloader, viewId, model );
+			// input image as reference (the image is box-downsampled further if necessary and shared through the DownsampleCache)
+			RandomAccessibleInterval inputImg = DownsampleTools.openDownsampledBox( imgloader, viewId, model );
 
 			if ( existingAdjustments != null && existingAdjustments.containsKey( viewId ) )
 				inputImg = new ConvertedRandomAccessibleInterval< FloatType, FloatType >(
@@ -94,81 +139,653 @@ public class IntensityAdjustmentTools
 
 			// fuse with nearest neighbor and -1 are intensities outside
 			images.add( TransformView.transformView( inputImg, model, bb, -1, 1 ) );
+			viewBounds.add( localBoundingBox( inputImg, model, bb ) );
 		}
 
+		final HashMap< Integer, ViewId > viewMap = new HashMap<>();
+
+		for ( int i = 0; i < images.size(); ++i )
+			viewMap.put( i, viewIds.get( i ) );
+
+		final HashMap< Pair< Integer, Integer >, ArrayList< PointMatch > > intensityMatches;
+
+		if ( useHistograms )
+			intensityMatches = histogramIntensityMatches( images, viewBounds, defaultHistogramBins );
+		else
+			intensityMatches = sampleIntensityMatches( images, viewBounds, maxMatches );
+
+		final HashMap< ViewId, AffineModel1D > newModels = runGlobal( intensityMatches, viewMap, intensityModel );
+
+		if ( existingAdjustments != null )
+		{
+			IOFunctions.println( "Updating previous intensity mappings ... " );
+
+			for ( final ViewId viewId : newModels.keySet() )
+			{
+				if ( existingAdjustments.containsKey( viewId ) )
+				{
+					final AffineModel1D updatedModel = existingAdjustments.get( viewId ).copy();
+					String out = Group.pvid( viewId ) + ": " + updatedModel + " >>> ";
+					updatedModel.preConcatenate( newModels.get( viewId ) );
+					IOFunctions.println( out + updatedModel );
+				}
+			}
+		}
+
+		return newModels;
+	}
+
+	/**
+	 * Samples up to maxMatches pairs of corresponding intensities for every pair of overlapping images. The intensities are
+	 * collected by reservoir sampling into primitive buffers, so the memory does not depend on the size of the overlap.
+	 * 
+	 * @param images - the transformed images (-1 where there is no data), all with the same zero-min interval
+	 * @param viewBounds - the part of the interval each image covers (null if none)
+	 * @param maxMatches - the maximal number of intensity pairs per pair of images
+	 * @return intensity matches for each pair (i,j) with i &lt; j that overlaps
+	 */
+	public static HashMap< Pair< Integer, Integer >, ArrayList< PointMatch > > sampleIntensityMatches(
+			final List< ? extends RandomAccessibleInterval< FloatType > > images,
+			final List< ? extends Interval > viewBounds,
+			final int maxMatches )
+	{
 		final int m = images.size();
+		final HashMap< Pair< Integer, Integer >, ArrayList< PointMatch > > intensityMatches = new HashMap<>();
 
-		final HashMap< Integer, ViewId > viewMap = new HashMap<>();
-		final Cursor< FloatType > cursor = Views.iterable( images.get( 0 ) ).localizingCursor();
-		final ArrayList< RandomAccess< FloatType > > accesses = new ArrayList<>();
+		if ( m < 2 || maxMatches <= 0 )
+			return intensityMatches;
 
-		for ( int i = 0; i < m; ++i )
+		// every reservoir gets its own random sequence, the merging uses a fixed seed
+		final HashMap< Long, IntensitySamples > samples = accumulatePairs(
+				images,
+				viewBounds,
+				( pair, task ) -> new IntensitySamples( maxMatches, new Random( 344 + (long)task * m * m + pair ) ) );
+
+		for ( final Entry< Long, IntensitySamples > entry : samples.entrySet() )
 		{
-			accesses.add( images.get( i ).randomAccess() );
-			viewMap.put( i, viewIds.get( i ) );
+			final IntensitySamples sample = entry.getValue();
+			final ArrayList< PointMatch > matches = new ArrayList<>( sample.size );
+
+			for ( int i = 0; i < sample.size; ++i )
+				matches.add( new PointMatch( new Point( new double[] { sample.a[ i ] } ), new Point( new double[] { sample.b[ i ] } ) ) );
+
+			if ( matches.size() > 0 )
+				intensityMatches.put( new ValuePair< Integer, Integer >( (int)( entry.getKey() / m ), (int)( entry.getKey() % m ) ), matches );
 		}
 
+		return intensityMatches;
+	}
+
+	/**
+	 * Accumulates a joint intensity histogram for every pair of overlapping images and turns every non-empty bin into one
+	 * weighted match located at the mean intensities of the bin. The memory only depends on the number of bins.
+	 * 
+	 * @param images - the transformed images (-1 where there is no data), all with the same zero-min interval
+	 * @param viewBounds - the part of the interval each image covers (null if none)
+	 * @param bins - the number of bins per image and pair
+	 * @return weighted intensity matches for each pair (i,j) with i &lt; j that overlaps
+	 */
+	public static HashMap< Pair< Integer, Integer >, ArrayList< PointMatch > > histogramIntensityMatches(
+			final List< ? extends RandomAccessibleInterval< FloatType > > images,
+			final List< ? extends Interval > viewBounds,
+			final int bins )
+	{
+		final int m = images.size();
 		final HashMap< Pair< Integer, Integer >, ArrayList< PointMatch > > intensityMatches = new HashMap<>();
 
-		for ( int i = 0; i < m - 1; ++i )
-			for ( int j = i + 1; j < m; ++j )
-				intensityMatches.put( new ValuePair< Integer, Integer >( i, j ), new ArrayList<>() );
+		if ( m < 2 || bins <= 0 )
+			return intensityMatches;
+
+		final float[][] ranges = estimateIntensityRanges( images, viewBounds, defaultRangeStep );
 
-		final ArrayList< Pair< Integer, Float > > values = new ArrayList<>();
+		final HashMap< Long, IntensityHistogram > histograms = accumulatePairs(
+				images,
+				viewBounds,
+				( pair, task ) ->
+				{
+					final float[] rangeA = ranges[ (int)( pair / m ) ];
+					final float[] rangeB = ranges[ (int)( pair % m ) ];
+					return new IntensityHistogram( bins, rangeA[ 0 ], rangeA[ 1 ], rangeB[ 0 ], rangeB[ 1 ] );
+				} );
 
-		while ( cursor.hasNext() )
+		for ( final Entry< Long, IntensityHistogram > entry : histograms.entrySet() )
 		{
-			cursor.fwd();
+			final IntensityHistogram h = entry.getValue();
+			final ArrayList< PointMatch > matches = new ArrayList<>();
+
+			for ( int i = 0; i < h.count.length; ++i )
+				if ( h.count[ i ] > 0 )
+					matches.add( new PointMatch(
+							new Point( new double[] { h.sumA[ i ] / h.count[ i ] } ),
+							new Point( new double[] { h.sumB[ i ] / h.count[ i ] } ),
+							h.count[ i ] ) );
+
+			if ( matches.size() > 0 )
+				intensityMatches.put( new ValuePair< Integer, Integer >( (int)( entry.getKey() / m ), (int)( entry.getKey() % m ) ), matches );
+		}
+
+		return intensityMatches;
+	}
 
-			values.clear();
+	/**
+	 * Visits all voxels of the images in parallel blocks, every block only visits the images that intersect it. For every
+	 * pair of images with an intensity at a voxel (i &lt; j) the intensities are added to the accumulator of that pair.
+	 * 
+	 * @param images - the transformed images (-1 where there is no data), all with the same zero-min interval
+	 * @param viewBounds - the part of the interval each image covers (null if none)
+	 * @param factory - creates an accumulator for a pair (i * numImages + j) in a task
+	 * @param <S> - the accumulator type
+	 * @return the merged accumulators for all pairs (i * numImages + j) that overlap
+	 */
+	protected static < S extends PairAccumulator< S > > HashMap< Long, S > accumulatePairs(
+			final List< ? extends RandomAccessibleInterval< FloatType > > images,
+			final List< ? extends Interval > viewBounds,
+			final BiFunction< Long, Integer, S > factory )
+	{
+		final int m = images.size();
+		final ArrayList< Interval > blocks = createBlocks( images.get( 0 ), defaultBlockSize );
+
+		// contiguous ranges of blocks, so that every task only sees the pairs overlapping its part of the bounding box,
+		// and more tasks than threads to balance the load
+		final int numTasks = Math.min( blocks.size(), Threads.numThreads() * 4 );
+		final ArrayList< Callable< HashMap< Long, S > > > tasks = new ArrayList<>();
+
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int task = t;
+			final int firstBlock = (int)( (long)task * blocks.size() / numTasks );
+			final int lastBlock = (int)( (long)( task + 1 ) * blocks.size() / numTasks );
 
-			for ( int i = 0; i < m; ++i )
+			tasks.add( () ->
 			{
-				final RandomAccess< FloatType > r = accesses.get( i );
-				r.setPosition( cursor );
+				final HashMap< Long, S > accumulators = new HashMap<>();
 
-				final float value = r.get().get();
+				final int[] views = new int[ m ];
+				final int[] contributing = new int[ m ];
+				final float[] values = new float[ m ];
 
-				if ( value >= 0 )
-					values.add( new ValuePair< Integer, Float >( i, value ) );
-			}
+				final ArrayList< RandomAccess< FloatType > > accesses = new ArrayList<>();
+
+				for ( int i = 0; i < m; ++i )
+					accesses.add( null );
 
-			// there are corresponding intensities
-			if ( values.size() > 1 )
-				for ( int i = 0; i < values.size() - 1; ++i )
-					for ( int j = i + 1; j < values.size(); ++j )
+				for ( int b = firstBlock; b < lastBlock; ++b )
+				{
+					final Interval block = blocks.get( b );
+
+					// only the images that intersect the block
+					int k = 0;
+
+					for ( int i = 0; i < m; ++i )
+						if ( viewBounds.get( i ) != null && intersects( viewBounds.get( i ), block ) )
+							views[ k++ ] = i;
+
+					if ( k < 2 )
+						continue;
+
+					final ArrayList< S > local = new ArrayList<>( k * k );
+
+					for ( int a = 0; a < k; ++a )
+						for ( int c = 0; c < k; ++c )
+						{
+							if ( a < c )
+							{
+								final long pair = (long)views[ a ] * m + views[ c ];
+								S accumulator = accumulators.get( pair );
+
+								if ( accumulator == null )
+								{
+									accumulator = factory.apply( pair, task );
+									accumulators.put( pair, accumulator );
+								}
+
+								local.add( accumulator );
+							}
+							else
+							{
+								local.add( null );
+							}
+						}
+
+					for ( int a = 0; a < k; ++a )
+						if ( accesses.get( views[ a ] ) == null )
+							accesses.set( views[ a ], images.get( views[ a ] ).randomAccess() );
+
+					final int n = block.numDimensions();
+					final long[] position = new long[ n ];
+					block.min( position );
+
+					final long sizeX = block.dimension( 0 );
+
+					// iterate all rows of the block
+					while ( true )
 					{
-						final ArrayList< PointMatch > matches = intensityMatches.get( new ValuePair< Integer, Integer >( values.get( i ).getA(), values.get( j ).getA() ) );
-						matches.add( new PointMatch( new Point( new double[] { values.get( i ).getB() } ), new Point( new double[] { values.get( j ).getB() } ) ) );
+						for ( int a = 0; a < k; ++a )
+							accesses.get( views[ a ] ).setPosition( position );
+
+						for ( long x = 0; x < sizeX; ++x )
+						{
+							int numContributing = 0;
+
+							for ( int a = 0; a < k; ++a )
+							{
+								final RandomAccess< FloatType > r = accesses.get( views[ a ] );
+								final float value = r.get().get();
+								r.fwd( 0 );
+
+								if ( value >= 0 )
+								{
+									contributing[ numContributing ] = a;
+									values[ numContributing++ ] = value;
+								}
+							}
+
+							// there are corresponding intensities
+							for ( int a = 0; a < numContributing - 1; ++a )
+								for ( int c = a + 1; c < numContributing; ++c )
+									local.get( contributing[ a ] * k + contributing[ c ] ).add( values[ a ], values[ c ] );
+						}
+
+						int d = 1;
+
+						for ( ; d < n; ++d )
+						{
+							if ( position[ d ] < block.max( d ) )
+							{
+								++position[ d ];
+								break;
+							}
+
+							position[ d ] = block.min( d );
+						}
+
+						if ( d == n )
+							break;
 					}
+				}
+
+				return accumulators;
+			});
 		}
 
-		final Random rnd = new Random( 344 );
-		for ( final ArrayList< PointMatch > matches : intensityMatches.values() )
+		final HashMap< Long, S > merged = new HashMap<>();
+		final ExecutorService service = Threads.createFixedExecutorService();
+
+		try
+		{
+			for ( final Future< HashMap< Long, S > > future : service.invokeAll( tasks ) )
+				for ( final Entry< Long, S > entry : future.get().entrySet() )
+				{
+					final S existing = merged.get( entry.getKey() );
+					merged.put( entry.getKey(), existing == null ? entry.getValue() : existing.merge( entry.getValue() ) );
+				}
+		}
+		catch ( final InterruptedException | ExecutionException e )
 		{
-			while ( matches.size() >= maxMatches )
-				matches.remove( rnd.nextInt( matches.size() ) );
+			IOFunctions.println( "Failed to collect corresponding intensities: " + e );
+			e.printStackTrace();
+			throw new RuntimeException( e );
+		}
+		finally
+		{
+			service.shutdown();
 		}
 
-		final HashMap< ViewId, AffineModel1D > newModels = runGlobal( intensityMatches, viewMap, intensityModel );
+		return merged;
+	}
 
-		if ( existingAdjustments != null )
+	/**
+	 * Estimates the range of intensities of every image from every step'th voxel in each dimension
+	 * 
+	 * @param images - the transformed images (-1 where there is no data), all with the same zero-min interval
+	 * @param viewBounds - the part of the interval each image covers (null if none)
+	 * @param step - the step size
+	 * @return min and max for each image
+	 */
+	protected static float[][] estimateIntensityRanges(
+			final List< ? extends RandomAccessibleInterval< FloatType > > images,
+			final List< ? extends Interval > viewBounds,
+			final int step )
+	{
+		final float[][] ranges = new float[ images.size() ][];
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int i = 0; i < images.size(); ++i )
 		{
-			IOFunctions.println( "Updating previous intensity mappings ... " );
+			final int index = i;
 
-			for ( final ViewId viewId : newModels.keySet() )
+			tasks.add( () ->
 			{
-				if ( existingAdjustments.containsKey( viewId ) )
+				float min = Float.MAX_VALUE;
+				float max = -Float.MAX_VALUE;
+
+				final Interval interval = viewBounds.get( index );
+
+				if ( interval != null )
 				{
-					final AffineModel1D updatedModel = existingAdjustments.get( viewId ).copy();
-					String out = Group.pvid( viewId ) + ": " + updatedModel + " >>> ";
-					updatedModel.preConcatenate( newModels.get( viewId ) );
-					IOFunctions.println( out + updatedModel );
+					final RandomAccess< FloatType > r = images.get( index ).randomAccess();
+					final int n = interval.numDimensions();
+					final long[] position = new long[ n ];
+					interval.min( position );
+
+					while ( true )
+					{
+						r.setPosition( position );
+						final float value = r.get().get();
+
+						if ( value >= 0 )
+						{
+							min = Math.min( min, value );
+							max = Math.max( max, value );
+						}
+
+						int d = 0;
+
+						for ( ; d < n; ++d )
+						{
+							if ( position[ d ] + step <= interval.max( d ) )
+							{
+								position[ d ] += step;
+								break;
+							}
+
+							position[ d ] = interval.min( d );
+						}
+
+						if ( d == n )
+							break;
+					}
+				}
+
+				ranges[ index ] = min > max ? new float[] { 0, 0 } : new float[] { min, max };
+
+				return null;
+			});
+		}
+
+		final ExecutorService service = Threads.createFixedExecutorService();
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			IOFunctions.println( "Failed to estimate the intensity ranges: " + e );
+			e.printStackTrace();
+			throw new RuntimeException( e );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		return ranges;
+	}
+
+	/**
+	 * @param inputImg - the input image
+	 * @param model - the transformation of the input image
+	 * @param bb - the bounding box
+	 * @return the part of the zero-min bounding box the transformed image covers, null if it does not overlap
+	 */
+	protected static Interval localBoundingBox( final Interval inputImg, final AffineTransform3D model, final Interval bb )
+	{
+		final double[] min = new double[ inputImg.numDimensions() ];
+		final double[] max = new double[ inputImg.numDimensions() ];
+
+		for ( int d = 0; d < min.length; ++d )
+		{
+			min[ d ] = inputImg.min( d );
+			max[ d ] = inputImg.max( d );
+		}
+
+		final RealInterval bounds = model.estimateBounds( new FinalRealInterval( min, max ) );
+
+		final long[] lmin = new long[ bb.numDimensions() ];
+		final long[] lmax = new long[ bb.numDimensions() ];
+
+		for ( int d = 0; d < lmin.length; ++d )
+		{
+			// one pixel more on each side for the nearest neighbor rounding
+			lmin[ d ] = Math.max( 0, (long)Math.floor( bounds.realMin( d ) ) - 1 - bb.min( d ) );
+			lmax[ d ] = Math.min( bb.dimension( d ) - 1, (long)Math.ceil( bounds.realMax( d ) ) + 1 - bb.min( d ) );
+
+			if ( lmin[ d ] > lmax[ d ] )
+				return null;
+		}
+
+		return new FinalInterval( lmin, lmax );
+	}
+
+	protected static ArrayList< Interval > createBlocks( final Interval interval, final int blockSize )
+	{
+		final int n = interval.numDimensions();
+		final ArrayList< Interval > blocks = new ArrayList<>();
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+
+		interval.min( min );
+
+		if ( Intervals.numElements( interval ) == 0 )
+			return blocks;
+
+		while ( true )
+		{
+			for ( int d = 0; d < n; ++d )
+				max[ d ] = Math.min( min[ d ] + blockSize - 1, interval.max( d ) );
+
+			blocks.add( new FinalInterval( min, max ) );
+
+			int d = 0;
+
+			for ( ; d < n; ++d )
+			{
+				if ( min[ d ] + blockSize <= interval.max( d ) )
+				{
+					min[ d ] += blockSize;
+					break;
 				}
+
+				min[ d ] = interval.min( d );
 			}
+
+			if ( d == n )
+				return blocks;
 		}
+	}
 
-		return newModels;
+	protected static boolean intersects( final Interval a, final Interval b )
+	{
+		for ( int d = 0; d < a.numDimensions(); ++d )
+			if ( a.max( d ) < b.min( d ) || a.min( d ) > b.max( d ) )
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Collects corresponding intensities of a pair of images
+	 */
+	protected static interface PairAccumulator< S >
+	{
+		public void add( final float va, final float vb );
+
+		/**
+		 * @param other - the accumulator of the same pair from another task
+		 * @return the accumulator of both (might be this instance)
+		 */
+		public S merge( final S other );
+	}
+
+	/**
+	 * Joint intensity histogram of a pair of images, every bin also sums up the intensities it contains so the mean is exact.
+	 * Intensities outside of the estimated range are put into the first or last bin.
+	 */
+	protected static class IntensityHistogram implements PairAccumulator< IntensityHistogram >
+	{
+		final int bins;
+		final float minA, scaleA, minB, scaleB;
+		final double[] count, sumA, sumB;
+
+		public IntensityHistogram( final int bins, final float minA, final float maxA, final float minB, final float maxB )
+		{
+			this.bins = bins;
+			this.minA = minA;
+			this.minB = minB;
+			this.scaleA = maxA > minA ? bins / ( maxA - minA ) : 0;
+			this.scaleB = maxB > minB ? bins / ( maxB - minB ) : 0;
+			this.count = new double[ bins * bins ];
+			this.sumA = new double[ bins * bins ];
+			this.sumB = new double[ bins * bins ];
+		}
+
+		@Override
+		public void add( final float va, final float vb )
+		{
+			final int i = bin( ( va - minA ) * scaleA ) * bins + bin( ( vb - minB ) * scaleB );
+
+			++count[ i ];
+			sumA[ i ] += va;
+			sumB[ i ] += vb;
+		}
+
+		@Override
+		public IntensityHistogram merge( final IntensityHistogram other )
+		{
+			for ( int i = 0; i < count.length; ++i )
+			{
+				count[ i ] += other.count[ i ];
+				sumA[ i ] += other.sumA[ i ];
+				sumB[ i ] += other.sumB[ i ];
+			}
+
+			return this;
+		}
+
+		protected int bin( final float position )
+		{
+			return Math.max( 0, Math.min( bins - 1, (int)position ) );
+		}
+	}
+
+	/**
+	 * Reservoir sample of corresponding intensities of a pair of images
+	 */
+	protected static class IntensitySamples implements PairAccumulator< IntensitySamples >
+	{
+		final int capacity;
+		final Random rnd;
+		float[] a, b;
+		int size = 0;
+
+		// how many pairs of intensities were seen
+		long count = 0;
+
+		public IntensitySamples( final int capacity, final Random rnd )
+		{
+			// the buffers grow up to the capacity, which might be Integer.MAX_VALUE
+			this( capacity, Math.min( capacity, 1024 ), rnd );
+		}
+
+		protected IntensitySamples( final int capacity, final int initialSize, final Random rnd )
+		{
+			this.capacity = capacity;
+			this.rnd = rnd;
+			this.a = new float[ initialSize ];
+			this.b = new float[ initialSize ];
+		}
+
+		@Override
+		public void add( final float va, final float vb )
+		{
+			++count;
+
+			if ( size < capacity )
+			{
+				if ( size == a.length )
+				{
+					final int newLength = (int)Math.min( capacity, Math.max( 16l, a.length * 2l ) );
+					a = Arrays.copyOf( a, newLength );
+					b = Arrays.copyOf( b, newLength );
+				}
+
+				a[ size ] = va;
+				b[ size++ ] = vb;
+			}
+			else
+			{
+				final long r = (long)( rnd.nextDouble() * count );
+
+				if ( r < capacity )
+				{
+					a[ (int)r ] = va;
+					b[ (int)r ] = vb;
+				}
+			}
+		}
+
+		protected void shuffle( final Random rnd )
+		{
+			for ( int i = size - 1; i > 0; --i )
+			{
+				final int j = rnd.nextInt( i + 1 );
+
+				final float ta = a[ i ], tb = b[ i ];
+				a[ i ] = a[ j ];
+				b[ i ] = b[ j ];
+				a[ j ] = ta;
+				b[ j ] = tb;
+			}
+		}
+
+		/**
+		 * Merges two samples into a uniform sample of both populations (drawing without replacement proportional to
+		 * the remaining number of pairs each sample represents)
+		 */
+		@Override
+		public IntensitySamples merge( final IntensitySamples other )
+		{
+			final IntensitySamples s1 = this;
+			final IntensitySamples s2 = other;
+
+			s1.shuffle( rnd );
+			s2.shuffle( rnd );
+
+			final IntensitySamples merged = new IntensitySamples( capacity, (int)Math.min( capacity, (long)s1.size + s2.size ), rnd );
+			merged.count = s1.count + s2.count;
+
+			long remaining1 = s1.count, remaining2 = s2.count;
+			int i1 = 0, i2 = 0;
+
+			while ( merged.size < capacity && ( i1 < s1.size || i2 < s2.size ) )
+			{
+				final boolean first;
+
+				if ( i1 == s1.size )
+					first = false;
+				else if ( i2 == s2.size )
+					first = true;
+				else
+					first = rnd.nextDouble() * ( remaining1 + remaining2 ) < remaining1;
+
+				if ( first )
+				{
+					merged.a[ merged.size ] = s1.a[ i1 ];
+					merged.b[ merged.size++ ] = s1.b[ i1++ ];
+					--remaining1;
+				}
+				else
+				{
+					merged.a[ merged.size ] = s2.a[ i2 ];
+					merged.b[ merged.size++ ] = s2.b[ i2++ ];
+					--remaining2;
+				}
+			}
+
+			return merged;
+		}
 	}
 
 	/**
@@ -202,6 +819,10 @@ public class IntensityAdjustmentTools
 
 				final ArrayList< PointMatch > correspondences = intensityMatches.get( new ValuePair< Integer, Integer >( i, j ) );
 
+				// pairs that do not overlap might not be present
+				if ( correspondences == null )
+					continue;
+
 				IOFunctions.println( Group.pvid( viewMap.get( i ) )  + " <> " + Group.pvid( viewMap.get( j ) ) + ": " + correspondences.size() );
 	
 				if ( correspondences.size() > 0 )
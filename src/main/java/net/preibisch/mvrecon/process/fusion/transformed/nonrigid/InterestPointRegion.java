@@ -0,0 +1,118 @@
+package net.preibisch.mvrecon.process.fusion.transformed.nonrigid;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import mpicbg.spim.data.generic.sequence.BasicViewDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
+import net.imglib2.RealInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SimpleBoundingBoxOverlap;
+
+/**
+ * A padded region in world coordinates that restricts which corresponding interest points are used for non-rigid fusion.
+ * The interest points of every view and label are transformed only once, the ids of those that end up inside the region
+ * are kept as a lookup.
+ */
+public class InterestPointRegion
+{
+	final RealInterval region;
+	final Map< ViewId, AffineTransform3D > registrations;
+	final Map< ViewId, ? extends BasicViewDescription< ? > > viewDescriptions;
+
+	// ViewId >> label >> ids of the interest points inside the region
+	final HashMap< ViewId, HashMap< String, HashSet< Integer > > > insideIds = new HashMap<>();
+
+	/**
+	 * @param boundingBox - the bounding box that is fused (world coordinates)
+	 * @param padding - how much the bounding box is extended in every direction (world coordinates)
+	 * @param registrations - the registrations of all views (image &gt;&gt; world)
+	 * @param viewDescriptions - the view descriptions (for the size of the views)
+	 */
+	public InterestPointRegion(
+			final Interval boundingBox,
+			final double padding,
+			final Map< ViewId, AffineTransform3D > registrations,
+			final Map< ViewId, ? extends BasicViewDescription< ? > > viewDescriptions )
+	{
+		final double[] min = new double[ boundingBox.numDimensions() ];
+		final double[] max = new double[ boundingBox.numDimensions() ];
+
+		for ( int d = 0; d < min.length; ++d )
+		{
+			min[ d ] = boundingBox.min( d ) - padding;
+			max[ d ] = boundingBox.max( d ) + padding;
+		}
+
+		this.region = new FinalRealInterval( min, max );
+		this.registrations = registrations;
+		this.viewDescriptions = viewDescriptions;
+	}
+
+	public RealInterval getRegion() { return region; }
+
+	/**
+	 * @param viewId - the view
+	 * @return true if the transformed bounds of the view intersect the region (or if the size of the view is unknown)
+	 */
+	public boolean overlaps( final ViewId viewId )
+	{
+		final BasicViewDescription< ? > vd = viewDescriptions.get( viewId );
+
+		if ( vd == null || vd.getViewSetup() == null || !vd.getViewSetup().hasSize() )
+			return true;
+
+		final RealInterval bounds = SimpleBoundingBoxOverlap.getBoundingBoxReal( vd.getViewSetup().getSize(), registrations.get( viewId ) );
+
+		for ( int d = 0; d < region.numDimensions(); ++d )
+			if ( bounds.realMax( d ) < region.realMin( d ) || bounds.realMin( d ) > region.realMax( d ) )
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * @param viewId - the view
+	 * @param label - the label of the interest points
+	 * @param ips - all interest points of this view and label (id &gt;&gt; interest point)
+	 * @return the ids of all interest points that lie inside the region once transformed
+	 */
+	public synchronized HashSet< Integer > getInsideIds( final ViewId viewId, final String label, final Map< Integer, InterestPoint > ips )
+	{
+		final HashMap< String, HashSet< Integer > > labelMap = insideIds.computeIfAbsent( viewId, v -> new HashMap<>() );
+		HashSet< Integer > inside = labelMap.get( label );
+
+		if ( inside == null )
+		{
+			final AffineTransform3D t = registrations.get( viewId );
+			final double[] w = new double[ region.numDimensions() ];
+
+			inside = new HashSet<>();
+
+			for ( final InterestPoint ip : ips.values() )
+			{
+				t.apply( ip.getL(), w );
+
+				if ( contains( w ) )
+					inside.add( ip.getId() );
+			}
+
+			labelMap.put( label, inside );
+		}
+
+		return inside;
+	}
+
+	public boolean contains( final double[] w )
+	{
+		for ( int d = 0; d < w.length; ++d )
+			if ( w[ d ] < region.realMin( d ) || w[ d ] > region.realMax( d ) )
+				return false;
+
+		return true;
+	}
+}
@@ -39,6 +39,7 @@ import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.imglib2.view.Views;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondenceStore;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestPoints;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
@@ -50,7 +51,9 @@ import net.preibisch.mvrecon.process.fusion.transformed.FusedRandomAccessibleInt
 import net.preibisch.mvrecon.process.fusion.transformed.TransformView;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformVirtual;
 import net.preibisch.mvrecon.process.fusion.transformed.TransformWeight;
+import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.DisplacementField;
 import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.ModelGrid;
+import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.ModelGridTools;
 import net.preibisch.mvrecon.process.fusion.transformed.weightcombination.CombineWeightsRandomAccessibleInterval;
 import net.preibisch.mvrecon.process.fusion.transformed.weightcombination.CombineWeightsRandomAccessibleInterval.CombineType;
 import net.preibisch.mvrecon.process.fusion.transformed.weights.BlendingRealRandomAccessible;
@@ -61,6 +64,12 @@ import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constell
 
 public class NonRigidTools
 {
+	// transform with a precomputed lattice of displacements instead of interpolating affine models for every pixel
+	public static boolean defaultUseDisplacementField = false;
+
+	// only corresponding interest points up to this distance (in world coordinates) around the fused bounding box are used, negative means all
+	public static double defaultInterestPointPadding = -1;
+
 	public static Pair< RandomAccessibleInterval< FloatType >, AffineTransform3D > fuseVirtualInterpolatedNonRigid(
 			final SpimData2 spimData,
 			final Collection< ? extends ViewId > viewsToFuse,
@@ -144,8 +153,12 @@ public class NonRigidTools
 		final Interval bbDS = scaledBB.getA();
 		final AffineTransform3D bbTransform = scaledBB.getB();
 
+		// only the interest points around the fused region are relevant
+		final InterestPointRegion region = defaultInterestPointPadding < 0 ? null :
+			new InterestPointRegion( boundingBox, defaultInterestPointPadding, viewRegistrations, viewDescriptions );
+
 		// finding the corresponding interest points is the same for all levels
-		final HashMap< ViewId, ArrayList< CorrespondingIP > > annotatedIps = NonRigidTools.assembleIPsForNonRigid( viewInterestPoints, viewsToUse, labels );
+		final HashMap< ViewId, ArrayList< CorrespondingIP > > annotatedIps = NonRigidTools.assembleIPsForNonRigid( viewInterestPoints, viewsToUse, labels, region );
 
 		// find unique interest points in the pairs of images
 		final ArrayList< HashSet< CorrespondingIP > > uniqueIPs = NonRigidTools.findUniqueInterestPoints( annotatedIps );
@@ -217,10 +230,42 @@ public class NonRigidTools
 			final Map< ViewId, ViewInterestPointLists > viewInterestPoints,
 			final Collection< ? extends ViewId > viewsToUse,
 			final ArrayList< String > labels )
+	{
+		return assembleIPsForNonRigid( viewInterestPoints, viewsToUse, labels, null );
+	}
+
+	/**
+	 * Assembles the pairs of corresponding interest points of all views. If a region is provided, views that do not overlap
+	 * it are skipped (their interest points are never loaded) and only pairs where at least one interest point lies inside
+	 * the region are kept.
+	 *
+	 * @param viewInterestPoints - all interest points
+	 * @param viewsToUse - which views to use
+	 * @param labels - which labels to use
+	 * @param region - the region the interest points need to be in, null means everywhere
+	 * @return all pairs of corresponding interest points for each view that has enough of them
+	 */
+	public static HashMap< ViewId, ArrayList< CorrespondingIP > > assembleIPsForNonRigid(
+			final Map< ViewId, ViewInterestPointLists > viewInterestPoints,
+			final Collection< ? extends ViewId > viewsToUse,
+			final ArrayList< String > labels,
+			final InterestPointRegion region )
 	{
 		final HashMap< ViewId, ArrayList< CorrespondingIP > > annotatedIps = new HashMap<>();
 
+		// every view is both a local and a corresponding view, so the id lookups are built only once
+		final HashMap< ViewId, HashMap< String, HashMap< Integer, InterestPoint > > > idMaps = new HashMap<>();
+
+		final ArrayList< ViewId > relevantViews = new ArrayList<>();
+
 		for ( final ViewId viewId : viewsToUse )
+			if ( region == null || region.overlaps( viewId ) )
+				relevantViews.add( viewId );
+
+		if ( region != null )
+			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": " + relevantViews.size() + "/" + viewsToUse.size() + " views overlap the region " + TransformationTools.printRealInterval( region.getRegion() ) );
+
+		for ( final ViewId viewId : relevantViews )
 		{
 			final ArrayList< CorrespondingIP > aips = new ArrayList<>();
 
@@ -232,10 +277,10 @@ public class NonRigidTools
 				{
 					final InterestPointList ipList = viewInterestPoints.get( viewId ).getInterestPointList( label );
 
-					final List< CorrespondingInterestPoints > cipList = ipList.getCorrespondingInterestPointsCopy();
-					IOFunctions.println( new Date( System.currentTimeMillis() ) + ": There are " + cipList.size() + " corresponding interest points in total (to all views)." );
+					final CorrespondenceStore store = ipList.getCorrespondenceStore();
+					IOFunctions.println( new Date( System.currentTimeMillis() ) + ": There are " + store.size() + " corresponding interest points in total (to all views)." );
 
-					final ArrayList< CorrespondingIP > aipsTmp = NonRigidTools.assembleAllCorrespondingPoints( viewId, ipList, cipList, viewsToUse, viewInterestPoints );
+					final ArrayList< CorrespondingIP > aipsTmp = NonRigidTools.assembleAllCorrespondingPoints( viewId, label, store, relevantViews, viewInterestPoints, idMaps, region );
 
 					if ( aipsTmp == null )
 						IOFunctions.println( new Date( System.currentTimeMillis() ) + ": FAILED to assemble pairs of corresponding interest points for label " + label + " in view " + Group.pvid( viewId ) );
@@ -284,6 +329,7 @@ public class NonRigidTools
 			final ModelGrid grid = nonrigidGrids.get( viewId );
 			final AffineTransform3D modelAffine = downsampledRegistrations.get( viewId ).copy(); // will be modified potentially
 			final AffineModel3D invertedModelOpener;
+			final DisplacementField field;
 			RandomAccessibleInterval inputImg;
 
 			if ( !displayDistances )
@@ -309,6 +355,11 @@ public class NonRigidTools
 	
 				inputImg = inputData.getA();
 
+				if ( grid != null && defaultUseDisplacementField )
+					field = new DisplacementField( grid, invertedModelOpener );
+				else
+					field = null;
+
 				if ( intensityAdjustments != null && intensityAdjustments.containsKey( viewId ) )
 					inputImg = new ConvertedRandomAccessibleInterval< FloatType, FloatType >(
 							FusionTools.convertInput( inputImg ),
@@ -317,6 +368,8 @@ public class NonRigidTools
 
 				if ( grid == null )
 					images.add( TransformView.transformView( inputImg, modelAffine, bbDS, 0, interpolation ) );
+				else if ( field != null )
+					images.add( NonRigidTools.transformViewNonRigidDisplacement( inputImg, field, bbDS, 0, interpolation ) );
 				else
 					images.add( NonRigidTools.transformViewNonRigidInterpolated( inputImg, grid, invertedModelOpener, bbDS, 0, interpolation ) );
 			}
@@ -327,6 +380,7 @@ public class NonRigidTools
 				//
 
 				invertedModelOpener = null;
+				field = null;
 				inputImg = imgloader.getSetupImgLoader( viewId.getViewSetupId() ).getImage( viewId.getTimePointId() );
 
 				if ( grid == null )
@@ -353,6 +407,12 @@ public class NonRigidTools
 
 					if ( grid == null )
 						transformedBlending = TransformWeight.transformBlending( inputImg, border, blending, modelAffine, bbDS );
+					else if ( field != null )
+						transformedBlending = NonRigidWeightTools.transformWeightNonRigidDisplacement(
+								new BlendingRealRandomAccessible(
+										new FinalInterval( inputImg ), border, blending ),
+										field,
+										bbDS );
 					else
 						transformedBlending = NonRigidWeightTools.transformWeightNonRigidInterpolated(
 								new BlendingRealRandomAccessible(
@@ -375,6 +435,16 @@ public class NonRigidTools
 
 					if ( grid == null )
 						transformedContentBased = TransformWeight.transformContentBased( inputImg, new CellImgFactory<>( new ComplexFloatType() ), sigma1, sigma2, modelAffine, bbDS );
+					else if ( field != null )
+						transformedContentBased = 
+								NonRigidWeightTools.transformWeightNonRigidDisplacement(
+									new ContentBasedRealRandomAccessible(
+											inputImg,
+											new CellImgFactory<>( new ComplexFloatType() ),
+											sigma1,
+											sigma2 ),
+									field,
+									bbDS );
 					else
 						transformedContentBased = 
 								NonRigidWeightTools.transformWeightNonRigidInterpolated(
@@ -412,6 +482,8 @@ public class NonRigidTools
 
 				if ( grid == null )
 					weights.add( TransformView.transformView( imageArea, modelAffine, bbDS, 0, 0 ) );
+				else if ( field != null )
+					weights.add( NonRigidTools.transformViewNonRigidDisplacement( imageArea, field, bbDS, 0, 0 ) );
 				else
 					weights.add( NonRigidTools.transformViewNonRigidInterpolated( imageArea, grid, invertedModelOpener, bbDS, 0, 0 ) );
 			}
@@ -464,6 +536,28 @@ public class NonRigidTools
 		return Views.interval( virtual, new FinalInterval( size ) );
 	}
 
+	public static < T extends RealType< T > > RandomAccessibleInterval< FloatType > transformViewNonRigidDisplacement(
+			final RandomAccessibleInterval< T > input,
+			final DisplacementField field,
+			final Interval boundingBox,
+			final float outsideValue,
+			final int interpolation )
+	{
+		final long[] size = new long[ input.numDimensions() ];
+
+		for ( int d = 0; d < size.length; ++d )
+			size[ d ] = boundingBox.dimension( d );
+
+		final DisplacementNonRigidRandomAccessible< T > virtual = new DisplacementNonRigidRandomAccessible< T >( input, field, false, 0.0f, new FloatType( outsideValue ), boundingBox );
+
+		if ( interpolation == 0 )
+			virtual.setNearestNeighborInterpolation();
+		else
+			virtual.setLinearInterpolation();
+
+		return Views.interval( virtual, new FinalInterval( size ) );
+	}
+
 	public static < T extends RealType< T > > RandomAccessibleInterval< FloatType > transformViewNonRigid(
 			final RandomAccessibleInterval< T > input,
 			final Collection< ? extends NonrigidIP > ips,
@@ -541,7 +635,7 @@ public class NonRigidTools
 
 					try
 					{
-						final ModelGrid grid = new ModelGrid( controlPointDistance, boundingBox, ips, alpha, virtual );
+						final ModelGrid grid = new ModelGrid( controlPointDistance, boundingBox, ips, alpha, virtual, ModelGridTools.threadsPerGrid( viewsToFuse.size() ) );
 						return new ValuePair< ViewId, ModelGrid >( viewId, grid );
 					}
 					catch ( Exception e )
@@ -895,6 +989,140 @@ public class NonRigidTools
 		return ipPairs;
 	}
 
+	/**
+	 * Same as {@link #assembleAllCorrespondingPoints(ViewId, InterestPointList, List, Collection, Map)}, but only the
+	 * correspondences to the requested views are touched using the index of the {@link CorrespondenceStore}.
+	 * 
+	 * @param viewId - the local view
+	 * @param label - the label of the local interest points
+	 * @param store - the correspondences of the local interest points
+	 * @param viewsToUse - only correspondences to these views are assembled
+	 * @param interestPointLists - all interest points
+	 * @param idMaps - cache of the id lookups, can be shared between calls (ViewId &gt;&gt; label &gt;&gt; id &gt;&gt; interest point)
+	 * @return all pairs of corresponding interest points, null if some were missing
+	 */
+	public static ArrayList< CorrespondingIP > assembleAllCorrespondingPoints(
+			final ViewId viewId,
+			final String label,
+			final CorrespondenceStore store,
+			final Collection< ? extends ViewId > viewsToUse,
+			final Map< ? extends ViewId, ? extends ViewInterestPointLists > interestPointLists,
+			final HashMap< ViewId, HashMap< String, HashMap< Integer, InterestPoint > > > idMaps )
+	{
+		return assembleAllCorrespondingPoints( viewId, label, store, viewsToUse, interestPointLists, idMaps, null );
+	}
+
+	/**
+	 * Same as {@link #assembleAllCorrespondingPoints(ViewId, String, CorrespondenceStore, Collection, Map, HashMap)}, but only
+	 * pairs where at least one of the interest points lies inside the region are assembled.
+	 * 
+	 * @param viewId - the local view
+	 * @param label - the label of the local interest points
+	 * @param store - the correspondences of the local interest points
+	 * @param viewsToUse - only correspondences to these views are assembled
+	 * @param interestPointLists - all interest points
+	 * @param idMaps - cache of the id lookups, can be shared between calls (ViewId &gt;&gt; label &gt;&gt; id &gt;&gt; interest point)
+	 * @param region - the region the interest points need to be in, null means everywhere
+	 * @return all pairs of corresponding interest points, null if some were missing
+	 */
+	public static ArrayList< CorrespondingIP > assembleAllCorrespondingPoints(
+			final ViewId viewId,
+			final String label,
+			final CorrespondenceStore store,
+			final Collection< ? extends ViewId > viewsToUse,
+			final Map< ? extends ViewId, ? extends ViewInterestPointLists > interestPointLists,
+			final HashMap< ViewId, HashMap< String, HashMap< Integer, InterestPoint > > > idMaps,
+			final InterestPointRegion region )
+	{
+		// result
+		final ArrayList< CorrespondingIP > ipPairs = new ArrayList<>();
+
+		final HashMap< Integer, InterestPoint > ips = getIdMap( viewId, label, interestPointLists, idMaps );
+
+		if ( ips == null )
+		{
+			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Label '" + label + "' does not exist for " +  Group.pvid( viewId ) + ". Stopping." );
+			return null;
+		}
+
+		final HashSet< Integer > inside = region == null ? null : region.getInsideIds( viewId, label, ips );
+
+		// only processing those views that are requested (each view once)
+		for ( final ViewId corrViewId : new HashSet<>( viewsToUse ) )
+		{
+			for ( final String corrLabel : store.getCorrespondingLabels( corrViewId ) )
+			{
+				final HashMap< Integer, InterestPoint > corrIps = getIdMap( corrViewId, corrLabel, interestPointLists, idMaps );
+
+				if ( corrIps == null )
+				{
+					IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Corresponding Label '" + corrLabel + "' does not exist for " +  Group.pvid( corrViewId ) + ". Stopping." );
+					return null;
+				}
+
+				final int[] ids = store.getDetectionIds( corrViewId, corrLabel );
+				final int[] corrIds = store.getCorrespondingDetectionIds( corrViewId, corrLabel );
+
+				final HashSet< Integer > corrInside = region == null ? null : region.getInsideIds( corrViewId, corrLabel, corrIps );
+
+				for ( int i = 0; i < ids.length; ++i )
+				{
+					if ( region != null && !inside.contains( ids[ i ] ) && !corrInside.contains( corrIds[ i ] ) )
+						continue;
+
+					final InterestPoint ip = ips.get( ids[ i ] );
+
+					if ( ip == null )
+					{
+						IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Instance for id=" + ids[ i ] + " of local interest point does not exist. Stopping." );
+						return null;
+					}
+
+					final InterestPoint corrIp = corrIps.get( corrIds[ i ] );
+
+					if ( corrIp == null )
+					{
+						IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Instance for id=" + corrIds[ i ] + " of corresponding Label '" + corrLabel + "' does not exist for " +  Group.pvid( corrViewId ) + ". Stopping." );
+						return null;
+					}
+
+					ipPairs.add( new CorrespondingIP( ip, viewId, corrIp, corrViewId ) );
+				}
+			}
+		}
+
+		return ipPairs;
+	}
+
+	protected static HashMap< Integer, InterestPoint > getIdMap(
+			final ViewId viewId,
+			final String label,
+			final Map< ? extends ViewId, ? extends ViewInterestPointLists > interestPointLists,
+			final HashMap< ViewId, HashMap< String, HashMap< Integer, InterestPoint > > > idMaps )
+	{
+		final HashMap< String, HashMap< Integer, InterestPoint > > labelMap = idMaps.computeIfAbsent( viewId, v -> new HashMap<>() );
+		HashMap< Integer, InterestPoint > map = labelMap.get( label );
+
+		if ( map == null )
+		{
+			final ViewInterestPointLists vipl = interestPointLists.get( viewId );
+			final InterestPointList list = vipl == null ? null : vipl.getInterestPointList( label );
+
+			if ( list == null )
+				return null;
+
+			final List< InterestPoint > points = list.getInterestPointsCopy();
+			map = new HashMap<>( points.size() * 2 );
+
+			for ( final InterestPoint ip : points )
+				map.put( ip.getId(), ip );
+
+			labelMap.put( label, map );
+		}
+
+		return map;
+	}
+
 	public static int[] uniqueInterestPointCounts( final List< HashSet< CorrespondingIP > > groups )
 	{
 		if ( groups == null || groups.size() == 0 )
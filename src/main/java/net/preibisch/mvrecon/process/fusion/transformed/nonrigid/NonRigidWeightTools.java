@@ -10,7 +10,9 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
+import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.DisplacementField;
 import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.ModelGrid;
+import net.preibisch.mvrecon.process.fusion.transformed.weights.DisplacementNonRigidRasteredRandomAccessible;
 import net.preibisch.mvrecon.process.fusion.transformed.weights.InterpolatingNonRigidRasteredRandomAccessible;
 import net.preibisch.mvrecon.process.fusion.transformed.weights.NonRigidRasteredRandomAccessible;
 
@@ -45,6 +47,33 @@ public class NonRigidWeightTools
 		return virtualBlendingInterval;
 	}
 
+	public static RandomAccessibleInterval< FloatType > transformWeightNonRigidDisplacement(
+			final RealRandomAccessible< FloatType > rra,
+			final DisplacementField field,
+			final Interval boundingBox )
+	{
+		final long[] offset = new long[ rra.numDimensions() ];
+		final long[] size = new long[ rra.numDimensions() ];
+
+		for ( int d = 0; d < offset.length; ++d )
+		{
+			offset[ d ] = boundingBox.min( d );
+			size[ d ] = boundingBox.dimension( d );
+		}
+
+		// the virtual weight construct
+		final RandomAccessible< FloatType > virtualBlending =
+				new DisplacementNonRigidRasteredRandomAccessible< FloatType >(
+					rra,
+					new FloatType(),
+					field,
+					offset );
+
+		final RandomAccessibleInterval< FloatType > virtualBlendingInterval = Views.interval( virtualBlending, new FinalInterval( size ) );
+
+		return virtualBlendingInterval;
+	}
+
 	public static RandomAccessibleInterval< FloatType > transformWeightNonRigid(
 			final RealRandomAccessible< FloatType > rra,
 			final Collection< ? extends NonrigidIP > ips,
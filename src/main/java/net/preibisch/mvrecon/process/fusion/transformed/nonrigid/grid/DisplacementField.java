@@ -0,0 +1,114 @@
+package net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mpicbg.models.AffineModel3D;
+import net.imglib2.RandomAccess;
+import net.preibisch.mvrecon.Threads;
+
+/**
+ * A dense lattice of 3d displacement vectors at the control points of a {@link ModelGrid}. At every control point g it stores
+ * u(g) = M(g)g - g, where M(g) is the model of the grid (optionally pre-concatenated with the inverse of the model used to
+ * open a downsampled image). In between, the displacement is interpolated trilinearly, which approximates interpolating the
+ * affine models and applying them, but only costs a few float lookups (and along a scanline within a cell only a few adds).
+ */
+public class DisplacementField
+{
+	final int n = 3;
+	final int[] dim;
+	final long[] min, controlPointDistance;
+
+	// displacement in x, y and z, flat in IntervalIndexer order
+	final float[][] u;
+
+	public DisplacementField( final ModelGrid grid, final AffineModel3D invertedModelOpener )
+	{
+		this( grid, invertedModelOpener, Threads.numThreads() );
+	}
+
+	public DisplacementField( final ModelGrid grid, final AffineModel3D invertedModelOpener, final int numThreads )
+	{
+		this.min = grid.min;
+		this.controlPointDistance = grid.controlPointDistance;
+		this.dim = new int[ n ];
+
+		for ( int d = 0; d < n; ++d )
+			this.dim[ d ] = (int)grid.dim[ d ];
+
+		final int size = dim[ 0 ] * dim[ 1 ] * dim[ 2 ];
+		this.u = new float[ n ][ size ];
+
+		final int numTasks = Math.min( dim[ 2 ], Math.max( 1, numThreads ) );
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int startZ = t * dim[ 2 ] / numTasks;
+			final int endZ = ( t + 1 ) * dim[ 2 ] / numTasks;
+
+			tasks.add( () ->
+			{
+				final RandomAccess< NumericAffineModel3D > ra = grid.grid.randomAccess();
+				final double[] g = new double[ n ];
+				final double[] s = new double[ n ];
+
+				for ( int z = startZ; z < endZ; ++z )
+					for ( int y = 0; y < dim[ 1 ]; ++y )
+					{
+						ra.setPosition( 0, 0 );
+						ra.setPosition( y, 1 );
+						ra.setPosition( z, 2 );
+
+						int i = ( z * dim[ 1 ] + y ) * dim[ 0 ];
+
+						for ( int x = 0; x < dim[ 0 ]; ++x, ++i )
+						{
+							g[ 0 ] = s[ 0 ] = x * controlPointDistance[ 0 ] + min[ 0 ];
+							g[ 1 ] = s[ 1 ] = y * controlPointDistance[ 1 ] + min[ 1 ];
+							g[ 2 ] = s[ 2 ] = z * controlPointDistance[ 2 ] + min[ 2 ];
+
+							final AffineModel3D model = ra.get().getModel().copy();
+
+							if ( invertedModelOpener != null )
+								model.preConcatenate( invertedModelOpener );
+
+							model.applyInPlace( s );
+
+							for ( int d = 0; d < n; ++d )
+								u[ d ][ i ] = (float)( s[ d ] - g[ d ] );
+
+							ra.fwd( 0 );
+						}
+					}
+
+				return null;
+			});
+		}
+
+		final ExecutorService service = Threads.createFixedExecutorService( Math.max( 1, numTasks ) );
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+			throw new RuntimeException( "DisplacementField: Unable to compute displacement field: " + e );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * @return a new (not thread-safe) accessor that caches the current scanline segment
+	 */
+	public DisplacementFieldAccess access() { return new DisplacementFieldAccess( this ); }
+}
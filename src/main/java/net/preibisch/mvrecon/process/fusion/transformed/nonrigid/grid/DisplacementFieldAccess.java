@@ -0,0 +1,92 @@
+package net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid;
+
+/**
+ * Trilinear lookup in a {@link DisplacementField}. Within one cell of the lattice the displacement is linear along x, so for
+ * consecutive positions of the same row it is computed incrementally from the values cached at the left edge of the cell.
+ * Not thread-safe, every RandomAccess needs its own instance.
+ */
+public class DisplacementFieldAccess
+{
+	final int[] dim;
+	final long[] min, controlPointDistance;
+	final float[][] u;
+
+	// the cached row segment (y, z and x-cell), displacement at the left edge of the cell and change per pixel in x
+	double cachedY = Double.NaN, cachedZ = Double.NaN;
+	int cachedCellX = -1;
+	double cellX0;
+	final double[] u0 = new double[ 3 ];
+	final double[] du = new double[ 3 ];
+
+	public DisplacementFieldAccess( final DisplacementField field )
+	{
+		this.dim = field.dim;
+		this.min = field.min;
+		this.controlPointDistance = field.controlPointDistance;
+		this.u = field.u;
+	}
+
+	/**
+	 * @param s - world coordinates, replaced by the transformed coordinates
+	 */
+	public void applyInPlace( final double[] s )
+	{
+		final double x = s[ 0 ];
+
+		final double gx = ( x - min[ 0 ] ) / controlPointDistance[ 0 ];
+		final int cellX = cell( gx, dim[ 0 ] );
+
+		if ( cellX != cachedCellX || s[ 1 ] != cachedY || s[ 2 ] != cachedZ )
+			updateCache( cellX, s[ 1 ], s[ 2 ] );
+
+		final double dx = x - cellX0;
+
+		s[ 0 ] = x + u0[ 0 ] + dx * du[ 0 ];
+		s[ 1 ] += u0[ 1 ] + dx * du[ 1 ];
+		s[ 2 ] += u0[ 2 ] + dx * du[ 2 ];
+	}
+
+	protected void updateCache( final int cellX, final double y, final double z )
+	{
+		final double gy = ( y - min[ 1 ] ) / controlPointDistance[ 1 ];
+		final double gz = ( z - min[ 2 ] ) / controlPointDistance[ 2 ];
+
+		final int cellY = cell( gy, dim[ 1 ] );
+		final int cellZ = cell( gz, dim[ 2 ] );
+
+		// outside of the lattice the displacement is extrapolated linearly
+		final double fy = gy - cellY;
+		final double fz = gz - cellZ;
+
+		final int sx = 1;
+		final int sy = dim[ 0 ];
+		final int sz = dim[ 0 ] * dim[ 1 ];
+		final int i = cellZ * sz + cellY * sy + cellX;
+
+		final double w00 = ( 1 - fy ) * ( 1 - fz );
+		final double w10 = fy * ( 1 - fz );
+		final double w01 = ( 1 - fy ) * fz;
+		final double w11 = fy * fz;
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			final float[] ud = u[ d ];
+
+			final double left = w00 * ud[ i ] + w10 * ud[ i + sy ] + w01 * ud[ i + sz ] + w11 * ud[ i + sy + sz ];
+			final double right = w00 * ud[ i + sx ] + w10 * ud[ i + sx + sy ] + w01 * ud[ i + sx + sz ] + w11 * ud[ i + sx + sy + sz ];
+
+			u0[ d ] = left;
+			du[ d ] = ( right - left ) / controlPointDistance[ 0 ];
+		}
+
+		this.cellX0 = (double)cellX * controlPointDistance[ 0 ] + min[ 0 ];
+		this.cachedCellX = cellX;
+		this.cachedY = y;
+		this.cachedZ = z;
+	}
+
+	protected static final int cell( final double g, final int dim )
+	{
+		return Math.max( 0, Math.min( dim - 2, (int)Math.floor( g ) ) );
+	}
+}
@@ -1,15 +1,10 @@
 package net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 
-import mpicbg.models.AffineModel3D;
 import mpicbg.models.IllDefinedDataPointsException;
-import mpicbg.models.MovingLeastSquaresTransform2;
 import mpicbg.models.NotEnoughDataPointsException;
-import mpicbg.models.Point;
-import mpicbg.models.PointMatch;
 import mpicbg.spim.io.IOFunctions;
 import net.imglib2.Interval;
 import net.imglib2.Localizable;
@@ -17,8 +12,7 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealInterval;
 import net.imglib2.RealRandomAccess;
 import net.imglib2.RealRandomAccessible;
-import net.imglib2.img.list.ListImg;
-import net.imglib2.img.list.ListLocalizingCursor;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.plugin.fusion.FusionGUI;
 import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.NonrigidIP;
@@ -32,12 +26,29 @@ public class ModelGrid implements RealRandomAccessible< NumericAffineModel3D >
 	// TODO: the min of the grid is handled independently of the actual randomaccessibleinterval, this is bad
 	final RandomAccessibleInterval< NumericAffineModel3D > grid;
 
+	// how many nearest interest points are used to interpolate the model at each control point (<= 0 means all)
+	public static int defaultNumNeighbors = 1000;
+
+	// interest points with a weight below this fraction of the weight of the nearest one are ignored
+	public static double defaultWeightCutoff = 1e-6;
+
 	public ModelGrid(
 			final long[] controlPointDistance,
 			final Interval boundingBox,
 			final Collection< ? extends NonrigidIP > ips,
 			final double alpha,
 			final boolean virtual ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		this( controlPointDistance, boundingBox, ips, alpha, virtual, Threads.numThreads() );
+	}
+
+	public ModelGrid(
+			final long[] controlPointDistance,
+			final Interval boundingBox,
+			final Collection< ? extends NonrigidIP > ips,
+			final double alpha,
+			final boolean virtual,
+			final int numThreads ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
 	{
 		this.n = boundingBox.numDimensions();
 		this.alpha = alpha;
@@ -74,43 +85,10 @@ public class ModelGrid implements RealRandomAccessible< NumericAffineModel3D >
 		}
 		else
 		{
-			final MovingLeastSquaresTransform2 transform = new MovingLeastSquaresTransform2();
-			final ArrayList< PointMatch > matches = new ArrayList<>();
-	
-			for ( final NonrigidIP ip : ips )
-				matches.add( new PointMatch( new Point( ip.getTargetW().clone() ), new Point( ip.getL().clone() ) ) );
-	
-			final AffineModel3D model = new AffineModel3D();
-	
-			transform.setAlpha( alpha );
-			transform.setModel( model );
-			transform.setMatches( matches );
-	
-	
-			// iterate over all control points
-			this.grid = new ListImg< NumericAffineModel3D >( dim, new NumericAffineModel3D( new AffineModel3D() ) );
-	
-			final ListLocalizingCursor< NumericAffineModel3D > it = ( (ListImg< NumericAffineModel3D >)grid ).localizingCursor();
-			final double[] pos = new double[ n ];
-	
-			long time = System.currentTimeMillis();
-	
-			while ( it.hasNext() )
-			{
-				it.fwd();
-	
-				//System.out.print( Util.printCoordinates( it ) + " >>> " );
-	
-				getWorldCoordinates( pos, it, min, controlPointDistance, n );
-	
-				//System.out.print( Util.printCoordinates( pos ) );
-	
-				transform.applyInPlace( pos ); // also modifies the model
-	
-				it.set( new NumericAffineModel3D( model.copy() ) );
-	
-				//System.out.println( " >>> " + Util.printCoordinates( pos ) + ": " + model );
-			}
+			final long time = System.currentTimeMillis();
+
+			// every control point only uses its nearest interest points, the control points are distributed over threads
+			this.grid = ModelGridTools.computeGrid( dim, min, controlPointDistance, ips, alpha, defaultNumNeighbors, defaultWeightCutoff, numThreads );
 	
 			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": computed grid [" + (System.currentTimeMillis() - time ) + " ms]." );
 		}
@@ -1,6 +1,197 @@
 package net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mpicbg.models.AffineModel3D;
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.NotEnoughDataPointsException;
+import net.imglib2.KDTree;
+import net.imglib2.RealPoint;
+import net.imglib2.img.list.ListCursor;
+import net.imglib2.img.list.ListImg;
+import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
+import net.imglib2.util.IntervalIndexer;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.NonrigidIP;
+
 public class ModelGridTools
 {
+	/**
+	 * Computes the moving least squares affine model at every control point of a grid in parallel. Every control point only uses
+	 * its numNeighbors nearest interest points (found using a KDTree), and neighbors whose weight is below weightCutoff times the
+	 * weight of the nearest neighbor are ignored. Same weighting as {@link mpicbg.models.MovingLeastSquaresTransform2},
+	 * i.e. 1 / (squared distance)^alpha.
+	 *
+	 * @param dim - number of control points in each dimension
+	 * @param min - world coordinates of the first control point
+	 * @param controlPointDistance - distance between control points
+	 * @param ips - the interest points (target &gt;&gt; local)
+	 * @param alpha - the moving least squares alpha
+	 * @param numNeighbors - how many nearest interest points are used per control point (&lt;= 0 means all)
+	 * @param weightCutoff - relative weight below which neighbors are ignored
+	 * @param numThreads - how many threads to use
+	 * @return the grid of models
+	 * @throws NotEnoughDataPointsException - if there are less than 4 interest points
+	 */
+	public static ListImg< NumericAffineModel3D > computeGrid(
+			final long[] dim,
+			final long[] min,
+			final long[] controlPointDistance,
+			final Collection< ? extends NonrigidIP > ips,
+			final double alpha,
+			final int numNeighbors,
+			final double weightCutoff,
+			final int numThreads ) throws NotEnoughDataPointsException
+	{
+		final int n = dim.length;
+		final int k = numNeighbors <= 0 ? ips.size() : Math.min( numNeighbors, ips.size() );
+
+		if ( k < 4 )
+			throw new NotEnoughDataPointsException( ips.size() + " interest points are not enough to interpolate an affine model." );
+
+		// target coordinates (where the grid lives) and local coordinates of all interest points
+		final double[][] p = new double[ n ][ ips.size() ];
+		final double[][] q = new double[ n ][ ips.size() ];
+
+		final ArrayList< Integer > indices = new ArrayList<>( ips.size() );
+		final ArrayList< RealPoint > positions = new ArrayList<>( ips.size() );
+
+		int i = 0;
+
+		for ( final NonrigidIP ip : ips )
+		{
+			final double[] target = ip.getTargetW();
+			final double[] local = ip.getL();
+
+			for ( int d = 0; d < n; ++d )
+			{
+				p[ d ][ i ] = target[ d ];
+				q[ d ][ i ] = local[ d ];
+			}
+
+			indices.add( i++ );
+			positions.add( new RealPoint( target.clone() ) );
+		}
+
+		final KDTree< Integer > tree = new KDTree<>( indices, positions );
+
+		long numControlPoints = 1;
+
+		for ( int d = 0; d < n; ++d )
+			numControlPoints *= dim[ d ];
+
+		final AffineModel3D[] models = new AffineModel3D[ (int)numControlPoints ];
+
+		final int numTasks = (int)Math.min( numControlPoints, Math.max( 1, numThreads ) * 4 );
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int start = (int)( (long)t * numControlPoints / numTasks );
+			final int end = (int)( (long)( t + 1 ) * numControlPoints / numTasks );
+
+			tasks.add( () ->
+			{
+				final KNearestNeighborSearchOnKDTree< Integer > search = new KNearestNeighborSearchOnKDTree<>( tree, k );
+				final RealPoint location = new RealPoint( n );
+
+				final long[] gridPos = new long[ n ];
+				final double[] pos = new double[ n ];
+
+				final double[][] pk = new double[ n ][ k ];
+				final double[][] qk = new double[ n ][ k ];
+				final double[] wk = new double[ k ];
+
+				// like the MovingLeastSquaresTransform2, a failed fit keeps the previous model
+				final AffineModel3D model = new AffineModel3D();
+
+				for ( int c = start; c < end; ++c )
+				{
+					IntervalIndexer.indexToPosition( c, dim, gridPos );
+
+					for ( int d = 0; d < n; ++d )
+						pos[ d ] = gridPos[ d ] * controlPointDistance[ d ] + min[ d ];
+
+					location.setPosition( pos );
+					search.search( location );
+
+					// the nearest neighbor has the highest weight
+					final double maxWeight = weigh( search.getSquareDistance( 0 ), alpha );
+
+					for ( int j = 0; j < k; ++j )
+					{
+						final int index = search.getSampler( j ).get();
+						final double w = weigh( search.getSquareDistance( j ), alpha );
+
+						for ( int d = 0; d < n; ++d )
+						{
+							pk[ d ][ j ] = p[ d ][ index ];
+							qk[ d ][ j ] = q[ d ][ index ];
+						}
+
+						wk[ j ] = w < maxWeight * weightCutoff ? 0 : w;
+					}
+
+					try
+					{
+						model.fit( pk, qk, wk );
+					}
+					catch ( NotEnoughDataPointsException | IllDefinedDataPointsException e ) {}
+
+					models[ c ] = model.copy();
+				}
+
+				return null;
+			});
+		}
+
+		final ExecutorService service = Threads.createFixedExecutorService( Math.max( 1, numThreads ) );
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+			throw new RuntimeException( "ModelGridTools.computeGrid(): Unable to compute non-rigid grid: " + e );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		final ListImg< NumericAffineModel3D > grid = new ListImg< NumericAffineModel3D >( dim, new NumericAffineModel3D( new AffineModel3D() ) );
+		final ListCursor< NumericAffineModel3D > cursor = grid.cursor();
+
+		// the ListImg is flat-iterable, the same order as IntervalIndexer
+		for ( final AffineModel3D model : models )
+		{
+			cursor.fwd();
+			cursor.set( new NumericAffineModel3D( model ) );
+		}
+
+		return grid;
+	}
+
+	protected static final double weigh( final double squareDistance, final double alpha )
+	{
+		// an interest point exactly at the control point dominates the fit
+		return 1.0 / Math.pow( Math.max( squareDistance, 1e-12 ), alpha );
+	}
 
+	/**
+	 * @param numViews - how many grids are computed at the same time
+	 * @return how many threads each grid should use
+	 */
+	public static int threadsPerGrid( final int numViews )
+	{
+		return Math.max( 1, Threads.numThreads() / Math.max( 1, numViews ) );
+	}
 }
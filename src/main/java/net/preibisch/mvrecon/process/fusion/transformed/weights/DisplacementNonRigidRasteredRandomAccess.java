@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.fusion.transformed.weights;
+
+import net.imglib2.AbstractLocalizableInt;
+import net.imglib2.Localizable;
+import net.imglib2.RandomAccess;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.DisplacementField;
+import net.preibisch.mvrecon.process.fusion.transformed.nonrigid.grid.DisplacementFieldAccess;
+
+public class DisplacementNonRigidRasteredRandomAccess< T > extends AbstractLocalizableInt implements RandomAccess< T >
+{
+	final RealRandomAccessible< T > realRandomAccessible;
+	final RealRandomAccess< T > realRandomAccess;
+	final int[] offset;
+	final T zero;
+
+	// the precomputed transformation
+	final DisplacementField field;
+	final DisplacementFieldAccess displacement;
+
+	final double[] s;
+	final protected int offsetX, offsetY, offsetZ;
+
+	public DisplacementNonRigidRasteredRandomAccess(
+			final RealRandomAccessible< T > realRandomAccessible,
+			final T zero,
+			final DisplacementField field,
+			final int[] offset )
+	{
+		super( realRandomAccessible.numDimensions() );
+
+		this.zero = zero;
+		this.realRandomAccessible = realRandomAccessible;
+		this.field = field;
+		this.displacement = field.access();
+		this.offset = new int[ offset.length ];
+
+		for ( int d = 0; d < n; ++d )
+			this.offset[ d ] = offset[ d ];
+
+		this.realRandomAccess = realRandomAccessible.realRandomAccess();
+
+		this.offsetX = (int)offset[ 0 ];
+		this.offsetY = (int)offset[ 1 ];
+		this.offsetZ = (int)offset[ 2 ];
+
+		this.s = new double[ n ];
+	}
+
+	@Override
+	public T get()
+	{
+		s[ 0 ] = position[ 0 ] + offsetX;
+		s[ 1 ] = position[ 1 ] + offsetY;
+		s[ 2 ] = position[ 2 ] + offsetZ;
+
+		// transform the coordinates
+		displacement.applyInPlace( s );
+
+		realRandomAccess.setPosition( s );
+
+		return realRandomAccess.get();
+	}
+
+	@Override
+	public void fwd( final int d ) { ++this.position[ d ]; }
+
+	@Override
+	public void bck( final int d ) { --this.position[ d ]; }
+
+	@Override
+	public void move( final int distance, final int d ) { this.position[ d ] += distance; }
+
+	@Override
+	public void move( final long distance, final int d ) { this.position[ d ] += (int)distance; }
+
+	@Override
+	public void move( final Localizable localizable )
+	{
+		for ( int d = 0; d < n; ++d )
+			this.position[ d ] += localizable.getIntPosition( d );
+	}
+
+	@Override
+	public void move( final int[] distance )
+	{
+		for ( int d = 0; d < n; ++d )
+			this.position[ d ] += distance[ d ];
+	}
+
+	@Override
+	public void move( final long[] distance )
+	{
+		for ( int d = 0; d < n; ++d )
+			this.position[ d ] += (int)distance[ d ];
+	}
+
+	@Override
+	public void setPosition( final Localizable localizable )
+	{
+		for ( int d = 0; d < n; ++d )
+			this.position[ d ] = localizable.getIntPosition( d );
+	}
+
+	@Override
+	public void setPosition( final int[] position )
+	{
+		for ( int d = 0; d < n; ++d )
+			this.position[ d ] = position[ d ];
+	}
+
+	@Override
+	public void setPosition( final long[] position )
+	{
+		for ( int d = 0; d < n; ++d )
+			this.position[ d ] = (int)position[ d ];
+	}
+
+	@Override
+	public void setPosition( final int position, final int d ) { this.position[ d ] = position; }
+
+	@Override
+	public void setPosition( final long position, final int d ) { this.position[ d ] = (int)position; }
+
+	@Override
+	public DisplacementNonRigidRasteredRandomAccess< T > copy() { return new DisplacementNonRigidRasteredRandomAccess< T >( realRandomAccessible, zero, field, offset ); }
+
+	@Override
+	public DisplacementNonRigidRasteredRandomAccess<T> copyRandomAccess() { return copy(); }
+}
@@ -0,0 +1,290 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointdetection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import bdv.img.hdf5.Hdf5ImageLoader;
+import bdv.img.hdf5.Partition;
+import mpicbg.spim.data.generic.sequence.BasicViewDescription;
+import mpicbg.spim.data.sequence.ImgLoader;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import mpicbg.spim.io.IOFunctions;
+import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.LightSheetZ1ImgLoader;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.MicroManagerImgLoader;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.StackImgLoader;
+import net.preibisch.mvrecon.fiji.spimdata.imgloaders.filemap2.FileMapGettable;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointValue;
+
+/**
+ * Persistent cache of detected interest points per view. A cache entry is keyed by the ViewId, a fingerprint
+ * of the image source (file, size, last modification), the calibration of the view and the complete set of detection
+ * parameters (including downsampling, which can be resolved against the calibration), so re-running a detection with identical parameters does not load and
+ * process the image again.
+ *
+ * Image sources that cannot be fingerprinted (e.g. virtual, simulated or wrapped imgloaders) are never cached.
+ */
+public class DetectionCache
+{
+	public static String defaultCacheDirName = "interestpoints.cache";
+
+	final static int MAGIC = 0x49504331; // "IPC1"
+
+	final File dir;
+
+	/**
+	 * @param dir - the directory where the cached detections are stored, created if necessary
+	 */
+	public DetectionCache( final File dir )
+	{
+		this.dir = dir;
+	}
+
+	public File getDirectory() { return dir; }
+
+	/**
+	 * @param imgLoader - the imgloader
+	 * @param vd - which view
+	 * @param parameters - a complete description of all parameters that influence the detection result
+	 * @return the key for this view and parameters, or null if the image source cannot be fingerprinted
+	 */
+	public static String key( final ImgLoader imgLoader, final BasicViewDescription< ? > vd, final String parameters )
+	{
+		final String source = sourceFingerprint( imgLoader, vd );
+
+		if ( source == null )
+			return null;
+
+		return "tp=" + vd.getTimePointId() + " setup=" + vd.getViewSetupId() + " source=" + source + " calibration=" + calibration( vd ) + " " + parameters;
+	}
+
+	/**
+	 * @param vd - which view
+	 * @return the voxel size and unit of the view (automatic downsampling depends on it)
+	 */
+	public static String calibration( final BasicViewDescription< ? > vd )
+	{
+		final VoxelDimensions voxelSize = vd.getViewSetup().getVoxelSize();
+
+		if ( voxelSize == null )
+			return "none";
+
+		final double[] dim = new double[ voxelSize.numDimensions() ];
+		voxelSize.dimensions( dim );
+
+		return Util.printCoordinates( dim ) + voxelSize.unit();
+	}
+
+	/**
+	 * @param imgLoader - the imgloader
+	 * @param viewId - which view
+	 * @return a fingerprint of the file(s) the view is loaded from (path, size, last modification), or null if unknown
+	 */
+	public static String sourceFingerprint( final ImgLoader imgLoader, final ViewId viewId )
+	{
+		if ( Hdf5ImageLoader.class.isInstance( imgLoader ) )
+		{
+			final Hdf5ImageLoader hdf5Loader = (Hdf5ImageLoader) imgLoader;
+			final String master = fingerprint( hdf5Loader.getHdf5File() );
+
+			if ( master == null || hdf5Loader.getPartitions() == null )
+				return master;
+
+			// the master file only links to the partitions, which hold the actual data
+			String fingerprint = master;
+
+			for ( final Partition partition : hdf5Loader.getPartitions() )
+			{
+				final String p = fingerprint( new File( partition.getPath() ) );
+
+				if ( p == null )
+					return null;
+
+				fingerprint += " " + p;
+			}
+
+			return fingerprint;
+		}
+		else if ( FileMapGettable.class.isInstance( imgLoader ) )
+		{
+			for ( final Map.Entry< ? extends ViewId, Pair< File, Pair< Integer, Integer > > > entry : ( (FileMapGettable) imgLoader ).getFileMap().entrySet() )
+				if ( entry.getKey().equals( viewId ) )
+					return fingerprint( entry.getValue().getA() ) + " series=" + entry.getValue().getB().getA() + " channel=" + entry.getValue().getB().getB();
+
+			return null;
+		}
+		else if ( StackImgLoader.class.isInstance( imgLoader ) )
+			return fingerprint( ( (StackImgLoader< ? >) imgLoader ).getFileForView( viewId ) );
+		else if ( MicroManagerImgLoader.class.isInstance( imgLoader ) )
+			return fingerprint( ( (MicroManagerImgLoader) imgLoader ).getFile() );
+		else if ( LightSheetZ1ImgLoader.class.isInstance( imgLoader ) )
+			return fingerprint( ( (LightSheetZ1ImgLoader) imgLoader ).getCZIFile() );
+		else
+			return null;
+	}
+
+	protected static String fingerprint( final File file )
+	{
+		if ( file == null || !file.exists() )
+			return null;
+
+		return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+	}
+
+	/**
+	 * @param key - the key as returned by {@link #key(ImgLoader, BasicViewDescription, String)}
+	 * @return the cached interest points or null if not present
+	 */
+	public List< InterestPoint > load( final String key )
+	{
+		if ( key == null )
+			return null;
+
+		final File f = fileForKey( key );
+
+		if ( !f.exists() )
+			return null;
+
+		try ( final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( f ) ) ) )
+		{
+			if ( in.readInt() != MAGIC || !in.readUTF().equals( key ) )
+				return null;
+
+			final int size = in.readInt();
+			final boolean hasIntensity = in.readBoolean();
+			final ArrayList< InterestPoint > list = new ArrayList<>( size );
+
+			for ( int i = 0; i < size; ++i )
+			{
+				final int id = in.readInt();
+				final double[] l = new double[]{ in.readDouble(), in.readDouble(), in.readDouble() };
+
+				if ( hasIntensity )
+					list.add( new InterestPointValue( id, l, in.readDouble() ) );
+				else
+					list.add( new InterestPoint( id, l ) );
+			}
+
+			return list;
+		}
+		catch ( final IOException e )
+		{
+			IOFunctions.println( "DetectionCache.load(): could not read '" + f + "': " + e );
+			return null;
+		}
+	}
+
+	/**
+	 * @param key - the key as returned by {@link #key(ImgLoader, BasicViewDescription, String)}, nothing is stored if null
+	 * @param points - the interest points to store
+	 * @return true if it was stored successfully
+	 */
+	public boolean save( final String key, final List< InterestPoint > points )
+	{
+		if ( key == null )
+			return false;
+
+		if ( !dir.exists() )
+			dir.mkdirs();
+
+		boolean hasIntensity = points.size() > 0;
+
+		for ( final InterestPoint p : points )
+			if ( !InterestPointValue.class.isInstance( p ) )
+				hasIntensity = false;
+
+		final File f = fileForKey( key );
+		final File tmp = new File( f.getAbsolutePath() + ".tmp" );
+
+		try ( final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) ) )
+		{
+			out.writeInt( MAGIC );
+			out.writeUTF( key );
+			out.writeInt( points.size() );
+			out.writeBoolean( hasIntensity );
+
+			for ( final InterestPoint p : points )
+			{
+				final double[] l = p.getL();
+
+				out.writeInt( p.getId() );
+				out.writeDouble( l[ 0 ] );
+				out.writeDouble( l[ 1 ] );
+				out.writeDouble( l[ 2 ] );
+
+				if ( hasIntensity )
+					out.writeDouble( ( (InterestPointValue) p ).getIntensity() );
+			}
+		}
+		catch ( final IOException e )
+		{
+			IOFunctions.println( "DetectionCache.save(): could not write '" + tmp + "': " + e );
+			tmp.delete();
+			return false;
+		}
+
+		f.delete();
+		return tmp.renameTo( f );
+	}
+
+	protected File fileForKey( final String key )
+	{
+		return new File( dir, md5( key ) + ".ipc" );
+	}
+
+	protected static String md5( final String s )
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "MD5" ).digest( s.getBytes( StandardCharsets.UTF_8 ) );
+			final StringBuilder hex = new StringBuilder();
+
+			for ( final byte b : digest )
+				hex.append( String.format( "%02x", b ) );
+
+			return hex.toString();
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			// MD5 is guaranteed to be available on every JVM
+			throw new RuntimeException( e );
+		}
+	}
+}
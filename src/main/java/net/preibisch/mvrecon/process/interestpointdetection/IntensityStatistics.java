@@ -0,0 +1,214 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointdetection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mpicbg.spim.io.IOFunctions;
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.ImagePortion;
+
+/**
+ * Single-pass intensity statistics of an image: exact min &amp; max plus a systematic subsample (every n-th value,
+ * up to a fixed number of samples) whose quantiles are used to estimate robust min &amp; max.
+ *
+ * Instances are not thread-safe, every thread should fill its own instance and {@link #merge(IntensityStatistics)}
+ * them afterwards.
+ */
+public class IntensityStatistics
+{
+	public static int defaultNumSamples = 100000;
+
+	final long stride;
+
+	float min = Float.MAX_VALUE;
+	float max = -Float.MAX_VALUE;
+	long count = 0;
+
+	float[] samples;
+	int numSamples = 0;
+
+	/**
+	 * @param expectedSize - how many values will be added (approximately) in total
+	 * @param maxSamples - how many values are sampled in total
+	 */
+	public IntensityStatistics( final long expectedSize, final int maxSamples )
+	{
+		this( Math.max( 1, ( expectedSize + maxSamples - 1 ) / maxSamples ), (int)Math.min( maxSamples, expectedSize ) );
+	}
+
+	public IntensityStatistics( final long expectedSize )
+	{
+		this( expectedSize, defaultNumSamples );
+	}
+
+	protected IntensityStatistics( final long stride, final int capacity )
+	{
+		this.stride = stride;
+		this.samples = new float[ Math.max( 1, capacity ) ];
+	}
+
+	/**
+	 * @param expectedSize - how many values this instance will see
+	 * @return a new instance that samples with the same stride so it can be merged with this one
+	 */
+	public IntensityStatistics newPartial( final long expectedSize )
+	{
+		return new IntensityStatistics( stride, (int)Math.min( Integer.MAX_VALUE - 8, expectedSize / stride + 1 ) );
+	}
+
+	public final void add( final float v )
+	{
+		if ( v < min )
+			min = v;
+
+		if ( v > max )
+			max = v;
+
+		if ( count++ % stride == 0 )
+		{
+			if ( numSamples == samples.length )
+				samples = Arrays.copyOf( samples, samples.length * 2 );
+
+			samples[ numSamples++ ] = v;
+		}
+	}
+
+	public synchronized void merge( final IntensityStatistics other )
+	{
+		min = Math.min( min, other.min );
+		max = Math.max( max, other.max );
+		count += other.count;
+
+		if ( numSamples + other.numSamples > samples.length )
+			samples = Arrays.copyOf( samples, numSamples + other.numSamples );
+
+		System.arraycopy( other.samples, 0, samples, numSamples, other.numSamples );
+		numSamples += other.numSamples;
+	}
+
+	public float getMin() { return min; }
+	public float getMax() { return max; }
+	public long getCount() { return count; }
+
+	/**
+	 * @param q - the quantile [0...1], 0 and 1 return the exact min and max
+	 * @return the estimated quantile
+	 */
+	public synchronized float quantile( final double q )
+	{
+		if ( q <= 0 || numSamples == 0 )
+			return min;
+
+		if ( q >= 1 )
+			return max;
+
+		// sort lazily, the samples are not needed in insertion order
+		Arrays.sort( samples, 0, numSamples );
+
+		return samples[ (int)Math.min( numSamples - 1, Math.round( q * ( numSamples - 1 ) ) ) ];
+	}
+
+	/**
+	 * @param lowerQuantile - quantile used as min intensity (0 == exact min)
+	 * @param upperQuantile - quantile used as max intensity (1 == exact max)
+	 * @return { min, max }
+	 */
+	public float[] minMax( final double lowerQuantile, final double upperQuantile )
+	{
+		return new float[]{ quantile( lowerQuantile ), quantile( upperQuantile ) };
+	}
+
+	/**
+	 * Computes the statistics in a single multithreaded pass, only needed if they could not be collected
+	 * while computing the image (e.g. during downsampling).
+	 *
+	 * @param img - the image
+	 * @param <T> - pixel type
+	 * @return the statistics, or null if the computation failed
+	 */
+	public static < T extends RealType< T > > IntensityStatistics compute( final RandomAccessibleInterval< T > img )
+	{
+		final IterableInterval< T > iterable = Views.iterable( img );
+		final IntensityStatistics stats = new IntensityStatistics( iterable.size() );
+
+		// split up into many parts for multithreading
+		final Vector< ImagePortion > portions = FusionTools.divideIntoPortions( iterable.size() );
+
+		// set up executor service
+		final ExecutorService taskExecutor = Threads.createFixedExecutorService();
+		final ArrayList< Callable< IntensityStatistics > > tasks = new ArrayList< Callable< IntensityStatistics > >();
+
+		for ( final ImagePortion portion : portions )
+		{
+			tasks.add( new Callable< IntensityStatistics >()
+			{
+				@Override
+				public IntensityStatistics call() throws Exception
+				{
+					final IntensityStatistics partial = stats.newPartial( portion.getLoopSize() );
+					final Cursor< T > c = iterable.cursor();
+					c.jumpFwd( portion.getStartPosition() );
+
+					for ( long j = 0; j < portion.getLoopSize(); ++j )
+						partial.add( c.next().getRealFloat() );
+
+					return partial;
+				}
+			});
+		}
+
+		try
+		{
+			// invokeAll() returns when all tasks are complete
+			final List< Future< IntensityStatistics > > futures = taskExecutor.invokeAll( tasks );
+
+			for ( final Future< IntensityStatistics > future : futures )
+				stats.merge( future.get() );
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "Failed to compute intensity statistics: " + e );
+			e.printStackTrace();
+			return null;
+		}
+		finally
+		{
+			taskExecutor.shutdown();
+		}
+
+		return stats;
+	}
+}
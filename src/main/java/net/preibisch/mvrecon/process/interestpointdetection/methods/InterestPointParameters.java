@@ -26,6 +26,7 @@ import java.util.Collection;
 
 import mpicbg.spim.data.sequence.ImgLoader;
 import mpicbg.spim.data.sequence.ViewDescription;
+import net.preibisch.mvrecon.process.interestpointdetection.DetectionCache;
 
 public class InterestPointParameters
 {
@@ -39,6 +40,10 @@ public class InterestPointParameters
 	public double minIntensity = Double.NaN;
 	public double maxIntensity = Double.NaN;
 
+	// if min/maxIntensity are not set, these quantiles of the intensity distribution are used instead (0 and 1 == exact min and max)
+	public double minIntensityQuantile = 0.0;
+	public double maxIntensityQuantile = 1.0;
+
 	public boolean limitDetections;
 	public int maxDetections;
 	public int maxDetectionsTypeIndex; // { "Brightest", "Around median (of those above threshold)", "Weakest (above threshold)" };
@@ -50,6 +55,9 @@ public class InterestPointParameters
 	public double showProgressMin = Double.NaN;
 	public double showProgressMax = Double.NaN;
 
+	// if not null, detections are read from and written to this cache
+	public DetectionCache cache = null;
+
 	public InterestPointParameters() {}
 
 	public InterestPointParameters(
@@ -60,6 +68,18 @@ public class InterestPointParameters
 		this.imgloader = imgloader;
 	}
 
+	/**
+	 * @return a description of all parameters that influence the detection result, used as part of the key of the {@link DetectionCache}
+	 */
+	public String cacheParameters()
+	{
+		return "imageSigma=" + imageSigmaX + "," + imageSigmaY + "," + imageSigmaZ +
+				" minIntensity=" + minIntensity + " maxIntensity=" + maxIntensity +
+				" quantiles=" + minIntensityQuantile + "," + maxIntensityQuantile +
+				" limitDetections=" + limitDetections + ( limitDetections ? " maxDetections=" + maxDetections + " maxDetectionsType=" + maxDetectionsTypeIndex : "" ) +
+				" downsampleXY=" + downsampleXY + " downsampleZ=" + downsampleZ;
+	}
+
 	public boolean showProgress() { return !Double.isNaN( showProgressMin ) && !Double.isNaN( showProgressMax ); }
 
 	/**
@@ -22,6 +22,7 @@
  */
 package net.preibisch.mvrecon.process.interestpointdetection.methods.dog;
 
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 
@@ -35,9 +36,13 @@ import mpicbg.spim.io.IOFunctions;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Pair;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointdetection.DetectionCache;
+import net.preibisch.mvrecon.process.interestpointdetection.IntensityStatistics;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
 import net.preibisch.mvrecon.process.interestpointdetection.methods.downsampling.DownsampleTools;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
 public class DoG
 {
@@ -76,15 +81,48 @@ public class DoG
 				if ( !vd.isPresent() )
 					continue;
 
+				//
+				// re-use the detections of a previous run with identical parameters if possible
+				//
+				final String cacheKey = dog.cache == null ? null : DetectionCache.key( dog.imgloader, vd, dog.cacheParameters() );
+				final List< InterestPoint > cached = dog.cache == null ? null : dog.cache.load( cacheKey );
+
+				if ( cached != null )
+				{
+					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Using " + cached.size() + " cached detections for " + Group.pvid( vd ) );
+					interestPoints.put( vd, cached );
+					continue;
+				}
+
 				final AffineTransform3D correctCoordinates = new AffineTransform3D();
-				final RandomAccessibleInterval< net.imglib2.type.numeric.real.FloatType > input =
+				// the min & max intensity for normalization are estimated while downsampling if not provided
+				final boolean estimateMinMax = Double.isNaN( dog.minIntensity ) || Double.isNaN( dog.maxIntensity );
+
+				final Pair< RandomAccessibleInterval< net.imglib2.type.numeric.real.FloatType >, IntensityStatistics > opened =
 						DownsampleTools.openAndDownsample(
 								dog.imgloader,
 								vd,
 								correctCoordinates,
 								dog.downsampleXY,
 								dog.downsampleZ,
-								true );
+								true,
+								estimateMinMax );
+
+				final RandomAccessibleInterval< net.imglib2.type.numeric.real.FloatType > input = opened.getA();
+
+				final double minIntensity, maxIntensity;
+
+				if ( opened.getB() != null )
+				{
+					final float[] minmax = opened.getB().minMax( dog.minIntensityQuantile, dog.maxIntensityQuantile );
+					minIntensity = minmax[ 0 ];
+					maxIntensity = minmax[ 1 ];
+				}
+				else
+				{
+					minIntensity = dog.minIntensity;
+					maxIntensity = dog.maxIntensity;
+				}
 
 				final Image< FloatType > img = ImgLib2
 						.wrapFloatToImgLib1( (Img< net.imglib2.type.numeric.real.FloatType >) input );
@@ -101,8 +139,8 @@ public class DoG
 						Math.min( dog.imageSigmaX, (float) dog.sigma ),
 						Math.min( dog.imageSigmaY, (float) dog.sigma ),
 						Math.min( dog.imageSigmaZ, (float) dog.sigma ),
-						dog.findMin, dog.findMax, dog.minIntensity,
-						dog.maxIntensity,
+						dog.findMin, dog.findMax, minIntensity,
+						maxIntensity,
 						dog.limitDetections );
 
 				img.close();
@@ -112,6 +150,9 @@ public class DoG
 
 				DownsampleTools.correctForDownsampling( ips, correctCoordinates );
 
+				if ( dog.cache != null )
+					dog.cache.save( cacheKey, ips );
+
 				interestPoints.put( vd, ips );
 			} catch ( Exception e )
 			{
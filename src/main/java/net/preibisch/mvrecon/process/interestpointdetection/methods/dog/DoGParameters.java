@@ -52,6 +52,13 @@ public class DoGParameters extends InterestPointParameters
 
 	public DoGParameters() { super(); }
 
+	@Override
+	public String cacheParameters()
+	{
+		return "DoG sigma=" + sigma + " threshold=" + threshold + " min=" + findMin + " max=" + findMax + " localization=" + localization +
+				" " + ( deviceList == null ? "CPU" : ( accurateCUDA ? "GPU-accurate" : "GPU-approximate" ) ) + " " + super.cacheParameters();
+	}
+
 	public DoGParameters(
 			final Collection<ViewDescription> toProcess,
 			final ImgLoader imgloader,
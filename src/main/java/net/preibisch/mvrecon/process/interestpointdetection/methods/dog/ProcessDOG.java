@@ -106,7 +106,30 @@ public class ProcessDOG
 		IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): min intensity = " + min + ", max intensity = " + max );
 
 		// normalize image
-		FusionTools.normalizeImage( imglib2img, min, max );
+		final float normalization;
+
+		if ( deviceList == null )
+		{
+			// the DoG is linear and constant offsets cancel out (mirror outofbounds), so normalizing the input to [0...1]
+			// is identical to scaling the DoG, which is done as part of the subtraction and saves a full pass over the image
+			final float diff = max - min;
+
+			if ( Float.isNaN( diff ) || Float.isInfinite( diff ) || diff == 0 )
+			{
+				IOFunctions.println( "Cannot normalize image, min=" + min + "  + max=" + max );
+				normalization = 1;
+			}
+			else
+			{
+				normalization = 1.0f / diff;
+			}
+		}
+		else
+		{
+			// the CUDA convolution might not use mirror outofbounds, normalize explicitly
+			FusionTools.normalizeImage( imglib2img, min, max );
+			normalization = 1;
+		}
 
 		final float k = LaPlaceFunctions.computeK( 4 );
 		final float K_MIN1_INV = LaPlaceFunctions.computeKWeight(k);
@@ -131,7 +154,7 @@ public class ProcessDOG
 		DifferenceOfGaussianNewPeakFinder dog;
 		
 		if ( deviceList == null )
-			dog = new DifferenceOfGaussianNewPeakFinder( img, new OutOfBoundsStrategyMirrorFactory<FloatType>(), sigma1, sigma2, minInitialPeakValue, K_MIN1_INV );
+			dog = new DifferenceOfGaussianNewPeakFinder( img, new OutOfBoundsStrategyMirrorFactory<FloatType>(), sigma1, sigma2, minInitialPeakValue, K_MIN1_INV * normalization );
 		else
 			dog = new DifferenceOfGaussianCUDA( cuda, percentGPUMem, deviceList, img, imglib2img, accurateCUDA, sigma1, sigma2, minInitialPeakValue, K_MIN1_INV );
 
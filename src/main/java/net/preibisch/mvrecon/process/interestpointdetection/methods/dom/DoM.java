@@ -22,6 +22,7 @@
  */
 package net.preibisch.mvrecon.process.interestpointdetection.methods.dom;
 
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 
@@ -34,9 +35,13 @@ import mpicbg.spim.io.IOFunctions;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Pair;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointdetection.DetectionCache;
+import net.preibisch.mvrecon.process.interestpointdetection.IntensityStatistics;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
 import net.preibisch.mvrecon.process.interestpointdetection.methods.downsampling.DownsampleTools;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
 /**
  * Created by schmied on 01/07/15.
@@ -74,16 +79,49 @@ public class DoM
 				if ( !vd.isPresent() )
 					continue;
 
+				//
+				// re-use the detections of a previous run with identical parameters if possible
+				//
+				final String cacheKey = dom.cache == null ? null : DetectionCache.key( dom.imgloader, vd, dom.cacheParameters() );
+				final List< InterestPoint > cached = dom.cache == null ? null : dom.cache.load( cacheKey );
+
+				if ( cached != null )
+				{
+					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Using " + cached.size() + " cached detections for " + Group.pvid( vd ) );
+					interestPoints.put( vd, cached );
+					continue;
+				}
+
 				final AffineTransform3D correctCoordinates = new AffineTransform3D();
 
-				final RandomAccessibleInterval< net.imglib2.type.numeric.real.FloatType > input =
-					DownsampleTools.openAndDownsample(
-						dom.imgloader,
-						vd,
-						correctCoordinates,
-						dom.downsampleXY,
-						dom.downsampleZ,
-						true );
+				// the min & max intensity for normalization are estimated while downsampling if not provided
+				final boolean estimateMinMax = Double.isNaN( dom.minIntensity ) || Double.isNaN( dom.maxIntensity );
+
+				final Pair< RandomAccessibleInterval< net.imglib2.type.numeric.real.FloatType >, IntensityStatistics > opened =
+						DownsampleTools.openAndDownsample(
+								dom.imgloader,
+								vd,
+								correctCoordinates,
+								dom.downsampleXY,
+								dom.downsampleZ,
+								true,
+								estimateMinMax );
+
+				final RandomAccessibleInterval< net.imglib2.type.numeric.real.FloatType > input = opened.getA();
+
+				final double minIntensity, maxIntensity;
+
+				if ( opened.getB() != null )
+				{
+					final float[] minmax = opened.getB().minMax( dom.minIntensityQuantile, dom.maxIntensityQuantile );
+					minIntensity = minmax[ 0 ];
+					maxIntensity = minmax[ 1 ];
+				}
+				else
+				{
+					minIntensity = dom.minIntensity;
+					maxIntensity = dom.maxIntensity;
+				}
 
 				final Image< FloatType > img = ImgLib2.wrapFloatToImgLib1(
 						(Img< net.imglib2.type.numeric.real.FloatType >) input );
@@ -101,8 +139,8 @@ public class DoM
 						dom.imageSigmaZ,
 						dom.findMin,
 						dom.findMax,
-						dom.minIntensity,
-						dom.maxIntensity,
+						minIntensity,
+						maxIntensity,
 						dom.limitDetections );
 
 				img.close();
@@ -112,6 +150,9 @@ public class DoM
 
 				DownsampleTools.correctForDownsampling( ips, correctCoordinates );
 
+				if ( dom.cache != null )
+					dom.cache.save( cacheKey, ips );
+
 				interestPoints.put( vd, ips );
 			}
 			catch ( Exception e )
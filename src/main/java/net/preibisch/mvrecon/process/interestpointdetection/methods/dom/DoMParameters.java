@@ -50,4 +50,11 @@ public class DoMParameters extends InterestPointParameters
 	public float threshold = (float) 0.005;
 	public boolean findMin = false;
 	public boolean findMax = true;
+
+	@Override
+	public String cacheParameters()
+	{
+		return "DoM radius1=" + radius1 + " radius2=" + radius2 + " threshold=" + threshold + " min=" + findMin + " max=" + findMax +
+				" localization=" + localization + " " + super.cacheParameters();
+	}
 }
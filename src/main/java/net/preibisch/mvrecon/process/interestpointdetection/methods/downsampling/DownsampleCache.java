@@ -0,0 +1,207 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointdetection.methods.downsampling;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.preibisch.mvrecon.process.interestpointdetection.IntensityStatistics;
+
+/**
+ * A bounded LRU cache of downsampled views (and their intensity statistics), shared by interest point detection,
+ * max projection and intensity adjustment. The images are held through soft references, so they are also released
+ * if the JVM runs low on memory. Cached images must not be modified, callers that work in-place need to copy them.
+ * The {@link #defaultCache} is disabled until a size is set, e.g. in the interest point detection dialog
+ * (see {@link #suggestedSizeMB()}).
+ */
+public class DownsampleCache
+{
+	public static DownsampleCache defaultCache = new DownsampleCache( 0 );
+
+	public static class Entry
+	{
+		final Img< FloatType > img;
+		final IntensityStatistics stats;
+		final long bytes;
+
+		public Entry( final Img< FloatType > img, final IntensityStatistics stats )
+		{
+			this.img = img;
+			this.stats = stats;
+			this.bytes = Intervals.numElements( img ) * 4;
+		}
+
+		public Img< FloatType > getImg() { return img; }
+		public IntensityStatistics getStatistics() { return stats; }
+	}
+
+	protected static class Key
+	{
+		final Object imgLoader;
+		final ViewId viewId;
+		final String level;
+		final int[] factors;
+		final String filter;
+
+		public Key( final Object imgLoader, final ViewId viewId, final String level, final int[] factors, final String filter )
+		{
+			this.imgLoader = imgLoader;
+			this.viewId = new ViewId( viewId.getTimePointId(), viewId.getViewSetupId() );
+			this.level = level;
+			this.factors = factors.clone();
+			this.filter = filter;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			final int prime = 31;
+			int result = System.identityHashCode( imgLoader );
+			result = prime * result + viewId.hashCode();
+			result = prime * result + level.hashCode();
+			result = prime * result + Arrays.hashCode( factors );
+			result = prime * result + filter.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( this == obj )
+				return true;
+			if ( obj == null || getClass() != obj.getClass() )
+				return false;
+
+			final Key other = (Key) obj;
+
+			return imgLoader == other.imgLoader && viewId.equals( other.viewId ) && level.equals( other.level ) &&
+					Arrays.equals( factors, other.factors ) && filter.equals( other.filter );
+		}
+	}
+
+	final LinkedHashMap< Key, SoftReference< Entry > > cache = new LinkedHashMap<>( 16, 0.75f, true );
+	long maxBytes, bytes = 0;
+
+	/**
+	 * @param maxBytes - the maximal size of all cached images, 0 disables the cache
+	 */
+	public DownsampleCache( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	public boolean isEnabled() { return maxBytes > 0; }
+	public long getMaxBytes() { return maxBytes; }
+
+	/**
+	 * @return a reasonable size of the cache in MB (1/8 of the available heap)
+	 */
+	public static long suggestedSizeMB()
+	{
+		return Runtime.getRuntime().maxMemory() / 8 / ( 1024 * 1024 );
+	}
+
+	public synchronized void setMaxBytes( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	/**
+	 * @param imgLoader - the imgloader the view was loaded from (compared by identity)
+	 * @param viewId - the view
+	 * @param level - description of the resolution level that was downsampled
+	 * @param factors - the additional downsampling factors
+	 * @param filter - the downsampling filter
+	 * @return the cached entry or null
+	 */
+	public synchronized Entry get( final Object imgLoader, final ViewId viewId, final String level, final int[] factors, final String filter )
+	{
+		final Key key = new Key( imgLoader, viewId, level, factors, filter );
+		final SoftReference< Entry > ref = cache.get( key );
+
+		if ( ref == null )
+			return null;
+
+		final Entry entry = ref.get();
+
+		if ( entry == null )
+			cache.remove( key );
+
+		return entry;
+	}
+
+	/**
+	 * @return true if the entry was added to the cache, false if the cache is disabled or the entry is too large
+	 */
+	public synchronized boolean put( final Object imgLoader, final ViewId viewId, final String level, final int[] factors, final String filter, final Entry entry )
+	{
+		if ( !isEnabled() || entry.bytes > maxBytes )
+			return false;
+
+		cache.put( new Key( imgLoader, viewId, level, factors, filter ), new SoftReference<>( entry ) );
+
+		evict();
+
+		return true;
+	}
+
+	public synchronized void clear()
+	{
+		cache.clear();
+		bytes = 0;
+	}
+
+	protected void evict()
+	{
+		// drop entries that were garbage collected and the least recently used ones until we fit
+		bytes = 0;
+
+		for ( final Iterator< Map.Entry< Key, SoftReference< Entry > > > it = cache.entrySet().iterator(); it.hasNext(); )
+		{
+			final Entry entry = it.next().getValue().get();
+
+			if ( entry == null )
+				it.remove();
+			else
+				bytes += entry.bytes;
+		}
+
+		for ( final Iterator< Map.Entry< Key, SoftReference< Entry > > > it = cache.entrySet().iterator(); it.hasNext() && bytes > maxBytes; )
+		{
+			final Entry entry = it.next().getValue().get();
+
+			if ( entry != null )
+				bytes -= entry.bytes;
+
+			it.remove();
+		}
+	}
+}
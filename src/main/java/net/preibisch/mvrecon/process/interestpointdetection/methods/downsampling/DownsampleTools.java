@@ -44,12 +44,20 @@ import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.interestpointdetection.IntensityStatistics;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
 public class DownsampleTools
 {
 	protected static final int[] ds = { 1, 2, 4, 8 };
 
+	// names of the downsampling filters (as used in the DownsampleCache)
+	protected static final String smoothed2x = "smoothed2x";
+	protected static final String box = "box";
+
 	/**
 	 * Opens the image at an appropriate resolution for the provided transformation and concatenates an extra transform 
 	 * 
@@ -423,6 +431,30 @@ public class DownsampleTools
 			final int downsampleXY,
 			final int downsampleZ,
 			final boolean openCompletely )
+	{
+		return openAndDownsample( imgLoader, vd, mipMapTransform, downsampleXY, downsampleZ, openCompletely, false ).getA();
+	}
+
+	/**
+	 * 
+	 * @param imgLoader the imgloader
+	 * @param vd the view description
+	 * @param mipMapTransform - will be filled if downsampling is performed, otherwise identity transform
+	 * @param downsampleXY - specify which downsampling (e.g. 1,2,4,8 )
+	 * @param downsampleZ - specify which downsampling (e.g. 1,2,4,8 )
+	 * @param openCompletely - whether to try to open the file entirely
+	 * @param computeStatistics - whether to compute the intensity statistics of the result, which is done during the last downsampling step
+	 * (or in a separate pass if no downsampling is necessary)
+	 * @return opened image and its intensity statistics (null if not requested)
+	 */
+	public static Pair< RandomAccessibleInterval< FloatType >, IntensityStatistics > openAndDownsample(
+			final ImgLoader imgLoader,
+			final ViewDescription vd,
+			final AffineTransform3D mipMapTransform,
+			final int downsampleXY,
+			final int downsampleZ,
+			final boolean openCompletely,
+			final boolean computeStatistics )
 	{
 		IOFunctions.println(
 				"(" + new Date(System.currentTimeMillis()) + "): "
@@ -438,7 +470,8 @@ public class DownsampleTools
 		int dsy = downsampleXY;
 		int dsz = downsampleZ;
 
-		RandomAccessibleInterval< net.imglib2.type.numeric.real.FloatType > input = null;
+		// the resolution level to load
+		int bestLevel = -1;
 
 		if ( ( dsx > 1 || dsy > 1 || dsz > 1 ) && MultiResolutionImgLoader.class.isInstance( imgLoader ) )
 		{
@@ -446,7 +479,7 @@ public class DownsampleTools
 
 			double[][] mipmapResolutions = mrImgLoader.getSetupImgLoader( vd.getViewSetupId() ).getMipmapResolutions();
 
-			int bestLevel = 0;
+			bestLevel = 0;
 			for ( int level = 0; level < mipmapResolutions.length; ++level )
 			{
 				double[] factors = mipmapResolutions[ level ];
@@ -474,6 +507,54 @@ public class DownsampleTools
 					"(" + new Date(System.currentTimeMillis()) + "): " +
 					"Using precomputed Multiresolution Images [" + fx + "x" + fy + "x" + fz + "], " +
 					"Remaining downsampling [" + dsx + "x" + dsy + "x" + dsz + "]" );
+		}
+		else
+		{
+			mipMapTransform.identity();
+		}
+
+		// the additional downsampling (performed below)
+		final AffineTransform3D additonalDS = new AffineTransform3D();
+		additonalDS.set( dsx, 0.0, 0.0, 0.0, 0.0, dsy, 0.0, 0.0, 0.0, 0.0, dsz, 0.0 );
+
+		// we need to concatenate since when correcting for the downsampling we first multiply by whatever
+		// the manual downsampling did, and just then by the scaling+offset of the HDF5
+		//
+		// Here is an example of what happens (note that the 0.5 pixel shift is not changed)
+		// HDF5 MipMap Transform   (2.0, 0.0, 0.0, 0.5, 0.0, 2.0, 0.0, 0.5, 0.0, 0.0, 2.0, 0.5)
+		// Additional Downsampling (4.0, 0.0, 0.0, 0.0, 0.0, 4.0, 0.0, 0.0, 0.0, 0.0, 2.0, 0.0)
+		// Resulting model         (8.0, 0.0, 0.0, 0.5, 0.0, 8.0, 0.0, 0.5, 0.0, 0.0, 4.0, 0.5)
+		mipMapTransform.concatenate( additonalDS );
+
+		final boolean downsample = dsx > 1 || dsy > 1 || dsz > 1;
+		final int[] factors = new int[]{ dsx, dsy, dsz };
+		final String level = "level=" + bestLevel;
+		final DownsampleCache cache = DownsampleCache.defaultCache;
+
+		// a previous run (detection, max projection, interactive preview) might have computed it already
+		if ( downsample && cache.isEnabled() )
+		{
+			final DownsampleCache.Entry cached = cache.get( imgLoader, vd, level, factors, smoothed2x );
+
+			if ( cached != null )
+			{
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Using cached downsampled image." );
+
+				// the caller might work in-place, which must not change the cached image
+				final Img< FloatType > copy = FusionTools.copyImgNoTranslation( cached.getImg(), cached.getImg().factory(), new FloatType(), null );
+
+				if ( computeStatistics && cached.getStatistics() == null )
+					return new ValuePair<>( copy, IntensityStatistics.compute( copy ) );
+				else
+					return new ValuePair<>( copy, computeStatistics ? cached.getStatistics() : null );
+			}
+		}
+
+		final RandomAccessibleInterval< FloatType > input;
+
+		if ( bestLevel >= 0 )
+		{
+			final MultiResolutionImgLoader mrImgLoader = ( MultiResolutionImgLoader ) imgLoader;
 
 			if ( openCompletely )
 				input = mrImgLoader.getSetupImgLoader( vd.getViewSetupId() ).getFloatImage( vd.getTimePointId(), bestLevel, false, LOAD_COMPLETELY );
@@ -486,10 +567,12 @@ public class DownsampleTools
 				input = imgLoader.getSetupImgLoader( vd.getViewSetupId() ).getFloatImage( vd.getTimePointId(), false, LOAD_COMPLETELY );
 			else
 				input = imgLoader.getSetupImgLoader( vd.getViewSetupId() ).getFloatImage( vd.getTimePointId(), false );
-
-			mipMapTransform.identity();
 		}
 
+		// nothing to downsample, the statistics require a separate pass
+		if ( !downsample )
+			return new ValuePair<>( input, computeStatistics ? IntensityStatistics.compute( input ) : null );
+
 		final ImgFactory< FloatType > f;
 
 		if ( Img.class.isInstance( input ))
@@ -497,29 +580,111 @@ public class DownsampleTools
 		else
 			f = new CellImgFactory<FloatType>( new FloatType());
 
-		// the additional downsampling (performed below)
-		final AffineTransform3D additonalDS = new AffineTransform3D();
-		additonalDS.set( dsx, 0.0, 0.0, 0.0, 0.0, dsy, 0.0, 0.0, 0.0, 0.0, dsz, 0.0 );
+		// the weights are identical to successive 2x downsampling steps, but all dimensions are downsampled in a single pass
+		// writing directly into the result, the statistics are collected while writing it
+		final FusedDownsample.AxisWeights[] weights = new FusedDownsample.AxisWeights[]{
+				FusedDownsample.smoothed2x( input.dimension( 0 ), dsx ),
+				FusedDownsample.smoothed2x( input.dimension( 1 ), dsy ),
+				FusedDownsample.smoothed2x( input.dimension( 2 ), dsz ) };
 
-		// we need to concatenate since when correcting for the downsampling we first multiply by whatever
-		// the manual downsampling did, and just then by the scaling+offset of the HDF5
-		//
-		// Here is an example of what happens (note that the 0.5 pixel shift is not changed)
-		// HDF5 MipMap Transform   (2.0, 0.0, 0.0, 0.5, 0.0, 2.0, 0.0, 0.5, 0.0, 0.0, 2.0, 0.5)
-		// Additional Downsampling (4.0, 0.0, 0.0, 0.0, 0.0, 4.0, 0.0, 0.0, 0.0, 0.0, 2.0, 0.0)
-		// Resulting model         (8.0, 0.0, 0.0, 0.5, 0.0, 8.0, 0.0, 0.5, 0.0, 0.0, 4.0, 0.5)
-		mipMapTransform.concatenate( additonalDS );
+		final IntensityStatistics stats;
 
-		for ( ;dsx > 1; dsx /= 2 )
-			input = Downsample.simple2x( input, f, new boolean[]{ true, false, false } );
+		if ( computeStatistics || cache.isEnabled() )
+			stats = new IntensityStatistics( (long)weights[ 0 ].outputSize() * weights[ 1 ].outputSize() * weights[ 2 ].outputSize() );
+		else
+			stats = null;
 
-		for ( ;dsy > 1; dsy /= 2 )
-			input = Downsample.simple2x( input, f, new boolean[]{ false, true, false } );
+		final Img< FloatType > downsampled = FusedDownsample.downsample( input, f, new FloatType(), weights, stats );
 
-		for ( ;dsz > 1; dsz /= 2 )
-			input = Downsample.simple2x( input, f, new boolean[]{ false, false, true } );
+		// only if the cache kept the image, the caller might change it in-place and needs its own copy
+		if ( cache.put( imgLoader, vd, level, factors, smoothed2x, new DownsampleCache.Entry( downsampled, stats ) ) )
+			return new ValuePair<>(
+					FusionTools.copyImgNoTranslation( downsampled, f, new FloatType(), null ),
+					computeStatistics ? stats : null );
 
-		return input;
+		return new ValuePair<>( downsampled, computeStatistics ? stats : null );
+	}
+
+	/**
+	 * Opens the image at an appropriate resolution for the provided transformation (see
+	 * {@link #openDownsampled(BasicImgLoader, ViewId, AffineTransform3D)}). If the opened resolution level is still finer
+	 * than required by the transformation, it is additionally downsampled by integer factors using a box filter and the
+	 * transformation is adjusted accordingly. The box-downsampled images are kept in the {@link DownsampleCache} and must
+	 * not be modified. If the cache is disabled, this is identical to {@link #openDownsampled(BasicImgLoader, ViewId, AffineTransform3D)}.
+	 * 
+	 * @param imgLoader - the img loader
+	 * @param viewId - the view id
+	 * @param m - WILL BE MODIFIED IF OPENED DOWNSAMPLED
+	 * @return - opened image
+	 */
+	public static RandomAccessibleInterval< FloatType > openDownsampledBox( final BasicImgLoader imgLoader, final ViewId viewId, final AffineTransform3D m )
+	{
+		final DownsampleCache cache = DownsampleCache.defaultCache;
+
+		// box-downsampling only pays off if the result is shared
+		if ( !cache.isEnabled() )
+			return FusionTools.convertInput( openDownsampled( imgLoader, viewId, m ) );
+
+		final Pair< RandomAccessibleInterval, AffineTransform3D > opened = openDownsampled2( imgLoader, viewId, m, null );
+
+		if ( opened.getB() != null )
+			m.concatenate( opened.getB() );
+
+		final RandomAccessibleInterval< FloatType > input = FusionTools.convertInput( opened.getA() );
+
+		// how many input pixels map into one output pixel
+		final float[] step = getStepSize( m );
+		final int[] factors = new int[ 3 ];
+		boolean downsample = false;
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			factors[ d ] = (int)Math.max( 1, Math.min( input.dimension( d ), Math.floor( 1.0 / step[ d ] ) ) );
+
+			if ( factors[ d ] > 1 )
+				downsample = true;
+		}
+
+		if ( !downsample )
+			return input;
+
+		// the downsampled image starts at min / f, the remainder of the division is part of the transformation
+		final long[] min = new long[ 3 ];
+		final double[] remainder = new double[ 3 ];
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			min[ d ] = Math.floorDiv( input.min( d ), factors[ d ] );
+			remainder[ d ] = input.min( d ) - min[ d ] * factors[ d ];
+		}
+
+		// pixel i of the downsampled (zero-min) image is centered at i * f + ( f - 1 ) / 2 of the (zero-min) input
+		final AffineTransform3D boxDS = new AffineTransform3D();
+		boxDS.set(
+				factors[ 0 ], 0.0, 0.0, ( factors[ 0 ] - 1 ) / 2.0 + remainder[ 0 ],
+				0.0, factors[ 1 ], 0.0, ( factors[ 1 ] - 1 ) / 2.0 + remainder[ 1 ],
+				0.0, 0.0, factors[ 2 ], ( factors[ 2 ] - 1 ) / 2.0 + remainder[ 2 ] );
+
+		m.concatenate( boxDS );
+
+		final String level = opened.getB() == null ? "full" : opened.getB().toString();
+		final DownsampleCache.Entry cached = cache.get( imgLoader, viewId, level, factors, box );
+
+		if ( cached != null )
+			return Views.translate( cached.getImg(), min );
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Box-downsampling " + Group.pvid( viewId ) + " by " + Util.printCoordinates( factors ) );
+
+		final FusedDownsample.AxisWeights[] weights = new FusedDownsample.AxisWeights[]{
+				FusedDownsample.box( input.dimension( 0 ), factors[ 0 ] ),
+				FusedDownsample.box( input.dimension( 1 ), factors[ 1 ] ),
+				FusedDownsample.box( input.dimension( 2 ), factors[ 2 ] ) };
+
+		final Img< FloatType > downsampled = FusedDownsample.downsample( input, new CellImgFactory<FloatType>( new FloatType() ), new FloatType(), weights, null );
+
+		cache.put( imgLoader, viewId, level, factors, box, new DownsampleCache.Entry( downsampled, null ) );
+
+		return Views.translate( downsampled, min );
 	}
 
 	private static final boolean contains( final int i, final int[] values )
@@ -0,0 +1,355 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointdetection.methods.downsampling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.interestpointdetection.IntensityStatistics;
+
+/**
+ * Single-pass, multithreaded downsampling of 3d images by arbitrary integer factors per axis. The filter is separable
+ * and described by {@link AxisWeights} for every dimension; each output pixel is written exactly once straight into the
+ * final image, no intermediate images are created.
+ */
+public class FusedDownsample
+{
+	/**
+	 * The weights of a linear downsampling along one axis, output pixel o is the weighted sum of the input pixels
+	 * offset[ o ] ... offset[ o ] + weights[ o ].length - 1
+	 */
+	public static class AxisWeights
+	{
+		final long[] offset;
+		final double[][] weights;
+
+		public AxisWeights( final long[] offset, final double[][] weights )
+		{
+			this.offset = offset;
+			this.weights = weights;
+		}
+
+		public int outputSize() { return offset.length; }
+	}
+
+	/**
+	 * @param inputSize - size of the input along this axis
+	 * @param factor - integer downsampling factor
+	 * @return weights that average non-overlapping boxes of size factor
+	 */
+	public static AxisWeights box( final long inputSize, final int factor )
+	{
+		final int n = (int)Math.max( 1, inputSize / factor );
+		final int size = (int)Math.min( factor, inputSize );
+
+		final long[] offset = new long[ n ];
+		final double[][] weights = new double[ n ][ size ];
+
+		for ( int o = 0; o < n; ++o )
+		{
+			offset[ o ] = (long)o * factor;
+			Arrays.fill( weights[ o ], 1.0 / size );
+		}
+
+		return new AxisWeights( offset, weights );
+	}
+
+	/**
+	 * @param inputSize - size of the input along this axis
+	 * @param factor - downsampling factor (power of 2)
+	 * @return weights that are identical to applying {@link Downsample#simple2x(RandomAccessibleInterval, RandomAccessibleInterval, int)}
+	 * log2( factor ) times
+	 */
+	public static AxisWeights smoothed2x( final long inputSize, final int factor )
+	{
+		final long[] offset = new long[ (int)inputSize ];
+		final double[][] weights = new double[ (int)inputSize ][];
+
+		for ( int i = 0; i < inputSize; ++i )
+		{
+			offset[ i ] = i;
+			weights[ i ] = new double[]{ 1.0 };
+		}
+
+		AxisWeights w = new AxisWeights( offset, weights );
+
+		for ( int f = factor; f > 1 && w.outputSize() > 1; f /= 2 )
+			w = step2x( w );
+
+		return w;
+	}
+
+	/*
+	 * one step of Downsample.simple2x, expressed as a combination of the previous output pixels
+	 */
+	protected static AxisWeights step2x( final AxisWeights prev )
+	{
+		final int n = prev.outputSize() / 2;
+
+		final long[] offset = new long[ n ];
+		final double[][] weights = new double[ n ][];
+
+		for ( int o = 0; o < n; ++o )
+		{
+			final int[] idx;
+			final double[] coeff;
+
+			if ( o == 0 )
+			{
+				idx = new int[]{ 0, 1 };
+				coeff = new double[]{ 1.0 / 1.5, 0.5 / 1.5 };
+			}
+			else if ( o == n - 1 )
+			{
+				idx = new int[]{ 2 * o - 1, 2 * o };
+				coeff = new double[]{ 0.5 / 1.5, 1.0 / 1.5 };
+			}
+			else
+			{
+				idx = new int[]{ 2 * o - 1, 2 * o, 2 * o + 1 };
+				coeff = new double[]{ 0.25, 0.5, 0.25 };
+			}
+
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+
+			for ( final int i : idx )
+			{
+				min = Math.min( min, prev.offset[ i ] );
+				max = Math.max( max, prev.offset[ i ] + prev.weights[ i ].length );
+			}
+
+			final double[] w = new double[ (int)( max - min ) ];
+
+			for ( int j = 0; j < idx.length; ++j )
+			{
+				final int i = idx[ j ];
+				final int shift = (int)( prev.offset[ i ] - min );
+
+				for ( int k = 0; k < prev.weights[ i ].length; ++k )
+					w[ shift + k ] += coeff[ j ] * prev.weights[ i ][ k ];
+			}
+
+			offset[ o ] = min;
+			weights[ o ] = w;
+		}
+
+		return new AxisWeights( offset, weights );
+	}
+
+	/**
+	 * @param input - the 3d input image
+	 * @param factory - factory for the output
+	 * @param type - type of the output
+	 * @param weights - the weights for each axis
+	 * @param stats - if not null, the intensity statistics of the output are collected while writing it
+	 * @param <S> - input type
+	 * @param <T> - output type
+	 * @return the downsampled image
+	 */
+	public static < S extends RealType< S >, T extends RealType< T > > Img< T > downsample(
+			final RandomAccessibleInterval< S > input,
+			final ImgFactory< T > factory,
+			final T type,
+			final AxisWeights[] weights,
+			final IntensityStatistics stats )
+	{
+		final long[] dim = new long[ weights.length ];
+
+		for ( int d = 0; d < dim.length; ++d )
+			dim[ d ] = weights[ d ].outputSize();
+
+		final Img< T > output = factory.create( dim, type );
+
+		final ExecutorService service = Threads.createFixedExecutorService();
+		downsample( input, output, weights, stats, service );
+		service.shutdown();
+
+		return output;
+	}
+
+	/**
+	 * @param input - the 3d input image
+	 * @param output - the 3d output image, dimensions must match the output sizes of the weights
+	 * @param weights - the weights for each axis
+	 * @param stats - if not null, the intensity statistics of the output are collected while writing it
+	 * @param service - the ExecutorService to use
+	 * @param <S> - input type
+	 * @param <T> - output type
+	 */
+	public static < S extends RealType< S >, T extends RealType< T > > void downsample(
+			final RandomAccessibleInterval< S > input,
+			final RandomAccessibleInterval< T > output,
+			final AxisWeights[] weights,
+			final IntensityStatistics stats,
+			final ExecutorService service )
+	{
+		if ( input.numDimensions() != 3 || output.numDimensions() != 3 || weights.length != 3 )
+			throw new IllegalArgumentException( "FusedDownsample only supports 3d images." );
+
+		final int inX = (int)input.dimension( 0 );
+		final int inY = (int)input.dimension( 1 );
+		final int outX = weights[ 0 ].outputSize();
+		final int outY = weights[ 1 ].outputSize();
+		final int outZ = weights[ 2 ].outputSize();
+
+		// which output rows (and with which weight) every input row contributes to
+		final int[][] yTargets = new int[ inY ][];
+		final double[][] yWeights = new double[ inY ][];
+		invert( weights[ 1 ], inY, yTargets, yWeights );
+
+		final AxisWeights wx = weights[ 0 ];
+		final AxisWeights wz = weights[ 2 ];
+
+		final int numPortions = Math.min( outZ, Threads.numThreads() * 4 );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+
+		for ( int portion = 0; portion < numPortions; ++portion )
+		{
+			final int startZ = (int)( (long)portion * outZ / numPortions );
+			final int endZ = (int)( (long)( portion + 1 ) * outZ / numPortions );
+
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					final RandomAccess< S > in = Views.zeroMin( input ).randomAccess();
+					final RandomAccess< T > out = Views.zeroMin( output ).randomAccess();
+
+					final double[] row = new double[ inX ];
+					final double[] plane = new double[ outY * inX ];
+					final IntensityStatistics partial = stats == null ? null : stats.newPartial( (long)( endZ - startZ ) * outY * outX );
+
+					for ( int oz = startZ; oz < endZ; ++oz )
+					{
+						Arrays.fill( plane, 0 );
+
+						// reduce z and y, every input row is read once per output plane
+						for ( int kz = 0; kz < wz.weights[ oz ].length; ++kz )
+						{
+							final double wzv = wz.weights[ oz ][ kz ];
+
+							in.setPosition( wz.offset[ oz ] + kz, 2 );
+
+							for ( int y = 0; y < inY; ++y )
+							{
+								if ( yTargets[ y ].length == 0 )
+									continue;
+
+								in.setPosition( 0, 0 );
+								in.setPosition( y, 1 );
+
+								for ( int x = 0; x < inX; ++x )
+								{
+									row[ x ] = in.get().getRealDouble();
+									in.fwd( 0 );
+								}
+
+								for ( int t = 0; t < yTargets[ y ].length; ++t )
+								{
+									final double w = wzv * yWeights[ y ][ t ];
+									final int base = yTargets[ y ][ t ] * inX;
+
+									for ( int x = 0; x < inX; ++x )
+										plane[ base + x ] += w * row[ x ];
+								}
+							}
+						}
+
+						// reduce x and write the output
+						for ( int oy = 0; oy < outY; ++oy )
+						{
+							final int base = oy * inX;
+
+							out.setPosition( 0, 0 );
+							out.setPosition( oy, 1 );
+							out.setPosition( oz, 2 );
+
+							for ( int ox = 0; ox < outX; ++ox )
+							{
+								final double[] w = wx.weights[ ox ];
+								final int o = base + (int)wx.offset[ ox ];
+
+								double v = 0;
+
+								for ( int k = 0; k < w.length; ++k )
+									v += w[ k ] * plane[ o + k ];
+
+								final T t = out.get();
+								t.setReal( v );
+
+								if ( partial != null )
+									partial.add( t.getRealFloat() );
+
+								out.fwd( 0 );
+							}
+						}
+					}
+
+					if ( partial != null )
+						stats.merge( partial );
+
+					return null;
+				}
+			});
+		}
+
+		FusionTools.execTasks( tasks, service, "compute downsampling" );
+	}
+
+	protected static void invert( final AxisWeights w, final int inputSize, final int[][] targets, final double[][] targetWeights )
+	{
+		final int[] count = new int[ inputSize ];
+
+		for ( int o = 0; o < w.outputSize(); ++o )
+			for ( int k = 0; k < w.weights[ o ].length; ++k )
+				++count[ (int)w.offset[ o ] + k ];
+
+		for ( int i = 0; i < inputSize; ++i )
+		{
+			targets[ i ] = new int[ count[ i ] ];
+			targetWeights[ i ] = new double[ count[ i ] ];
+			count[ i ] = 0;
+		}
+
+		for ( int o = 0; o < w.outputSize(); ++o )
+			for ( int k = 0; k < w.weights[ o ].length; ++k )
+			{
+				final int i = (int)w.offset[ o ] + k;
+
+				targets[ i ][ count[ i ] ] = o;
+				targetWeights[ i ][ count[ i ]++ ] = w.weights[ o ][ k ];
+			}
+	}
+}
@@ -743,6 +743,51 @@ public class TransformationTools
 		return transformedList;
 	}
 
+	/**
+	 * @param modelDescription - the description of the model
+	 * @param label - the interest point label the transformation was computed from
+	 * @return the name of a transformation computed by interest point registration, see {@link #registeredViews(Collection, Map, Map)}
+	 */
+	public static String interestPointRegistrationName( final String modelDescription, final String label )
+	{
+		return modelDescription + ", interest points '" + label + "'";
+	}
+
+	/**
+	 * @param viewIds - the views to check
+	 * @param registrations - the current registrations
+	 * @param labelMap - the label per view
+	 * @param <V> - view id type
+	 * @return all views whose registration contains a transformation computed by interest point registration
+	 * with their label (named using {@link #interestPointRegistrationName(String, String)})
+	 */
+	public static < V extends ViewId > HashSet< V > registeredViews(
+			final Collection< V > viewIds,
+			final Map< ? super V, ViewRegistration > registrations,
+			final Map< V, String > labelMap )
+	{
+		final HashSet< V > registered = new HashSet<>();
+
+		for ( final V viewId : viewIds )
+		{
+			final ViewRegistration vr = registrations.get( viewId );
+
+			if ( vr == null )
+				continue;
+
+			final String suffix = interestPointRegistrationName( "", labelMap.get( viewId ) );
+
+			for ( final ViewTransform vt : vr.getTransformList() )
+				if ( vt.getName() != null && vt.getName().endsWith( suffix ) )
+				{
+					registered.add( viewId );
+					break;
+				}
+		}
+
+		return registered;
+	}
+
 	public static <V> void storeTransformation(
 			final ViewRegistration vr,
 			final V viewId,
@@ -45,6 +45,7 @@ import net.imglib2.util.ValuePair;
 import net.preibisch.mvrecon.process.interestpointregistration.TransformationTools;
 import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.PointMatchCreator;
+import net.preibisch.mvrecon.process.interestpointregistration.global.sparse.SparseTileOptimizer;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
 /**
@@ -89,13 +90,26 @@ public class GlobalOpt
 		// now perform the global optimization
 		try 
 		{
-			int unaligned = tc.preAlign().size();
-			if ( unaligned > 0 )
-				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): pre-aligned all tiles but " + unaligned );
+			if ( cs.useSparseSolver() && SparseTileOptimizer.isSupported( tc.getTiles() ) )
+			{
+				final SparseTileOptimizer solver = new SparseTileOptimizer( tc );
+				final int iterations = solver.solve();
+
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): solved " + solver.getNumLinks() + " links with the sparse solver (" + iterations + " iterations)" );
+			}
 			else
-				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): prealigned all tiles" );
+			{
+				if ( cs.useSparseSolver() )
+					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): the sparse solver only supports translation and affine models, optimizing iteratively" );
 
-			tc.optimize( cs.getMaxError(), cs.getMaxIterations(), cs.getMaxPlateauWidth() );
+				int unaligned = tc.preAlign().size();
+				if ( unaligned > 0 )
+					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): pre-aligned all tiles but " + unaligned );
+				else
+					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): prealigned all tiles" );
+
+				tc.optimize( cs.getMaxError(), cs.getMaxIterations(), cs.getMaxPlateauWidth() );
+			}
 
 			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Global optimization of " + 
 				tc.getTiles().size() +  " view-tiles (Model=" + model.getClass().getSimpleName()  + "):" );
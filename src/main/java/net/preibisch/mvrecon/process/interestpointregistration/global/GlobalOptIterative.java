@@ -44,6 +44,7 @@ import net.preibisch.mvrecon.process.interestpointregistration.TransformationToo
 import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.IterativeConvergenceStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.linkremoval.LinkRemovalStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.PointMatchCreator;
+import net.preibisch.mvrecon.process.interestpointregistration.global.sparse.SparseTileOptimizer;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 
 public class GlobalOptIterative
@@ -84,6 +85,17 @@ public class GlobalOptIterative
 		// add and fix tiles as defined in the GlobalOptimizationType
 		final TileConfiguration tc = GlobalOpt.addAndFixTiles( views, map, fixedViews, groups );
 
+		// the normal equations are assembled once, removed links are subtracted and every round starts from the last solution
+		final SparseTileOptimizer solver;
+
+		if ( ics.useSparseSolver() && SparseTileOptimizer.isSupported( tc.getTiles() ) )
+			solver = new SparseTileOptimizer( tc );
+		else
+			solver = null;
+
+		if ( ics.useSparseSolver() && solver == null )
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): the sparse solver only supports translation and affine models, optimizing iteratively" );
+
 		// now perform the global optimization
 		boolean finished = false;
 
@@ -91,15 +103,25 @@ public class GlobalOptIterative
 		{
 			try 
 			{
-				int unaligned = tc.preAlign().size();
-				if ( unaligned > 0 )
-					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): pre-aligned all tiles but " + unaligned );
-				else
-					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): prealigned all tiles" );
+				if ( solver != null )
+				{
+					solver.removeDisconnectedLinks();
+					final int iterations = solver.solve();
 
-				TileUtil.optimizeConcurrently(
-						new ErrorStatistic( ics.getMaxPlateauWidth() + 1 ),  ics.getMaxError(), ics.getMaxIterations(), ics.getMaxPlateauWidth(), 1.0f,
-						tc, tc.getTiles(), tc.getFixedTiles(), Runtime.getRuntime().availableProcessors());
+					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): solved " + solver.getNumLinks() + " links with the sparse solver (" + iterations + " iterations)" );
+				}
+				else
+				{
+					int unaligned = tc.preAlign().size();
+					if ( unaligned > 0 )
+						IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): pre-aligned all tiles but " + unaligned );
+					else
+						IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): prealigned all tiles" );
+	
+					TileUtil.optimizeConcurrently(
+							new ErrorStatistic( ics.getMaxPlateauWidth() + 1 ),  ics.getMaxError(), ics.getMaxIterations(), ics.getMaxPlateauWidth(), 1.0f,
+							tc, tc.getTiles(), tc.getFixedTiles(), Runtime.getRuntime().availableProcessors());
+				}
 
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Global optimization of " + tc.getTiles().size());
 				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "):    Avg Error: " + tc.getError() + "px" );
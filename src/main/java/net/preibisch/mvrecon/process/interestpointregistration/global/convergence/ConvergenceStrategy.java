@@ -27,6 +27,8 @@ public class ConvergenceStrategy
 	double maxAllowedError;
 	int maxIterations;
 	int maxPlateauwidth;
+	// solve translation and affine models directly using the SparseTileOptimizer instead of iteratively
+	boolean useSparseSolver = false;
 
 	public ConvergenceStrategy( final double maxAllowedError )
 	{
@@ -46,4 +48,6 @@ public class ConvergenceStrategy
 	public double getMaxError() { return maxAllowedError; }
 	public int getMaxIterations() { return maxIterations; }
 	public int getMaxPlateauWidth() { return maxPlateauwidth; }
+	public boolean useSparseSolver() { return useSparseSolver; }
+	public void setUseSparseSolver( final boolean useSparseSolver ) { this.useSparseSolver = useSparseSolver; }
 }
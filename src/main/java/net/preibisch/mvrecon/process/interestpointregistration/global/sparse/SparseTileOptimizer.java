@@ -0,0 +1,630 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.global.sparse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import mpicbg.models.Affine3D;
+import mpicbg.models.AffineModel3D;
+import mpicbg.models.Model;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+import mpicbg.models.Tile;
+import mpicbg.models.TileConfiguration;
+import mpicbg.models.TranslationModel3D;
+
+/**
+ * Solves the global optimization of a {@link TileConfiguration} of {@link TranslationModel3D} or {@link AffineModel3D} tiles
+ * directly, instead of iteratively fitting one tile after the other.
+ *
+ * For those models the residual of every {@link PointMatch} is linear in the model parameters, so the least-squares problem
+ * sum( w * |M_i(p) - M_j(q)|^2 ) can be written as normal equations H x = b. H is sparse (one k x k block per pair of connected
+ * tiles, k=1 for translation and k=4 for affine), identical for all three output dimensions, and is solved with a conjugate
+ * gradient using a block-Jacobi preconditioner. Fixed tiles keep their model, every connected component without a fixed tile
+ * is anchored at one of its tiles.
+ *
+ * The contribution of each link is stored separately, so links removed from the tiles can be subtracted again
+ * ({@link #removeDisconnectedLinks()}), and every solve starts from the current models of the tiles (i.e. the last solution).
+ */
+public class SparseTileOptimizer
+{
+	public static int defaultMaxIterations = 10000;
+	public static double defaultTolerance = 1e-12;
+
+	final static int n = 3;
+
+	final TileConfiguration tc;
+	final boolean affine;
+	final int k;
+
+	final List< Tile< ? > > tiles;
+	final IdentityHashMap< Tile< ? >, Integer > tileIndex;
+
+	// the diagonal blocks (k x k per tile) and right-hand side (n x k per tile)
+	final double[] diag;
+	final double[] rhs;
+
+	// one entry per pair of connected tiles, key is i * numTiles + j with i < j
+	final LinkedHashMap< Long, Link > links;
+
+	int iterations = 0;
+
+	protected static class Link
+	{
+		final int i, j;
+
+		// contributions to H_ii, H_jj, H_ij (k x k) and b_i, b_j (n x k)
+		final double[] hii, hjj, hij, bi, bj;
+
+		Link( final int i, final int j, final int k )
+		{
+			this.i = i;
+			this.j = j;
+			this.hii = new double[ k * k ];
+			this.hjj = new double[ k * k ];
+			this.hij = new double[ k * k ];
+			this.bi = new double[ n * k ];
+			this.bj = new double[ n * k ];
+		}
+	}
+
+	/**
+	 * @param model - the model that is used
+	 * @return true if the model can be solved with the {@link SparseTileOptimizer}
+	 */
+	public static boolean isSupported( final Model< ? > model )
+	{
+		return model.getClass() == TranslationModel3D.class || model.getClass() == AffineModel3D.class;
+	}
+
+	/**
+	 * @param tiles - a collection of tiles
+	 * @return true if all tiles have a model that is supported
+	 */
+	public static boolean isSupported( final Collection< ? extends Tile< ? > > tiles )
+	{
+		for ( final Tile< ? > tile : tiles )
+			if ( !isSupported( tile.getModel() ) )
+				return false;
+
+		return true;
+	}
+	/**
+	 * Assembles the normal equations for all {@link PointMatch}es in between the tiles of a {@link TileConfiguration}.
+	 *
+	 * @param tc - the tile configuration, all tiles must be {@link TranslationModel3D} or {@link AffineModel3D}
+	 */
+	public SparseTileOptimizer( final TileConfiguration tc )
+	{
+		this.tc = tc;
+		this.tiles = new ArrayList<>( tc.getTiles() );
+		this.tileIndex = new IdentityHashMap<>();
+
+		for ( int t = 0; t < tiles.size(); ++t )
+			tileIndex.put( tiles.get( t ), t );
+
+		if ( !isSupported( tiles ) )
+			throw new RuntimeException( "SparseTileOptimizer only supports TranslationModel3D and AffineModel3D, but not " + tiles.get( 0 ).getModel().getClass().getSimpleName() );
+
+		this.affine = tiles.size() > 0 && tiles.get( 0 ).getModel() instanceof AffineModel3D;
+		this.k = affine ? n + 1 : 1;
+
+		this.diag = new double[ tiles.size() * k * k ];
+		this.rhs = new double[ tiles.size() * n * k ];
+		this.links = new LinkedHashMap<>();
+
+		// which tile a point belongs to (p1 of a PointMatch always belongs to the tile that holds the match)
+		final IdentityHashMap< Point, Integer > pointToTile = new IdentityHashMap<>();
+
+		for ( int t = 0; t < tiles.size(); ++t )
+			for ( final PointMatch pm : tiles.get( t ).getMatches() )
+				pointToTile.put( pm.getP1(), t );
+
+		final double[] phi1 = new double[ k ];
+		final double[] phi2 = new double[ k ];
+
+		for ( int i = 0; i < tiles.size(); ++i )
+		{
+			for ( final PointMatch pm : tiles.get( i ).getMatches() )
+			{
+				final Integer jIndex = pointToTile.get( pm.getP2() );
+
+				// every match exists in both tiles, only add it once; ignore tiles that are not part of the configuration
+				if ( jIndex == null || jIndex <= i )
+					continue;
+
+				final int j = jIndex;
+				final double w = pm.getWeight();
+
+				final double[] l1 = pm.getP1().getL();
+				final double[] l2 = pm.getP2().getL();
+
+				Link link = links.get( key( i, j ) );
+
+				if ( link == null )
+				{
+					link = new Link( i, j, k );
+					links.put( key( i, j ), link );
+				}
+
+				if ( affine )
+				{
+					for ( int d = 0; d < n; ++d )
+					{
+						phi1[ d ] = l1[ d ];
+						phi2[ d ] = l2[ d ];
+					}
+
+					phi1[ n ] = phi2[ n ] = 1;
+				}
+				else
+				{
+					phi1[ 0 ] = phi2[ 0 ] = 1;
+
+					// residual is t_i - t_j + ( l1 - l2 )
+					for ( int d = 0; d < n; ++d )
+					{
+						final double c = l1[ d ] - l2[ d ];
+						link.bi[ d ] -= w * c;
+						link.bj[ d ] += w * c;
+					}
+				}
+
+				for ( int r = 0; r < k; ++r )
+					for ( int c = 0; c < k; ++c )
+					{
+						link.hii[ r * k + c ] += w * phi1[ r ] * phi1[ c ];
+						link.hjj[ r * k + c ] += w * phi2[ r ] * phi2[ c ];
+						link.hij[ r * k + c ] -= w * phi1[ r ] * phi2[ c ];
+					}
+			}
+		}
+
+		for ( final Link link : links.values() )
+			addLink( link, 1 );
+	}
+
+	/**
+	 * Subtracts all links whose tiles are not connected anymore (e.g. removed by a LinkRemovalStrategy),
+	 * which is much cheaper than assembling the normal equations again.
+	 *
+	 * @return the number of links that were removed
+	 */
+	public int removeDisconnectedLinks()
+	{
+		int removed = 0;
+
+		for ( final Iterator< Link > it = links.values().iterator(); it.hasNext(); )
+		{
+			final Link link = it.next();
+
+			if ( !tiles.get( link.i ).getConnectedTiles().contains( tiles.get( link.j ) ) )
+			{
+				addLink( link, -1 );
+				it.remove();
+				++removed;
+			}
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Solves the normal equations starting from the current models of the tiles, writes the result into the models,
+	 * applies them to all {@link PointMatch}es and updates the errors of the {@link TileConfiguration}.
+	 *
+	 * @return the number of conjugate gradient iterations (summed over all dimensions)
+	 */
+	public int solve()
+	{
+		return solve( defaultMaxIterations, defaultTolerance );
+	}
+
+	/**
+	 * Solves the normal equations starting from the current models of the tiles, writes the result into the models,
+	 * applies them to all {@link PointMatch}es and updates the errors of the {@link TileConfiguration}.
+	 *
+	 * @param maxIterations - maximal number of conjugate gradient iterations per dimension
+	 * @param tolerance - relative residual at which the conjugate gradient stops
+	 * @return the number of conjugate gradient iterations (summed over all dimensions)
+	 */
+	public int solve( final int maxIterations, final double tolerance )
+	{
+		final int numTiles = tiles.size();
+		final boolean[] fixed = anchors();
+		final double[] preconditioner = invertDiagonalBlocks();
+
+		// current models as warm start, x[ d ][ t * k + r ]
+		final double[][] x = new double[ n ][ numTiles * k ];
+		final double[][] m = new double[ n ][ n + 1 ];
+
+		for ( int t = 0; t < numTiles; ++t )
+		{
+			( (Affine3D< ? >)tiles.get( t ).getModel() ).toMatrix( m );
+
+			for ( int d = 0; d < n; ++d )
+			{
+				if ( affine )
+					System.arraycopy( m[ d ], 0, x[ d ], t * k, k );
+				else
+					x[ d ][ t ] = m[ d ][ n ];
+			}
+		}
+
+		final int size = numTiles * k;
+		final double[] b = new double[ size ];
+		final double[] r = new double[ size ];
+		final double[] z = new double[ size ];
+		final double[] p = new double[ size ];
+		final double[] q = new double[ size ];
+
+		iterations = 0;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			for ( int t = 0; t < numTiles; ++t )
+				System.arraycopy( rhs, ( t * n + d ) * k, b, t * k, k );
+
+			// the scale of the problem is the residual with all free parameters set to zero
+			for ( int i = 0; i < size; ++i )
+				p[ i ] = fixed[ i / k ] ? x[ d ][ i ] : 0;
+
+			multiply( p, q );
+			final double norm0 = freeNorm( b, q, fixed );
+
+			if ( norm0 == 0 )
+				continue;
+
+			// r = b - H x
+			multiply( x[ d ], q );
+
+			for ( int i = 0; i < size; ++i )
+				r[ i ] = fixed[ i / k ] ? 0 : b[ i ] - q[ i ];
+
+			precondition( preconditioner, r, z, fixed );
+			System.arraycopy( z, 0, p, 0, size );
+
+			double rz = dot( r, z );
+
+			for ( int it = 0; it < maxIterations && Math.sqrt( dot( r, r ) ) > tolerance * norm0; ++it )
+			{
+				multiply( p, q );
+
+				final double pq = dot( p, q );
+
+				// semi-definite direction, nothing left to improve
+				if ( pq <= 0 )
+					break;
+
+				final double alpha = rz / pq;
+
+				for ( int i = 0; i < size; ++i )
+				{
+					if ( fixed[ i / k ] )
+						continue;
+
+					x[ d ][ i ] += alpha * p[ i ];
+					r[ i ] -= alpha * q[ i ];
+				}
+
+				precondition( preconditioner, r, z, fixed );
+
+				final double rzNew = dot( r, z );
+				final double beta = rzNew / rz;
+				rz = rzNew;
+
+				for ( int i = 0; i < size; ++i )
+					p[ i ] = z[ i ] + beta * p[ i ];
+
+				++iterations;
+			}
+		}
+
+		// write back the models
+		for ( int t = 0; t < numTiles; ++t )
+		{
+			final Tile< ? > tile = tiles.get( t );
+
+			if ( affine )
+				( (AffineModel3D)tile.getModel() ).set(
+						x[ 0 ][ t * k ], x[ 0 ][ t * k + 1 ], x[ 0 ][ t * k + 2 ], x[ 0 ][ t * k + 3 ],
+						x[ 1 ][ t * k ], x[ 1 ][ t * k + 1 ], x[ 1 ][ t * k + 2 ], x[ 1 ][ t * k + 3 ],
+						x[ 2 ][ t * k ], x[ 2 ][ t * k + 1 ], x[ 2 ][ t * k + 2 ], x[ 2 ][ t * k + 3 ] );
+			else
+				( (TranslationModel3D)tile.getModel() ).set( x[ 0 ][ t ], x[ 1 ][ t ], x[ 2 ][ t ] );
+
+			tile.apply();
+		}
+
+		for ( final Tile< ? > tile : tiles )
+			tile.updateCost();
+
+		tc.updateErrors();
+
+		return iterations;
+	}
+
+	/**
+	 * @return the number of conjugate gradient iterations of the last solve (summed over all dimensions)
+	 */
+	public int getNumIterations() { return iterations; }
+
+	/**
+	 * @return the number of links (pairs of connected tiles) in the normal equations
+	 */
+	public int getNumLinks() { return links.size(); }
+
+	protected long key( final int i, final int j ) { return (long)i * tiles.size() + j; }
+
+	protected void addLink( final Link link, final int sign )
+	{
+		final int kk = k * k;
+
+		for ( int e = 0; e < kk; ++e )
+		{
+			diag[ link.i * kk + e ] += sign * link.hii[ e ];
+			diag[ link.j * kk + e ] += sign * link.hjj[ e ];
+		}
+
+		for ( int e = 0; e < n * k; ++e )
+		{
+			rhs[ link.i * n * k + e ] += sign * link.bi[ e ];
+			rhs[ link.j * n * k + e ] += sign * link.bj[ e ];
+		}
+	}
+
+	/**
+	 * @return for every tile if its model is kept, i.e. all fixed tiles plus one tile of every connected component that has no fixed tile
+	 */
+	protected boolean[] anchors()
+	{
+		final int numTiles = tiles.size();
+		final boolean[] fixed = new boolean[ numTiles ];
+		final boolean[] visited = new boolean[ numTiles ];
+
+		final ArrayList< ArrayList< Integer > > neighbors = new ArrayList<>( numTiles );
+
+		for ( int t = 0; t < numTiles; ++t )
+			neighbors.add( new ArrayList<>() );
+
+		for ( final Link link : links.values() )
+		{
+			neighbors.get( link.i ).add( link.j );
+			neighbors.get( link.j ).add( link.i );
+		}
+
+		for ( final Tile< ? > tile : tc.getFixedTiles() )
+		{
+			final Integer t = tileIndex.get( tile );
+
+			if ( t != null )
+				fixed[ t ] = true;
+		}
+
+		final ArrayDeque< Integer > queue = new ArrayDeque<>();
+		final ArrayList< Integer > component = new ArrayList<>();
+
+		for ( int start = 0; start < numTiles; ++start )
+		{
+			if ( visited[ start ] )
+				continue;
+
+			component.clear();
+			queue.add( start );
+			visited[ start ] = true;
+
+			boolean hasFixed = false;
+
+			while ( !queue.isEmpty() )
+			{
+				final int t = queue.poll();
+				component.add( t );
+				hasFixed |= fixed[ t ];
+
+				for ( final int neighbor : neighbors.get( t ) )
+					if ( !visited[ neighbor ] )
+					{
+						visited[ neighbor ] = true;
+						queue.add( neighbor );
+					}
+			}
+
+			if ( !hasFixed )
+				fixed[ component.get( 0 ) ] = true;
+		}
+
+		return fixed;
+	}
+
+	/**
+	 * q = H x
+	 */
+	protected void multiply( final double[] x, final double[] q )
+	{
+		final int numTiles = tiles.size();
+		final int kk = k * k;
+
+		for ( int t = 0; t < numTiles; ++t )
+			for ( int r = 0; r < k; ++r )
+			{
+				double sum = 0;
+
+				for ( int c = 0; c < k; ++c )
+					sum += diag[ t * kk + r * k + c ] * x[ t * k + c ];
+
+				q[ t * k + r ] = sum;
+			}
+
+		for ( final Link link : links.values() )
+		{
+			final int oi = link.i * k;
+			final int oj = link.j * k;
+
+			for ( int r = 0; r < k; ++r )
+				for ( int c = 0; c < k; ++c )
+				{
+					final double h = link.hij[ r * k + c ];
+
+					q[ oi + r ] += h * x[ oj + c ];
+					q[ oj + c ] += h * x[ oi + r ];
+				}
+		}
+	}
+
+	/**
+	 * @return inverted diagonal blocks of H, slightly regularized so that tiles with degenerate matches do not break it
+	 */
+	protected double[] invertDiagonalBlocks()
+	{
+		final int kk = k * k;
+		final double[] inverse = new double[ diag.length ];
+		final double[] block = new double[ kk ];
+
+		for ( int t = 0; t < tiles.size(); ++t )
+		{
+			System.arraycopy( diag, t * kk, block, 0, kk );
+
+			double trace = 0;
+
+			for ( int r = 0; r < k; ++r )
+				trace += block[ r * k + r ];
+
+			final double eps = trace > 0 ? 1e-9 * trace / k : 1;
+
+			for ( int r = 0; r < k; ++r )
+				block[ r * k + r ] += eps;
+
+			invert( block, k );
+			System.arraycopy( block, 0, inverse, t * kk, kk );
+		}
+
+		return inverse;
+	}
+
+	protected void precondition( final double[] inverse, final double[] r, final double[] z, final boolean[] fixed )
+	{
+		final int kk = k * k;
+
+		for ( int t = 0; t < tiles.size(); ++t )
+			for ( int a = 0; a < k; ++a )
+			{
+				if ( fixed[ t ] )
+				{
+					z[ t * k + a ] = 0;
+					continue;
+				}
+
+				double sum = 0;
+
+				for ( int c = 0; c < k; ++c )
+					sum += inverse[ t * kk + a * k + c ] * r[ t * k + c ];
+
+				z[ t * k + a ] = sum;
+			}
+	}
+
+	protected double freeNorm( final double[] b, final double[] q, final boolean[] fixed )
+	{
+		double sum = 0;
+
+		for ( int i = 0; i < b.length; ++i )
+			if ( !fixed[ i / k ] )
+				sum += ( b[ i ] - q[ i ] ) * ( b[ i ] - q[ i ] );
+
+		return Math.sqrt( sum );
+	}
+
+	protected static double dot( final double[] a, final double[] b )
+	{
+		double sum = 0;
+
+		for ( int i = 0; i < a.length; ++i )
+			sum += a[ i ] * b[ i ];
+
+		return sum;
+	}
+
+	/**
+	 * Inverts a small symmetric positive (semi-)definite matrix in place using Gauss-Jordan elimination with partial pivoting.
+	 * Singular directions are set to zero.
+	 */
+	protected static void invert( final double[] a, final int k )
+	{
+		final double[] inv = new double[ k * k ];
+
+		for ( int r = 0; r < k; ++r )
+			inv[ r * k + r ] = 1;
+
+		for ( int c = 0; c < k; ++c )
+		{
+			int pivot = c;
+
+			for ( int r = c + 1; r < k; ++r )
+				if ( Math.abs( a[ r * k + c ] ) > Math.abs( a[ pivot * k + c ] ) )
+					pivot = r;
+
+			if ( Math.abs( a[ pivot * k + c ] ) < 1e-300 )
+				continue;
+
+			if ( pivot != c )
+				for ( int e = 0; e < k; ++e )
+				{
+					double tmp = a[ c * k + e ]; a[ c * k + e ] = a[ pivot * k + e ]; a[ pivot * k + e ] = tmp;
+					tmp = inv[ c * k + e ]; inv[ c * k + e ] = inv[ pivot * k + e ]; inv[ pivot * k + e ] = tmp;
+				}
+
+			final double s = 1.0 / a[ c * k + c ];
+
+			for ( int e = 0; e < k; ++e )
+			{
+				a[ c * k + e ] *= s;
+				inv[ c * k + e ] *= s;
+			}
+
+			for ( int r = 0; r < k; ++r )
+			{
+				if ( r == c )
+					continue;
+
+				final double f = a[ r * k + c ];
+
+				if ( f == 0 )
+					continue;
+
+				for ( int e = 0; e < k; ++e )
+				{
+					a[ r * k + e ] -= f * a[ c * k + e ];
+					inv[ r * k + e ] -= f * inv[ c * k + e ];
+				}
+			}
+		}
+
+		System.arraycopy( inv, 0, a, 0, k * k );
+	}
+}
@@ -0,0 +1,63 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise;
+
+import java.util.List;
+
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+
+/**
+ * A {@link MatcherPairwise} that splits the matching into a preprocessing step that only depends on one view
+ * (e.g. building the nearest neighbor trees and local descriptors) and the actual matching of two preprocessed
+ * views. This way the preprocessing is computed only once per view and shared between all pairs it is part of.
+ * 
+ * The preprocessed views are used by several matching tasks in parallel, so they must be treated as read-only.
+ *
+ * @param <I> - the type of interest point
+ * @param <D> - the preprocessed representation of one view
+ */
+public interface CachingMatcherPairwise< I extends InterestPoint, D > extends MatcherPairwise< I >
+{
+	/**
+	 * @param list - the interest points of one view (or group)
+	 * @return the preprocessed representation of the view
+	 */
+	public D preprocess( final List< I > list );
+
+	/**
+	 * Computes a pairwise matching between two preprocessed lists of interestpoints.
+	 * 
+	 * @param listA - interest point list A
+	 * @param preprocessedA - the result of {@link #preprocess(List)} for list A
+	 * @param listB - interest point list B
+	 * @param preprocessedB - the result of {@link #preprocess(List)} for list B
+	 * @return matched pairwise results
+	 */
+	public PairwiseResult< I > match( final List< I > listA, final D preprocessedA, final List< I > listB, final D preprocessedB );
+
+	@Override
+	public default PairwiseResult< I > match( final List< I > listA, final List< I > listB )
+	{
+		return match( listA, preprocess( listA ), listB, preprocess( listB ) );
+	}
+}
@@ -26,15 +26,19 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.io.IOFunctions;
 import mpicbg.spim.mpicbg.PointMatchGeneric;
+import net.imglib2.RealInterval;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.preibisch.mvrecon.Threads;
@@ -44,9 +48,41 @@ import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.GroupedInterestPoint;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.OverlapDetection;
 
 public class MatcherPairwiseTools
 {
+	// compute the per-view preprocessing of a CachingMatcherPairwise only once and share it between all pairs
+	public static boolean defaultCacheViewDescriptors = true;
+
+	// how far (in global coordinates) points outside the overlap of a pair are still used for matching
+	public static double defaultOverlapPadding = 20.0;
+
+	/**
+	 * @param points - interest points (in the global coordinate space of the interval)
+	 * @param interval - e.g. the overlap of two views, see {@link OverlapDetection#getOverlapInterval(Object, Object)}
+	 * @param padding - how much to extend the interval in each direction
+	 * @return all points whose location is inside the padded interval
+	 */
+	public static < I extends InterestPoint > ArrayList< I > pointsInInterval( final List< I > points, final RealInterval interval, final double padding )
+	{
+		final ArrayList< I > inside = new ArrayList<>();
+		final int n = interval.numDimensions();
+
+		A: for ( final I p : points )
+		{
+			final double[] l = p.getL();
+
+			for ( int d = 0; d < n; ++d )
+				if ( l[ d ] < interval.realMin( d ) - padding || l[ d ] > interval.realMax( d ) + padding )
+					continue A;
+
+			inside.add( p );
+		}
+
+		return inside;
+	}
+
 	public static < V > HashSet< V > allViews( final Group< ? extends V > a, final Group< ? extends V > b )
 	{
 		final HashSet< V > all = new HashSet<>();
@@ -69,6 +105,42 @@ public class MatcherPairwiseTools
 		return clearCorrespondences( map );
 	}
 
+	/**
+	 * Clears the correspondences of the new views only, all other views keep their stored correspondences except the ones to any of
+	 * the new views (for incremental registration).
+	 *
+	 * @param viewIds - all views of the subset
+	 * @param interestpoints - the interest point lists
+	 * @param labelMap - the label per view
+	 * @param keptViews - views whose correspondences are kept
+	 * @param <V> - view id type
+	 * @return map from view to its (now current) correspondence list
+	 */
+	public static < V extends ViewId > Map< V, List< CorrespondingInterestPoints > > clearCorrespondences(
+			final Collection< V > viewIds,
+			final Map< V, ViewInterestPointLists > interestpoints,
+			final Map< V, String > labelMap,
+			final Set< ? extends ViewId > keptViews )
+	{
+		final Map< V, List< CorrespondingInterestPoints > > cMap = new HashMap<>();
+
+		for ( final V viewId : viewIds )
+		{
+			final InterestPointList list = interestpoints.get( viewId ).getInterestPointList( labelMap.get( viewId ) );
+			final ArrayList< CorrespondingInterestPoints > cList = new ArrayList<>();
+
+			if ( keptViews.contains( viewId ) )
+				for ( final CorrespondingInterestPoints c : list.getCorrespondingInterestPointsCopy() )
+					if ( keptViews.contains( c.getCorrespondingViewId() ) || !viewIds.contains( c.getCorrespondingViewId() ) )
+						cList.add( c );
+
+			list.setCorrespondingInterestPoints( cList );
+			cMap.put( viewId, cList );
+		}
+
+		return cMap;
+	}
+
 	public static < V extends ViewId > Map< V, List< CorrespondingInterestPoints > > clearCorrespondences( final Map< V, ? extends InterestPointList > map )
 	{
 		final Map< V, List< CorrespondingInterestPoints > > cMap = new HashMap<>();
@@ -240,12 +312,24 @@ public class MatcherPairwiseTools
 		return computePairs( pairs, interestpoints, matcher, null );
 	}
 
+	/**
+	 * Matches all pairs, but only uses the interest points of each view that lie within the (padded) overlap of the pair.
+	 * Since the points of a view differ for each pair, the per-view preprocessing of a {@link CachingMatcherPairwise} is not shared.
+	 *
+	 * @param overlapDetection - computes the overlap of a pair in the same coordinate space as the interest points, if null all points are used
+	 * @param padding - by how much the overlap is extended in each direction
+	 */
 	public static < V, I extends InterestPoint > List< Pair< Pair< V, V >, PairwiseResult< I > > > computePairs(
 			final List< Pair< V, V > > pairs,
 			final Map< V, ? extends List< I > > interestpoints,
 			final MatcherPairwise< I > matcher,
+			final OverlapDetection< V > overlapDetection,
+			final double padding,
 			final ExecutorService exec )
 	{
+		if ( overlapDetection == null )
+			return computePairs( pairs, interestpoints, matcher, exec );
+
 		final ExecutorService taskExecutor;
 		
 		if ( exec == null )
@@ -253,6 +337,106 @@ public class MatcherPairwiseTools
 		else
 			taskExecutor = exec;
 
+		final ArrayList< Callable< PairwiseResult< I > > > tasks = new ArrayList<>();
+
+		for ( final Pair< V, V > pair : pairs )
+		{
+			final RealInterval overlap = overlapDetection.getOverlapInterval( pair.getA(), pair.getB() );
+
+			final List< I > inA, inB;
+
+			// overlap unknown, use all points
+			if ( overlap == null )
+			{
+				inA = interestpoints.get( pair.getA() );
+				inB = interestpoints.get( pair.getB() );
+			}
+			else
+			{
+				inA = pointsInInterval( interestpoints.get( pair.getA() ), overlap, padding );
+				inB = pointsInInterval( interestpoints.get( pair.getB() ), overlap, padding );
+			}
+
+			final String restricted =
+					"using " + inA.size() + "/" + interestpoints.get( pair.getA() ).size() + " and " +
+					inB.size() + "/" + interestpoints.get( pair.getB() ).size() + " interest points inside the overlap";
+
+			final List< I > listA, listB;
+
+			if ( matcher.requiresInterestPointDuplication() )
+			{
+				listA = new ArrayList<>();
+				listB = new ArrayList<>();
+
+				for ( final I ip : inA )
+					listA.add( (I)ip.clone() );
+
+				for ( final I ip : inB )
+					listB.add( (I)ip.clone() );
+			}
+			else
+			{
+				listA = inA;
+				listB = inB;
+			}
+
+			tasks.add( new Callable< PairwiseResult< I > >()
+			{
+				@Override
+				public PairwiseResult< I > call() throws Exception
+				{
+					final PairwiseResult< I > pwr = matcher.match( listA, listB );
+					assignLoggingDescriptions( pair, pwr );
+					IOFunctions.println( pwr.getDescription() + ": " + restricted );
+					return pwr;
+				}
+			});
+		}
+
+		final List< Pair< Pair< V, V >, PairwiseResult< I > > > r = new ArrayList<>();
+
+		try
+		{
+			final List< Future< PairwiseResult< I > > > futures = taskExecutor.invokeAll( tasks );
+
+			for ( int i = 0; i < pairs.size(); ++i )
+				r.add( new ValuePair< Pair< V, V >, PairwiseResult< I > >( pairs.get( i ), futures.get( i ).get() ) );
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( e );
+		}
+
+		if ( exec == null )
+			taskExecutor.shutdown();
+
+		return r;
+	}
+
+	public static < V, I extends InterestPoint > List< Pair< Pair< V, V >, PairwiseResult< I > > > computePairs(
+			final List< Pair< V, V > > pairs,
+			final Map< V, ? extends List< I > > interestpoints,
+			final MatcherPairwise< I > matcher,
+			final ExecutorService exec )
+	{
+		final ExecutorService taskExecutor;
+		
+		if ( exec == null )
+			taskExecutor = Executors.newFixedThreadPool( Threads.numThreads() );
+		else
+			taskExecutor = exec;
+
+		if ( defaultCacheViewDescriptors && CachingMatcherPairwise.class.isInstance( matcher ) )
+		{
+			final List< Pair< Pair< V, V >, PairwiseResult< I > > > r =
+					computePairsCached( pairs, interestpoints, (CachingMatcherPairwise< I, ? >)matcher, taskExecutor );
+
+			if ( exec == null )
+				taskExecutor.shutdown();
+
+			return r;
+		}
+
 		final ArrayList< Callable< PairwiseResult< I > > > tasks = new ArrayList<>(); // your tasks
 
 		for ( final Pair< V, V > pair : pairs )
@@ -313,4 +497,102 @@ public class MatcherPairwiseTools
 		// TODO:
 		return r;
 	}
+
+	/*
+	 * Preprocesses every view that is part of a pair once (in parallel) and then matches all pairs
+	 * using the shared, read-only preprocessed views
+	 */
+	protected static < V, I extends InterestPoint, D > List< Pair< Pair< V, V >, PairwiseResult< I > > > computePairsCached(
+			final List< Pair< V, V > > pairs,
+			final Map< V, ? extends List< I > > interestpoints,
+			final CachingMatcherPairwise< I, D > matcher,
+			final ExecutorService taskExecutor )
+	{
+		final LinkedHashSet< V > views = new LinkedHashSet<>();
+
+		for ( final Pair< V, V > pair : pairs )
+		{
+			views.add( pair.getA() );
+			views.add( pair.getB() );
+		}
+
+		final ArrayList< V > viewList = new ArrayList<>( views );
+		final ArrayList< Callable< Pair< List< I >, D > > > preprocessTasks = new ArrayList<>();
+
+		for ( final V view : viewList )
+		{
+			preprocessTasks.add( new Callable< Pair< List< I >, D > >()
+			{
+				@Override
+				public Pair< List< I >, D > call() throws Exception
+				{
+					final List< I > list;
+
+					// all pairs of this view share the same copy, the matcher only reads from it
+					if ( matcher.requiresInterestPointDuplication() )
+					{
+						list = new ArrayList<>();
+
+						for ( final I ip : interestpoints.get( view ) )
+							list.add( (I)ip.clone() );
+					}
+					else
+					{
+						list = interestpoints.get( view );
+					}
+
+					return new ValuePair<>( list, matcher.preprocess( list ) );
+				}
+			});
+		}
+
+		final HashMap< V, Pair< List< I >, D > > preprocessed = new HashMap<>();
+
+		try
+		{
+			final List< Future< Pair< List< I >, D > > > futures = taskExecutor.invokeAll( preprocessTasks );
+
+			for ( int i = 0; i < viewList.size(); ++i )
+				preprocessed.put( viewList.get( i ), futures.get( i ).get() );
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( e );
+		}
+
+		final ArrayList< Callable< PairwiseResult< I > > > tasks = new ArrayList<>();
+
+		for ( final Pair< V, V > pair : pairs )
+		{
+			final Pair< List< I >, D > a = preprocessed.get( pair.getA() );
+			final Pair< List< I >, D > b = preprocessed.get( pair.getB() );
+
+			tasks.add( new Callable< PairwiseResult< I > >()
+			{
+				@Override
+				public PairwiseResult< I > call() throws Exception
+				{
+					final PairwiseResult< I > pwr = matcher.match( a.getA(), a.getB(), b.getA(), b.getB() );
+					assignLoggingDescriptions( pair, pwr );
+					return pwr;
+				}
+			});
+		}
+
+		final List< Pair< Pair< V, V >, PairwiseResult< I > > > r = new ArrayList<>();
+
+		try
+		{
+			final List< Future< PairwiseResult< I > > > futures = taskExecutor.invokeAll( tasks );
+
+			for ( int i = 0; i < pairs.size(); ++i )
+				r.add( new ValuePair< Pair< V, V >, PairwiseResult< I > >( pairs.get( i ), futures.get( i ).get() ) );
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( e );
+		}
+
+		return r;
+	}
 }
@@ -70,5 +70,6 @@ public class PairwiseResult< I extends InterestPoint >
 		this.error = error;
 	}
 
+	public String getResult() { return result; }
 	public String getFullDesc() { return "(" + new Date( time ) + "): " + desc + ": " + result; }
 }
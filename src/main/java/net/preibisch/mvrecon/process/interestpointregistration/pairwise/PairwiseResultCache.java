@@ -0,0 +1,294 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.io.IOFunctions;
+import mpicbg.spim.mpicbg.PointMatchGeneric;
+import net.imglib2.util.Pair;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
+
+/**
+ * Persists the inliers and candidates of pairwise matchings so that a registration with different global optimization
+ * settings does not need to match again.
+ * 
+ * One little-endian binary file per pair, named by a hash of: both views, their labels, the fingerprints of their
+ * interest point files (path, size, modification date), their current transformations and the matcher parameters.
+ * Any change of those results in a different file, so stale entries are never read.
+ * 
+ * File layout: magic, version, error (double), number of inliers, number of candidates, length of the result string,
+ * followed by (idA, idB) per inlier and per candidate and the UTF-8 result string.
+ */
+public class PairwiseResultCache
+{
+	public static final int MAGIC = 0x314d5042; // "BPM1"
+	public static final int VERSION = 1;
+	public static final String EXT = ".pm.bin";
+
+	final File directory;
+	final String matcherFingerprint;
+
+	// computed once when the cache is created, the transformations change during the registration
+	final HashMap< ViewId, String > viewFingerprints;
+
+	/**
+	 * @param directory - where the cached results are stored
+	 * @param matcherFingerprint - describes the matcher and all of its parameters (including everything else that changes the result, e.g. restricting to the overlap)
+	 * @param views - all views that might be matched
+	 * @param registrations - the current registrations (the interest points are transformed with them)
+	 * @param interestpointLists - the interest point lists
+	 * @param labelMap - the label per view
+	 */
+	public PairwiseResultCache(
+			final File directory,
+			final String matcherFingerprint,
+			final Collection< ? extends ViewId > views,
+			final Map< ViewId, ViewRegistration > registrations,
+			final Map< ViewId, ViewInterestPointLists > interestpointLists,
+			final Map< ViewId, String > labelMap )
+	{
+		this.directory = directory;
+		this.matcherFingerprint = matcherFingerprint;
+		this.viewFingerprints = new HashMap<>();
+
+		for ( final ViewId viewId : views )
+		{
+			final String label = labelMap.get( viewId );
+			final InterestPointList list = interestpointLists.get( viewId ).getInterestPointList( label );
+			final File file = interestPointFile( list );
+
+			// points that only exist in memory cannot be identified
+			if ( file == null || list.hasModifiedInterestPoints() )
+				continue;
+
+			final ViewRegistration vr = registrations.get( viewId );
+			vr.updateModel();
+
+			final StringBuilder fingerprint = new StringBuilder();
+			fingerprint.append( viewId.getTimePointId() ).append( ',' ).append( viewId.getViewSetupId() ).append( ',' ).append( label );
+			fingerprint.append( ',' ).append( file.getAbsolutePath() ).append( ',' ).append( file.length() ).append( ',' ).append( file.lastModified() );
+
+			for ( final double m : vr.getModel().getRowPackedCopy() )
+				fingerprint.append( ',' ).append( Double.doubleToLongBits( m ) );
+
+			viewFingerprints.put( viewId, fingerprint.toString() );
+		}
+	}
+
+	/**
+	 * @param pair - the pair of views
+	 * @param interestpoints - the transformed interest points per view that the result should refer to
+	 * @return the cached result or null if there is none (or it cannot be used)
+	 */
+	public PairwiseResult< InterestPoint > load( final Pair< ViewId, ViewId > pair, final Map< ViewId, List< InterestPoint > > interestpoints )
+	{
+		final File file = file( pair );
+
+		if ( file == null || !file.exists() )
+			return null;
+
+		try
+		{
+			final ByteBuffer buffer = ByteBuffer.wrap( Files.readAllBytes( file.toPath() ) ).order( ByteOrder.LITTLE_ENDIAN );
+
+			if ( buffer.getInt() != MAGIC || buffer.getInt() != VERSION )
+				return null;
+
+			final double error = buffer.getDouble();
+			final int numInliers = buffer.getInt();
+			final int numCandidates = buffer.getInt();
+			final int resultLength = buffer.getInt();
+
+			final HashMap< Integer, InterestPoint > mapA = byId( interestpoints.get( pair.getA() ) );
+			final HashMap< Integer, InterestPoint > mapB = byId( interestpoints.get( pair.getB() ) );
+
+			final ArrayList< PointMatchGeneric< InterestPoint > > inliers = readMatches( buffer, numInliers, mapA, mapB );
+			final ArrayList< PointMatchGeneric< InterestPoint > > candidates = readMatches( buffer, numCandidates, mapA, mapB );
+
+			if ( inliers == null || candidates == null )
+				return null;
+
+			final byte[] result = new byte[ resultLength ];
+			buffer.get( result );
+
+			final PairwiseResult< InterestPoint > pwr = new PairwiseResult<>( true );
+			pwr.setCandidates( candidates );
+			pwr.setInliers( inliers, error );
+			pwr.setResult( System.currentTimeMillis(), new String( result, StandardCharsets.UTF_8 ) + " (cached)" );
+			MatcherPairwiseTools.assignLoggingDescriptions( pair, pwr );
+
+			return pwr;
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			IOFunctions.println( "Could not read cached pairwise result '" + file + "': " + e );
+			return null;
+		}
+	}
+
+	/**
+	 * @param pair - the pair of views
+	 * @param result - the result to store
+	 * @return true if it was stored
+	 */
+	public boolean store( final Pair< ViewId, ViewId > pair, final PairwiseResult< ? extends InterestPoint > result )
+	{
+		final File file = file( pair );
+
+		if ( file == null || result.getInliers() == null || result.getCandidates() == null )
+			return false;
+
+		final byte[] resultString = result.getResult().getBytes( StandardCharsets.UTF_8 );
+
+		final ByteBuffer buffer = ByteBuffer.allocate(
+				28 + ( result.getInliers().size() + result.getCandidates().size() ) * 8 + resultString.length ).order( ByteOrder.LITTLE_ENDIAN );
+
+		buffer.putInt( MAGIC );
+		buffer.putInt( VERSION );
+		buffer.putDouble( result.getError() );
+		buffer.putInt( result.getInliers().size() );
+		buffer.putInt( result.getCandidates().size() );
+		buffer.putInt( resultString.length );
+
+		for ( final PointMatchGeneric< ? extends InterestPoint > pm : result.getInliers() )
+		{
+			buffer.putInt( pm.getPoint1().getId() );
+			buffer.putInt( pm.getPoint2().getId() );
+		}
+
+		for ( final PointMatchGeneric< ? extends InterestPoint > pm : result.getCandidates() )
+		{
+			buffer.putInt( pm.getPoint1().getId() );
+			buffer.putInt( pm.getPoint2().getId() );
+		}
+
+		buffer.put( resultString );
+
+		try
+		{
+			if ( !directory.exists() )
+				directory.mkdirs();
+
+			Files.write( file.toPath(), buffer.array() );
+
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			IOFunctions.println( "Could not write cached pairwise result '" + file + "': " + e );
+			return false;
+		}
+	}
+
+	/**
+	 * @param pair - the pair of views
+	 * @return the file of this pair or null if one of the views cannot be cached
+	 */
+	public File file( final Pair< ViewId, ViewId > pair )
+	{
+		final String fingerprintA = viewFingerprints.get( pair.getA() );
+		final String fingerprintB = viewFingerprints.get( pair.getB() );
+
+		if ( fingerprintA == null || fingerprintB == null )
+			return null;
+
+		return new File( directory, hash( fingerprintA + ";" + fingerprintB + ";" + matcherFingerprint ) + EXT );
+	}
+
+	protected static ArrayList< PointMatchGeneric< InterestPoint > > readMatches(
+			final ByteBuffer buffer,
+			final int n,
+			final HashMap< Integer, InterestPoint > mapA,
+			final HashMap< Integer, InterestPoint > mapB )
+	{
+		final ArrayList< PointMatchGeneric< InterestPoint > > matches = new ArrayList<>( n );
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final InterestPoint a = mapA.get( buffer.getInt() );
+			final InterestPoint b = mapB.get( buffer.getInt() );
+
+			if ( a == null || b == null )
+				return null;
+
+			matches.add( new PointMatchGeneric<>( a, b ) );
+		}
+
+		return matches;
+	}
+
+	protected static HashMap< Integer, InterestPoint > byId( final List< InterestPoint > points )
+	{
+		final HashMap< Integer, InterestPoint > map = new HashMap<>();
+
+		if ( points != null )
+			for ( final InterestPoint p : points )
+				map.put( p.getId(), p );
+
+		return map;
+	}
+
+	protected static File interestPointFile( final InterestPointList list )
+	{
+		if ( list == null )
+			return null;
+
+		// the file of the format the list is actually stored in, never a leftover of the other format
+		return list.getStoredInterestPointsFile();
+	}
+
+	protected static String hash( final String s )
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( s.getBytes( StandardCharsets.UTF_8 ) );
+			final StringBuilder hex = new StringBuilder();
+
+			for ( final byte b : digest )
+				hex.append( String.format( "%02x", b ) );
+
+			return hex.toString();
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise;
+
+import java.util.ArrayList;
+
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.DescriptorStore;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.ImplicitKDTree;
+
+/**
+ * The local descriptors of one view together with the lookup tree over the descriptors,
+ * computed once per view by a {@link CachingMatcherPairwise}. The descriptors are kept as
+ * flat primitive arrays, {@link DescriptorStore#getBasisIndex(int)} is the index into {@link #getPoints()}.
+ *
+ * @param <I> - the type of interest point
+ */
+public class ViewDescriptors< I >
+{
+	final ArrayList< I > points;
+	final DescriptorStore descriptors;
+	final ImplicitKDTree lookUpTree;
+
+	public ViewDescriptors( final ArrayList< I > points, final DescriptorStore descriptors, final ImplicitKDTree lookUpTree )
+	{
+		this.points = points;
+		this.descriptors = descriptors;
+		this.lookUpTree = lookUpTree;
+	}
+
+	/**
+	 * @return the interest points the descriptors were built from
+	 */
+	public ArrayList< I > getPoints() { return points; }
+
+	/**
+	 * @return the descriptors or null if there were not enough points
+	 */
+	public DescriptorStore getDescriptors() { return descriptors; }
+
+	/**
+	 * @return an {@link ImplicitKDTree} over the descriptors or null if it is not used (or there are too few descriptors)
+	 */
+	public ImplicitKDTree getLookUpTree() { return lookUpTree; }
+
+	/**
+	 * @param i - index of a descriptor
+	 * @return the basis point of descriptor i
+	 */
+	public I getBasisPoint( final int i ) { return points.get( descriptors.getBasisIndex( i ) ); }
+}
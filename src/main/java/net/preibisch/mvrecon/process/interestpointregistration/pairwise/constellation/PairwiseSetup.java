@@ -26,7 +26,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -274,16 +276,53 @@ public abstract class PairwiseSetup< V extends Comparable< V > >
 			final OverlapDetection< V > ovlp )
 	{
 		final ArrayList< Pair< V, V > > removed = new ArrayList<>();
+		final ArrayList< Pair< V, V > > kept = new ArrayList<>();
 
-		for ( int i = pairs.size() - 1; i >= 0; --i )
+		if ( ovlp.supportsPairSearch() )
 		{
-			final Pair< V, V > pair = pairs.get( i );
+			// find all overlapping pairs of the involved views at once
+			final LinkedHashSet< V > views = new LinkedHashSet<>();
+
+			for ( final Pair< V, V > pair : pairs )
+			{
+				views.add( pair.getA() );
+				views.add( pair.getB() );
+			}
+
+			final HashMap< V, HashSet< V > > overlapping = new HashMap<>();
 
-			if ( !ovlp.overlaps( pair.getA(), pair.getB() ) )
+			for ( final Pair< V, V > pair : ovlp.overlappingPairs( new ArrayList<>( views ) ) )
 			{
-				pairs.remove( i );
-				removed.add( pair );
+				overlapping.computeIfAbsent( pair.getA(), v -> new HashSet<>() ).add( pair.getB() );
+				overlapping.computeIfAbsent( pair.getB(), v -> new HashSet<>() ).add( pair.getA() );
 			}
+
+			for ( final Pair< V, V > pair : pairs )
+			{
+				final HashSet< V > set = overlapping.get( pair.getA() );
+
+				if ( set != null && set.contains( pair.getB() ) )
+					kept.add( pair );
+				else
+					removed.add( pair );
+			}
+		}
+		else
+		{
+			for ( final Pair< V, V > pair : pairs )
+			{
+				if ( ovlp.overlaps( pair.getA(), pair.getB() ) )
+					kept.add( pair );
+				else
+					removed.add( pair );
+			}
+		}
+
+		// rebuild the list once instead of removing pairs one by one
+		if ( removed.size() > 0 )
+		{
+			pairs.clear();
+			pairs.addAll( kept );
 		}
 
 		return removed;
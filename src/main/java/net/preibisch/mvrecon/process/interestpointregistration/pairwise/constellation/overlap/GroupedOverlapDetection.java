@@ -0,0 +1,93 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap;
+
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+/**
+ * Overlap of two groups of views: they overlap if any view of the first group overlaps
+ * with any view of the second group, the overlap interval is the bounding box of all these overlaps.
+ *
+ * @param <V> - the view type
+ */
+public class GroupedOverlapDetection< V > implements OverlapDetection< Group< V > >
+{
+	final OverlapDetection< V > overlapDetection;
+
+	public GroupedOverlapDetection( final OverlapDetection< V > overlapDetection )
+	{
+		this.overlapDetection = overlapDetection;
+	}
+
+	@Override
+	public boolean overlaps( final Group< V > group1, final Group< V > group2 )
+	{
+		for ( final V view1 : group1 )
+			for ( final V view2 : group2 )
+				if ( overlapDetection.overlaps( view1, view2 ) )
+					return true;
+
+		return false;
+	}
+
+	@Override
+	public RealInterval getOverlapInterval( final Group< V > group1, final Group< V > group2 )
+	{
+		double[] min = null, max = null;
+
+		for ( final V view1 : group1 )
+			for ( final V view2 : group2 )
+			{
+				if ( !overlapDetection.overlaps( view1, view2 ) )
+					continue;
+
+				final RealInterval overlap = overlapDetection.getOverlapInterval( view1, view2 );
+
+				if ( overlap == null )
+					continue;
+
+				if ( min == null )
+				{
+					min = new double[ overlap.numDimensions() ];
+					max = new double[ overlap.numDimensions() ];
+					overlap.realMin( min );
+					overlap.realMax( max );
+				}
+				else
+				{
+					for ( int d = 0; d < min.length; ++d )
+					{
+						min[ d ] = Math.min( min[ d ], overlap.realMin( d ) );
+						max[ d ] = Math.max( max[ d ], overlap.realMax( d ) );
+					}
+				}
+			}
+
+		if ( min == null )
+			return null;
+		else
+			return new FinalRealInterval( min, max );
+	}
+}
@@ -22,10 +22,36 @@
  */
 package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.imglib2.RealInterval;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
 
 public interface OverlapDetection< V >
 {
 	public boolean overlaps( final V view1, final V view2 );
 	public RealInterval getOverlapInterval( final V view1, final V view2 );
+
+	/**
+	 * @return true if {@link #overlappingPairs(List)} is faster than testing all pairs individually
+	 */
+	public default boolean supportsPairSearch() { return false; }
+
+	/**
+	 * @param views - the views to test
+	 * @return all pairs of views that overlap, by default by testing all pairs
+	 */
+	public default List< Pair< V, V > > overlappingPairs( final List< ? extends V > views )
+	{
+		final ArrayList< Pair< V, V > > pairs = new ArrayList<>();
+
+		for ( int a = 0; a < views.size() - 1; ++a )
+			for ( int b = a + 1; b < views.size(); ++b )
+				if ( overlaps( views.get( a ), views.get( b ) ) )
+					pairs.add( new ValuePair< V, V >( views.get( a ), views.get( b ) ) );
+
+		return pairs;
+	}
 }
@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import mpicbg.spim.data.generic.AbstractSpimData;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.RealInterval;
+import net.imglib2.util.Pair;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
+
+/**
+ * Same as {@link SimpleBoundingBoxOverlap}, but the transformed bounding box of each view is only computed once
+ * and then kept in a table. Overlapping pairs of many views are found using {@link SweepAndPrune}.
+ *
+ * Note: the boxes reflect the {@link ViewRegistrations} at the time they are first requested,
+ * create a new instance if the registrations change.
+ */
+public class PrecomputedBoundingBoxOverlap< V extends ViewId > extends SimpleBoundingBoxOverlap< V >
+{
+	final ConcurrentHashMap< V, BoundingBox > boxes = new ConcurrentHashMap<>();
+	final ConcurrentHashMap< V, RealInterval > realBoxes = new ConcurrentHashMap<>();
+
+	public PrecomputedBoundingBoxOverlap( final AbstractSpimData< ? extends AbstractSequenceDescription< ? extends BasicViewSetup, ?, ? > > spimData )
+	{
+		super( spimData );
+	}
+
+	public PrecomputedBoundingBoxOverlap( final SequenceDescription sd, final ViewRegistrations vrs )
+	{
+		super( sd, vrs );
+	}
+
+	@Override
+	protected BoundingBox boundingBox( final V view )
+	{
+		return boxes.computeIfAbsent( view, v -> getBoundingBox( v, vss, vrs ) );
+	}
+
+	@Override
+	protected RealInterval boundingBoxReal( final V view )
+	{
+		return realBoxes.computeIfAbsent( view, v -> getBoundingBoxReal( v, vss, vrs ) );
+	}
+
+	@Override
+	public boolean supportsPairSearch() { return true; }
+
+	@Override
+	public List< Pair< V, V > > overlappingPairs( final List< ? extends V > views )
+	{
+		final double[][] min = new double[ views.size() ][];
+		final double[][] max = new double[ views.size() ][];
+
+		for ( int i = 0; i < views.size(); ++i )
+		{
+			final BoundingBox bb = boundingBox( views.get( i ) );
+
+			if ( bb == null )
+				throw new RuntimeException( "view " + views.get( i ).getTimePointId() + "/" + views.get( i ).getViewSetupId() + " has no image size" );
+
+			min[ i ] = new double[ bb.numDimensions() ];
+			max[ i ] = new double[ bb.numDimensions() ];
+
+			for ( int d = 0; d < bb.numDimensions(); ++d )
+			{
+				min[ i ][ d ] = bb.getMin()[ d ];
+				max[ i ][ d ] = bb.getMax()[ d ];
+			}
+		}
+
+		return SweepAndPrune.overlappingPairs( views, min, max );
+	}
+
+	/**
+	 * @return the table of bounding boxes computed so far
+	 */
+	public Map< V, BoundingBox > getBoundingBoxTable() { return boxes; }
+}
@@ -54,11 +54,21 @@ public class SimpleBoundingBoxOverlap< V extends ViewId > implements OverlapDete
 		this.vrs = vrs;
 	}
 
+	/**
+	 * @return the (rounded, enlarged by one pixel) bounding box of the transformed view, null if the size is unknown
+	 */
+	protected BoundingBox boundingBox( final V view ) { return getBoundingBox( view, vss, vrs ); }
+
+	/**
+	 * @return the real bounding box of the transformed view, null if the size is unknown
+	 */
+	protected RealInterval boundingBoxReal( final V view ) { return getBoundingBoxReal( view, vss, vrs ); }
+
 	@Override
 	public boolean overlaps( final V view1, final V view2 )
 	{
-		final BoundingBox bb1 = getBoundingBox( view1, vss, vrs );
-		final BoundingBox bb2 = getBoundingBox( view2, vss, vrs );
+		final BoundingBox bb1 = boundingBox( view1 );
+		final BoundingBox bb2 = boundingBox( view2 );
 
 		if ( bb1 == null )
 			throw new RuntimeException( "view1 has no image size" );
@@ -72,8 +82,8 @@ public class SimpleBoundingBoxOverlap< V extends ViewId > implements OverlapDete
 	@Override
 	public RealInterval getOverlapInterval( final V view1, final V view2 )
 	{
-		final RealInterval bb1 = getBoundingBoxReal( view1, vss, vrs );
-		final RealInterval bb2 = getBoundingBoxReal( view2, vss, vrs );
+		final RealInterval bb1 = boundingBoxReal( view1 );
+		final RealInterval bb2 = boundingBoxReal( view2 );
 
 		if ( bb1 == null )
 			throw new RuntimeException( "view1 has no image size" );
@@ -84,7 +94,7 @@ public class SimpleBoundingBoxOverlap< V extends ViewId > implements OverlapDete
 		double[] min = new double[ bb1.numDimensions() ];
 		double[] max = new double[ bb1.numDimensions() ];
 
-		if ( overlaps( getBoundingBox( view1, vss, vrs ), getBoundingBox( view2, vss, vrs ) ) )
+		if ( overlaps( boundingBox( view1 ), boundingBox( view2 ) ) )
 		{
 			for ( int d = 0; d < bb1.numDimensions(); ++d )
 			{
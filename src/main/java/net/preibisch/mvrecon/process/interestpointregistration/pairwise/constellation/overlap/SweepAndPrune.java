@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+
+/**
+ * Finds all pairs of overlapping axis-aligned boxes in O(N log N + K) (for well-distributed boxes)
+ * by sorting them along one axis and sweeping over them while keeping a list of active boxes.
+ */
+public class SweepAndPrune
+{
+	/**
+	 * Two boxes overlap if min1 &lt;= max2 and min2 &lt;= max1 in all dimensions (touching boxes overlap)
+	 *
+	 * @param objects - the objects the boxes belong to
+	 * @param min - min[ i ] is the minimum of the box of objects.get( i )
+	 * @param max - max[ i ] is the maximum of the box of objects.get( i )
+	 * @param <V> - object type
+	 * @return all pairs of overlapping boxes, the first object of each pair has the smaller index
+	 */
+	public static < V > List< Pair< V, V > > overlappingPairs(
+			final List< ? extends V > objects,
+			final double[][] min,
+			final double[][] max )
+	{
+		final ArrayList< Pair< V, V > > pairs = new ArrayList<>();
+		final int numObjects = objects.size();
+
+		if ( numObjects < 2 )
+			return pairs;
+
+		final int n = min[ 0 ].length;
+		final int axis = sweepAxis( min, max );
+
+		final Integer[] order = new Integer[ numObjects ];
+		for ( int i = 0; i < numObjects; ++i )
+			order[ i ] = i;
+
+		Arrays.sort( order, new Comparator< Integer >()
+		{
+			@Override
+			public int compare( final Integer o1, final Integer o2 ) { return Double.compare( min[ o1 ][ axis ], min[ o2 ][ axis ] ); }
+		} );
+
+		// boxes whose extent along the sweep axis may still overlap with the following ones
+		int[] active = new int[ 16 ];
+		int numActive = 0;
+
+		for ( final int i : order )
+		{
+			int kept = 0;
+
+			for ( int k = 0; k < numActive; ++k )
+			{
+				final int j = active[ k ];
+
+				// prune, since all following boxes start even later
+				if ( max[ j ][ axis ] < min[ i ][ axis ] )
+					continue;
+
+				active[ kept++ ] = j;
+
+				boolean overlaps = true;
+
+				for ( int d = 0; d < n && overlaps; ++d )
+					if ( d != axis && ( max[ i ][ d ] < min[ j ][ d ] || max[ j ][ d ] < min[ i ][ d ] ) )
+						overlaps = false;
+
+				if ( overlaps )
+				{
+					if ( i < j )
+						pairs.add( new ValuePair< V, V >( objects.get( i ), objects.get( j ) ) );
+					else
+						pairs.add( new ValuePair< V, V >( objects.get( j ), objects.get( i ) ) );
+				}
+			}
+
+			numActive = kept;
+
+			if ( numActive == active.length )
+				active = Arrays.copyOf( active, active.length * 2 );
+
+			active[ numActive++ ] = i;
+		}
+
+		return pairs;
+	}
+
+	/**
+	 * @return the dimension along which the box centers are spread out the most relative to the box sizes
+	 */
+	protected static int sweepAxis( final double[][] min, final double[][] max )
+	{
+		int axis = 0;
+		double best = -1;
+
+		for ( int d = 0; d < min[ 0 ].length; ++d )
+		{
+			double minCenter = Double.MAX_VALUE, maxCenter = -Double.MAX_VALUE, size = 0;
+
+			for ( int i = 0; i < min.length; ++i )
+			{
+				final double c = ( min[ i ][ d ] + max[ i ][ d ] ) / 2.0;
+				minCenter = Math.min( minCenter, c );
+				maxCenter = Math.max( maxCenter, c );
+				size += max[ i ][ d ] - min[ i ][ d ];
+			}
+
+			final double spread = ( maxCenter - minCenter ) / Math.max( 1e-10, size / min.length );
+
+			if ( spread > best )
+			{
+				best = spread;
+				axis = d;
+			}
+		}
+
+		return axis;
+	}
+}
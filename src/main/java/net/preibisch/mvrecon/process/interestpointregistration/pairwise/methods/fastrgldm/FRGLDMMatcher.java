@@ -23,7 +23,9 @@
 package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.fastrgldm;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import mpicbg.spim.mpicbg.PointMatchGeneric;
 import net.imglib2.KDTree;
@@ -32,6 +34,9 @@ import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.ViewDescriptors;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.DescriptorStore;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.ImplicitKDTree;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.TranslationInvariantLocalCoordinateSystemPointDescriptor;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.SubsetMatcher;
@@ -44,62 +49,135 @@ public class FRGLDMMatcher< I extends InterestPoint >
 			final int redundancy,
 			final double ratioOfDistance )
 	{
-		final KDTree< I > tree1 = new KDTree<>( nodeListA, nodeListA );
-		final KDTree< I > tree2 = new KDTree<>( nodeListB, nodeListB );
-
-		final ArrayList< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > descriptors1 =
-			createLocalCoordinateSystemPointDescriptors( tree1, nodeListA, redundancy );
-		
-		final ArrayList< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > descriptors2 =
-			createLocalCoordinateSystemPointDescriptors( tree2, nodeListB, redundancy );
-		
-		// create lookup tree for descriptors2
-		final KDTree< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > lookUpTree2 = new KDTree<>( descriptors2, descriptors2 );
-		final KNearestNeighborSearchOnKDTree< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > nnsearch = new KNearestNeighborSearchOnKDTree<>( lookUpTree2, 2 );
+		return extractCorrespondenceCandidates(
+				createViewDescriptors( nodeListA, redundancy ),
+				createViewDescriptors( nodeListB, redundancy ),
+				ratioOfDistance );
+	}
 
+	/**
+	 * Matches the precomputed descriptors of two views, only reads from them so they can be shared between threads
+	 */
+	public ArrayList< PointMatchGeneric< I > > extractCorrespondenceCandidates( 
+			final ViewDescriptors< I > viewA,
+			final ViewDescriptors< I > viewB,
+			final double ratioOfDistance )
+	{
 		// store the candidates for corresponding beads
 		final ArrayList< PointMatchGeneric< I > > correspondences = new ArrayList<>();
-		
+
+		if ( viewA.getDescriptors() == null || viewB.getLookUpTree() == null )
+			return correspondences;
+
+		// the search keeps state, the lookup tree for descriptors2 does not
+		final ImplicitKDTree.Search nnsearch = viewB.getLookUpTree().createSearch( 2 );
+
 		/* compute matching */
-		computeMatching( descriptors1, nnsearch, correspondences, ratioOfDistance );
+		computeMatching( viewA, viewB, nnsearch, correspondences, ratioOfDistance );
 		
 		return correspondences;
 	}
-	
+
+	/**
+	 * Computes the descriptors and the descriptor lookup tree of one view
+	 */
+	public ViewDescriptors< I > createViewDescriptors( final ArrayList< I > nodeList, final int redundancy )
+	{
+		final DescriptorStore descriptors = createTranslationInvariantDescriptorStore( nodeList, redundancy );
+
+		// create lookup tree for the descriptors, we need at least the best and second best match
+		final ImplicitKDTree lookUpTree = descriptors.size() < 2 ? null : new ImplicitKDTree( descriptors );
+
+		return new ViewDescriptors<>( nodeList, descriptors, lookUpTree );
+	}
+
 	protected void computeMatching(
-			final ArrayList< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > descriptors1,
-			final KNearestNeighborSearchOnKDTree< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > nnsearch2,
+			final ViewDescriptors< I > viewA,
+			final ViewDescriptors< I > viewB,
+			final ImplicitKDTree.Search nnsearch2,
 			final ArrayList< PointMatchGeneric< I > > correspondences,
 			final double ratioOfDistance )
 	{
-		final HashSet< Pair< I, I > > pairs = new HashSet<>();
+		// best descriptor distance for each pair of detections
+		final HashMap< Pair< I, I >, Double > pairs = new HashMap<>();
+		final DescriptorStore descriptors1 = viewA.getDescriptors();
 
 		int count = 0;
 		
-		for ( final TranslationInvariantLocalCoordinateSystemPointDescriptor< I > descriptorA : descriptors1 )
+		for ( int i = 0; i < descriptors1.size(); ++i )
 		{
-			nnsearch2.search( descriptorA );
+			nnsearch2.search( descriptors1.getVectors(), descriptors1.offset( i ) );
 
-			double best = descriptorA.descriptorDistance( nnsearch2.getSampler( 0 ).get() );
-			double secondBest = descriptorA.descriptorDistance( nnsearch2.getSampler( 1 ).get() );
+			// descriptorDistance() is the squared distance divided by the dimensionality of the points, which does not change the ratio
+			final double best = nnsearch2.getSquareDistance( 0 );
+			final double secondBest = nnsearch2.getSquareDistance( 1 );
 
 			if ( best * ratioOfDistance <= secondBest )
 			{
-				final I detectionA = descriptorA.getBasisPoint();
-				final I detectionB = nnsearch2.getSampler( 0 ).get().getBasisPoint();
+				final I detectionA = viewA.getBasisPoint( i );
+				final I detectionB = viewB.getBasisPoint( nnsearch2.getId( 0 ) );
 
 				// twice the same pair could potentially show up due to redundancy
-				pairs.add( new ValuePair<>( detectionA, detectionB ) );
+				pairs.merge( new ValuePair<>( detectionA, detectionB ), best, Math::min );
 				++count;
 			}
 		}
 
-		for ( final Pair< I, I > pair : pairs )
-			correspondences.add( new PointMatchGeneric< I >( pair.getA(), pair.getB(), 1 ) );
+		// sorted by descriptor distance, best first (used by guided RANSAC sampling)
+		final ArrayList< Map.Entry< Pair< I, I >, Double > > sorted = new ArrayList<>( pairs.entrySet() );
+		Collections.sort( sorted, ( e1, e2 ) -> Double.compare( e1.getValue(), e2.getValue() ) );
+
+		for ( final Map.Entry< Pair< I, I >, Double > entry : sorted )
+			correspondences.add( new PointMatchGeneric< I >( entry.getKey().getA(), entry.getKey().getB(), 1 ) );
 		
 		System.out.println( count +  " <> " + correspondences.size() );
 	}
 
+	/**
+	 * Computes the {@link TranslationInvariantLocalCoordinateSystemPointDescriptor}s of all points as vectors in a {@link DescriptorStore},
+	 * each vector contains the local coordinates of the three neighbors relative to the basis point (9 values in 3d).
+	 */
+	public static < I extends InterestPoint > DescriptorStore createTranslationInvariantDescriptorStore(
+			final ArrayList< I > basisPoints,
+			final int redundancy )
+	{
+		final int numNeighbors = 3;
+
+		final DescriptorStore positions = DescriptorStore.fromPositions( basisPoints );
+		final ImplicitKDTree.Search nnsearch = new ImplicitKDTree( positions ).createSearch( numNeighbors + redundancy + 1 );
+
+		final int[][] neighborIndicies = SubsetMatcher.computePD( numNeighbors + redundancy, numNeighbors, 1 );
+		final int n = basisPoints.isEmpty() ? 3 : basisPoints.get( 0 ).getL().length;
+		final DescriptorStore descriptors = new DescriptorStore( numNeighbors * n, basisPoints.size() * neighborIndicies.length );
+
+		for ( int i = 0; i < basisPoints.size(); ++i )
+		{
+			final double[] p = basisPoints.get( i ).getL();
+			nnsearch.search( positions.getVectors(), positions.offset( i ) );
+
+			if ( nnsearch.numFound() < numNeighbors + redundancy + 1 )
+				continue;
+
+			for ( final int[] neighbors : neighborIndicies )
+			{
+				final int o = descriptors.offset( descriptors.add( i ) );
+				final double[] v = descriptors.getVectors();
+
+				for ( int j = 0; j < numNeighbors; ++j )
+				{
+					final double[] q = basisPoints.get( nnsearch.getId( neighbors[ j ] ) ).getL();
+
+					for ( int d = 0; d < n; ++d )
+						v[ o + j * n + d ] = q[ d ] - p[ d ];
+				}
+			}
+		}
+
+		descriptors.trim();
+
+		return descriptors;
+	}
+
 	public static < I extends InterestPoint > ArrayList< TranslationInvariantLocalCoordinateSystemPointDescriptor< I > > createLocalCoordinateSystemPointDescriptors( 
 			final KDTree< I > tree,
 			final ArrayList< I > basisPoints,
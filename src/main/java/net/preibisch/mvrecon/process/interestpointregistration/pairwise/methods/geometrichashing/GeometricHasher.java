@@ -23,7 +23,9 @@
 package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.geometrichashing;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import mpicbg.spim.mpicbg.PointMatchGeneric;
 import net.imglib2.KDTree;
@@ -31,6 +33,9 @@ import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.ViewDescriptors;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.DescriptorStore;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.ImplicitKDTree;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.LocalCoordinateSystemPointDescriptor;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.SubsetMatcher;
@@ -50,65 +55,145 @@ public class GeometricHasher< I extends InterestPoint >
 			final int redundancy,
 			final double ratioOfDistance )
 	{
-		final KDTree< I > tree1 = new KDTree<>( nodeListA, nodeListA );
-		final KDTree< I > tree2 = new KDTree<>( nodeListB, nodeListB );
-
-		final ArrayList< LocalCoordinateSystemPointDescriptor< I > > descriptors1 =
-			createLocalCoordinateSystemPointDescriptors( tree1, nodeListA, redundancy, false );
-		
-		final ArrayList< LocalCoordinateSystemPointDescriptor< I > > descriptors2 =
-			createLocalCoordinateSystemPointDescriptors( tree2, nodeListB, redundancy, false );
-		
-		// create lookup tree for descriptors2
-		final KDTree< LocalCoordinateSystemPointDescriptor< I > > lookUpTree2 = new KDTree<>( descriptors2, descriptors2 );
-		final KNearestNeighborSearchOnKDTree< LocalCoordinateSystemPointDescriptor< I > > nnsearch = new KNearestNeighborSearchOnKDTree<>( lookUpTree2, 2 );
+		return extractCorrespondenceCandidates(
+				createViewDescriptors( nodeListA, redundancy ),
+				createViewDescriptors( nodeListB, redundancy ),
+				differenceThreshold,
+				ratioOfDistance );
+	}
 
+	/**
+	 * Matches the precomputed descriptors of two views, only reads from them so they can be shared between threads
+	 */
+	public ArrayList< PointMatchGeneric< I > > extractCorrespondenceCandidates( 
+			final ViewDescriptors< I > viewA,
+			final ViewDescriptors< I > viewB,
+			final double differenceThreshold,
+			final double ratioOfDistance )
+	{
 		// store the candidates for corresponding beads
 		final ArrayList< PointMatchGeneric< I > > correspondences = new ArrayList<>();
-		
+
+		if ( viewA.getDescriptors() == null || viewB.getLookUpTree() == null )
+			return correspondences;
+
+		// the search keeps state, the lookup tree for descriptors2 does not
+		final ImplicitKDTree.Search nnsearch = viewB.getLookUpTree().createSearch( 2 );
+
 		/* compute matching */
-		computeMatching( descriptors1, nnsearch, correspondences, differenceThreshold, ratioOfDistance );
+		computeMatching( viewA, viewB, nnsearch, correspondences, differenceThreshold, ratioOfDistance );
 		
 		return correspondences;
 	}
+
+	/**
+	 * Computes the descriptors and the descriptor lookup tree of one view
+	 */
+	public ViewDescriptors< I > createViewDescriptors( final ArrayList< I > nodeList, final int redundancy )
+	{
+		final DescriptorStore descriptors = createLocalCoordinateSystemDescriptorStore( nodeList, redundancy );
+
+		// create lookup tree for the descriptors, we need at least the best and second best match
+		final ImplicitKDTree lookUpTree = descriptors.size() < 2 ? null : new ImplicitKDTree( descriptors );
+
+		return new ViewDescriptors<>( nodeList, descriptors, lookUpTree );
+	}
 	
 	protected void computeMatching( 
-			final ArrayList< LocalCoordinateSystemPointDescriptor< I > > descriptors1,
-			final KNearestNeighborSearchOnKDTree< LocalCoordinateSystemPointDescriptor< I > > nnsearch2,
+			final ViewDescriptors< I > viewA,
+			final ViewDescriptors< I > viewB,
+			final ImplicitKDTree.Search nnsearch2,
 			final ArrayList< PointMatchGeneric< I > > correspondences,
 			final double differenceThreshold, 
 			final double ratioOfDistance )
 	{
-		final HashSet< Pair< I, I > > pairs = new HashSet<>();
-
-		//System.out.println( "BeadA" + "\t" + "BeadB1" + "\t" + "BeadB2" + "\t" + "Diff1" + "\t" + "Diff2" );
+		// best descriptor distance for each pair of detections
+		final HashMap< Pair< I, I >, Double > pairs = new HashMap<>();
+		final DescriptorStore descriptors1 = viewA.getDescriptors();
 
-		for ( final LocalCoordinateSystemPointDescriptor< I > descriptorA : descriptors1 )
+		for ( int i = 0; i < descriptors1.size(); ++i )
 		{
-			nnsearch2.search( descriptorA );
+			nnsearch2.search( descriptors1.getVectors(), descriptors1.offset( i ) );
 
-			double best = descriptorA.descriptorDistance( nnsearch2.getSampler( 0 ).get() );
-			double secondBest = descriptorA.descriptorDistance( nnsearch2.getSampler( 1 ).get() );
+			// the squared distance in descriptor space is the descriptorDistance()
+			final double best = nnsearch2.getSquareDistance( 0 );
+			final double secondBest = nnsearch2.getSquareDistance( 1 );
 
 			if ( best < differenceThreshold && best * ratioOfDistance <= secondBest )
 			{
-				final I detectionA = descriptorA.getBasisPoint();
-				final I detectionB = nnsearch2.getSampler( 0 ).get().getBasisPoint();
+				final I detectionA = viewA.getBasisPoint( i );
+				final I detectionB = viewB.getBasisPoint( nnsearch2.getId( 0 ) );
 
-				//System.out.println( beadA.getID() + "\t" + matches[ 0 ].getBasisPoint().getID() + "\t" + matches[ 1 ].getBasisPoint().getID() + "\t" + best + "\t" + secondBest );
+				// twice the same pair could potentially show up due to redundancy
+				pairs.merge( new ValuePair<>( detectionA, detectionB ), best, Math::min );
+			}
+		}
 
-				//detectionA.addPointDescriptorCorrespondence( detectionB, 1 );
-				//detectionB.addPointDescriptorCorrespondence( detectionA, 1 );
+		// sorted by descriptor distance, best first (used by guided RANSAC sampling)
+		final ArrayList< Map.Entry< Pair< I, I >, Double > > sorted = new ArrayList<>( pairs.entrySet() );
+		Collections.sort( sorted, ( e1, e2 ) -> Double.compare( e1.getValue(), e2.getValue() ) );
 
-				// twice the same pair could potentially show up due to redundancy
-				pairs.add( new ValuePair<>( detectionA, detectionB ) );
+		for ( final Map.Entry< Pair< I, I >, Double > entry : sorted )
+			correspondences.add( new PointMatchGeneric< I >( entry.getKey().getA(), entry.getKey().getB(), 1 ) );
+	}
 
-				//correspondences.add( new PointMatchGeneric< I >( detectionA, detectionB, 1 ) );
+	/**
+	 * Computes the (not normalized) {@link LocalCoordinateSystemPointDescriptor}s of all points as 6-dimensional
+	 * vectors (ax, bx, by, cx, cy, cz) in a {@link DescriptorStore}, the squared euclidean distance between two of them
+	 * is their descriptorDistance().
+	 */
+	public static < I extends InterestPoint > DescriptorStore createLocalCoordinateSystemDescriptorStore(
+			final ArrayList< I > basisPoints,
+			final int redundancy )
+	{
+		final int numNeighbors = 3;
+
+		final DescriptorStore positions = DescriptorStore.fromPositions( basisPoints );
+		final ImplicitKDTree.Search nnsearch = new ImplicitKDTree( positions ).createSearch( numNeighbors + redundancy + 1 );
+
+		final int[][] neighborIndicies = SubsetMatcher.computePD( numNeighbors + redundancy, numNeighbors, 1 );
+		final DescriptorStore descriptors = new DescriptorStore( 6, basisPoints.size() * neighborIndicies.length );
+
+		for ( int i = 0; i < basisPoints.size(); ++i )
+		{
+			final I p = basisPoints.get( i );
+			nnsearch.search( positions.getVectors(), positions.offset( i ) );
+
+			if ( nnsearch.numFound() < numNeighbors + redundancy + 1 )
+				continue;
+
+			for ( final int[] neighbors : neighborIndicies )
+			{
+				final ArrayList< I > neighborPoints = new ArrayList<>();
+
+				// the first hit is always the point itself
+				for ( int n = 0; n < numNeighbors; ++n )
+					neighborPoints.add( basisPoints.get( nnsearch.getId( neighbors[ n ] ) ) );
+
+				try
+				{
+					// the descriptor object is only used to build the local coordinate system
+					final LocalCoordinateSystemPointDescriptor< I > descriptor = new LocalCoordinateSystemPointDescriptor< I >( p, neighborPoints, false );
+					final int o = descriptors.offset( descriptors.add( i ) );
+					final double[] v = descriptors.getVectors();
+
+					v[ o     ] = descriptor.ax;
+					v[ o + 1 ] = descriptor.bx;
+					v[ o + 2 ] = descriptor.by;
+					v[ o + 3 ] = descriptor.cx;
+					v[ o + 4 ] = descriptor.cy;
+					v[ o + 5 ] = descriptor.cz;
+				}
+				catch ( NoSuitablePointsException e )
+				{
+					e.printStackTrace();
+				}
 			}
 		}
 
-		for ( final Pair< I, I > pair : pairs )
-			correspondences.add( new PointMatchGeneric< I >( pair.getA(), pair.getB(), 1 ) );
+		descriptors.trim();
+
+		return descriptors;
 	}
 
 	public static < I extends InterestPoint > ArrayList< LocalCoordinateSystemPointDescriptor< I > > createLocalCoordinateSystemPointDescriptors( 
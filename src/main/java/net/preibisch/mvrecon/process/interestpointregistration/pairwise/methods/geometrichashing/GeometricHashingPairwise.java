@@ -27,14 +27,15 @@ import java.util.List;
 
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
-import net.preibisch.mvrecon.process.interestpointregistration.pairwise.MatcherPairwise;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.CachingMatcherPairwise;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.PairwiseResult;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.ViewDescriptors;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.ransac.RANSAC;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.ransac.RANSACParameters;
 
 import mpicbg.spim.mpicbg.PointMatchGeneric;
 
-public class GeometricHashingPairwise< I extends InterestPoint > implements MatcherPairwise< I >
+public class GeometricHashingPairwise< I extends InterestPoint > implements CachingMatcherPairwise< I, ViewDescriptors< I > >
 {
 	final RANSACParameters rp;
 	final GeometricHashingParameters gp;
@@ -48,20 +49,24 @@ public class GeometricHashingPairwise< I extends InterestPoint > implements Matc
 	}
 
 	@Override
-	public PairwiseResult< I > match( final List< I > listAIn, final List< I > listBIn )
+	public ViewDescriptors< I > preprocess( final List< I > listIn )
 	{
-		final PairwiseResult< I > result = new PairwiseResult<>( true );
-		final GeometricHasher< I > hasher = new GeometricHasher<>();
-		
-		final ArrayList< I > listA = new ArrayList<>();
-		final ArrayList< I > listB = new ArrayList<>();
+		final ArrayList< I > list = new ArrayList<>( listIn );
 
-		for ( final I i : listAIn )
-			listA.add( i );
+		// not enough detections, match() will not look at the descriptors
+		if ( list.size() < 3 + gp.getRedundancy() + 1 )
+			return new ViewDescriptors<>( list, null, null );
 
-		for ( final I i : listBIn )
-			listB.add( i );
+		return new GeometricHasher< I >().createViewDescriptors( list, gp.getRedundancy() );
+	}
 
+	@Override
+	public PairwiseResult< I > match(
+			final List< I > listA, final ViewDescriptors< I > descriptorsA,
+			final List< I > listB, final ViewDescriptors< I > descriptorsB )
+	{
+		final PairwiseResult< I > result = new PairwiseResult<>( true );
+		final GeometricHasher< I > hasher = new GeometricHasher<>();
 		final int minPoints = 3 + gp.getRedundancy() + 1;
 
 		if ( listA.size() < minPoints || listB.size() < minPoints )
@@ -73,10 +78,9 @@ public class GeometricHashingPairwise< I extends InterestPoint > implements Matc
 		}
 
 		final ArrayList< PointMatchGeneric< I > > candidates = hasher.extractCorrespondenceCandidates( 
-				listA,
-				listB,
+				descriptorsA,
+				descriptorsB,
 				gp.getDifferenceThreshold(),
-				gp.getRedundancy(),
 				gp.getRatioOfDistance() );
 
 		result.setCandidates( candidates );
@@ -84,7 +88,7 @@ public class GeometricHashingPairwise< I extends InterestPoint > implements Matc
 		// compute ransac and remove inconsistent candidates
 		final ArrayList< PointMatchGeneric< I > > inliers = new ArrayList<>();
 
-		final Pair< String, Double > ransacResult = RANSAC.computeRANSAC( candidates, inliers, gp.getModel(), rp.getMaxEpsilon(), rp.getMinInlierRatio(), rp.getMinInlierFactor(), rp.getNumIterations() );
+		final Pair< String, Double > ransacResult = RANSAC.computeRANSAC( candidates, inliers, gp.getModel(), rp );
 
 		result.setInliers( inliers, ransacResult.getB() );
 
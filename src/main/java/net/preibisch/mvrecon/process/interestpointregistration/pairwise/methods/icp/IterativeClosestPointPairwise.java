@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 import mpicbg.models.IllDefinedDataPointsException;
 import mpicbg.models.Model;
@@ -39,6 +40,7 @@ import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.MatcherPairwise;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.PairwiseResult;
 import net.preibisch.mvrecon.process.pointcloud.icp.ICP;
+import net.preibisch.mvrecon.process.pointcloud.icp.SimplePointMatchIdentification;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
 
 /**
@@ -49,13 +51,32 @@ import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuit
  */
 public class IterativeClosestPointPairwise< I extends InterestPoint > implements MatcherPairwise< I >
 {
+	// print the matches and errors of every iteration
+	public static boolean debug = false;
+
 	final IterativeClosestPointParameters ip;
 
+	ExecutorService service = null;
+	int numBlocks = 1;
+
 	public IterativeClosestPointPairwise( final IterativeClosestPointParameters ip  )
 	{
 		this.ip = ip;
 	}
 
+	/**
+	 * By default every pair is matched single-threaded, since the pairs are already computed in parallel.
+	 *
+	 * @param service - shared service for the correspondence search of large point clouds, must not be the service
+	 * the pairs themselves are run on (null means single-threaded)
+	 * @param numBlocks - into how many blocks the correspondence search is split
+	 */
+	public void setExecutorService( final ExecutorService service, final int numBlocks )
+	{
+		this.service = service;
+		this.numBlocks = numBlocks;
+	}
+
 	@Override
 	public PairwiseResult< I > match( final List< I > listAIn, final List< I > listBIn )
 	{
@@ -81,7 +102,12 @@ public class IterativeClosestPointPairwise< I extends InterestPoint > implements
 			return result;
 		}
 
-		final ICP< I > icp = new ICP< I >( listA, listB, (float)ip.getMaxDistance() );
+		// the KDTree on listB is built once and re-used in every iteration, only listA is transformed
+		final SimplePointMatchIdentification< I > pmi = new SimplePointMatchIdentification< I >( (float)ip.getMaxDistance() );
+		final ICP< I > icp = new ICP< I >( listA, listB, pmi );
+
+		if ( service != null )
+			pmi.setExecutorService( service, numBlocks );
 
 		int i = 0;
 		double lastAvgError = 0;
@@ -108,13 +134,16 @@ public class IterativeClosestPointPairwise< I extends InterestPoint > implements
 				failWith( result, "ICP", "NoSuitablePointsException", e );
 			}
 
-			if ( lastNumCorresponding == icp.getNumPointMatches() && lastAvgError == icp.getAverageError() )
+			// the model does not change anymore (or the correspondences and error stayed exactly the same)
+			if ( ( icp.getMaximalModelChange() >= 0 && icp.getMaximalModelChange() <= ip.getMaxModelChange() ) ||
+				 ( lastNumCorresponding == icp.getNumPointMatches() && lastAvgError == icp.getAverageError() ) )
 				converged = true;
 
 			lastNumCorresponding = icp.getNumPointMatches();
 			lastAvgError = icp.getAverageError();
 			
-			System.out.println( i + ": " + icp.getNumPointMatches() + " matches, avg error [px] " + icp.getAverageError() + ", max error [px] " + icp.getMaximalError() );
+			if ( debug )
+				IOFunctions.println( i + ": " + icp.getNumPointMatches() + " matches, avg error [px] " + icp.getAverageError() + ", max error [px] " + icp.getMaximalError() + ", model change [px] " + icp.getMaximalModelChange() );
 		}
 		while ( !converged && ++i < ip.getMaxNumIterations() );
 
@@ -215,7 +244,8 @@ public class IterativeClosestPointPairwise< I extends InterestPoint > implements
 			lastNumCorresponding = icp.getNumPointMatches();
 			lastAvgError = icp.getAverageError();
 			
-			System.out.println( i + ": " + icp.getNumPointMatches() + " matches, avg error [px] " + icp.getAverageError() + ", max error [px] " + icp.getMaximalError() );
+			if ( debug )
+				IOFunctions.println( i + ": " + icp.getNumPointMatches() + " matches, avg error [px] " + icp.getAverageError() + ", max error [px] " + icp.getMaximalError() );
 		}
 		while ( !converged && ++i < 100 );
 		
@@ -29,16 +29,26 @@ public class IterativeClosestPointParameters
 	public static double maxDistance = 5;
 	public static int maxIterations = 100;
 
+	// stop once the model moves no target point further than this (px)
+	public static double maxModelChange = 0.001;
+
 	private double d = 5;
 	private int maxIt = 100;
+	private double maxChange = 0.001;
 
 	private Model< ? > model = null;
 
-	public IterativeClosestPointParameters( final Model< ? > model, final double maxDistance, final int maxIterations )
+	public IterativeClosestPointParameters( final Model< ? > model, final double maxDistance, final int maxIterations, final double maxModelChange )
 	{
 		this.model = model;
 		this.d = maxDistance;
 		this.maxIt = maxIterations;
+		this.maxChange = maxModelChange;
+	}
+
+	public IterativeClosestPointParameters( final Model< ? > model, final double maxDistance, final int maxIterations )
+	{
+		this( model, maxDistance, maxIterations, maxModelChange );
 	}
 
 	public IterativeClosestPointParameters( final Model< ? > model )
@@ -49,4 +59,5 @@ public class IterativeClosestPointParameters
 	public Model< ? > getModel() { return model.copy(); }
 	public double getMaxDistance() { return d; }
 	public int getMaxNumIterations() { return maxIt; }
+	public double getMaxModelChange() { return maxChange; }
 }
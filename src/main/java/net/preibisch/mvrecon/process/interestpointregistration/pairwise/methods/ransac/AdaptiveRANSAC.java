@@ -0,0 +1,479 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.ransac;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.Model;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.PointMatch;
+import mpicbg.spim.mpicbg.PointMatchGeneric;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
+import net.preibisch.mvrecon.fiji.ImgLib2Temp.ValuePair;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.LinkedPoint;
+
+/**
+ * RANSAC that tests hypotheses on primitive coordinate arrays with several threads and stops
+ * as soon as the number of iterations necessary to find an all-inlier sample with the requested
+ * confidence is reached (given the best inlier ratio found so far). Each new best hypothesis is
+ * refined by refitting to all of its inliers (local optimization).
+ *
+ * Optionally samples PROSAC-style: the candidates are expected to be sorted by quality (e.g. descriptor
+ * distance, best first) and the minimal samples are progressively drawn from a growing top-ranked subset.
+ *
+ * The final model is fitted to the inliers of the best hypothesis using the same robust filter as
+ * Model.filterRansac().
+ */
+public class AdaptiveRANSAC
+{
+	// below this number of candidates the hypotheses are tested in the calling thread
+	public static int defaultMinCandidatesForMultithreading = 1000;
+	public static long defaultSeed = 69997;
+
+	final Model< ? > model;
+	final int n, numDimensions, sampleSize;
+	final double[] p, q, w;
+	final double maxEpsilon, minInlierRatio;
+	final int minNumInliers;
+	final double logOneMinusConfidence;
+	final long[] prosacSchedule;
+
+	final AtomicLong iteration = new AtomicLong( 0 );
+	final AtomicLong maxIterations;
+
+	volatile int bestNumInliers = 0;
+	int[] bestInliers = null;
+
+	protected AdaptiveRANSAC(
+			final List< ? extends PointMatch > candidates,
+			final Model< ? > model,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final int numIterations,
+			final double confidence,
+			final boolean prosac )
+	{
+		this.model = model;
+		this.n = candidates.size();
+		this.numDimensions = candidates.get( 0 ).getP1().getL().length;
+		this.sampleSize = model.getMinNumMatches();
+		this.maxEpsilon = maxEpsilon;
+		this.minInlierRatio = minInlierRatio;
+		this.minNumInliers = minNumInliers;
+		this.logOneMinusConfidence = Math.log( 1.0 - Math.min( confidence, 1.0 - 1e-12 ) );
+		this.maxIterations = new AtomicLong( numIterations );
+
+		// local coordinates of the first point are transformed onto the world coordinates of the second point
+		this.p = new double[ n * numDimensions ];
+		this.q = new double[ n * numDimensions ];
+		this.w = new double[ n ];
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final PointMatch pm = candidates.get( i );
+			System.arraycopy( pm.getP1().getL(), 0, p, i * numDimensions, numDimensions );
+			System.arraycopy( pm.getP2().getW(), 0, q, i * numDimensions, numDimensions );
+			w[ i ] = pm.getWeight();
+		}
+
+		this.prosacSchedule = prosac ? prosacSchedule( n, sampleSize, numIterations ) : null;
+	}
+
+	/**
+	 * Same contract as {@link RANSAC#computeRANSAC(ArrayList, ArrayList, Model, double, double, double, int)}, but
+	 * numIterations is only the upper bound of iterations
+	 *
+	 * @param confidence - the probability to have drawn at least one sample of only inliers when stopping (e.g. 0.999)
+	 * @param prosac - sample PROSAC-style, assuming that the candidates are sorted best first
+	 * @param numThreads - number of threads to test hypotheses with (only used for many candidates)
+	 */
+	public static < I extends InterestPoint > Pair< String, Double > computeRANSAC( 
+			final ArrayList< PointMatchGeneric < I > > correspondenceCandidates, 
+			final ArrayList< PointMatchGeneric < I > > inlierList, 
+			final Model<?> model, 
+			final double maxEpsilon, 
+			final double minInlierRatio, 
+			final double minNumberInlierFactor, 
+			final int numIterations,
+			final double confidence,
+			final boolean prosac,
+			final int numThreads )
+	{
+		final int numCorrespondences = correspondenceCandidates.size();
+		final int minNumCorrespondences = Math.max( model.getMinNumMatches(), (int)Math.round( model.getMinNumMatches() * minNumberInlierFactor ) );
+
+		// if there are not enough correspondences for the used model
+		if ( numCorrespondences < minNumCorrespondences )
+			return new ValuePair< String, Double >( "Not enough correspondences found " + numCorrespondences + ", should be at least " + minNumCorrespondences, Double.NaN );
+
+		final AdaptiveRANSAC ransac = new AdaptiveRANSAC( correspondenceCandidates, model, maxEpsilon, minInlierRatio, model.getMinNumMatches(), numIterations, confidence, prosac );
+		ransac.run( numCorrespondences < defaultMinCandidatesForMultithreading ? 1 : numThreads );
+
+		final int[] bestInliers = ransac.bestInliers;
+		final long iterations = Math.min( ransac.iteration.get(), ransac.maxIterations.get() );
+
+		boolean modelFound = bestInliers != null &&
+				bestInliers.length >= model.getMinNumMatches() &&
+				(double)bestInliers.length / (double)numCorrespondences > minInlierRatio;
+
+		// only the inliers of the best hypothesis are duplicated, they are refitted and filtered like in Model.filterRansac()
+		final ArrayList< PointMatch > inliers = new ArrayList< PointMatch >();
+
+		if ( modelFound )
+		{
+			final ArrayList< PointMatch > candidates = new ArrayList< PointMatch >( bestInliers.length );
+
+			for ( final int i : bestInliers )
+			{
+				final PointMatchGeneric< I > correspondence = correspondenceCandidates.get( i );
+				final I detectionA = correspondence.getPoint1();
+				final I detectionB = correspondence.getPoint2();
+
+				// the LinkedPoint always clones the location array
+				final LinkedPoint< I > pA = new LinkedPoint< I >( detectionA.getL(), detectionA.getW(), detectionA );
+				final LinkedPoint< I > pB = new LinkedPoint< I >( detectionB.getL(), detectionB.getW(), detectionB );
+
+				candidates.add( new PointMatchGeneric< LinkedPoint< I > >( pA, pB, correspondence.getWeight() ) );
+			}
+
+			try
+			{
+				modelFound = model.filter( candidates, inliers );
+			}
+			catch ( NotEnoughDataPointsException e )
+			{
+				return new ValuePair< String, Double >( e.toString(), Double.NaN );
+			}
+
+			if ( !modelFound )
+				inliers.clear();
+		}
+
+		final NumberFormat nf = NumberFormat.getPercentInstance();
+		final double ratio = ( (double)inliers.size() / (double)numCorrespondences );
+
+		if ( modelFound && inliers.size() >= minNumCorrespondences )
+		{
+			for ( final PointMatch pointMatch : inliers )
+			{
+				@SuppressWarnings("unchecked")
+				final PointMatchGeneric<LinkedPoint< I > > pm = (PointMatchGeneric< LinkedPoint< I > >) pointMatch;
+
+				final I detectionA = pm.getPoint1().getLinkedObject();
+				final I detectionB = pm.getPoint2().getLinkedObject();
+
+				inlierList.add( new PointMatchGeneric< I >( detectionA, detectionB ) );
+			}
+
+			return new ValuePair< String, Double >( "Remaining inliers after RANSAC (" + iterations + " iterations): " + inliers.size() + " of " + numCorrespondences + " (" + nf.format(ratio) + ") with average error " + model.getCost(), model.getCost() );
+		}
+		else
+		{
+			if ( modelFound )
+				return new ValuePair< String, Double >( "Model found but not enough remaining inliers (" + inliers.size() + "/" + minNumCorrespondences + ") after RANSAC (" + iterations + " iterations) of " + numCorrespondences, Double.NaN );
+			else
+				return new ValuePair< String, Double >( "NO Model found after RANSAC (" + iterations + " iterations) of " + numCorrespondences, Double.NaN );
+		}
+	}
+
+	protected void run( final int numThreads )
+	{
+		if ( numThreads <= 1 )
+		{
+			new Worker( 0 ).call();
+			return;
+		}
+
+		final ExecutorService service = Threads.createFixedExecutorService( numThreads );
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int t = 0; t < numThreads; ++t )
+			tasks.add( new Worker( t ) );
+
+		try
+		{
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( e );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * Called whenever a worker found a hypothesis with more inliers than the current best one
+	 */
+	protected synchronized void updateBest( final int[] inliers, final int numInliers )
+	{
+		if ( numInliers <= bestNumInliers )
+			return;
+
+		final int[] copy = new int[ numInliers ];
+		System.arraycopy( inliers, 0, copy, 0, numInliers );
+
+		bestInliers = copy;
+		bestNumInliers = numInliers;
+
+		// number of iterations to draw one all-inlier sample with the requested confidence
+		final double inlierRatio = (double)numInliers / (double)n;
+		final double pAllInliers = Math.pow( inlierRatio, sampleSize );
+		final long required;
+
+		if ( pAllInliers >= 1.0 )
+			required = 1;
+		else if ( pAllInliers <= 0.0 )
+			required = Long.MAX_VALUE;
+		else
+			required = (long)Math.ceil( logOneMinusConfidence / Math.log1p( -pAllInliers ) );
+
+		long current;
+		do
+		{
+			current = maxIterations.get();
+		}
+		while ( required < current && !maxIterations.compareAndSet( current, required ) );
+	}
+
+	/**
+	 * T'_n of PROSAC (Chum and Matas 2005): the iteration at which the sampling set grows to the n top-ranked candidates
+	 */
+	protected static long[] prosacSchedule( final int numCandidates, final int sampleSize, final int numIterations )
+	{
+		final long[] schedule = new long[ numCandidates + 1 ];
+
+		// T_m, the average number of samples drawn from the top m candidates out of numIterations samples
+		double tn = numIterations;
+		for ( int i = 0; i < sampleSize; ++i )
+			tn *= (double)( sampleSize - i ) / (double)( numCandidates - i );
+
+		schedule[ sampleSize ] = 1;
+
+		for ( int k = sampleSize; k < numCandidates; ++k )
+		{
+			final double tn1 = tn * ( k + 1 ) / ( k + 1 - sampleSize );
+			schedule[ k + 1 ] = schedule[ k ] + (long)Math.ceil( tn1 - tn );
+			tn = tn1;
+		}
+
+		return schedule;
+	}
+
+	protected class Worker implements Callable< Void >
+	{
+		final Model< ? > m;
+		final Random rnd;
+		final int[] sample;
+		final double[][] ps, qs;
+		final double[] ws;
+		final double[] tmp;
+		final int[] inliers;
+
+		public Worker( final int index )
+		{
+			this.m = model.copy();
+			this.rnd = new Random( defaultSeed + index );
+			this.sample = new int[ sampleSize ];
+			this.ps = new double[ numDimensions ][ sampleSize ];
+			this.qs = new double[ numDimensions ][ sampleSize ];
+			this.ws = new double[ sampleSize ];
+			this.tmp = new double[ numDimensions ];
+			this.inliers = new int[ n ];
+		}
+
+		@Override
+		public Void call()
+		{
+			long t;
+
+			while ( ( t = iteration.incrementAndGet() ) <= maxIterations.get() )
+			{
+				drawSample( t );
+
+				if ( !fit( sample, sampleSize, ps, qs, ws ) )
+					continue;
+
+				int numInliers = countInliers( bestNumInliers );
+
+				if ( numInliers > bestNumInliers )
+				{
+					// local optimization, refit to all inliers as long as the number of inliers increases
+					while ( true )
+					{
+						final int[] lastInliers = inliers.clone();
+						final int lastNumInliers = numInliers;
+
+						if ( !fit( lastInliers, lastNumInliers, new double[ numDimensions ][ lastNumInliers ], new double[ numDimensions ][ lastNumInliers ], new double[ lastNumInliers ] ) )
+						{
+							System.arraycopy( lastInliers, 0, inliers, 0, lastNumInliers );
+							break;
+						}
+
+						numInliers = countInliers( lastNumInliers );
+
+						if ( numInliers <= lastNumInliers )
+						{
+							System.arraycopy( lastInliers, 0, inliers, 0, lastNumInliers );
+							numInliers = lastNumInliers;
+							break;
+						}
+					}
+
+					if ( numInliers >= minNumInliers && (double)numInliers / (double)n > minInlierRatio )
+						updateBest( inliers, numInliers );
+				}
+			}
+
+			return null;
+		}
+
+		protected void drawSample( final long t )
+		{
+			final int numTop;
+			final int start;
+
+			if ( prosacSchedule == null || t > prosacSchedule[ n ] )
+			{
+				// uniform sampling from all candidates
+				numTop = n;
+				start = 0;
+			}
+			else
+			{
+				// smallest k with T'_k >= t, the sample is the k-th candidate plus sampleSize-1 out of the top k-1
+				int lo = sampleSize, hi = n;
+
+				while ( lo < hi )
+				{
+					final int mid = ( lo + hi ) >>> 1;
+
+					if ( prosacSchedule[ mid ] >= t )
+						hi = mid;
+					else
+						lo = mid + 1;
+				}
+
+				numTop = lo - 1;
+				sample[ 0 ] = numTop;
+				start = 1;
+			}
+
+			for ( int i = start; i < sampleSize; ++i )
+			{
+				boolean unique;
+				int s;
+
+				do
+				{
+					s = rnd.nextInt( numTop );
+					unique = true;
+
+					for ( int j = 0; j < i; ++j )
+						if ( sample[ j ] == s )
+						{
+							unique = false;
+							break;
+						}
+				}
+				while ( !unique );
+
+				sample[ i ] = s;
+			}
+		}
+
+		protected boolean fit( final int[] indices, final int numIndices, final double[][] px, final double[][] qx, final double[] wx )
+		{
+			for ( int i = 0; i < numIndices; ++i )
+			{
+				final int o = indices[ i ] * numDimensions;
+
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					px[ d ][ i ] = p[ o + d ];
+					qx[ d ][ i ] = q[ o + d ];
+				}
+
+				wx[ i ] = w[ indices[ i ] ];
+			}
+
+			try
+			{
+				m.fit( px, qx, wx );
+				return true;
+			}
+			catch ( NotEnoughDataPointsException | IllDefinedDataPointsException e )
+			{
+				return false;
+			}
+		}
+
+		/**
+		 * Counts the inliers of the current model into inliers[], stops early once it cannot exceed the given number anymore
+		 */
+		protected int countInliers( final int numToBeat )
+		{
+			final double sqEpsilon = maxEpsilon * maxEpsilon;
+			int numInliers = 0;
+
+			for ( int i = 0; i < n; ++i )
+			{
+				final int o = i * numDimensions;
+
+				for ( int d = 0; d < numDimensions; ++d )
+					tmp[ d ] = p[ o + d ];
+
+				m.applyInPlace( tmp );
+
+				double sqDist = 0;
+
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					final double diff = tmp[ d ] - q[ o + d ];
+					sqDist += diff * diff;
+				}
+
+				if ( sqDist < sqEpsilon )
+					inliers[ numInliers++ ] = i;
+				else if ( numInliers + ( n - i - 1 ) <= numToBeat )
+					return numInliers;
+			}
+
+			return numInliers;
+		}
+	}
+}
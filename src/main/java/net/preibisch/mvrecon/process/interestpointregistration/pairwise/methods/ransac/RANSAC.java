@@ -25,6 +25,7 @@ package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods
 import java.text.NumberFormat;
 import java.util.ArrayList;
 
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.ValuePair;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
@@ -41,6 +42,26 @@ import mpicbg.spim.mpicbg.PointMatchGeneric;
  */
 public class RANSAC
 {
+	/**
+	 * Runs the RANSAC implementation selected in the {@link RANSACParameters}
+	 */
+	public static < I extends InterestPoint > Pair< String, Double > computeRANSAC( 
+			final ArrayList< PointMatchGeneric < I > > correspondenceCandidates, 
+			final ArrayList< PointMatchGeneric < I > > inlierList, 
+			final Model<?> model, 
+			final RANSACParameters rp )
+	{
+		if ( rp.getMethod() == RANSACParameters.Method.CLASSIC )
+			return computeRANSAC( correspondenceCandidates, inlierList, model, rp.getMaxEpsilon(), rp.getMinInlierRatio(), rp.getMinInlierFactor(), rp.getNumIterations() );
+		else
+			// small pairs are tested single-threaded (the pairs are matched in parallel already), only pairs with at least
+			// AdaptiveRANSAC.defaultMinCandidatesForMultithreading candidates test their hypotheses multi-threaded
+			return AdaptiveRANSAC.computeRANSAC(
+					correspondenceCandidates, inlierList, model,
+					rp.getMaxEpsilon(), rp.getMinInlierRatio(), rp.getMinInlierFactor(), rp.getNumIterations(),
+					rp.getConfidence(), rp.getMethod() == RANSACParameters.Method.PROSAC, Threads.numThreads() );
+	}
+
 	public static < I extends InterestPoint > Pair< String, Double > computeRANSAC( 
 			final ArrayList< PointMatchGeneric < I > > correspondenceCandidates, 
 			final ArrayList< PointMatchGeneric < I > > inlierList, 
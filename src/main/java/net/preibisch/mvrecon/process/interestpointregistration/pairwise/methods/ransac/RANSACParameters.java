@@ -32,13 +32,24 @@ public class RANSACParameters
 	public static final String[] ransacChoices = new String[]{ "Fast", "Normal", "Thorough", "Very thorough", "Ridiculous" };
 	public static final int[] ransacChoicesIterations = new int[]{ 1000, 10000, 100000, 1000000, 10000000 };
 
+	/**
+	 * CLASSIC runs Model.filterRansac() for all iterations (default), ADAPTIVE uses {@link AdaptiveRANSAC}
+	 * (stops once the confidence is reached), PROSAC additionally samples the best-ranked candidates first
+	 */
+	public enum Method { CLASSIC, ADAPTIVE, PROSAC }
+	public static final String[] methodChoices = new String[]{ "Classic (fixed number of iterations)", "Adaptive (early termination)", "Adaptive, guided sampling (PROSAC)" };
+
 	public static float max_epsilon = 5;
 	public static float min_inlier_ratio = 0.1f;
 	public static int num_iterations = 10000;
 	public static float min_inlier_factor = 3f;
+	public static Method method = Method.CLASSIC;
+	public static double confidence = 0.999;
 	
 	protected float maxEpsilon, minInlierRatio, minInlierFactor;
 	protected int numIterations;
+	protected Method ransacMethod = method;
+	protected double ransacConfidence = confidence;
 
 	public RANSACParameters( final float maxEpsilon, final float minInlierRatio, final float minInlierFactor, final int numIterations )
 	{
@@ -60,9 +71,18 @@ public class RANSACParameters
 	public float getMinInlierRatio() { return minInlierRatio; }
 	public float getMinInlierFactor() { return minInlierFactor; }
 	public int getNumIterations() { return numIterations; }
+	public Method getMethod() { return ransacMethod; }
+	public double getConfidence() { return ransacConfidence; }
+
+	public String getFingerprint()
+	{
+		return "RANSAC[" + maxEpsilon + "," + minInlierRatio + "," + minInlierFactor + "," + numIterations + "," + ransacMethod + "," + ransacConfidence + "]";
+	}
 
 	public RANSACParameters setMaxEpsilon( final float maxEpsilon ) { this.maxEpsilon = maxEpsilon; return this; }
 	public RANSACParameters setMinInlierRatio( final float minInlierRatio ) { this.minInlierRatio = minInlierRatio; return this;  }
 	public RANSACParameters setMinInlierFactor( final float minInlierFactor ) { this.minInlierFactor = minInlierFactor; return this;  }
 	public RANSACParameters setNumIterations( final int numIterations ) { this.numIterations = numIterations; return this;  }
+	public RANSACParameters setMethod( final Method method ) { this.ransacMethod = method; return this;  }
+	public RANSACParameters setConfidence( final double confidence ) { this.ransacConfidence = confidence; return this;  }
 }
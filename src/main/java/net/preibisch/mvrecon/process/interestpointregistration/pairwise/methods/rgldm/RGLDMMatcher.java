@@ -23,17 +23,16 @@
 package net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.rgldm;
 
 import java.util.ArrayList;
+import java.util.Collections;
 
 import mpicbg.spim.mpicbg.PointMatchGeneric;
-import net.imglib2.KDTree;
-import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.ViewDescriptors;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.AbstractPointDescriptor;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.DescriptorStore;
+import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.ImplicitKDTree;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.SimplePointDescriptor;
-import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.exception.NoSuitablePointsException;
-import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.Matcher;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.matcher.SubsetMatcher;
-import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.similarity.SimilarityMeasure;
 import net.preibisch.mvrecon.process.pointcloud.pointdescriptor.similarity.SquareDistance;
 
 public class RGLDMMatcher< I extends InterestPoint >
@@ -46,22 +45,188 @@ public class RGLDMMatcher< I extends InterestPoint >
 			final double ratioOfDistance,
 			final double differenceThreshold ) 
 	{
-		/* create KDTrees */	
-		final KDTree< I > treeA = new KDTree< I >( nodeListA, nodeListA );
-		final KDTree< I > treeB = new KDTree< I >( nodeListB, nodeListB );
-		
-		/* extract point descriptors */
-		final Matcher matcher = new SubsetMatcher( numNeighbors, numNeighbors + redundancy );
-		final int numRequiredNeighbors = matcher.getRequiredNumNeighbors();
-		
-		final SimilarityMeasure similarityMeasure = new SquareDistance();
-		
-		final ArrayList< SimplePointDescriptor< I > > descriptorsA = createSimplePointDescriptors( treeA, nodeListA, numRequiredNeighbors, matcher, similarityMeasure );
-		final ArrayList< SimplePointDescriptor< I > > descriptorsB = createSimplePointDescriptors( treeB, nodeListB, numRequiredNeighbors, matcher, similarityMeasure );
+		return extractCorrespondenceCandidates(
+				createViewDescriptors( nodeListA, numNeighbors, redundancy ),
+				createViewDescriptors( nodeListB, numNeighbors, redundancy ),
+				numNeighbors,
+				redundancy,
+				ratioOfDistance,
+				differenceThreshold );
+	}
+
+	/**
+	 * Matches the precomputed descriptors of two views, only reads from them so they can be shared between threads
+	 */
+	public ArrayList< PointMatchGeneric< I > > extractCorrespondenceCandidates( 
+			final ViewDescriptors< I > viewA,
+			final ViewDescriptors< I > viewB,
+			final int numNeighbors,
+			final int redundancy,
+			final double ratioOfDistance,
+			final double differenceThreshold ) 
+	{
+		if ( viewA.getDescriptors() == null || viewB.getDescriptors() == null )
+			return new ArrayList<>();
+
+		final int numRequiredNeighbors = numNeighbors + redundancy;
+		final int n = viewA.getDescriptors().numDimensions() / numRequiredNeighbors;
+
+		return findCorrespondingDescriptors( viewA, viewB, SubsetMatcher.computePD( numRequiredNeighbors, numNeighbors, 0 ), n, ratioOfDistance, differenceThreshold );
+	}
+
+	/**
+	 * Computes the descriptors of one view, they are compared exhaustively so no lookup tree is built.
+	 * Each descriptor stores the world coordinates of the numNeighbors + redundancy nearest neighbors
+	 * relative to the basis point (like {@link SimplePointDescriptor}).
+	 */
+	public ViewDescriptors< I > createViewDescriptors( final ArrayList< I > nodeList, final int numNeighbors, final int redundancy )
+	{
+		final int numRequiredNeighbors = numNeighbors + redundancy;
+
+		final DescriptorStore positions = DescriptorStore.fromPositions( nodeList );
+		final ImplicitKDTree.Search nnsearch = new ImplicitKDTree( positions ).createSearch( numRequiredNeighbors + 1 );
+
+		final int n = nodeList.isEmpty() ? 3 : nodeList.get( 0 ).getW().length;
+		final DescriptorStore descriptors = new DescriptorStore( numRequiredNeighbors * n, nodeList.size() );
+
+		for ( int i = 0; i < nodeList.size(); ++i )
+		{
+			final double[] p = nodeList.get( i ).getW();
+			nnsearch.search( positions.getVectors(), positions.offset( i ) );
+
+			if ( nnsearch.numFound() < numRequiredNeighbors + 1 )
+				continue;
+
+			final int o = descriptors.offset( descriptors.add( i ) );
+			final double[] v = descriptors.getVectors();
+
+			// the first hit is always the point itself
+			for ( int j = 0; j < numRequiredNeighbors; ++j )
+			{
+				final double[] q = nodeList.get( nnsearch.getId( j + 1 ) ).getW();
+
+				for ( int d = 0; d < n; ++d )
+					v[ o + j * n + d ] = q[ d ] - p[ d ];
+			}
+		}
+
+		descriptors.trim();
+
+		return new ViewDescriptors<>( nodeList, descriptors, null );
+	}
+
+	/**
+	 * Same as the {@link SubsetMatcher} with {@link SquareDistance}: the minimal mean squared distance of the
+	 * neighbors over all combinations of subsets of both descriptors, computed without creating any objects.
+	 *
+	 * @param combinations - the subsets as computed by {@link SubsetMatcher#computePD(int, int, int)}
+	 * @param n - dimensionality of the points
+	 */
+	public static double descriptorDistance(
+			final DescriptorStore descriptorsA, final int i,
+			final DescriptorStore descriptorsB, final int j,
+			final int[][] combinations,
+			final int n )
+	{
+		final double[] va = descriptorsA.getVectors();
+		final double[] vb = descriptorsB.getVectors();
+		final int oa = descriptorsA.offset( i );
+		final int ob = descriptorsB.offset( j );
+
+		double bestSimilarity = Double.MAX_VALUE;
+
+		for ( final int[] a : combinations )
+			for ( final int[] b : combinations )
+			{
+				double difference = 0;
+
+				for ( int s = 0; s < a.length; ++s )
+				{
+					final int pa = oa + a[ s ] * n;
+					final int pb = ob + b[ s ] * n;
+
+					for ( int d = 0; d < n; ++d )
+					{
+						final double diff = va[ pa + d ] - vb[ pb + d ];
+						difference += diff * diff;
+					}
+				}
+
+				difference /= n;
+
+				if ( difference < bestSimilarity )
+					bestSimilarity = difference;
+			}
+
+		return bestSimilarity;
+	}
+
+	protected static final < I extends InterestPoint > ArrayList< PointMatchGeneric< I > > findCorrespondingDescriptors(
+			final ViewDescriptors< I > viewA,
+			final ViewDescriptors< I > viewB,
+			final int[][] combinations,
+			final int n,
+			final double nTimesBetter,
+			final double differenceThreshold )
+	{
+		final ArrayList< PointMatchGeneric< I > > correspondenceCandidates = new ArrayList<>();
+		final ArrayList< Double > differences = new ArrayList<>();
+
+		final DescriptorStore descriptorsA = viewA.getDescriptors();
+		final DescriptorStore descriptorsB = viewB.getDescriptors();
+
+		for ( int i = 0; i < descriptorsA.size(); ++i )
+		{
+			double bestDifference = Double.MAX_VALUE;
+			double secondBestDifference = Double.MAX_VALUE;
+
+			int bestMatch = -1;
+
+			for ( int j = 0; j < descriptorsB.size(); ++j )
+			{
+				final double difference = descriptorDistance( descriptorsA, i, descriptorsB, j, combinations, n );
+
+				if ( difference < secondBestDifference )
+				{
+					if ( difference < bestDifference )
+					{
+						secondBestDifference = bestDifference;
+						bestDifference = difference;
+						bestMatch = j;
+					}
+					else
+					{
+						secondBestDifference = difference;
+					}
+				}
+			}
+
+			if ( bestMatch >= 0 && bestDifference < differenceThreshold && bestDifference * nTimesBetter < secondBestDifference )
+			{
+				// add correspondence for the two basis points of the descriptor
+				final I detectionA = viewA.getBasisPoint( i );
+				final I detectionB = viewB.getBasisPoint( bestMatch );
+
+				// for RANSAC
+				correspondenceCandidates.add( new PointMatchGeneric< I >( detectionA, detectionB ) );
+				differences.add( bestDifference );
+			}
+		}
+
+		// sorted by descriptor distance, best first (used by guided RANSAC sampling)
+		final ArrayList< Integer > order = new ArrayList<>();
+		for ( int i = 0; i < correspondenceCandidates.size(); ++i )
+			order.add( i );
+
+		Collections.sort( order, ( i1, i2 ) -> Double.compare( differences.get( i1 ), differences.get( i2 ) ) );
 
-		return findCorrespondingDescriptors( descriptorsA, descriptorsB, ratioOfDistance, differenceThreshold );
+		final ArrayList< PointMatchGeneric< I > > sortedCandidates = new ArrayList<>( correspondenceCandidates.size() );
+		for ( final int i : order )
+			sortedCandidates.add( correspondenceCandidates.get( i ) );
+
+		return sortedCandidates;
 	}
-	
+
 	protected static final < I extends InterestPoint, D extends AbstractPointDescriptor< I , D > > ArrayList< PointMatchGeneric< I > > findCorrespondingDescriptors(
 			final ArrayList< D > descriptorsA,
 			final ArrayList< D > descriptorsB,
@@ -114,37 +279,4 @@ public class RGLDMMatcher< I extends InterestPoint >
 
 		return correspondenceCandidates;
 	}
-
-	protected static < I extends InterestPoint > ArrayList< SimplePointDescriptor< I > > createSimplePointDescriptors(
-			final KDTree< I > tree,
-			final ArrayList< I > basisPoints,
-			final int numNeighbors,
-			final Matcher matcher,
-			final SimilarityMeasure similarityMeasure )
-	{
-		final KNearestNeighborSearchOnKDTree< I > nnsearch = new KNearestNeighborSearchOnKDTree<>( tree, numNeighbors + 1 );
-		final ArrayList< SimplePointDescriptor< I > > descriptors = new ArrayList<> ( );
-
-		for ( final I p : basisPoints )
-		{
-			final ArrayList< I > neighbors = new ArrayList<>();
-			nnsearch.search( p );
-
-			// the first hit is always the point itself
-			for ( int n = 1; n < numNeighbors + 1; ++n )
-				neighbors.add( nnsearch.getSampler( n ).get() );
-
-			try
-			{
-				descriptors.add( new SimplePointDescriptor< I >( p, neighbors, similarityMeasure, matcher ) );
-			}
-			catch ( NoSuitablePointsException e )
-			{
-				e.printStackTrace();
-			}
-		}
-
-		return descriptors;
-	}
-
 }
@@ -27,14 +27,15 @@ import java.util.List;
 
 import net.preibisch.mvrecon.fiji.ImgLib2Temp.Pair;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
-import net.preibisch.mvrecon.process.interestpointregistration.pairwise.MatcherPairwise;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.CachingMatcherPairwise;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.PairwiseResult;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.ViewDescriptors;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.ransac.RANSAC;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.ransac.RANSACParameters;
 
 import mpicbg.spim.mpicbg.PointMatchGeneric;
 
-public class RGLDMPairwise< I extends InterestPoint > implements MatcherPairwise< I >
+public class RGLDMPairwise< I extends InterestPoint > implements CachingMatcherPairwise< I, ViewDescriptors< I > >
 {
 	final RANSACParameters rp;
 	final RGLDMParameters dp;
@@ -52,20 +53,24 @@ public class RGLDMPairwise< I extends InterestPoint > implements MatcherPairwise
 	public boolean printResult() { return printResult; }
 
 	@Override
-	public PairwiseResult< I > match( final List< I > listAIn, final List< I > listBIn )
+	public ViewDescriptors< I > preprocess( final List< I > listIn )
 	{
-		final PairwiseResult< I > result = new PairwiseResult< I >( true );
-		result.setPrintOut( printResult );
+		final ArrayList< I > list = new ArrayList<>( listIn );
 
-		final ArrayList< I > listA = new ArrayList< I >();
-		final ArrayList< I > listB = new ArrayList< I >();
+		// not enough detections, match() will not look at the descriptors
+		if ( list.size() < dp.getNumNeighbors() + dp.getRedundancy() + 1 )
+			return new ViewDescriptors<>( list, null, null );
 
-		for ( final I i : listAIn )
-			listA.add( i );
-
-		for ( final I i : listBIn )
-			listB.add( i );
+		return new RGLDMMatcher< I >().createViewDescriptors( list, dp.getNumNeighbors(), dp.getRedundancy() );
+	}
 
+	@Override
+	public PairwiseResult< I > match(
+			final List< I > listA, final ViewDescriptors< I > descriptorsA,
+			final List< I > listB, final ViewDescriptors< I > descriptorsB )
+	{
+		final PairwiseResult< I > result = new PairwiseResult< I >( true );
+		result.setPrintOut( printResult );
 		final int minPoints = dp.getNumNeighbors() + dp.getRedundancy() + 1;
 
 		if ( listA.size() < minPoints || listB.size() < minPoints )
@@ -78,8 +83,8 @@ public class RGLDMPairwise< I extends InterestPoint > implements MatcherPairwise
 
 		final RGLDMMatcher< I > matcher = new RGLDMMatcher< I >();
 		final ArrayList< PointMatchGeneric< I > > candidates = matcher.extractCorrespondenceCandidates(
-				listA,
-				listB,
+				descriptorsA,
+				descriptorsB,
 				dp.getNumNeighbors(),
 				dp.getRedundancy(),
 				dp.getRatioOfDistance(),
@@ -90,7 +95,7 @@ public class RGLDMPairwise< I extends InterestPoint > implements MatcherPairwise
 		// compute ransac and remove inconsistent candidates
 		final ArrayList< PointMatchGeneric< I > > inliers = new ArrayList<>();
 	
-		final Pair< String, Double > ransacResult = RANSAC.computeRANSAC( candidates, inliers, dp.getModel(), rp.getMaxEpsilon(), rp.getMinInlierRatio(), rp.getMinInlierFactor(), rp.getNumIterations() );
+		final Pair< String, Double > ransacResult = RANSAC.computeRANSAC( candidates, inliers, dp.getModel(), rp );
 	
 		result.setInliers( inliers, ransacResult.getB() );
 	
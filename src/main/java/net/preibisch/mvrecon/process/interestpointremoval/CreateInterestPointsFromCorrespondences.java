@@ -11,7 +11,7 @@ import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
 import mpicbg.spim.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
-import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondenceStore;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPointList;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPointLists;
@@ -45,10 +45,12 @@ public class CreateInterestPointsFromCorrespondences
 
 			final HashSet< Integer > existingPoints = new HashSet<>();
 
+			final CorrespondenceStore store = oldIpl.getCorrespondenceStore();
+
 			int id = 0;
-			for ( final CorrespondingInterestPoints cp : oldIpl.getCorrespondingInterestPointsCopy() )
+			for ( int i = 0; i < store.size(); ++i )
 			{
-				final int oldId = cp.getDetectionId();
+				final int oldId = store.getDetectionId( i );
 
 				if ( !existingPoints.contains( oldId ) )
 				{
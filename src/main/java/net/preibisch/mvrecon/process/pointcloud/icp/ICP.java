@@ -54,8 +54,11 @@ public class ICP < P extends RealLocalizable >
 	ArrayList< PointMatch > ambigousMatches;
 	PointMatchIdentification< P > pointMatchIdentifier;
 	
-	double avgError, maxError;
+	double avgError, maxError, modelChange;
 	int numMatches;
+
+	// world coordinates of the target points before fitting the new model, used to measure the model change
+	double[] lastPositions;
 	
 	/**
 	 * Instantiates a new {@link ICP} object with the {@link List} of target and reference points as well as the {@link PointMatchIdentification} interface that defines
@@ -95,6 +98,7 @@ public class ICP < P extends RealLocalizable >
 		this.avgError = -1;
 		this.maxError = -1;
 		this.numMatches = -1;
+		this.modelChange = -1;
 	}
 
 	/**
@@ -146,6 +150,15 @@ public class ICP < P extends RealLocalizable >
 		/* fit the model */
 		newModel.fit( matches );
 
+		/* remember where the target points were */
+		final int n = target.isEmpty() ? 0 : target.get( 0 ).getW().length;
+
+		if ( lastPositions == null || lastPositions.length != target.size() * n )
+			lastPositions = new double[ target.size() * n ];
+
+		for ( int i = 0; i < target.size(); ++i )
+			System.arraycopy( target.get( i ).getW(), 0, lastPositions, i * n, n );
+
 		/* apply the new model of the target to determine the error */
 		for ( final LinkedInterestPoint< P > point : target )
 			point.apply( newModel );
@@ -153,9 +166,38 @@ public class ICP < P extends RealLocalizable >
 		/* compute the output */
 		avgError = meanDistance( matches );
 		maxError = maxDistance( matches );
+		modelChange = maxDisplacement( target, lastPositions );
 		numMatches = matches.size();
 		pointMatches = matches;
 	}
+
+	/**
+	 * @param points - the points (with the new model applied)
+	 * @param lastPositions - the world coordinates of the points before, stored one after the other
+	 * @return the maximal distance any point moved
+	 */
+	protected static double maxDisplacement( final List< ? extends Point > points, final double[] lastPositions )
+	{
+		double max = 0;
+
+		for ( int i = 0; i < points.size(); ++i )
+		{
+			final double[] w = points.get( i ).getW();
+			final int o = i * w.length;
+
+			double sq = 0;
+
+			for ( int d = 0; d < w.length; ++d )
+			{
+				final double diff = w[ d ] - lastPositions[ o + d ];
+				sq += diff * diff;
+			}
+
+			max = Math.max( max, sq );
+		}
+
+		return Math.sqrt( max );
+	}
 		
 	/**
 	 * Estimates an initial {@link Model} based on some given {@link PointMatch}es. Note that the {@link PointMatch}es have to be stored as PointMatch(target,reference). 
@@ -237,6 +279,13 @@ public class ICP < P extends RealLocalizable >
 	 */
 	public double getMaximalError() { return maxError; }
 	
+	/**
+	 * Returns how far (in world coordinates) the model of the last ICP iteration moved any target point compared to the model before,
+	 * or -1 if no iteration has been computed yet. Once this is close to zero, the ICP has converged.
+	 * @return double - maximal displacement of a target point
+	 */
+	public double getMaximalModelChange() { return modelChange; }
+
 	/**
 	 * Returns the number of {@link PointMatch}es of the last ICP iteration, or -1 if no iteration has been computed yet.
 	 * @return int - number of {@link PointMatch}es
@@ -24,6 +24,10 @@ package net.preibisch.mvrecon.process.pointcloud.icp;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import mpicbg.models.Point;
 import mpicbg.spim.mpicbg.PointMatchGeneric;
@@ -32,9 +36,24 @@ import net.imglib2.RealLocalizable;
 import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.LinkedInterestPoint;
 
+/**
+ * Assigns every target point its nearest reference point (if closer than the distance threshold).
+ * 
+ * The reference points do not move during an ICP run, so the KDTree on them is built once and
+ * re-used as long as the same reference {@link List} is passed in. If an {@link ExecutorService}
+ * is set, the nearest neighbor queries are split into blocks and run on it.
+ */
 public class SimplePointMatchIdentification < P extends RealLocalizable > implements PointMatchIdentification< P >
 {
+	public static int defaultMinPointsForMultithreading = 2000;
+
 	double distanceThresold;
+	ExecutorService service = null;
+	int numBlocks = 1;
+
+	// the reference points the cached tree was built on (compared by identity)
+	List< LinkedInterestPoint< P > > treeReference = null;
+	KDTree< LinkedInterestPoint< P > > kdTreeReference = null;
 
 	public SimplePointMatchIdentification( final double distanceThreshold )
 	{
@@ -49,22 +68,88 @@ public class SimplePointMatchIdentification < P extends RealLocalizable > implem
 	public void setDistanceThreshold( final double distanceThreshold ) { this.distanceThresold = distanceThreshold; }
 	public double getDistanceThreshold() { return this.distanceThresold; }
 
+	/**
+	 * @param service - the executor to run the nearest neighbor queries on, or null to run them in the calling thread
+	 * @param numBlocks - into how many blocks the target points are split
+	 */
+	public void setExecutorService( final ExecutorService service, final int numBlocks )
+	{
+		this.service = service;
+		this.numBlocks = Math.max( 1, numBlocks );
+	}
+
+	/**
+	 * Forgets the cached KDTree, needs to be called if the reference points were moved
+	 */
+	public void clearCache()
+	{
+		this.treeReference = null;
+		this.kdTreeReference = null;
+	}
+
 	@Override
 	public ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > assignPointMatches( final List< LinkedInterestPoint< P > > target, final List< LinkedInterestPoint< P > > reference )
+	{
+		if ( reference != treeReference || kdTreeReference == null )
+		{
+			kdTreeReference = new KDTree<>( reference, reference );
+			treeReference = reference;
+		}
+
+		final KDTree< LinkedInterestPoint< P > > kdTree = kdTreeReference;
+
+		if ( service == null || numBlocks == 1 || target.size() < defaultMinPointsForMultithreading )
+			return assignPointMatches( target, 0, target.size(), kdTree, distanceThresold );
+
+		final int blockSize = ( target.size() + numBlocks - 1 ) / numBlocks;
+		final ArrayList< Callable< ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > > > tasks = new ArrayList<>();
+
+		for ( int from = 0; from < target.size(); from += blockSize )
+		{
+			final int start = from;
+			final int end = Math.min( target.size(), from + blockSize );
+
+			tasks.add( () -> assignPointMatches( target, start, end, kdTree, distanceThresold ) );
+		}
+
+		final ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > pointMatches = new ArrayList<>();
+
+		try
+		{
+			// the blocks are collected in order, so the result is identical to the single-threaded one
+			for ( final Future< ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > > future : service.invokeAll( tasks ) )
+				pointMatches.addAll( future.get() );
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			throw new RuntimeException( "Failed to assign ICP point matches: " + e );
+		}
+
+		return pointMatches;
+	}
+
+	protected static < P extends RealLocalizable > ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > assignPointMatches(
+			final List< LinkedInterestPoint< P > > target,
+			final int start,
+			final int end,
+			final KDTree< LinkedInterestPoint< P > > kdTreeReference,
+			final double distanceThresold )
 	{
 		final ArrayList< PointMatchGeneric< LinkedInterestPoint< P > > > pointMatches = new ArrayList<>();
 
-		final KDTree< LinkedInterestPoint< P > > kdTreeTarget = new KDTree<>( target, target );
-		final NearestNeighborSearchOnKDTree< LinkedInterestPoint< P > > nnSearchTarget = new NearestNeighborSearchOnKDTree<>( kdTreeTarget );
+		// one search per block, they are not thread-safe
+		final NearestNeighborSearchOnKDTree< LinkedInterestPoint< P > > nnSearchReference = new NearestNeighborSearchOnKDTree<>( kdTreeReference );
 
-		for ( final LinkedInterestPoint< P > point : reference )
+		for ( int i = start; i < end; ++i )
 		{
-			nnSearchTarget.search( point );
-			final LinkedInterestPoint< P > correspondingPoint = nnSearchTarget.getSampler().get();
+			final LinkedInterestPoint< P > point = target.get( i );
+
+			nnSearchReference.search( point );
+			final LinkedInterestPoint< P > correspondingPoint = nnSearchReference.getSampler().get();
 
 			// world coordinates of point
-			if ( Point.distance( correspondingPoint, point ) <= distanceThresold )
-				pointMatches.add( new PointMatchGeneric< LinkedInterestPoint< P > >( correspondingPoint, point ) );
+			if ( Point.distance( point, correspondingPoint ) <= distanceThresold )
+				pointMatches.add( new PointMatchGeneric< LinkedInterestPoint< P > >( point, correspondingPoint ) );
 		}
 
 		return pointMatches;
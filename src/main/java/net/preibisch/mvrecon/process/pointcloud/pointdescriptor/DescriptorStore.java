@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.pointcloud.pointdescriptor;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.imglib2.RealLocalizable;
+
+/**
+ * Stores n descriptors of a fixed dimensionality as one flat double[] block (descriptor i occupies
+ * [i*numDimensions, (i+1)*numDimensions) ) together with an int[] that links every descriptor
+ * back to the index of its basis point in the list it was built from.
+ *
+ * Compared to one object per descriptor this keeps the vectors contiguous in memory and
+ * allows allocation-free distance computations and lookups using {@link ImplicitKDTree}.
+ */
+public class DescriptorStore
+{
+	final int numDimensions;
+
+	double[] vectors;
+	int[] basis;
+	int size;
+
+	public DescriptorStore( final int numDimensions, final int initialCapacity )
+	{
+		this.numDimensions = numDimensions;
+		this.vectors = new double[ Math.max( 1, initialCapacity ) * numDimensions ];
+		this.basis = new int[ Math.max( 1, initialCapacity ) ];
+		this.size = 0;
+	}
+
+	/**
+	 * Creates a store of the positions of a list of points, e.g. to find their nearest neighbors using an {@link ImplicitKDTree}
+	 *
+	 * @param points - the points
+	 * @return a store where descriptor i is the position of points.get( i )
+	 */
+	public static DescriptorStore fromPositions( final List< ? extends RealLocalizable > points )
+	{
+		final int n = points.isEmpty() ? 0 : points.get( 0 ).numDimensions();
+		final DescriptorStore store = new DescriptorStore( n, points.size() );
+
+		for ( int i = 0; i < points.size(); ++i )
+		{
+			final RealLocalizable p = points.get( i );
+			final int o = store.offset( store.add( i ) );
+
+			for ( int d = 0; d < n; ++d )
+				store.vectors[ o + d ] = p.getDoublePosition( d );
+		}
+
+		return store;
+	}
+
+	/**
+	 * Appends a new descriptor, its vector is all zero and has to be filled using {@link #set(int, int, double)}
+	 * or by writing to {@link #getVectors()} starting at {@link #offset(int)}.
+	 *
+	 * @param basisIndex - index of the basis point of this descriptor
+	 * @return the index of the new descriptor
+	 */
+	public int add( final int basisIndex )
+	{
+		if ( size == basis.length )
+		{
+			final int capacity = basis.length + ( basis.length >> 1 ) + 1;
+			basis = Arrays.copyOf( basis, capacity );
+			vectors = Arrays.copyOf( vectors, capacity * numDimensions );
+		}
+
+		basis[ size ] = basisIndex;
+		return size++;
+	}
+
+	/**
+	 * Removes the last descriptor, e.g. if it turned out to be degenerate while filling it
+	 */
+	public void removeLast()
+	{
+		if ( size > 0 )
+		{
+			--size;
+			Arrays.fill( vectors, size * numDimensions, ( size + 1 ) * numDimensions, 0 );
+		}
+	}
+
+	/**
+	 * Releases the unused capacity once all descriptors were added
+	 */
+	public void trim()
+	{
+		if ( basis.length > size )
+		{
+			basis = Arrays.copyOf( basis, size );
+			vectors = Arrays.copyOf( vectors, size * numDimensions );
+		}
+	}
+
+	public void set( final int i, final int d, final double value ) { vectors[ i * numDimensions + d ] = value; }
+	public double get( final int i, final int d ) { return vectors[ i * numDimensions + d ]; }
+	public int offset( final int i ) { return i * numDimensions; }
+
+	public int size() { return size; }
+	public int numDimensions() { return numDimensions; }
+	public int getBasisIndex( final int i ) { return basis[ i ]; }
+
+	/**
+	 * @return the flat descriptor vectors, only the first size()*numDimensions() entries are valid
+	 */
+	public double[] getVectors() { return vectors; }
+
+	/**
+	 * @return the squared euclidean distance between descriptor i of this store and descriptor j of the other store
+	 */
+	public double squareDistance( final int i, final DescriptorStore other, final int j )
+	{
+		final double[] a = vectors;
+		final double[] b = other.vectors;
+		final int oa = i * numDimensions;
+		final int ob = j * numDimensions;
+
+		double sum = 0;
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final double diff = a[ oa + d ] - b[ ob + d ];
+			sum += diff * diff;
+		}
+
+		return sum;
+	}
+}
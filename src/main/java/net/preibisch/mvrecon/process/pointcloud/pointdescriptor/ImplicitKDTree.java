@@ -0,0 +1,279 @@
+/*-
+ * #%L
+ * Software for the reconstruction of multi-view microscopic acquisitions
+ * like Selective Plane Illumination Microscopy (SPIM) Data.
+ * %%
+ * Copyright (C) 2012 - 2017 Multiview Reconstruction developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.mvrecon.process.pointcloud.pointdescriptor;
+
+/**
+ * A balanced KD-tree over the vectors of a {@link DescriptorStore} that is stored implicitly in flat arrays:
+ * the node of a range [lo,hi) is always at position (lo+hi)/2, its left subtree is [lo,mid) and its right
+ * subtree is (mid,hi). The vectors are copied into tree order so that a query walks through contiguous memory,
+ * only the splitting dimension (the one with the largest spread) is stored per node.
+ *
+ * The tree is immutable after construction and can be queried by many threads at once, each using its own {@link Search}.
+ */
+public class ImplicitKDTree
+{
+	final int n, numDimensions;
+
+	// vectors in tree order
+	final double[] data;
+
+	// index of the descriptor in the store for each node
+	final int[] ids;
+
+	// splitting dimension of each node
+	final byte[] splitDims;
+
+	public ImplicitKDTree( final DescriptorStore store )
+	{
+		if ( store.numDimensions() > Byte.MAX_VALUE )
+			throw new IllegalArgumentException( "ImplicitKDTree supports at most " + Byte.MAX_VALUE + " dimensions, not " + store.numDimensions() );
+
+		this.n = store.size();
+		this.numDimensions = store.numDimensions();
+		this.ids = new int[ n ];
+		this.splitDims = new byte[ n ];
+
+		for ( int i = 0; i < n; ++i )
+			ids[ i ] = i;
+
+		final double[] vectors = store.getVectors();
+
+		build( vectors, 0, n );
+
+		this.data = new double[ n * numDimensions ];
+
+		for ( int i = 0; i < n; ++i )
+			System.arraycopy( vectors, ids[ i ] * numDimensions, data, i * numDimensions, numDimensions );
+	}
+
+	public int size() { return n; }
+	public int numDimensions() { return numDimensions; }
+
+	/**
+	 * @param numNeighbors - how many nearest neighbors to find
+	 * @return a new search, it keeps state and must not be shared between threads
+	 */
+	public Search createSearch( final int numNeighbors ) { return new Search( this, numNeighbors ); }
+
+	protected void build( final double[] vectors, final int lo, final int hi )
+	{
+		if ( hi - lo < 1 )
+			return;
+
+		final int mid = ( lo + hi ) >>> 1;
+
+		// split along the dimension with the largest spread
+		int splitDim = 0;
+		double maxSpread = -1;
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+
+			for ( int i = lo; i < hi; ++i )
+			{
+				final double v = vectors[ ids[ i ] * numDimensions + d ];
+
+				if ( v < min )
+					min = v;
+
+				if ( v > max )
+					max = v;
+			}
+
+			if ( max - min > maxSpread )
+			{
+				maxSpread = max - min;
+				splitDim = d;
+			}
+		}
+
+		select( vectors, lo, hi - 1, mid, splitDim );
+		splitDims[ mid ] = (byte)splitDim;
+
+		build( vectors, lo, mid );
+		build( vectors, mid + 1, hi );
+	}
+
+	/**
+	 * Partially sorts ids[left...right] so that ids[k] is the element that would be there if sorted along dimension d
+	 */
+	protected void select( final double[] vectors, int left, int right, final int k, final int d )
+	{
+		while ( right > left )
+		{
+			final double pivot = vectors[ ids[ ( left + right ) >>> 1 ] * numDimensions + d ];
+
+			int i = left;
+			int j = right;
+
+			while ( i <= j )
+			{
+				while ( vectors[ ids[ i ] * numDimensions + d ] < pivot )
+					++i;
+
+				while ( vectors[ ids[ j ] * numDimensions + d ] > pivot )
+					--j;
+
+				if ( i <= j )
+				{
+					final int tmp = ids[ i ];
+					ids[ i ] = ids[ j ];
+					ids[ j ] = tmp;
+					++i;
+					--j;
+				}
+			}
+
+			if ( k <= j )
+				right = j;
+			else if ( k >= i )
+				left = i;
+			else
+				return;
+		}
+	}
+
+	/**
+	 * k-nearest neighbor search on an {@link ImplicitKDTree}, all buffers are allocated once
+	 * so repeated calls to {@link #search(double[], int)} do not allocate any memory.
+	 */
+	public static class Search
+	{
+		final ImplicitKDTree tree;
+		final int numNeighbors;
+		final int[] bestIds;
+		final double[] bestSquareDistances;
+
+		double[] query;
+		int queryOffset;
+		int numFound;
+
+		public Search( final ImplicitKDTree tree, final int numNeighbors )
+		{
+			this.tree = tree;
+			this.numNeighbors = numNeighbors;
+			this.bestIds = new int[ numNeighbors ];
+			this.bestSquareDistances = new double[ numNeighbors ];
+		}
+
+		/**
+		 * Finds the nearest neighbors of the vector query[offset ... offset+numDimensions-1]
+		 *
+		 * @param query - array containing the query vector, e.g. {@link DescriptorStore#getVectors()}
+		 * @param offset - where the query vector starts
+		 */
+		public void search( final double[] query, final int offset )
+		{
+			this.query = query;
+			this.queryOffset = offset;
+			this.numFound = 0;
+
+			for ( int i = 0; i < numNeighbors; ++i )
+				bestSquareDistances[ i ] = Double.MAX_VALUE;
+
+			search( 0, tree.n );
+
+			this.query = null;
+		}
+
+		protected void search( final int lo, final int hi )
+		{
+			if ( hi - lo < 1 )
+				return;
+
+			final int mid = ( lo + hi ) >>> 1;
+			final int numDimensions = tree.numDimensions;
+			final double[] data = tree.data;
+			final int o = mid * numDimensions;
+
+			double sqDist = 0;
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				final double diff = query[ queryOffset + d ] - data[ o + d ];
+				sqDist += diff * diff;
+			}
+
+			insert( tree.ids[ mid ], sqDist );
+
+			final int splitDim = tree.splitDims[ mid ];
+			final double axisDiff = query[ queryOffset + splitDim ] - data[ o + splitDim ];
+
+			// visit the side of the query first, the other one only if it can contain closer points
+			if ( axisDiff < 0 )
+			{
+				search( lo, mid );
+
+				if ( axisDiff * axisDiff <= bestSquareDistances[ numNeighbors - 1 ] )
+					search( mid + 1, hi );
+			}
+			else
+			{
+				search( mid + 1, hi );
+
+				if ( axisDiff * axisDiff <= bestSquareDistances[ numNeighbors - 1 ] )
+					search( lo, mid );
+			}
+		}
+
+		protected void insert( final int id, final double sqDist )
+		{
+			if ( numFound == numNeighbors && sqDist >= bestSquareDistances[ numNeighbors - 1 ] )
+				return;
+
+			int i = Math.min( numFound, numNeighbors - 1 );
+
+			while ( i > 0 && bestSquareDistances[ i - 1 ] > sqDist )
+			{
+				bestSquareDistances[ i ] = bestSquareDistances[ i - 1 ];
+				bestIds[ i ] = bestIds[ i - 1 ];
+				--i;
+			}
+
+			bestSquareDistances[ i ] = sqDist;
+			bestIds[ i ] = id;
+
+			if ( numFound < numNeighbors )
+				++numFound;
+		}
+
+		/**
+		 * @return how many neighbors were found by the last search (less than requested if the tree is smaller)
+		 */
+		public int numFound() { return numFound; }
+
+		/**
+		 * @param i - the i-th nearest neighbor (0 is the closest)
+		 * @return the index of the neighbor in the {@link DescriptorStore}
+		 */
+		public int getId( final int i ) { return bestIds[ i ]; }
+
+		/**
+		 * @param i - the i-th nearest neighbor (0 is the closest)
+		 * @return the squared euclidean distance to the query
+		 */
+		public double getSquareDistance( final int i ) { return bestSquareDistances[ i ]; }
+	}
+}